@@ -223,6 +223,20 @@ public class AnswerFragment extends BaseFragment<AnswerPresenter, AnswerPresente
         ));
     }
 
+    /**
+     * @return The ids of the target drawable arrays and of the handle drawables of all the target
+     *         sets, for {@link IncomingCallPreloader}.
+     */
+    static int[] getTargetDrawableResourceIds() {
+        final int[] ids = new int[RESOURCE_LOOKUP.size() * 2];
+        for (int i = 0; i < RESOURCE_LOOKUP.size(); i++) {
+            final TargetResources resources = RESOURCE_LOOKUP.valueAt(i);
+            ids[i * 2] = resources.targetResourceId;
+            ids[i * 2 + 1] = resources.handleDrawableResourceId;
+        }
+        return ids;
+    }
+
     /**
      * The popup showing the list of canned responses.
      *
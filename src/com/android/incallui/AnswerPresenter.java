@@ -55,6 +55,11 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
 
     private static final String TAG = AnswerPresenter.class.getSimpleName();
 
+    /** The call fields read by {@link #onCallChanged(Call)}. */
+    private static final int CALL_UPDATE_FIELDS = CallListDelta.FIELD_STATE
+            | CallListDelta.FIELD_TEXT_RESPONSES | CallListDelta.FIELD_SESSION_MODIFICATION
+            | CallListDelta.FIELD_VIDEO_STATE;
+
     private String mCallId[] = new String[InCallServiceImpl.sPhoneCount];
     private Call mCall[] = new Call[InCallServiceImpl.sPhoneCount];
     private final CallList mCalls = CallList.getInstance();
@@ -317,7 +322,7 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
         mCall[phoneId] = call;
         mCalls.addListener(this);
         // Listen for call updates for the current call.
-        mCalls.addCallUpdateListener(mCallId[phoneId], this);
+        mCalls.addCallUpdateListener(mCallId[phoneId], this, CALL_UPDATE_FIELDS);
 
         Log.d(TAG, "Showing incoming for call id: " + mCallId[phoneId] + " " + this);
         if (showAnswerUi(true)) {
@@ -347,7 +352,8 @@ public class AnswerPresenter extends Presenter<AnswerPresenter.AnswerUi>
         mCall[phoneId] = call;
 
         // Listen for call updates for the current call.
-        CallList.getInstance().addCallUpdateListener(mCallId[phoneId], this);
+        CallList.getInstance().addCallUpdateListener(mCallId[phoneId], this,
+                CALL_UPDATE_FIELDS);
 
         final int currentVideoState = call.getVideoState();
         final int modifyToVideoState = call.getModifyToVideoState();
@@ -48,12 +48,17 @@ public abstract class BaseFragment<T extends Presenter<U>, U extends Ui> extends
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
+        final String section = getClass().getSimpleName() + ".onActivityCreated";
+        final long start = CallTimeline.beginSection(section);
         super.onActivityCreated(savedInstanceState);
         mPresenter.onUiReady(getUi());
+        CallTimeline.endSection(section, start);
     }
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        final String section = getClass().getSimpleName() + ".onCreate";
+        final long start = CallTimeline.beginSection(section);
         super.onCreate(savedInstanceState);
         if (savedInstanceState != null) {
             mPresenter.onRestoreInstanceState(savedInstanceState);
@@ -61,12 +66,16 @@ public abstract class BaseFragment<T extends Presenter<U>, U extends Ui> extends
                 getFragmentManager().beginTransaction().hide(this).commit();
             }
         }
+        CallTimeline.endSection(section, start);
     }
 
     @Override
     public void onDestroyView() {
+        final String section = getClass().getSimpleName() + ".onDestroyView";
+        final long start = CallTimeline.beginSection(section);
         super.onDestroyView();
         mPresenter.onUiDestroy(getUi());
+        CallTimeline.endSection(section, start);
     }
 
     @Override
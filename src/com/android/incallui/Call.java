@@ -23,23 +23,23 @@ import android.content.Context;
 import android.hardware.camera2.CameraCharacteristics;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Trace;
 import android.telecom.Connection;
 import android.telecom.DisconnectCause;
 import android.telecom.GatewayInfo;
 import android.telecom.InCallService.VideoCall;
 import android.telecom.PhoneAccount;
 import android.telecom.PhoneAccountHandle;
-import android.telecom.TelecomManager;
 import android.telecom.VideoProfile;
 import android.telephony.SubscriptionManager;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 
 /**
  * Describes a single call and its state.
@@ -184,6 +184,7 @@ public class Call {
                 public void onStateChanged(android.telecom.Call call, int newState) {
                     Log.d(this, "TelecommCallCallback onStateChanged call=" + call + " newState="
                             + newState);
+                    recordEvent(CallEventTrace.EVENT_STATE_CHANGED);
                     update();
                 }
 
@@ -192,12 +193,14 @@ public class Call {
                         android.telecom.Call newParent) {
                     Log.d(this, "TelecommCallCallback onParentChanged call=" + call + " newParent="
                             + newParent);
+                    recordEvent(CallEventTrace.EVENT_PARENT_CHANGED);
                     update();
                 }
 
                 @Override
                 public void onChildrenChanged(android.telecom.Call call,
                         List<android.telecom.Call> children) {
+                    recordEvent(CallEventTrace.EVENT_CHILDREN_CHANGED);
                     update();
                 }
 
@@ -206,6 +209,7 @@ public class Call {
                         android.telecom.Call.Details details) {
                     Log.d(this, "TelecommCallCallback onStateChanged call=" + call + " details="
                             + details);
+                    recordEvent(CallEventTrace.EVENT_DETAILS_CHANGED);
                     update();
                 }
 
@@ -214,6 +218,7 @@ public class Call {
                         List<String> cannedTextResponses) {
                     Log.d(this, "TelecommCallCallback onStateChanged call=" + call
                             + " cannedTextResponses=" + cannedTextResponses);
+                    recordEvent(CallEventTrace.EVENT_CANNED_TEXT_RESPONSES_LOADED);
                     update();
                 }
 
@@ -222,6 +227,7 @@ public class Call {
                         String remainingPostDialSequence) {
                     Log.d(this, "TelecommCallCallback onStateChanged call=" + call
                             + " remainingPostDialSequence=" + remainingPostDialSequence);
+                    recordEvent(CallEventTrace.EVENT_POST_DIAL_WAIT);
                     update();
                 }
 
@@ -230,18 +236,21 @@ public class Call {
                         VideoCall videoCall) {
                     Log.d(this, "TelecommCallCallback onStateChanged call=" + call + " videoCall="
                             + videoCall);
+                    recordEvent(CallEventTrace.EVENT_VIDEO_CALL_CHANGED);
                     update();
                 }
 
                 @Override
                 public void onCallDestroyed(android.telecom.Call call) {
                     Log.d(this, "TelecommCallCallback onStateChanged call=" + call);
+                    recordEvent(CallEventTrace.EVENT_CALL_DESTROYED);
                     call.unregisterCallback(mTelecomCallCallback);
                 }
 
                 @Override
                 public void onConferenceableCallsChanged(android.telecom.Call call,
                         List<android.telecom.Call> conferenceableCalls) {
+                    recordEvent(CallEventTrace.EVENT_CONFERENCEABLE_CALLS_CHANGED);
                     update();
                 }
             };
@@ -268,6 +277,20 @@ public class Call {
     private PhoneAccountHandle mPhoneAccountHandle;
     private boolean mIsOutgoing = false;
 
+    /**
+     * Values last read from {@link #mTelecommCall}, used to tell which fields an update changed.
+     */
+    private android.telecom.Call.Details mDetails;
+    private VideoCall mVideoCall;
+    private List<String> mCannedTextResponses;
+    private final List<android.telecom.Call> mTelecomChildren = new ArrayList<>();
+    /** Whether some of {@link #mTelecomChildren} were not in the call list when last resolved. */
+    private boolean mHasUnresolvedChildren;
+    private android.telecom.Call mTelecomParent;
+    private String mParentId;
+    private final List<android.telecom.Call> mConferenceableCalls = new ArrayList<>();
+    private Set<String> mExtrasKeys;
+
     /**
      * Indicates whether the phone account associated with this call supports specifying a call
      * subject.
@@ -305,62 +328,154 @@ public class Call {
     }
 
     private void update() {
-        Trace.beginSection("Update");
+        update(0);
+    }
+
+    private void recordEvent(int type) {
+        CallEventRecorder.getInstance().record(type, this);
+    }
+
+    /**
+     * Reads the latest values from telecom and notifies the call list, unless nothing changed.
+     *
+     * @param changes {@link CallListDelta} fields which changed outside of telecom.
+     */
+    private void update(int changes) {
+        final long start = CallTimeline.beginSection("Call.update");
         int oldState = getState();
-        updateFromTelecommCall();
+        changes |= updateFromTelecommCall();
+        if (oldState != getState()) {
+            CallTimeline.mark("Call." + State.toString(getState()), getId());
+        }
         if (oldState != getState() && getState() == Call.State.DISCONNECTED) {
             CallList.getInstance().onDisconnect(this);
+        } else if (changes == 0) {
+            CallList.getInstance().onUpdateDropped(this);
         } else {
-            CallList.getInstance().onUpdate(this);
+            CallList.getInstance().onUpdate(this, changes);
         }
-        Trace.endSection();
+        CallTimeline.endSection("Call.update", getId(), start);
     }
 
-    private void updateFromTelecommCall() {
+    /**
+     * Copies the state of the telecom call into this call.
+     *
+     * @return The {@link CallListDelta} fields which changed.
+     */
+    private int updateFromTelecommCall() {
         Log.d(this, "updateFromTelecommCall: " + mTelecommCall.toString());
+        int changes = 0;
+
+        final int oldState = getState();
         setState(translateState(mTelecommCall.getState()));
-        setDisconnectCause(mTelecommCall.getDetails().getDisconnectCause());
-        mIsActiveSub = mTelecommCall.isActive();
+        if (getState() != oldState) {
+            changes |= CallListDelta.FIELD_STATE;
+        }
+
+        final android.telecom.Call.Details details = mTelecommCall.getDetails();
+        final DisconnectCause disconnectCause = details.getDisconnectCause();
+        if (!Objects.equals(mDisconnectCause, disconnectCause)) {
+            changes |= CallListDelta.FIELD_DISCONNECT_CAUSE;
+        }
+        setDisconnectCause(disconnectCause);
 
-        if (mTelecommCall.getVideoCall() != null) {
-            if (mVideoCallCallback == null) {
-                mVideoCallCallback = new InCallVideoCallCallback(this);
+        final boolean isActiveSub = mTelecommCall.isActive();
+        if (isActiveSub != mIsActiveSub) {
+            changes |= CallListDelta.FIELD_ACCOUNT;
+            mIsActiveSub = isActiveSub;
+        }
+
+        final VideoCall videoCall = mTelecommCall.getVideoCall();
+        if (videoCall != mVideoCall) {
+            changes |= CallListDelta.FIELD_VIDEO_CALL;
+            mVideoCall = videoCall;
+            if (videoCall != null) {
+                if (mVideoCallCallback == null) {
+                    mVideoCallCallback = new InCallVideoCallCallback(this);
+                }
+                videoCall.registerCallback(mVideoCallCallback);
             }
-            mTelecommCall.getVideoCall().registerCallback(mVideoCallCallback);
         }
 
-        mChildCallIds.clear();
-        for (int i = 0; i < mTelecommCall.getChildren().size(); i++) {
-            mChildCallIds.add(
-                    CallList.getInstance().getCallByTelecommCall(
-                            mTelecommCall.getChildren().get(i)).getId());
+        final List<android.telecom.Call> children = mTelecommCall.getChildren();
+        if (!mTelecomChildren.equals(children)) {
+            changes |= CallListDelta.FIELD_CHILDREN;
+            mTelecomChildren.clear();
+            mTelecomChildren.addAll(children);
+            resolveChildCallIds();
+        } else if (mHasUnresolvedChildren && resolveChildCallIds()) {
+            // A child which was not in the call list yet has been added since.
+            changes |= CallListDelta.FIELD_CHILDREN;
+        }
+
+        final android.telecom.Call parent = mTelecommCall.getParent();
+        if (parent != mTelecomParent) {
+            changes |= CallListDelta.FIELD_PARENT;
+            mTelecomParent = parent;
+            mParentId = null;
+        }
+
+        final List<android.telecom.Call> conferenceableCalls =
+                mTelecommCall.getConferenceableCalls();
+        if (!mConferenceableCalls.equals(conferenceableCalls)) {
+            changes |= CallListDelta.FIELD_CONFERENCEABLE;
+            mConferenceableCalls.clear();
+            mConferenceableCalls.addAll(conferenceableCalls);
+        }
+
+        final List<String> cannedTextResponses = mTelecommCall.getCannedTextResponses();
+        if (!Objects.equals(mCannedTextResponses, cannedTextResponses)) {
+            changes |= CallListDelta.FIELD_TEXT_RESPONSES;
+            mCannedTextResponses = cannedTextResponses;
         }
 
-        updateFromCallExtras(mTelecommCall.getDetails().getExtras());
+        // Telecom replaces the details object whenever any of its values change, so there is
+        // nothing more to read if it is the one seen on the previous update.
+        if (details == mDetails) {
+            return changes;
+        }
+        changes |= CallListDelta.FIELD_DETAILS;
+        if (mDetails == null || mDetails.getVideoState() != details.getVideoState()) {
+            changes |= CallListDelta.FIELD_VIDEO_STATE;
+        }
+        if (mDetails == null || mDetails.getCallCapabilities() != details.getCallCapabilities()) {
+            changes |= CallListDelta.FIELD_CAPABILITIES;
+        }
+        if (mDetails == null || mDetails.getCallProperties() != details.getCallProperties()) {
+            changes |= CallListDelta.FIELD_PROPERTIES;
+        }
+        mDetails = details;
+
+        if (updateFromCallExtras(details.getExtras())) {
+            changes |= CallListDelta.FIELD_EXTRAS;
+        }
 
         // If the handle of the call has changed, update state for the call determining if it is an
         // emergency call.
-        Uri newHandle = mTelecommCall.getDetails().getHandle();
+        Uri newHandle = details.getHandle();
         if (!Objects.equals(mHandle, newHandle)) {
+            changes |= CallListDelta.FIELD_HANDLE;
             mHandle = newHandle;
             updateEmergencyCallState();
         }
 
         // If the phone account handle of the call is set, cache capability bit indicating whether
         // the phone account supports call subjects.
-        PhoneAccountHandle newPhoneAccountHandle = mTelecommCall.getDetails().getAccountHandle();
+        PhoneAccountHandle newPhoneAccountHandle = details.getAccountHandle();
         if (!Objects.equals(mPhoneAccountHandle, newPhoneAccountHandle)) {
+            changes |= CallListDelta.FIELD_ACCOUNT;
             mPhoneAccountHandle = newPhoneAccountHandle;
 
             if (mPhoneAccountHandle != null) {
-                TelecomManager mgr = InCallPresenter.getInstance().getTelecomManager();
-                PhoneAccount phoneAccount = mgr.getPhoneAccount(mPhoneAccountHandle);
+                PhoneAccount phoneAccount = InCallPresenter.getInstance().getPhoneAccountCache()
+                        .getPhoneAccount(mPhoneAccountHandle);
                 if (phoneAccount != null) {
                     mIsCallSubjectSupported = phoneAccount.hasCapabilities(
                             PhoneAccount.CAPABILITY_CALL_SUBJECT);
                 }
             }
         }
+        return changes;
     }
 
     /**
@@ -386,19 +501,32 @@ public class Call {
         }
     }
 
-    protected void updateFromCallExtras(Bundle callExtras) {
+    /**
+     * Reads the values this call keeps from the call extras.
+     *
+     * @return {@code true} if the set of extras keys or one of the kept values changed.
+     */
+    protected boolean updateFromCallExtras(Bundle callExtras) {
         if (callExtras == null || areCallExtrasCorrupted(callExtras)) {
             /**
              * If the bundle is corrupted, abandon information update as a work around. These are
              * not critical for the dialer to function.
              */
-            return;
+            return false;
+        }
+        boolean changed = false;
+        final Set<String> keys = callExtras.keySet();
+        if (!Objects.equals(mExtrasKeys, keys)) {
+            mExtrasKeys = new HashSet<>(keys);
+            changed = true;
         }
+
         // Check for a change in the child address and notify any listeners.
         if (callExtras.containsKey(Connection.EXTRA_CHILD_ADDRESS)) {
             String childNumber = callExtras.getString(Connection.EXTRA_CHILD_ADDRESS);
             if (!Objects.equals(childNumber, mChildNumber)) {
                 mChildNumber = childNumber;
+                changed = true;
                 CallList.getInstance().onChildNumberChange(this);
             }
         }
@@ -419,6 +547,7 @@ public class Call {
 
                 if (!Objects.equals(lastForwardedNumber, mLastForwardedNumber)) {
                     mLastForwardedNumber = lastForwardedNumber;
+                    changed = true;
                     CallList.getInstance().onLastForwardedNumberChange(this);
                 }
             }
@@ -430,11 +559,13 @@ public class Call {
             String callSubject = callExtras.getString(Connection.EXTRA_CALL_SUBJECT);
             if (!Objects.equals(mCallSubject, callSubject)) {
                 mCallSubject = callSubject;
+                changed = true;
             }
         }
+        return changed;
     }
 
-    private static int translateState(int state) {
+    static int translateState(int state) {
         switch (state) {
             case android.telecom.Call.STATE_NEW:
             case android.telecom.Call.STATE_CONNECTING:
@@ -683,12 +814,48 @@ public class Call {
         return mChildCallIds;
     }
 
+    /**
+     * Called when a call whose parent is this call was added to the call list. Picks it up as a
+     * child if this call's last update could not, since telecom won't report the children again.
+     */
+    void onChildAdded() {
+        if (mHasUnresolvedChildren && resolveChildCallIds()) {
+            CallList.getInstance().onUpdate(this, CallListDelta.FIELD_CHILDREN);
+        }
+    }
+
+    /**
+     * Rebuilds the ids of the children from those telecom children which are in the call list.
+     *
+     * @return Whether the ids changed.
+     */
+    private boolean resolveChildCallIds() {
+        final CallList callList = CallList.getInstance();
+        final List<String> childCallIds = new ArrayList<>(mTelecomChildren.size());
+        for (int i = 0; i < mTelecomChildren.size(); i++) {
+            final Call child = callList.getCallByTelecommCall(mTelecomChildren.get(i));
+            if (child != null) {
+                childCallIds.add(child.getId());
+            }
+        }
+        mHasUnresolvedChildren = childCallIds.size() < mTelecomChildren.size();
+        if (childCallIds.equals(mChildCallIds)) {
+            return false;
+        }
+        mChildCallIds.clear();
+        mChildCallIds.addAll(childCallIds);
+        return true;
+    }
+
     public String getParentId() {
-        android.telecom.Call parentCall = mTelecommCall.getParent();
-        if (parentCall != null) {
-            return CallList.getInstance().getCallByTelecommCall(parentCall).getId();
+        if (mParentId == null && mTelecomParent != null) {
+            // The parent may only have been added to the call list after this call's last update.
+            final Call parentCall = CallList.getInstance().getCallByTelecommCall(mTelecomParent);
+            if (parentCall != null) {
+                mParentId = parentCall.getId();
+            }
         }
-        return null;
+        return mParentId;
     }
 
     public int getVideoState() {
@@ -719,7 +886,7 @@ public class Call {
 
         Log.d(this, "setSessionModificationTo - mSessionModificationState="
             + mSessionModificationState + " video state= " + videoState);
-        update();
+        update(CallListDelta.FIELD_SESSION_MODIFICATION);
     }
 
     /**
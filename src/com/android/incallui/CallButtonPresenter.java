@@ -96,6 +96,16 @@ public class CallButtonPresenter extends Presenter<CallButtonPresenter.CallButto
     public void onStateChange(InCallState oldState, InCallState newState, CallList callList) {
         CallButtonUi ui = getUi();
 
+        // The button call is picked by call state and active subscription, and the buttons only
+        // depend on that call, so nothing needs to be redrawn if none of them changed.
+        final CallListDelta delta = InCallPresenter.getInstance().getCallListDelta();
+        if (delta != null && oldState == newState && mCall != null
+                && !delta.hasChanges(CallListDelta.FIELD_STATE | CallListDelta.FIELD_ACTIVE_SUB)
+                && !delta.affects(mCall, ~0)) {
+            Log.v(this, "onStateChange: button call unchanged, skipping update");
+            return;
+        }
+
         if (newState == InCallState.OUTGOING) {
             mCall = callList.getOutgoingCall();
         } else if (newState == InCallState.INCALL) {
@@ -20,13 +20,14 @@ import android.animation.Animator;
 import android.animation.AnimatorListenerAdapter;
 import android.animation.AnimatorSet;
 import android.animation.ObjectAnimator;
+import android.app.Fragment;
+import android.app.FragmentManager;
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.drawable.AnimationDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.GradientDrawable;
 import android.os.Bundle;
-import android.os.Trace;
 import android.os.Handler;
 import android.os.Looper;
 import android.telecom.DisconnectCause;
@@ -63,6 +64,9 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
         implements CallCardPresenter.CallCardUi {
     private static final String TAG = "CallCardFragment";
 
+    private static final String TAG_MOD_BUTTON_FRAGMENT = "tag_mod_button_fragment";
+    private static final String TAG_VIDEO_CALL_FRAGMENT = "tag_video_call_fragment";
+
     /**
      * Internal class which represents the call state label which is to be applied.
      */
@@ -250,11 +254,11 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
             Bundle savedInstanceState) {
-        Trace.beginSection(TAG + " onCreate");
+        final long start = CallTimeline.beginSection("CallCardFragment.onCreateView");
         mTranslationOffset =
                 getResources().getDimensionPixelSize(R.dimen.call_card_anim_translate_y_offset);
         final View view = inflater.inflate(R.layout.call_card_fragment, container, false);
-        Trace.endSection();
+        CallTimeline.endSection("CallCardFragment.onCreateView", start);
         return view;
     }
     @Override
@@ -425,6 +429,38 @@ public class CallCardFragment extends BaseFragment<CallCardPresenter, CallCardPr
         }
     }
 
+    @Override
+    public void addModButtonFragment() {
+        if (getChildFragmentManager().findFragmentByTag(TAG_MOD_BUTTON_FRAGMENT) == null) {
+            addChildFragment(R.id.modButtonFragment, new ModButtonFragment(),
+                    TAG_MOD_BUTTON_FRAGMENT);
+        }
+    }
+
+    @Override
+    public void addVideoCallFragment() {
+        if (getChildFragmentManager().findFragmentByTag(TAG_VIDEO_CALL_FRAGMENT) == null) {
+            addChildFragment(R.id.videoCallFragment, new VideoCallFragment(),
+                    TAG_VIDEO_CALL_FRAGMENT);
+        }
+    }
+
+    /**
+     * Adds a fragment into its placeholder in the call card. Fragments which were added stay
+     * until the call card goes away, and are restored with it.
+     */
+    private void addChildFragment(int containerId, Fragment fragment, String tag) {
+        if (getView() == null) {
+            return;
+        }
+        final String section = "CallCardFragment.addChildFragment - " + tag;
+        final long start = CallTimeline.beginSection(section);
+        final FragmentManager fm = getChildFragmentManager();
+        fm.beginTransaction().add(containerId, fragment, tag).commitAllowingStateLoss();
+        fm.executePendingTransactions();
+        CallTimeline.endSection(section, start);
+    }
+
     private void doActionOnPredraw(final boolean visible, final boolean isLayoutRtl,
             final View videoView, final float spaceBesideCallCard) {
 
@@ -72,6 +72,9 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
 
     private Call mPrimary;
     private Call mSecondary;
+    /** The call list snapshot version and in-call state last rendered, to skip repeats. */
+    private long mRenderedSnapshotVersion = -1;
+    private InCallState mRenderedState;
     private ContactCacheEntry mPrimaryContactInfo;
     private ContactCacheEntry mSecondaryContactInfo;
     private CallTimer mCallTimer;
@@ -130,7 +133,8 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
                     ui.showNoteSentToast();
                 }
             }
-            CallList.getInstance().addCallUpdateListener(call.getId(), this);
+            // onCallChanged is a no-op, only the session modification callbacks are of interest.
+            CallList.getInstance().addCallUpdateListener(call.getId(), this, 0);
 
             // start processing lookups right away.
             if (!call.isConferenceCall()) {
@@ -175,6 +179,8 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         mPrimary = null;
         mPrimaryContactInfo = null;
         mSecondaryContactInfo = null;
+        mRenderedSnapshotVersion = -1;
+        mRenderedState = null;
     }
 
     @Override
@@ -191,23 +197,32 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
             return;
         }
 
+        final CallListSnapshot snapshot = InCallPresenter.getInstance().getCallListSnapshot();
+        if (oldState == newState && newState == mRenderedState
+                && snapshot.getVersion() == mRenderedSnapshotVersion) {
+            Log.v(this, "onStateChange: snapshot already rendered");
+            return;
+        }
+        mRenderedSnapshotVersion = snapshot.getVersion();
+        mRenderedState = newState;
+
         Call primary = null;
         Call secondary = null;
 
         if (newState == InCallState.INCOMING) {
-            primary = callList.getIncomingCall();
+            primary = snapshot.getIncomingCall();
         } else if (newState == InCallState.PENDING_OUTGOING || newState == InCallState.OUTGOING) {
-            primary = callList.getOutgoingCall();
+            primary = snapshot.getOutgoingCall();
             if (primary == null) {
-                primary = callList.getPendingOutgoingCall();
+                primary = snapshot.getPendingOutgoingCall();
             }
 
             // getCallToDisplay doesn't go through outgoing or incoming calls. It will return the
             // highest priority call to display as the secondary call.
-            secondary = getCallToDisplay(callList, null, true);
+            secondary = snapshot.getCallToDisplay(null, true);
         } else if (newState == InCallState.INCALL) {
-            primary = getCallToDisplay(callList, null, false);
-            secondary = getCallToDisplay(callList, primary, true);
+            primary = snapshot.getCallToDisplay(null, false);
+            secondary = snapshot.getCallToDisplay(primary, true);
             // During swap scenarios, two calls can be ACTIVE at the same time momentarily.
             // In such cases secondary above will be null. To avoid flickering of secondary
             // call view, assign the non primary call as secondary here.
@@ -258,7 +273,7 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
                         Call.SessionModificationState.NO_REQUEST);
                 CallList.getInstance().removeCallUpdateListener(previousPrimary.getId(), this);
             }
-            CallList.getInstance().addCallUpdateListener(mPrimary.getId(), this);
+            CallList.getInstance().addCallUpdateListener(mPrimary.getId(), this, 0);
 
             mPrimaryContactInfo = ContactInfoCache.buildCacheEntryFromCall(mContext, mPrimary,
                     mPrimary.getState() == Call.State.INCOMING);
@@ -324,6 +339,7 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         }
 
         maybeShowManageConferenceCallButton();
+        maybeAddOnDemandFragments(newState);
 
         // Hide the end call button instantly if we're receiving an incoming call.
         getUi().setEndCallButtonEnabled(shouldShowEndCallButton(mPrimary, callState),
@@ -335,6 +351,7 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
     @Override
     public void onDetailsChanged(Call call, Details details) {
         updatePrimaryCallState();
+        maybeAddOnDemandFragments(mRenderedState);
 
         if (call.can(Details.CAPABILITY_MANAGE_CONFERENCE) !=
                 Details.can(details.getCallCapabilities(), Details.CAPABILITY_MANAGE_CONFERENCE)) {
@@ -362,6 +379,7 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
             return;
         }
         maybeShowProgressSpinner(mPrimary.getState(), sessionModificationState);
+        maybeAddOnDemandFragments(mRenderedState);
         getUi().setEndCallButtonEnabled(sessionModificationState !=
                         Call.SessionModificationState.RECEIVED_UPGRADE_TO_VIDEO_REQUEST,
                 true /* shouldAnimate */);
@@ -400,8 +418,8 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         // number directly from the telephony layer).
         PhoneAccountHandle accountHandle = mPrimary.getAccountHandle();
         if (accountHandle != null) {
-            TelecomManager mgr = InCallPresenter.getInstance().getTelecomManager();
-            PhoneAccount account = mgr.getPhoneAccount(accountHandle);
+            PhoneAccount account = InCallPresenter.getInstance().getPhoneAccountCache()
+                    .getPhoneAccount(accountHandle);
             if (account != null) {
                 return getNumberFromHandle(account.getSubscriptionAddress());
             }
@@ -450,6 +468,29 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         getUi().setVolteCallLabel(showVolte);
     }
 
+    /**
+     * Has the call card add the mod buttons once a call is in progress, and the video surfaces
+     * once a call needs them, so that neither is built for a voice call which is ringing or
+     * dialing, and the video surfaces never are for a voice call.
+     */
+    private void maybeAddOnDemandFragments(InCallState state) {
+        final CallCardUi ui = getUi();
+        if (ui == null) {
+            return;
+        }
+        if (state == InCallState.INCALL) {
+            ui.addModButtonFragment();
+        }
+        if (needsVideoUi(mPrimary) || needsVideoUi(mSecondary)) {
+            ui.addVideoCallFragment();
+        }
+    }
+
+    private static boolean needsVideoUi(Call call) {
+        return call != null && (CallUtils.isVideoCall(call) || call.getSessionModificationState()
+                != Call.SessionModificationState.NO_REQUEST);
+    }
+
     /**
      * Only show the conference call button if we can manage the conference.
      */
@@ -616,47 +657,6 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         }
     }
 
-    /**
-     * Get the highest priority call to display.
-     * Goes through the calls and chooses which to return based on priority of which type of call
-     * to display to the user. Callers can use the "ignore" feature to get the second best call
-     * by passing a previously found primary call as ignore.
-     *
-     * @param ignore A call to ignore if found.
-     */
-    private Call getCallToDisplay(CallList callList, Call ignore, boolean skipDisconnected) {
-        // Active calls come second.  An active call always gets precedent.
-        Call retval = callList.getActiveCall();
-        if (retval != null && retval != ignore) {
-            return retval;
-        }
-
-        // Disconnected calls get primary position if there are no active calls
-        // to let user know quickly what call has disconnected. Disconnected
-        // calls are very short lived.
-        if (!skipDisconnected) {
-            retval = callList.getDisconnectingCall();
-            if (retval != null && retval != ignore) {
-                return retval;
-            }
-            retval = callList.getDisconnectedCall();
-            if (retval != null && retval != ignore) {
-                return retval;
-            }
-        }
-
-        // Then we go to background call (calls on hold)
-        retval = callList.getBackgroundCall();
-        if (retval != null && retval != ignore) {
-            return retval;
-        }
-
-        // Lastly, we go to a second background call.
-        retval = callList.getSecondBackgroundCall();
-
-        return retval;
-    }
-
     private int getSubscriptionId() {
         PhoneAccountHandle accountHandle = mPrimary.getAccountHandle();
         if (accountHandle != null) {
@@ -818,11 +818,8 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
      * Gets the phone account to display for a call.
      */
     private PhoneAccount getAccountForCall(Call call) {
-        PhoneAccountHandle accountHandle = call.getAccountHandle();
-        if (accountHandle == null) {
-            return null;
-        }
-        return InCallPresenter.getInstance().getTelecomManager().getPhoneAccount(accountHandle);
+        return InCallPresenter.getInstance().getPhoneAccountCache()
+                .getPhoneAccount(call.getAccountHandle());
     }
 
     /**
@@ -840,9 +837,9 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
      */
     private String getCallProviderLabel(Call call) {
         PhoneAccount account = getAccountForCall(call);
-        TelecomManager mgr = InCallPresenter.getInstance().getTelecomManager();
         if (account != null && !TextUtils.isEmpty(account.getLabel())
-                && mgr.getCallCapablePhoneAccounts().size() > 1) {
+                && InCallPresenter.getInstance().getPhoneAccountCache()
+                        .getCallCapableAccountCount() > 1) {
             return account.getLabel().toString();
         }
         return null;
@@ -1091,5 +1088,7 @@ public class CallCardPresenter extends Presenter<CallCardPresenter.CallCardUi>
         void sendAccessibilityAnnouncement();
         void showNoteSentToast();
         void setVolteCallLabel(boolean show);
+        void addModButtonFragment();
+        void addVideoCallFragment();
     }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.telecom.DisconnectCause;
+import android.telecom.PhoneAccountHandle;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the telecom events received by {@link Call}s into a {@link CallEventTrace}, so that a
+ * call flow seen on a device can be replayed offline.
+ *
+ * Recording is off unless the {@value #TRACE_PROPERTY} system property is set, in which case
+ * every bind of the in-call service writes a new trace to the app's cache directory.
+ */
+public class CallEventRecorder {
+
+    private static final String TRACE_PROPERTY = "persist.incallui.trace_events";
+    private static final String TRACE_FILE_PREFIX = "call_events_";
+    private static final String TRACE_FILE_SUFFIX = ".trace";
+
+    private static CallEventRecorder sInstance = new CallEventRecorder();
+
+    private CallEventTrace.Writer mWriter;
+    private File mTraceFile;
+    private int mEventCount;
+
+    public static CallEventRecorder getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Starts recording if enabled by the system property.
+     */
+    public void setUp(Context context) {
+        if (!SystemProperties.getBoolean(TRACE_PROPERTY, false)) {
+            return;
+        }
+        start(new File(context.getCacheDir(),
+                TRACE_FILE_PREFIX + System.currentTimeMillis() + TRACE_FILE_SUFFIX));
+    }
+
+    public void tearDown() {
+        stop();
+    }
+
+    /**
+     * Starts recording to the given file, replacing its contents.
+     */
+    void start(File file) {
+        stop();
+        try {
+            mWriter = new CallEventTrace.Writer(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            mTraceFile = file;
+            mEventCount = 0;
+            Log.i(this, "Recording call events to " + file);
+        } catch (IOException e) {
+            Log.e(this, "Unable to record call events to " + file, e);
+        }
+    }
+
+    void stop() {
+        if (mWriter == null) {
+            return;
+        }
+        try {
+            mWriter.close();
+        } catch (IOException e) {
+            Log.e(this, "Unable to close call event trace", e);
+        }
+        Log.i(this, "Recorded " + mEventCount + " call events to " + mTraceFile);
+        mWriter = null;
+    }
+
+    public boolean isRecording() {
+        return mWriter != null;
+    }
+
+    /**
+     * Records an event received by a call, along with the current values of its telecom call.
+     *
+     * @param type One of the {@code CallEventTrace.EVENT_*} constants.
+     * @param call The call which received the event.
+     */
+    public void record(int type, Call call) {
+        if (mWriter == null) {
+            return;
+        }
+        final android.telecom.Call telecomCall = call.getTelecommCall();
+        if (telecomCall == null) {
+            return;
+        }
+
+        final android.telecom.Call.Details details = telecomCall.getDetails();
+        final DisconnectCause disconnectCause = details.getDisconnectCause();
+        final Uri handle = details.getHandle();
+        final PhoneAccountHandle accountHandle = details.getAccountHandle();
+
+        final CallList callList = CallList.getInstance();
+        final Call parent = telecomCall.getParent() == null
+                ? null : callList.getCallByTelecommCall(telecomCall.getParent());
+        final List<android.telecom.Call> children = telecomCall.getChildren();
+        final List<String> childIds = new ArrayList<>(children.size());
+        for (int i = 0; i < children.size(); i++) {
+            final Call child = callList.getCallByTelecommCall(children.get(i));
+            if (child != null) {
+                childIds.add(child.getId());
+            }
+        }
+
+        final Map<String, Object> extras = new LinkedHashMap<>();
+        final Bundle bundle = details.getExtras();
+        if (bundle != null) {
+            for (String key : bundle.keySet()) {
+                extras.put(key, bundle.get(key));
+            }
+        }
+
+        final CallEventTrace.Event event = new CallEventTrace.Event(type,
+                SystemClock.elapsedRealtimeNanos(), call.getId(),
+                Call.translateState(telecomCall.getState()),
+                disconnectCause == null ? DisconnectCause.UNKNOWN : disconnectCause.getCode(),
+                details.getCallCapabilities(), details.getCallProperties(),
+                details.getVideoState(), handle == null ? null : handle.toString(),
+                accountHandle == null ? null : accountHandle.getId(),
+                parent == null ? null : parent.getId(), childIds, extras);
+        try {
+            mWriter.write(event);
+            mEventCount++;
+            if (type == CallEventTrace.EVENT_REMOVED) {
+                // Keep the trace usable up to the last completed call if the process dies.
+                mWriter.flush();
+            }
+        } catch (IOException e) {
+            Log.e(this, "Unable to record call event, stopping", e);
+            stop();
+        }
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("CallEventRecorder");
+        pw.println("  recording: " + isRecording()
+                + (isRecording() ? " to " + mTraceFile + ", events: " + mEventCount : ""));
+    }
+}
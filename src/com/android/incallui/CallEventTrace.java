@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary trace of the telecom events received by {@link Call}s. Traces are written by
+ * {@link CallEventRecorder} and read back to replay a call flow against the {@link CallList}.
+ *
+ * A trace starts with {@link #MAGIC} and {@link #VERSION}, followed by one record per event.
+ * Only java.io is used here so traces can also be read off the device.
+ */
+public class CallEventTrace {
+
+    static final int MAGIC = 0x49435452; // "ICTR"
+    static final int VERSION = 1;
+
+    public static final int EVENT_ADDED = 1;
+    public static final int EVENT_REMOVED = 2;
+    public static final int EVENT_STATE_CHANGED = 3;
+    public static final int EVENT_PARENT_CHANGED = 4;
+    public static final int EVENT_CHILDREN_CHANGED = 5;
+    public static final int EVENT_DETAILS_CHANGED = 6;
+    public static final int EVENT_CANNED_TEXT_RESPONSES_LOADED = 7;
+    public static final int EVENT_POST_DIAL_WAIT = 8;
+    public static final int EVENT_VIDEO_CALL_CHANGED = 9;
+    public static final int EVENT_CALL_DESTROYED = 10;
+    public static final int EVENT_CONFERENCEABLE_CALLS_CHANGED = 11;
+
+    private static final byte EXTRA_STRING = 's';
+    private static final byte EXTRA_STRING_LIST = 'l';
+    private static final byte EXTRA_OTHER = 'o';
+
+    /**
+     * One event, with the values of the telecom call at the time it was received.
+     */
+    public static class Event {
+        public final int type;
+        public final long timestampNanos;
+        public final String callId;
+        /** The {@link Call.State} the telecom state translates to. */
+        public final int state;
+        public final int disconnectCode;
+        public final int capabilities;
+        public final int properties;
+        public final int videoState;
+        public final String handle;
+        public final String accountId;
+        public final String parentId;
+        public final List<String> childIds;
+        /**
+         * The call extras. Values are either a {@link String} or a list of strings; other values
+         * are recorded by their string representation.
+         */
+        public final Map<String, Object> extras;
+
+        public Event(int type, long timestampNanos, String callId, int state, int disconnectCode,
+                int capabilities, int properties, int videoState, String handle,
+                String accountId, String parentId, List<String> childIds,
+                Map<String, Object> extras) {
+            this.type = type;
+            this.timestampNanos = timestampNanos;
+            this.callId = callId;
+            this.state = state;
+            this.disconnectCode = disconnectCode;
+            this.capabilities = capabilities;
+            this.properties = properties;
+            this.videoState = videoState;
+            this.handle = handle;
+            this.accountId = accountId;
+            this.parentId = parentId;
+            this.childIds = Collections.unmodifiableList(childIds);
+            this.extras = Collections.unmodifiableMap(extras);
+        }
+
+        @Override
+        public String toString() {
+            return "Event{" + type + " @" + timestampNanos + " " + callId + " state=" + state
+                    + "}";
+        }
+    }
+
+    /**
+     * Writes events to a stream. The header is written on construction.
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream mOut;
+
+        public Writer(OutputStream out) throws IOException {
+            mOut = new DataOutputStream(out);
+            mOut.writeInt(MAGIC);
+            mOut.writeInt(VERSION);
+        }
+
+        public void write(Event event) throws IOException {
+            mOut.writeByte(event.type);
+            mOut.writeLong(event.timestampNanos);
+            writeString(event.callId);
+            mOut.writeByte(event.state);
+            mOut.writeInt(event.disconnectCode);
+            mOut.writeInt(event.capabilities);
+            mOut.writeInt(event.properties);
+            mOut.writeByte(event.videoState);
+            writeString(event.handle);
+            writeString(event.accountId);
+            writeString(event.parentId);
+            mOut.writeShort(event.childIds.size());
+            for (String childId : event.childIds) {
+                writeString(childId);
+            }
+            mOut.writeShort(event.extras.size());
+            for (Map.Entry<String, Object> extra : event.extras.entrySet()) {
+                writeString(extra.getKey());
+                writeExtra(extra.getValue());
+            }
+        }
+
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+
+        private void writeExtra(Object value) throws IOException {
+            if (value instanceof List) {
+                final List<?> list = (List<?>) value;
+                mOut.writeByte(EXTRA_STRING_LIST);
+                mOut.writeShort(list.size());
+                for (Object item : list) {
+                    writeString(item == null ? null : item.toString());
+                }
+            } else if (value instanceof String) {
+                mOut.writeByte(EXTRA_STRING);
+                writeString((String) value);
+            } else {
+                mOut.writeByte(EXTRA_OTHER);
+                writeString(value == null ? null : value.toString());
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            mOut.writeBoolean(s != null);
+            if (s != null) {
+                mOut.writeUTF(s);
+            }
+        }
+    }
+
+    /**
+     * Reads all the events of a trace.
+     *
+     * @throws IOException if the stream is not a trace of a supported version.
+     */
+    public static List<Event> read(InputStream in) throws IOException {
+        final DataInputStream din = new DataInputStream(in);
+        if (din.readInt() != MAGIC) {
+            throw new IOException("Not a call event trace");
+        }
+        final int version = din.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported call event trace version " + version);
+        }
+
+        final List<Event> events = new ArrayList<>();
+        while (true) {
+            final int type;
+            try {
+                type = din.readByte();
+            } catch (EOFException e) {
+                // A trace ends wherever the recorder stopped.
+                return events;
+            }
+            final long timestampNanos = din.readLong();
+            final String callId = readString(din);
+            final int state = din.readByte();
+            final int disconnectCode = din.readInt();
+            final int capabilities = din.readInt();
+            final int properties = din.readInt();
+            final int videoState = din.readByte();
+            final String handle = readString(din);
+            final String accountId = readString(din);
+            final String parentId = readString(din);
+            final int childCount = din.readShort();
+            final List<String> childIds = new ArrayList<>(childCount);
+            for (int i = 0; i < childCount; i++) {
+                childIds.add(readString(din));
+            }
+            final int extraCount = din.readShort();
+            final Map<String, Object> extras = new LinkedHashMap<>();
+            for (int i = 0; i < extraCount; i++) {
+                final String key = readString(din);
+                extras.put(key, readExtra(din));
+            }
+            events.add(new Event(type, timestampNanos, callId, state, disconnectCode,
+                    capabilities, properties, videoState, handle, accountId, parentId,
+                    childIds, extras));
+        }
+    }
+
+    private static Object readExtra(DataInputStream in) throws IOException {
+        final byte tag = in.readByte();
+        if (tag == EXTRA_STRING_LIST) {
+            final int size = in.readShort();
+            final ArrayList<String> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readString(in));
+            }
+            return list;
+        }
+        return readString(in);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
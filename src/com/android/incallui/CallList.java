@@ -17,27 +17,28 @@
 package com.android.incallui;
 
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
-import android.os.Trace;
+import android.os.SystemClock;
 import android.telecom.DisconnectCause;
 import android.telecom.PhoneAccount;
 import android.telecom.PhoneAccountHandle;
 import android.telephony.SubscriptionManager;
-import android.text.TextUtils;
+import android.view.Choreographer;
 
 import com.android.contacts.common.testing.NeededForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Maintains the list of active calls and notifies interested classes of changes to the call list
@@ -50,6 +51,13 @@ public class CallList {
     private static final int DISCONNECTED_CALL_MEDIUM_TIMEOUT_MS = 2000;
     private static final int DISCONNECTED_CALL_LONG_TIMEOUT_MS = 5000;
 
+    /**
+     * Disconnected calls due within the same tick are removed together. The wheel spans more than
+     * the longest timeout so no deadline wraps around.
+     */
+    private static final int DISCONNECT_TIMER_TICK_MS = 50;
+    private static final int DISCONNECT_TIMER_SLOTS = 128;
+
     private static final int EVENT_DISCONNECTED_TIMEOUT = 1;
     private static final int EVENT_NOTIFY_CHANGE = 2;
 
@@ -58,6 +66,8 @@ public class CallList {
 
     private final HashMap<String, Call> mCallById = new HashMap<>();
     private final HashMap<android.telecom.Call, Call> mCallByTelecommCall = new HashMap<>();
+    private final CallStateIndex mCallStateIndex = new CallStateIndex();
+    private final ConferenceIndex mConferenceIndex = new ConferenceIndex();
     private final HashMap<String, List<String>> mCallTextReponsesMap = Maps.newHashMap();
     /**
      * ConcurrentHashMap constructor params: 8 is initial table size, 0.9f is
@@ -66,14 +76,53 @@ public class CallList {
      */
     private final Set<Listener> mListeners = Collections.newSetFromMap(
             new ConcurrentHashMap<Listener, Boolean>(8, 0.9f, 1));
-    private final HashMap<String, List<CallUpdateListener>> mCallUpdateListenerMap = Maps
-            .newHashMap();
-    private final Set<Call> mPendingDisconnectCalls = Collections.newSetFromMap(
-            new ConcurrentHashMap<Call, Boolean>(8, 0.9f, 1));
+    private final CallUpdateListenerRegistry mCallUpdateListeners =
+            new CallUpdateListenerRegistry();
+    private final TimerWheel<Call> mPendingDisconnectCalls =
+            new TimerWheel<>(DISCONNECT_TIMER_TICK_MS, DISCONNECT_TIMER_SLOTS);
+    /** Number of timer ticks which removed disconnected calls, and of calls they removed. */
+    private long mDisconnectBatchCount = 0;
+    private long mExpiredDisconnectCount = 0;
     private int mSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
     private final ArrayList<ActiveSubChangeListener> mActiveSubChangeListeners =
             Lists.newArrayList();
 
+    /**
+     * When enabled, call updates are collected and listeners receive a single
+     * {@link Listener#onCallListChange} per display frame instead of one per telecom callback.
+     */
+    private boolean mCoalesceUpdates = true;
+    private boolean mFrameCallbackPending = false;
+    private Choreographer mChoreographer;
+    private final HashSet<String> mDirtyCallIds = new HashSet<>();
+    private final CallListDelta.Tracker mDeltaTracker = new CallListDelta.Tracker();
+
+    /** Number of call list changes requested by call updates. */
+    private long mRequestedChangeCount = 0;
+    /** Number of {@link Listener#onCallListChange} dispatches actually sent out. */
+    private long mDispatchedChangeCount = 0;
+    /** Number of requested changes folded into another dispatch. */
+    private long mMergedChangeCount = 0;
+
+    /** Incremented whenever a call is added, changed or removed, or the active sub changes. */
+    private long mVersion = 0;
+
+    /** Number of telecom updates received from calls. */
+    private long mCallUpdateCount = 0;
+    /** Number of telecom updates dropped by calls because nothing changed. */
+    private long mDroppedCallUpdateCount = 0;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameCallbackPending = false;
+            if (!mDirtyCallIds.isEmpty()) {
+                Log.v(this, "Dispatching coalesced change for calls ", mDirtyCallIds);
+                notifyGenericListeners();
+            }
+        }
+    };
+
     /**
      * Static singleton accessor method.
      */
@@ -90,25 +139,34 @@ public class CallList {
     }
 
     public void onCallAdded(android.telecom.Call telecommCall) {
-        Trace.beginSection("onCallAdded");
+        final long start = CallTimeline.beginSection("CallList.onCallAdded");
         Call call = new Call(telecommCall);
         Log.d(this, "onCallAdded: callState=" + call.getState());
+        CallTimeline.mark("Call.added." + Call.State.toString(call.getState()), call.getId());
+        CallEventRecorder.getInstance().record(CallEventTrace.EVENT_ADDED, call);
         if (call.getState() == Call.State.INCOMING ||
                 call.getState() == Call.State.CALL_WAITING) {
             onIncoming(call, call.getCannedSmsResponses());
         } else {
             onUpdate(call);
         }
-        Trace.endSection();
+        // The parent may have been updated before this call was in the list to be its child.
+        final Call parent = getCallByTelecommCall(telecommCall.getParent());
+        if (parent != null) {
+            parent.onChildAdded();
+        }
+        CallTimeline.endSection("CallList.onCallAdded", call.getId(), start);
     }
 
     public void onCallRemoved(android.telecom.Call telecommCall) {
         if (mCallByTelecommCall.containsKey(telecommCall)) {
             Call call = mCallByTelecommCall.get(telecommCall);
+            CallEventRecorder.getInstance().record(CallEventTrace.EVENT_REMOVED, call);
             if (updateCallInMap(call)) {
                 Log.w(this, "Removing call not previously disconnected " + call.getId());
             }
             updateCallTextMap(call, null);
+            dropCallUpdateListenersIfRemoved(call);
         }
     }
 
@@ -130,8 +188,11 @@ public class CallList {
     public void onDisconnect(Call call) {
         if (updateCallInMap(call)) {
             Log.i(this, "onDisconnect: " + call);
+            updateConferenceIndex(call, CallListDelta.FIELD_ALL);
+            // deliver any coalesced changes first so listeners see events in order
+            flushPendingChanges();
             // notify those listening for changes on this specific change
-            notifyCallUpdateListeners(call);
+            notifyCallUpdateListeners(call, CallListDelta.FIELD_ALL);
             // notify those listening for all disconnects
             notifyListenersOfDisconnect(call);
         }
@@ -156,11 +217,15 @@ public class CallList {
         if (updateCallInMap(call)) {
             Log.i(this, "onIncoming - " + call);
         }
+        updateConferenceIndex(call, CallListDelta.FIELD_ALL);
         updateCallTextMap(call, textMessages);
+        flushPendingChanges();
 
+        final long start = CallTimeline.beginSection("CallList.notifyIncomingCall");
         for (Listener listener : mListeners) {
             listener.onIncomingCall(call);
         }
+        CallTimeline.endSection("CallList.notifyIncomingCall", call.getId(), start);
     }
 
     public void onUpgradeToVideo(Call call){
@@ -173,7 +238,18 @@ public class CallList {
      * Called when a single call has changed.
      */
     public void onUpdate(Call call) {
-        Trace.beginSection("onUpdate");
+        onUpdate(call, CallListDelta.FIELD_ALL);
+    }
+
+    /**
+     * Called when a single call has changed.
+     *
+     * @param call The call.
+     * @param changes The {@link CallListDelta} fields of the call which changed.
+     */
+    void onUpdate(Call call, int changes) {
+        mCallUpdateCount++;
+        final long start = CallTimeline.beginSection("CallList.onUpdate");
         PhoneAccountHandle ph = call.getAccountHandle();
         Log.d(this, "onUpdate - " + call  + " ph:" + ph);
         try {
@@ -187,9 +263,29 @@ public class CallList {
         } catch (NumberFormatException e) {
                 Log.w(this,"Sub Id is not a number " + e);
         }
-        onUpdateCall(call);
-        notifyGenericListeners();
-        Trace.endSection();
+        onUpdateCall(call, changes);
+        requestGenericNotification(call);
+        CallTimeline.endSection("CallList.onUpdate", call.getId(), start);
+    }
+
+    /**
+     * Called when a call received an update from telecom which did not change anything.
+     */
+    void onUpdateDropped(Call call) {
+        mCallUpdateCount++;
+        mDroppedCallUpdateCount++;
+        Log.v(this, "onUpdateDropped - ", call);
+    }
+
+    /**
+     * Enables or disables coalescing of call list changes to one dispatch per frame. Disabling it
+     * delivers any pending change immediately.
+     */
+    public void setCoalesceUpdates(boolean coalesce) {
+        mCoalesceUpdates = coalesce;
+        if (!coalesce) {
+            flushPendingChanges();
+        }
     }
 
     /**
@@ -199,12 +295,10 @@ public class CallList {
      * @param sessionModificationState The new session modification state.
      */
     public void onSessionModificationStateChange(Call call, int sessionModificationState) {
-        final List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(call.getId());
-        if (listeners != null) {
-            for (CallUpdateListener listener : listeners) {
-                listener.onSessionModificationStateChange(sessionModificationState);
-            }
-        }
+        mVersion++;
+        mCallUpdateListeners.dispatch(
+                CallUpdateListenerRegistry.EVENT_SESSION_MODIFICATION_STATE_CHANGE, call,
+                sessionModificationState);
     }
 
     /**
@@ -215,12 +309,8 @@ public class CallList {
      * @param call The call.
      */
     public void onLastForwardedNumberChange(Call call) {
-        final List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(call.getId());
-        if (listeners != null) {
-            for (CallUpdateListener listener : listeners) {
-                listener.onLastForwardedNumberChange();
-            }
-        }
+        mCallUpdateListeners.dispatch(
+                CallUpdateListenerRegistry.EVENT_LAST_FORWARDED_NUMBER_CHANGE, call, 0);
     }
 
     /**
@@ -230,36 +320,41 @@ public class CallList {
      * @param call The call.
      */
     public void onChildNumberChange(Call call) {
-        final List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(call.getId());
-        if (listeners != null) {
-            for (CallUpdateListener listener : listeners) {
-                listener.onChildNumberChange();
-            }
-        }
+        mCallUpdateListeners.dispatch(
+                CallUpdateListenerRegistry.EVENT_CHILD_NUMBER_CHANGE, call, 0);
     }
 
-    public void notifyCallUpdateListeners(Call call) {
-        final List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(call.getId());
-        if (listeners != null) {
-            for (CallUpdateListener listener : listeners) {
-                listener.onCallChanged(call);
-            }
-        }
+    /**
+     * Notifies the call update listeners of a call which subscribed to any of the changed fields.
+     *
+     * @param call The call.
+     * @param changes The {@link CallListDelta} fields of the call which changed.
+     */
+    private void notifyCallUpdateListeners(Call call, int changes) {
+        mCallUpdateListeners.dispatch(CallUpdateListenerRegistry.EVENT_CALL_CHANGED, call, changes);
     }
 
     /**
-     * Add a call update listener for a call id.
+     * Add a call update listener for a call id, which is told about any change to the call.
      *
      * @param callId The call id to get updates for.
      * @param listener The listener to add.
      */
     public void addCallUpdateListener(String callId, CallUpdateListener listener) {
-        List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(callId);
-        if (listeners == null) {
-            listeners = new CopyOnWriteArrayList<CallUpdateListener>();
-            mCallUpdateListenerMap.put(callId, listeners);
-        }
-        listeners.add(listener);
+        addCallUpdateListener(callId, listener, CallListDelta.FIELD_ALL);
+    }
+
+    /**
+     * Add a call update listener for a call id.
+     *
+     * @param callId The call id to get updates for.
+     * @param listener The listener to add.
+     * @param changeMask The {@link CallListDelta} fields for which
+     *      {@link CallUpdateListener#onCallChanged} is called; other callbacks are always sent.
+     */
+    public void addCallUpdateListener(String callId, CallUpdateListener listener,
+            int changeMask) {
+        mCallUpdateListeners.add(callId, listener, changeMask);
     }
 
     /**
@@ -269,10 +364,7 @@ public class CallList {
      * @param listener The listener to remove.
      */
     public void removeCallUpdateListener(String callId, CallUpdateListener listener) {
-        List<CallUpdateListener> listeners = mCallUpdateListenerMap.get(callId);
-        if (listeners != null) {
-            listeners.remove(listener);
-        }
+        mCallUpdateListeners.remove(callId, listener);
     }
 
     public void addListener(Listener listener) {
@@ -410,6 +502,14 @@ public class CallList {
         return null;
     }
 
+    /**
+     * Returns a number which changes whenever the calls or the active subscription change, so
+     * two {@link CallListSnapshot}s with the same version have the same contents.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
     public Call getCallById(String callId) {
         return mCallById.get(callId);
     }
@@ -418,6 +518,22 @@ public class CallList {
         return mCallByTelecommCall.get(telecommCall);
     }
 
+    /**
+     * @return The children of a conference call which are in the call list. Empty if the call is
+     *      not a conference.
+     */
+    public List<Call> getChildCalls(Call parent) {
+        return mConferenceIndex.getChildren(parent.getId());
+    }
+
+    /**
+     * @return The conference call a call is a child of, or {@code null}.
+     */
+    public Call getParentCall(Call child) {
+        final String parentId = mConferenceIndex.getParentId(child.getId());
+        return parentId == null ? null : mCallById.get(parentId);
+    }
+
     public List<String> getTextResponses(String callId) {
         return mCallTextReponsesMap.get(callId);
     }
@@ -430,8 +546,7 @@ public class CallList {
     }
 
     /**
-     * Returns the [position]th call found in the call map with the specified state.
-     * TODO: Improve this logic to sort by call time.
+     * Returns the [position]th call with the specified state, ordered by call creation time.
      */
     public Call getCallWithState(int state, int positionToFind) {
         // if DSDA is enabled call getCallWithState with active subscription.
@@ -441,20 +556,7 @@ public class CallList {
             return getCallWithState(state, positionToFind, getActiveSubId());
         }
 
-        Call retval = null;
-        int position = 0;
-        for (Call call : mCallById.values()) {
-            if (call.getState() == state) {
-                if (position >= positionToFind) {
-                    retval = call;
-                    break;
-                } else {
-                    position++;
-                }
-            }
-        }
-
-        return retval;
+        return mCallStateIndex.getCall(state, positionToFind);
     }
 
     /**
@@ -483,12 +585,8 @@ public class CallList {
      * the disconnect cause, and that any pending disconnects should immediately occur.
      */
     public void onErrorDialogDismissed() {
-        final Iterator<Call> iterator = mPendingDisconnectCalls.iterator();
-        while (iterator.hasNext()) {
-            Call call = iterator.next();
-            iterator.remove();
-            finishDisconnectedCall(call);
-        }
+        finishDisconnectedCalls(mPendingDisconnectCalls.removeAll());
+        scheduleDisconnectTimer();
     }
 
     /**
@@ -496,13 +594,68 @@ public class CallList {
      *
      * @param call The call to update.
      */
-    private void onUpdateCall(Call call) {
+    private void onUpdateCall(Call call, int changes) {
         Log.d(this, "\t" + call);
         if (updateCallInMap(call)) {
             Log.i(this, "onUpdate - " + call);
         }
+        updateConferenceIndex(call, changes);
         updateCallTextMap(call, call.getCannedSmsResponses());
-        notifyCallUpdateListeners(call);
+        notifyCallUpdateListeners(call, changes);
+        dropCallUpdateListenersIfRemoved(call);
+    }
+
+    /**
+     * Updates the conference index with the parent or children of a call, if they changed and
+     * the call is in the call list.
+     */
+    private void updateConferenceIndex(Call call, int changes) {
+        if (mCallById.containsKey(call.getId())) {
+            mConferenceIndex.update(call, changes, mCallById);
+        }
+    }
+
+    /**
+     * Drops the call update listeners of a call once it is gone from the call list, after they
+     * were told about its last update. Listeners which did not unregister by then would otherwise
+     * be kept forever.
+     */
+    private void dropCallUpdateListenersIfRemoved(Call call) {
+        if (!mCallById.containsKey(call.getId())) {
+            mCallUpdateListeners.removeCall(call.getId());
+        }
+    }
+
+    /**
+     * Notifies listeners that a call has changed, either immediately or, when coalescing, on the
+     * next frame together with any other call changed before then.
+     */
+    private void requestGenericNotification(Call call) {
+        mRequestedChangeCount++;
+        if (!mCoalesceUpdates || Looper.myLooper() == null) {
+            notifyGenericListeners();
+            return;
+        }
+
+        mDirtyCallIds.add(call.getId());
+        if (mFrameCallbackPending) {
+            mMergedChangeCount++;
+        } else {
+            if (mChoreographer == null) {
+                mChoreographer = Choreographer.getInstance();
+            }
+            mChoreographer.postFrameCallback(mFrameCallback);
+            mFrameCallbackPending = true;
+        }
+    }
+
+    /**
+     * Immediately dispatches a change which is waiting for the next frame, if any.
+     */
+    private void flushPendingChanges() {
+        if (!mDirtyCallIds.isEmpty()) {
+            notifyGenericListeners();
+        }
     }
 
     /**
@@ -510,9 +663,25 @@ public class CallList {
      * It is up to the listeners to call back to determine what changed.
      */
     private void notifyGenericListeners() {
+        // This dispatch covers every change still waiting for the next frame.
+        mDirtyCallIds.clear();
+        if (mFrameCallbackPending) {
+            mChoreographer.removeFrameCallback(mFrameCallback);
+            mFrameCallbackPending = false;
+        }
+
+        mDispatchedChangeCount++;
+        final CallListDelta delta = mDeltaTracker.computeDelta(mCallById.values());
+        Log.v(this, "notifyGenericListeners: ", delta);
+        final long start = CallTimeline.beginSection("CallList.notifyGenericListeners");
         for (Listener listener : mListeners) {
-            listener.onCallListChange(this);
+            if (listener instanceof DeltaListener) {
+                ((DeltaListener) listener).onCallListChange(this, delta);
+            } else {
+                listener.onCallListChange(this);
+            }
         }
+        CallTimeline.endSection("CallList.notifyGenericListeners", start);
     }
 
     private void notifyListenersOfDisconnect(Call call) {
@@ -525,7 +694,8 @@ public class CallList {
      * Updates the call entry in the local map.
      * @return false if no call previously existed and no call was added, otherwise true.
      */
-    private boolean updateCallInMap(Call call) {
+    @NeededForTesting
+    boolean updateCallInMap(Call call) {
         Preconditions.checkNotNull(call);
 
         boolean updated = false;
@@ -537,24 +707,31 @@ public class CallList {
                 // UI has a chance to display anything it needs when a call is disconnected.
 
                 // Set up a timer to destroy the call after X seconds.
-                final Message msg = mHandler.obtainMessage(EVENT_DISCONNECTED_TIMEOUT, call);
-                mHandler.sendMessageDelayed(msg, getDelayForDisconnect(call));
-                mPendingDisconnectCalls.add(call);
+                mPendingDisconnectCalls.schedule(call, getDelayForDisconnect(call),
+                        SystemClock.uptimeMillis());
+                scheduleDisconnectTimer();
 
                 mCallById.put(call.getId(), call);
                 mCallByTelecommCall.put(call.getTelecommCall(), call);
+                mCallStateIndex.update(call);
                 updated = true;
             }
         } else if (!isCallDead(call)) {
             mCallById.put(call.getId(), call);
             mCallByTelecommCall.put(call.getTelecommCall(), call);
+            mCallStateIndex.update(call);
             updated = true;
         } else if (mCallById.containsKey(call.getId())) {
             mCallById.remove(call.getId());
             mCallByTelecommCall.remove(call.getTelecommCall());
+            mCallStateIndex.remove(call);
+            mConferenceIndex.remove(call);
             updated = true;
         }
 
+        if (updated) {
+            mVersion++;
+        }
         return updated;
     }
 
@@ -604,17 +781,34 @@ public class CallList {
     }
 
     /**
-     * Sets up a call for deletion and notifies listeners of change.
+     * Sets up calls for deletion and notifies listeners of the change once.
      */
-    private void finishDisconnectedCall(Call call) {
-        if (mPendingDisconnectCalls.contains(call)) {
-            mPendingDisconnectCalls.remove(call);
+    private void finishDisconnectedCalls(List<Call> calls) {
+        if (calls.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < calls.size(); i++) {
+            final Call call = calls.get(i);
+            call.setState(Call.State.IDLE);
+            updateCallInMap(call);
+            dropCallUpdateListenersIfRemoved(call);
         }
-        call.setState(Call.State.IDLE);
-        updateCallInMap(call);
+        mDisconnectBatchCount++;
+        mExpiredDisconnectCount += calls.size();
         notifyGenericListeners();
     }
 
+    /**
+     * Arms the handler for the next tick of the disconnect timer wheel which has calls due.
+     */
+    private void scheduleDisconnectTimer() {
+        mHandler.removeMessages(EVENT_DISCONNECTED_TIMEOUT);
+        final long nextExpiryMillis = mPendingDisconnectCalls.getNextExpiryMillis();
+        if (nextExpiryMillis >= 0) {
+            mHandler.sendEmptyMessageAtTime(EVENT_DISCONNECTED_TIMEOUT, nextExpiryMillis);
+        }
+    }
+
     /**
      * Notifies all video calls of a change in device orientation.
      *
@@ -641,11 +835,17 @@ public class CallList {
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case EVENT_DISCONNECTED_TIMEOUT:
-                    Log.d(this, "EVENT_DISCONNECTED_TIMEOUT ", msg.obj);
-                    finishDisconnectedCall((Call) msg.obj);
+                    final List<Call> expired =
+                            mPendingDisconnectCalls.advance(SystemClock.uptimeMillis());
+                    Log.d(this, "EVENT_DISCONNECTED_TIMEOUT ", expired);
+                    finishDisconnectedCalls(expired);
+                    scheduleDisconnectTimer();
                     break;
                 case EVENT_NOTIFY_CHANGE:
                     Log.d(this, "EVENT_NOTIFY_CHANGE: ");
+                    // Only the calls of the subscriptions switched from and to are affected.
+                    markActiveSubChanged(msg.arg1);
+                    markActiveSubChanged(msg.arg2);
                     notifyGenericListeners();
                     for (ActiveSubChangeListener listener : mActiveSubChangeListeners) {
                         listener.onActiveSubChanged(getActiveSubId());
@@ -693,6 +893,21 @@ public class CallList {
 
     }
 
+    /**
+     * Listener which is told what changed in the call list. The full-list
+     * {@link Listener#onCallListChange(CallList)} is still used when the listener is first added.
+     */
+    public interface DeltaListener extends Listener {
+        /**
+         * Called instead of {@link Listener#onCallListChange(CallList)} when the call list
+         * changes.
+         *
+         * @param callList The call list.
+         * @param delta The calls added, removed and changed since the previous change.
+         */
+        public void onCallListChange(CallList callList, CallListDelta delta);
+    }
+
     public interface CallUpdateListener {
         // TODO: refactor and limit arg to be call state.  Caller info is not needed.
         public void onCallChanged(Call call);
@@ -737,26 +952,31 @@ public class CallList {
         if (subId != mSubId) {
             Log.d(this, "setActiveSubId, oldActiveSubId = " + mSubId +
                     " newActiveSubId = " + subId);
+            final Message msg = mHandler.obtainMessage(EVENT_NOTIFY_CHANGE, mSubId, subId);
             mSubId = subId;
-            final Message msg = mHandler.obtainMessage(EVENT_NOTIFY_CHANGE, null);
+            mVersion++;
             mHandler.sendMessage(msg);
         }
     }
 
+    /**
+     * Reports the calls of a subscription as changed by the next delta, after the active
+     * subscription switched from or to it.
+     */
+    private void markActiveSubChanged(int subId) {
+        final List<Call> calls = mCallStateIndex.getCalls(subId);
+        for (int i = 0; i < calls.size(); i++) {
+            mDeltaTracker.markChanged(calls.get(i), CallListDelta.FIELD_ACTIVE_SUB);
+        }
+    }
+
     /**
      * Returns true, if any voice call is ACTIVE on the provided subscription.
      */
     boolean hasAnyLiveCall(int subId) {
-        for (Call call : mCallById.values()) {
-            PhoneAccountHandle ph = call.getAccountHandle();
-            try {
-                if (!isCallDead(call) && ph != null && (Integer.parseInt(ph.getId()) == subId)) {
-                    Log.d(this, "hasAnyLiveCall sub = " + subId);
-                    return true;
-                }
-            } catch (NumberFormatException e) {
-                Log.w(this,"Sub Id is not a number " + e);
-            }
+        if (mCallStateIndex.hasLiveCall(subId)) {
+            Log.d(this, "hasAnyLiveCall sub = " + subId);
+            return true;
         }
         Log.d(this, "no active call ");
         return false;
@@ -828,36 +1048,11 @@ public class CallList {
      * found in the call map with the specified state.
      */
     Call getCallWithState(int state, int positionToFind, int subId) {
-        Call retval = null;
-        int position = 0;
-        for (Call call : mCallById.values()) {
-            PhoneAccountHandle ph = call.getAccountHandle();
-            try {
-                if ((call.getState() == state) && ((ph == null) ||
-                        (ph != null && (ph.getId() != null) &&
-                        (ph.getId().contains("sip") ||
-                        Integer.parseInt(ph.getId()) == subId)))) {
-                    if (position >= positionToFind) {
-                        retval = call;
-                        break;
-                    } else {
-                        position++;
-                    }
-                }
-            } catch (NumberFormatException e) {
-                   Log.w(this,"Sub Id is not a number " + e);
-            }
-        }
-        return retval;
+        return mCallStateIndex.getCall(state, positionToFind, subId);
     }
 
-     public Call getCallWithStateAndNumber(int state, String number) {
-         for (Call call : mCallById.values()) {
-             if (TextUtils.equals(call.getNumber(), number) && call.getState() == state) {
-                 return call;
-             }
-         }
-         return null;
+    public Call getCallWithStateAndNumber(int state, String number) {
+        return mCallStateIndex.getCallWithNumber(state, number);
     }
 
     void addActiveSubChangeListener(ActiveSubChangeListener listener) {
@@ -873,4 +1068,26 @@ public class CallList {
     interface ActiveSubChangeListener {
         public void onActiveSubChanged(int subId);
     }
+
+    /**
+     * Dumps the call list state and dispatch counters for debugging.
+     */
+    void dump(PrintWriter pw) {
+        pw.println("CallList:");
+        pw.println("  calls: " + mCallById.size()
+                + ", pending disconnects: " + mPendingDisconnectCalls.size());
+        pw.println("  disconnected calls removed: " + mExpiredDisconnectCount
+                + " in " + mDisconnectBatchCount + " batches");
+        pw.println("  coalescing: " + mCoalesceUpdates
+                + ", pending calls: " + mDirtyCallIds.size());
+        pw.println("  version: " + mVersion);
+        pw.println("  call updates: " + mCallUpdateCount
+                + ", dropped as no-op: " + mDroppedCallUpdateCount
+                + (mCallUpdateCount > 0
+                        ? " (" + (mDroppedCallUpdateCount * 100 / mCallUpdateCount) + "%)" : ""));
+        pw.println("  changes requested: " + mRequestedChangeCount
+                + ", dispatched: " + mDispatchedChangeCount
+                + ", merged: " + mMergedChangeCount);
+        mCallUpdateListeners.dump(pw, mCallById.keySet());
+    }
 }
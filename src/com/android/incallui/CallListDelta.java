@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.net.Uri;
+import android.telecom.InCallService.VideoCall;
+import android.telecom.PhoneAccountHandle;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Describes what changed in the {@link CallList} since the previous
+ * {@link CallList.DeltaListener#onCallListChange(CallList, CallListDelta)} dispatch: the calls
+ * which were added and removed, and for every other call that changed, its old and new state and
+ * a bit mask of the fields which changed.
+ */
+public class CallListDelta {
+
+    public static final int FIELD_STATE = 1 << 0;
+    public static final int FIELD_DISCONNECT_CAUSE = 1 << 1;
+    public static final int FIELD_HANDLE = 1 << 2;
+    public static final int FIELD_ACCOUNT = 1 << 3;
+    public static final int FIELD_CHILDREN = 1 << 4;
+    public static final int FIELD_VIDEO_STATE = 1 << 5;
+    public static final int FIELD_CAPABILITIES = 1 << 6;
+    public static final int FIELD_PROPERTIES = 1 << 7;
+    public static final int FIELD_SESSION_MODIFICATION = 1 << 8;
+    public static final int FIELD_CONFERENCEABLE = 1 << 9;
+    public static final int FIELD_VIDEO_CALL = 1 << 10;
+    /** Any other field of {@link android.telecom.Call.Details}. */
+    public static final int FIELD_DETAILS = 1 << 11;
+    /** The set of keys in the call extras, or one of the extras values a call keeps. */
+    public static final int FIELD_EXTRAS = 1 << 12;
+    public static final int FIELD_TEXT_RESPONSES = 1 << 13;
+    /** The conference call this call is a child of. */
+    public static final int FIELD_PARENT = 1 << 14;
+    /** The subscription of the call became, or stopped being, the active one. */
+    public static final int FIELD_ACTIVE_SUB = 1 << 15;
+    public static final int FIELD_ALL = ~0;
+
+    /**
+     * A call which is in the call list both before and after the change.
+     */
+    public static class CallChange {
+        public final Call call;
+        public final int oldState;
+        public final int newState;
+        public final int changedFields;
+
+        CallChange(Call call, int oldState, int newState, int changedFields) {
+            this.call = call;
+            this.oldState = oldState;
+            this.newState = newState;
+            this.changedFields = changedFields;
+        }
+
+        public boolean hasChanged(int fields) {
+            return (changedFields & fields) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return call.getId() + ":" + Call.State.toString(oldState) + "->"
+                    + Call.State.toString(newState) + "/0x" + Integer.toHexString(changedFields);
+        }
+    }
+
+    private final List<Call> mAdded;
+    private final List<Call> mRemoved;
+    private final List<CallChange> mChanged;
+    private final int mChangedFields;
+
+    CallListDelta(List<Call> added, List<Call> removed, List<CallChange> changed) {
+        mAdded = Collections.unmodifiableList(added);
+        mRemoved = Collections.unmodifiableList(removed);
+        mChanged = Collections.unmodifiableList(changed);
+
+        int fields = 0;
+        for (int i = 0; i < changed.size(); i++) {
+            fields |= changed.get(i).changedFields;
+        }
+        mChangedFields = fields;
+    }
+
+    public List<Call> getAddedCalls() {
+        return mAdded;
+    }
+
+    public List<Call> getRemovedCalls() {
+        return mRemoved;
+    }
+
+    public List<CallChange> getChangedCalls() {
+        return mChanged;
+    }
+
+    /**
+     * @return {@code true} if no call was added, removed or changed.
+     */
+    public boolean isEmpty() {
+        return mAdded.isEmpty() && mRemoved.isEmpty() && mChanged.isEmpty();
+    }
+
+    /**
+     * @return {@code true} if calls were added or removed, or any existing call changed one of the
+     *      given fields.
+     */
+    public boolean hasChanges(int fields) {
+        return !mAdded.isEmpty() || !mRemoved.isEmpty() || (mChangedFields & fields) != 0;
+    }
+
+    /**
+     * @return The change for the given call, or {@code null} if it did not change or is not an
+     *      existing call.
+     */
+    public CallChange getChange(Call call) {
+        if (call == null) {
+            return null;
+        }
+        for (int i = 0; i < mChanged.size(); i++) {
+            if (Call.areSame(mChanged.get(i).call, call)) {
+                return mChanged.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return {@code true} if the given call was added, removed or changed one of the given
+     *      fields.
+     */
+    public boolean affects(Call call, int fields) {
+        if (call == null) {
+            return false;
+        }
+        if (mAdded.contains(call) || mRemoved.contains(call)) {
+            return true;
+        }
+        final CallChange change = getChange(call);
+        return change != null && change.hasChanged(fields);
+    }
+
+    @Override
+    public String toString() {
+        return "[added:" + mAdded + ", removed:" + mRemoved + ", changed:" + mChanged + "]";
+    }
+
+    /**
+     * The fields of a call which a {@link CallListDelta} compares.
+     */
+    private static class CallRecord {
+        final Call call;
+        int state;
+        int disconnectCode;
+        final List<String> childIds = new ArrayList<>();
+        String parentId;
+        int sessionModificationState;
+        android.telecom.Call.Details details;
+        Uri handle;
+        PhoneAccountHandle account;
+        int videoState;
+        int capabilities;
+        int properties;
+        final List<android.telecom.Call> conferenceable = new ArrayList<>();
+        VideoCall videoCall;
+        /** Fields changed by something other than the call, reported by the next update. */
+        int markedFields;
+
+        CallRecord(Call call) {
+            this.call = call;
+        }
+
+        /**
+         * Reads the current values from the call and returns the fields which changed.
+         */
+        int update() {
+            int changed = markedFields;
+            markedFields = 0;
+
+            final int newState = call.getState();
+            if (newState != state) {
+                changed |= CallListDelta.FIELD_STATE;
+                state = newState;
+            }
+
+            final int newDisconnectCode = call.getDisconnectCause() == null
+                    ? 0 : call.getDisconnectCause().getCode();
+            if (newDisconnectCode != disconnectCode) {
+                changed |= CallListDelta.FIELD_DISCONNECT_CAUSE;
+                disconnectCode = newDisconnectCode;
+            }
+
+            if (!childIds.equals(call.getChildCallIds())) {
+                changed |= CallListDelta.FIELD_CHILDREN;
+                childIds.clear();
+                childIds.addAll(call.getChildCallIds());
+            }
+
+            if (!Objects.equals(call.getParentId(), parentId)) {
+                changed |= CallListDelta.FIELD_PARENT;
+                parentId = call.getParentId();
+            }
+
+            if (call.getSessionModificationState() != sessionModificationState) {
+                changed |= CallListDelta.FIELD_SESSION_MODIFICATION;
+                sessionModificationState = call.getSessionModificationState();
+            }
+
+            final android.telecom.Call telecomCall = call.getTelecommCall();
+            if (telecomCall == null) {
+                return changed;
+            }
+
+            if (!conferenceable.equals(telecomCall.getConferenceableCalls())) {
+                changed |= CallListDelta.FIELD_CONFERENCEABLE;
+                conferenceable.clear();
+                conferenceable.addAll(telecomCall.getConferenceableCalls());
+            }
+
+            if (telecomCall.getVideoCall() != videoCall) {
+                changed |= CallListDelta.FIELD_VIDEO_CALL;
+                videoCall = telecomCall.getVideoCall();
+            }
+
+            // Telecom replaces the details object whenever any of its values change.
+            final android.telecom.Call.Details newDetails = telecomCall.getDetails();
+            if (newDetails != details) {
+                int detailsChanged = CallListDelta.FIELD_DETAILS;
+                if (!Objects.equals(newDetails.getHandle(), handle)) {
+                    detailsChanged |= CallListDelta.FIELD_HANDLE;
+                }
+                if (!Objects.equals(newDetails.getAccountHandle(), account)) {
+                    detailsChanged |= CallListDelta.FIELD_ACCOUNT;
+                }
+                if (newDetails.getVideoState() != videoState) {
+                    detailsChanged |= CallListDelta.FIELD_VIDEO_STATE;
+                }
+                if (newDetails.getCallCapabilities() != capabilities) {
+                    detailsChanged |= CallListDelta.FIELD_CAPABILITIES;
+                }
+                if (newDetails.getCallProperties() != properties) {
+                    detailsChanged |= CallListDelta.FIELD_PROPERTIES;
+                }
+                // The first snapshot of a call only establishes a baseline.
+                if (details != null) {
+                    changed |= detailsChanged;
+                }
+                details = newDetails;
+                handle = newDetails.getHandle();
+                account = newDetails.getAccountHandle();
+                videoState = newDetails.getVideoState();
+                capabilities = newDetails.getCallCapabilities();
+                properties = newDetails.getCallProperties();
+            }
+
+            return changed;
+        }
+    }
+
+    /**
+     * Remembers the calls seen by the previous dispatch and computes the delta to the current
+     * contents of the call list.
+     */
+    static class Tracker {
+        private HashMap<String, CallRecord> mRecords = new HashMap<>();
+        private HashMap<String, CallRecord> mScratch = new HashMap<>();
+
+        /**
+         * Reports the given fields of a call as changed by the next delta, even though the call
+         * itself did not change.
+         */
+        void markChanged(Call call, int fields) {
+            final CallRecord record = mRecords.get(call.getId());
+            if (record != null) {
+                record.markedFields |= fields;
+            }
+        }
+
+        CallListDelta computeDelta(Collection<Call> calls) {
+            final List<Call> added = new ArrayList<>();
+            final List<Call> removed = new ArrayList<>();
+            final List<CallChange> changed = new ArrayList<>();
+
+            for (Call call : calls) {
+                CallRecord record = mRecords.remove(call.getId());
+                if (record == null) {
+                    record = new CallRecord(call);
+                    record.update();
+                    added.add(call);
+                } else {
+                    final int oldState = record.state;
+                    final int fields = record.update();
+                    if (fields != 0) {
+                        changed.add(new CallChange(call, oldState, record.state, fields));
+                    }
+                }
+                mScratch.put(call.getId(), record);
+            }
+
+            // Whatever is left was not in the call list anymore.
+            for (CallRecord record : mRecords.values()) {
+                removed.add(record.call);
+            }
+            mRecords.clear();
+
+            final HashMap<String, CallRecord> records = mScratch;
+            mScratch = mRecords;
+            mRecords = records;
+
+            return new CallListDelta(added, removed, changed);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable view of the {@link CallList} at one {@link CallList#getVersion() version}. All the
+ * lookups listeners need are done once when the snapshot is built, so reading them again while
+ * handling a change is free and cannot observe a call list which changed in between.
+ *
+ * Two snapshots with the same version were taken from the same call list contents, which lets a
+ * listener skip work for a state it already rendered.
+ */
+public class CallListSnapshot {
+
+    private final long mVersion;
+
+    private final Call mIncomingCall;
+    private final Call mWaitingForAccountCall;
+    private final Call mPendingOutgoingCall;
+    private final Call mOutgoingCall;
+    private final Call mActiveCall;
+    private final Call mBackgroundCall;
+    private final Call mSecondBackgroundCall;
+    private final Call mDisconnectingCall;
+    private final Call mDisconnectedCall;
+    private final Call mVideoUpgradeRequestCall;
+
+    private final Call mPrimaryCall;
+    private final Call mSecondaryCall;
+
+    private final Call mConferenceCall;
+    private final List<Call> mConferenceChildren;
+
+    private CallListSnapshot(CallList callList, long version) {
+        mVersion = version;
+
+        mIncomingCall = callList.getIncomingCall();
+        mWaitingForAccountCall = callList.getWaitingForAccountCall();
+        mPendingOutgoingCall = callList.getPendingOutgoingCall();
+        mOutgoingCall = callList.getOutgoingCall();
+        mActiveCall = callList.getActiveCall();
+        mBackgroundCall = callList.getBackgroundCall();
+        mSecondBackgroundCall = callList.getSecondBackgroundCall();
+        mDisconnectingCall = callList.getDisconnectingCall();
+        mDisconnectedCall = callList.getDisconnectedCall();
+        mVideoUpgradeRequestCall = callList.getVideoUpgradeRequestCall();
+
+        if (mIncomingCall != null) {
+            mPrimaryCall = mIncomingCall;
+        } else if (mOutgoingCall != null) {
+            mPrimaryCall = mOutgoingCall;
+        } else if (mPendingOutgoingCall != null) {
+            mPrimaryCall = mPendingOutgoingCall;
+        } else {
+            mPrimaryCall = getCallToDisplay(null, false);
+        }
+        mSecondaryCall = mIncomingCall != null ? null : getCallToDisplay(mPrimaryCall, true);
+
+        final Call activeOrBackground = getActiveOrBackgroundCall();
+        if (activeOrBackground != null && activeOrBackground.isConferenceCall()) {
+            mConferenceCall = activeOrBackground;
+            mConferenceChildren = Collections.unmodifiableList(
+                    new ArrayList<>(callList.getChildCalls(activeOrBackground)));
+        } else {
+            mConferenceCall = null;
+            mConferenceChildren = Collections.emptyList();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the given call list.
+     */
+    static CallListSnapshot create(CallList callList) {
+        return new CallListSnapshot(callList, callList.getVersion());
+    }
+
+    /**
+     * @return The {@link CallList#getVersion()} the snapshot was taken at.
+     */
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public Call getIncomingCall() {
+        return mIncomingCall;
+    }
+
+    public Call getWaitingForAccountCall() {
+        return mWaitingForAccountCall;
+    }
+
+    public Call getPendingOutgoingCall() {
+        return mPendingOutgoingCall;
+    }
+
+    public Call getOutgoingCall() {
+        return mOutgoingCall;
+    }
+
+    public Call getActiveCall() {
+        return mActiveCall;
+    }
+
+    public Call getBackgroundCall() {
+        return mBackgroundCall;
+    }
+
+    public Call getSecondBackgroundCall() {
+        return mSecondBackgroundCall;
+    }
+
+    public Call getDisconnectingCall() {
+        return mDisconnectingCall;
+    }
+
+    public Call getDisconnectedCall() {
+        return mDisconnectedCall;
+    }
+
+    public Call getVideoUpgradeRequestCall() {
+        return mVideoUpgradeRequestCall;
+    }
+
+    public Call getActiveOrBackgroundCall() {
+        return mActiveCall != null ? mActiveCall : mBackgroundCall;
+    }
+
+    /**
+     * Same as {@link CallList#getFirstCall()}.
+     */
+    public Call getFirstCall() {
+        if (mIncomingCall != null) {
+            return mIncomingCall;
+        } else if (mPendingOutgoingCall != null) {
+            return mPendingOutgoingCall;
+        } else if (mOutgoingCall != null) {
+            return mOutgoingCall;
+        } else if (mActiveCall != null) {
+            return mActiveCall;
+        } else if (mDisconnectingCall != null) {
+            return mDisconnectingCall;
+        }
+        return mDisconnectedCall;
+    }
+
+    /**
+     * Same as {@link CallList#hasLiveCall()}.
+     */
+    public boolean hasLiveCall() {
+        final Call call = getFirstCall();
+        return call != null && call != mDisconnectingCall && call != mDisconnectedCall;
+    }
+
+    /**
+     * @return The call the in-call UI shows most prominently: the incoming call, else the
+     *      outgoing call, else the active, disconnecting, disconnected or held call in that order.
+     */
+    public Call getPrimaryCall() {
+        return mPrimaryCall;
+    }
+
+    /**
+     * @return The live call shown next to the {@link #getPrimaryCall() primary call}, if any.
+     *      There is none while a call is incoming.
+     */
+    public Call getSecondaryCall() {
+        return mSecondaryCall;
+    }
+
+    /**
+     * @return The active or held call if it is a conference, otherwise {@code null}.
+     */
+    public Call getConferenceCall() {
+        return mConferenceCall;
+    }
+
+    /**
+     * @return The calls which are part of the {@link #getConferenceCall() conference call}.
+     */
+    public List<Call> getConferenceChildren() {
+        return mConferenceChildren;
+    }
+
+    /**
+     * Returns the highest priority call to display, excluding incoming and outgoing calls.
+     *
+     * @param ignore A call to ignore if found.
+     * @param skipDisconnected {@code true} if disconnecting and disconnected calls are skipped.
+     */
+    public Call getCallToDisplay(Call ignore, boolean skipDisconnected) {
+        // An active call always gets precedent.
+        if (mActiveCall != null && mActiveCall != ignore) {
+            return mActiveCall;
+        }
+
+        // Disconnected calls get primary position if there are no active calls to let the user
+        // know quickly what call has disconnected. Disconnected calls are very short lived.
+        if (!skipDisconnected) {
+            if (mDisconnectingCall != null && mDisconnectingCall != ignore) {
+                return mDisconnectingCall;
+            }
+            if (mDisconnectedCall != null && mDisconnectedCall != ignore) {
+                return mDisconnectedCall;
+            }
+        }
+
+        // Then we go to background call (calls on hold)
+        if (mBackgroundCall != null && mBackgroundCall != ignore) {
+            return mBackgroundCall;
+        }
+
+        // Lastly, we go to a second background call.
+        return mSecondBackgroundCall;
+    }
+
+    @Override
+    public String toString() {
+        return "CallListSnapshot{version=" + mVersion + ", primary=" + mPrimaryCall
+                + ", secondary=" + mSecondaryCall + ", conference=" + mConferenceCall + "}";
+    }
+}
@@ -43,7 +43,7 @@ import java.util.HashSet;
  * Manages the call recorder service lifecycle.  We bind to the service whenever an active call
  * is established, and unbind when all calls have been disconnected.
  */
-public class CallRecorder implements CallList.Listener {
+public class CallRecorder implements CallList.DeltaListener {
     public static final String TAG = "CallRecorder";
 
     public static final String[] REQUIRED_PERMISSIONS = new String[] {
@@ -220,6 +220,14 @@ public class CallRecorder implements CallList.Listener {
         }
     }
 
+    @Override
+    public void onCallListChange(CallList callList, CallListDelta delta) {
+        // Recording only reacts to calls becoming active or being put on hold.
+        if (delta.hasChanges(CallListDelta.FIELD_STATE)) {
+            onCallListChange(callList);
+        }
+    }
+
     @Override
     public void onDisconnect(final Call call) {
         CallRecording active = getActiveRecording();
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.telecom.PhoneAccountHandle;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Index of the calls tracked by {@link CallList}, bucketed by {@link Call.State}. Within a
+ * bucket calls are ordered by creation time, so the [position]th call with a given state is the
+ * [position]th oldest one. The index is kept in sync by {@link CallList} whenever a call is
+ * added, updated or removed from its map.
+ *
+ * Calls are also partitioned by subscription, each partition with its own state buckets and
+ * count of live calls, so that lookups for one subscription with DSDA never look at the calls of
+ * the other ones.
+ */
+class CallStateIndex {
+
+    /** Subscription key of calls that match any subscription (no account, or a SIP account). */
+    static final int SUB_ANY = Integer.MIN_VALUE;
+
+    /** Subscription key of calls whose account id is not a subscription id. */
+    static final int SUB_NONE = Integer.MIN_VALUE + 1;
+
+    private static final int STATE_COUNT = Call.State.CONNECTING + 1;
+
+    private static class Entry {
+        final Call call;
+        final long sequence;
+        long createTimeMillis;
+        int state;
+        int subKey;
+
+        Entry(Call call, long sequence) {
+            this.call = call;
+            this.sequence = sequence;
+        }
+
+        boolean isBefore(Entry other) {
+            if (createTimeMillis != other.createTimeMillis) {
+                return createTimeMillis < other.createTimeMillis;
+            }
+            return sequence < other.sequence;
+        }
+    }
+
+    /**
+     * The calls of one subscription.
+     */
+    private static class Partition {
+        final List<ArrayList<Entry>> buckets = newBuckets();
+        /** Number of calls which are neither idle nor invalid. */
+        int liveCount;
+    }
+
+    private final List<ArrayList<Entry>> mBuckets = newBuckets();
+    private final HashMap<Integer, Partition> mPartitions = new HashMap<>();
+    private final HashMap<String, Entry> mEntryById = new HashMap<>();
+    private long mSequence = 0;
+
+    /**
+     * Adds the call to the index, or moves it to the bucket matching its current state and
+     * subscription.
+     */
+    void update(Call call) {
+        final int state = call.getState();
+        final int subKey = getSubKey(call);
+
+        Entry entry = mEntryById.get(call.getId());
+        if (entry != null) {
+            if (entry.state == state && entry.subKey == subKey) {
+                return;
+            }
+            removeEntry(entry);
+        } else {
+            entry = new Entry(call, mSequence++);
+            entry.createTimeMillis = call.getTelecommCall() == null
+                    ? 0 : call.getCreateTimeMillis();
+            mEntryById.put(call.getId(), entry);
+        }
+
+        entry.state = state;
+        entry.subKey = subKey;
+        insertSorted(getBucket(mBuckets, state), entry);
+
+        Partition partition = mPartitions.get(subKey);
+        if (partition == null) {
+            partition = new Partition();
+            mPartitions.put(subKey, partition);
+        }
+        insertSorted(getBucket(partition.buckets, state), entry);
+        if (isLive(state)) {
+            partition.liveCount++;
+        }
+    }
+
+    void remove(Call call) {
+        final Entry entry = mEntryById.remove(call.getId());
+        if (entry != null) {
+            removeEntry(entry);
+        }
+    }
+
+    /**
+     * Returns the [position]th oldest call with the specified state, or {@code null}.
+     */
+    Call getCall(int state, int position) {
+        final ArrayList<Entry> bucket = getBucket(mBuckets, state);
+        for (int i = 0; i < bucket.size(); i++) {
+            final Call call = bucket.get(i).call;
+            // A call whose state was changed but which has not been re-indexed yet is skipped.
+            if (call.getState() == state && position-- == 0) {
+                return call;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the [position]th oldest call with the specified state which belongs to the given
+     * subscription, or {@code null}.
+     */
+    Call getCall(int state, int position, int subId) {
+        // Calls matching any subscription are merged in by creation time.
+        final List<Entry> own = getPartitionBucket(subId, state);
+        final List<Entry> any = subId == SUB_ANY
+                ? Collections.<Entry>emptyList() : getPartitionBucket(SUB_ANY, state);
+        int i = 0;
+        int j = 0;
+        while (i < own.size() || j < any.size()) {
+            final Entry entry;
+            if (j == any.size() || (i < own.size() && own.get(i).isBefore(any.get(j)))) {
+                entry = own.get(i++);
+            } else {
+                entry = any.get(j++);
+            }
+            if (entry.call.getState() == state && position-- == 0) {
+                return entry.call;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether any call which is neither idle nor invalid belongs to the given
+     * subscription. Calls matching any subscription do not count.
+     */
+    boolean hasLiveCall(int subId) {
+        final Partition partition = mPartitions.get(subId);
+        return partition != null && partition.liveCount > 0;
+    }
+
+    /**
+     * Returns the calls which belong to the given subscription, in no particular order. Calls
+     * matching any subscription are not included.
+     */
+    List<Call> getCalls(int subId) {
+        final Partition partition = mPartitions.get(subId);
+        if (partition == null) {
+            return Collections.emptyList();
+        }
+        final List<Call> calls = new ArrayList<>();
+        for (int i = 0; i < partition.buckets.size(); i++) {
+            final ArrayList<Entry> bucket = partition.buckets.get(i);
+            for (int j = 0; j < bucket.size(); j++) {
+                calls.add(bucket.get(j).call);
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * Returns the oldest call with the specified state and number, or {@code null}.
+     */
+    Call getCallWithNumber(int state, String number) {
+        final ArrayList<Entry> bucket = getBucket(mBuckets, state);
+        for (int i = 0; i < bucket.size(); i++) {
+            final Call call = bucket.get(i).call;
+            if (call.getState() == state && TextUtils.equals(call.getNumber(), number)) {
+                return call;
+            }
+        }
+        return null;
+    }
+
+    int getCallCount(int state) {
+        return getBucket(mBuckets, state).size();
+    }
+
+    private void removeEntry(Entry entry) {
+        getBucket(mBuckets, entry.state).remove(entry);
+        final Partition partition = mPartitions.get(entry.subKey);
+        getBucket(partition.buckets, entry.state).remove(entry);
+        if (isLive(entry.state)) {
+            partition.liveCount--;
+        }
+    }
+
+    private List<Entry> getPartitionBucket(int subKey, int state) {
+        final Partition partition = mPartitions.get(subKey);
+        if (partition == null) {
+            return Collections.emptyList();
+        }
+        return getBucket(partition.buckets, state);
+    }
+
+    private static ArrayList<Entry> getBucket(List<ArrayList<Entry>> buckets, int state) {
+        if (state < 0 || state >= STATE_COUNT) {
+            state = Call.State.INVALID;
+        }
+        return buckets.get(state);
+    }
+
+    private static List<ArrayList<Entry>> newBuckets() {
+        final List<ArrayList<Entry>> buckets = new ArrayList<>(STATE_COUNT);
+        for (int i = 0; i < STATE_COUNT; i++) {
+            buckets.add(new ArrayList<Entry>());
+        }
+        return buckets;
+    }
+
+    private static boolean isLive(int state) {
+        return state != Call.State.IDLE && state != Call.State.INVALID;
+    }
+
+    private static void insertSorted(ArrayList<Entry> bucket, Entry entry) {
+        int i = bucket.size();
+        while (i > 0 && entry.isBefore(bucket.get(i - 1))) {
+            i--;
+        }
+        bucket.add(i, entry);
+    }
+
+    /**
+     * Computes the subscription a call is matched against in {@link #getCall(int, int, int)}.
+     */
+    static int getSubKey(Call call) {
+        final PhoneAccountHandle ph = call.getAccountHandle();
+        if (ph == null) {
+            return SUB_ANY;
+        }
+        final String id = ph.getId();
+        if (id == null) {
+            return SUB_NONE;
+        }
+        if (id.contains("sip")) {
+            return SUB_ANY;
+        }
+        try {
+            return Integer.parseInt(id);
+        } catch (NumberFormatException e) {
+            return SUB_NONE;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.JsonWriter;
+
+import com.android.contacts.common.testing.NeededForTesting;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Timeline of what the in-call UI did while the in-call service was bound, so that startup and
+ * state transition latencies can be worked out on a device without attaching a profiler.
+ *
+ * Sections are timed blocks of work on a thread, e.g. a listener handling a state change. They
+ * are also emitted as systrace sections. Marks are points in time, e.g. a call changing state or
+ * the first frame of the UI. A timeline starts when the service is bound and covers the calls
+ * made until it is unbound, and whatever the UI still does after that. The last
+ * {@link #MAX_TIMELINES} are kept in memory, each with up to {@link #MAX_EVENTS} events.
+ *
+ * The marks are part of the dump, with their time since the bind. All of a timeline is written
+ * as a Chrome trace event file, which chrome://tracing can open, by
+ *   adb shell dumpsys activity service InCallServiceImpl --export-timeline
+ */
+class CallTimeline {
+
+    /** The dump argument which exports the timelines to a file. */
+    static final String EXPORT_ARG = "--export-timeline";
+
+    @NeededForTesting
+    static final int MAX_TIMELINES = 8;
+    @NeededForTesting
+    static final int MAX_EVENTS = 4096;
+
+    private static final String FILE_PREFIX = "call_timeline_";
+    private static final String FILE_SUFFIX = ".json";
+
+    private static final CallTimeline sInstance = new CallTimeline(MAX_TIMELINES, MAX_EVENTS);
+
+    private static final class Event {
+        final String name;
+        final String callId;
+        final long startNanos;
+        /** How long the section took, or -1 for a mark. */
+        final long durationNanos;
+        final long threadId;
+
+        Event(String name, String callId, long startNanos, long durationNanos, long threadId) {
+            this.name = name;
+            this.callId = callId;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.threadId = threadId;
+        }
+    }
+
+    private static final class Timeline {
+        final long startNanos;
+        final long startMillis;
+        final ArrayList<Event> events = new ArrayList<>();
+        int droppedCount;
+
+        Timeline(long startNanos, long startMillis) {
+            this.startNanos = startNanos;
+            this.startMillis = startMillis;
+        }
+    }
+
+    private final int mMaxTimelines;
+    private final int mMaxEvents;
+    private final ArrayDeque<Timeline> mTimelines = new ArrayDeque<>();
+
+    static CallTimeline getInstance() {
+        return sInstance;
+    }
+
+    @NeededForTesting
+    CallTimeline(int maxTimelines, int maxEvents) {
+        mMaxTimelines = maxTimelines;
+        mMaxEvents = maxEvents;
+    }
+
+    /**
+     * Begins a systrace section, to be ended on the same thread by {@link #endSection}.
+     *
+     * @return The start time to pass to {@link #endSection}.
+     */
+    static long beginSection(String name) {
+        Trace.beginSection(name);
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Ends the systrace section begun last on this thread, and records it in the timeline.
+     *
+     * @param startNanos What {@link #beginSection} returned.
+     */
+    static void endSection(String name, long startNanos) {
+        endSection(name, null, startNanos);
+    }
+
+    /**
+     * Same as {@link #endSection(String, long)}, for a section which was about a call.
+     */
+    static void endSection(String name, String callId, long startNanos) {
+        final long endNanos = SystemClock.elapsedRealtimeNanos();
+        Trace.endSection();
+        sInstance.record(name, callId, startNanos, endNanos - startNanos);
+    }
+
+    /**
+     * Records that something happened now, e.g. a call changed state.
+     *
+     * @param callId The call it happened to, or {@code null}.
+     */
+    static void mark(String name, String callId) {
+        sInstance.record(name, callId, SystemClock.elapsedRealtimeNanos(), -1);
+    }
+
+    /**
+     * Starts a new timeline, e.g. when the in-call service is bound, dropping the oldest if there
+     * are too many.
+     */
+    synchronized void start() {
+        start(SystemClock.elapsedRealtimeNanos(), System.currentTimeMillis());
+    }
+
+    @NeededForTesting
+    synchronized void start(long startNanos, long startMillis) {
+        if (mTimelines.size() == mMaxTimelines) {
+            mTimelines.removeFirst();
+        }
+        mTimelines.addLast(new Timeline(startNanos, startMillis));
+    }
+
+    /**
+     * Records an event into the latest timeline. Events before the first timeline are dropped.
+     *
+     * @param durationNanos How long the section took, or -1 for a mark.
+     */
+    @NeededForTesting
+    synchronized void record(String name, String callId, long startNanos, long durationNanos) {
+        final Timeline timeline = mTimelines.peekLast();
+        if (timeline == null) {
+            return;
+        }
+        if (timeline.events.size() == mMaxEvents) {
+            timeline.droppedCount++;
+            return;
+        }
+        timeline.events.add(new Event(name, callId, startNanos, durationNanos,
+                Thread.currentThread().getId()));
+    }
+
+    @NeededForTesting
+    synchronized int getTimelineCount() {
+        return mTimelines.size();
+    }
+
+    /**
+     * Writes all the timelines to a new file in the given directory.
+     *
+     * @return The file, or {@code null} if it couldn't be written.
+     */
+    File export(File dir) {
+        final File file = new File(dir, FILE_PREFIX + System.currentTimeMillis() + FILE_SUFFIX);
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new FileWriter(file));
+            writeTo(writer);
+            return file;
+        } catch (IOException e) {
+            Log.e(this, "Unable to export the call timeline to " + file, e);
+            return null;
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    Log.e(this, "Unable to close " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all the timelines as Chrome trace events. Each timeline is a process, and times are
+     * in microseconds since its start.
+     */
+    @NeededForTesting
+    synchronized void writeTo(Writer out) throws IOException {
+        final JsonWriter writer = new JsonWriter(out);
+        writer.beginObject();
+        writer.name("displayTimeUnit").value("ms");
+        writer.name("traceEvents").beginArray();
+        int pid = 0;
+        for (Timeline timeline : mTimelines) {
+            pid++;
+            writer.beginObject();
+            writer.name("name").value("process_name");
+            writer.name("ph").value("M");
+            writer.name("pid").value(pid);
+            writer.name("args").beginObject()
+                    .name("name").value("Bound at " + formatTime(timeline.startMillis))
+                    .endObject();
+            writer.endObject();
+
+            for (Event event : timeline.events) {
+                writer.beginObject();
+                writer.name("name").value(event.name);
+                writer.name("ph").value(event.durationNanos < 0 ? "i" : "X");
+                writer.name("ts").value((event.startNanos - timeline.startNanos) / 1000);
+                if (event.durationNanos < 0) {
+                    // Marks span the whole timeline rather than a single thread.
+                    writer.name("s").value("p");
+                } else {
+                    writer.name("dur").value(event.durationNanos / 1000);
+                }
+                writer.name("pid").value(pid);
+                writer.name("tid").value(event.threadId);
+                if (event.callId != null) {
+                    writer.name("args").beginObject().name("call").value(event.callId)
+                            .endObject();
+                }
+                writer.endObject();
+            }
+        }
+        writer.endArray();
+        writer.endObject();
+        writer.flush();
+    }
+
+    /**
+     * Dumps the marks of each timeline with their time since its start.
+     */
+    synchronized void dump(PrintWriter pw) {
+        pw.println("CallTimeline:");
+        for (Timeline timeline : mTimelines) {
+            pw.println("  bound at " + formatTime(timeline.startMillis) + ", events: "
+                    + timeline.events.size() + ", dropped: " + timeline.droppedCount);
+            for (Event event : timeline.events) {
+                if (event.durationNanos < 0) {
+                    pw.println("    +" + (event.startNanos - timeline.startNanos) / 1000000
+                            + "ms " + event.name
+                            + (event.callId == null ? "" : " " + event.callId));
+                }
+            }
+        }
+    }
+
+    private static String formatTime(long millis) {
+        return new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US).format(new Date(millis));
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import com.android.incallui.CallList.CallUpdateListener;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The {@link CallUpdateListener}s registered with {@link CallList}, by call id. Listeners of a
+ * call are kept in compact arrays which only grow when full, and the whole entry is dropped when
+ * the call is removed from the call list, whether or not its listeners unregistered. Listeners
+ * which were still registered at that point are counted as leaks and show up in the dump.
+ *
+ * Listeners may add or remove registrations while being notified: added listeners are only told
+ * about later events, removed ones are not notified anymore. Not thread safe.
+ */
+class CallUpdateListenerRegistry {
+
+    static final int EVENT_CALL_CHANGED = 0;
+    static final int EVENT_SESSION_MODIFICATION_STATE_CHANGE = 1;
+    static final int EVENT_LAST_FORWARDED_NUMBER_CHANGE = 2;
+    static final int EVENT_CHILD_NUMBER_CHANGE = 3;
+
+    private static final int INITIAL_CAPACITY = 2;
+    private static final int MAX_LEAK_RECORDS = 10;
+
+    /**
+     * The listeners of one call, with the {@link CallListDelta} fields each subscribed to.
+     */
+    private static class Slots {
+        CallUpdateListener[] listeners = new CallUpdateListener[INITIAL_CAPACITY];
+        int[] masks = new int[INITIAL_CAPACITY];
+        int size;
+        int dispatchDepth;
+        boolean hasRemovals;
+
+        void add(CallUpdateListener listener, int changeMask) {
+            if (size == listeners.length) {
+                listeners = Arrays.copyOf(listeners, size * 2);
+                masks = Arrays.copyOf(masks, size * 2);
+            }
+            listeners[size] = listener;
+            masks[size] = changeMask;
+            size++;
+        }
+
+        boolean remove(CallUpdateListener listener) {
+            for (int i = 0; i < size; i++) {
+                if (listeners[i] == listener) {
+                    if (dispatchDepth > 0) {
+                        // Keep the indices stable for the dispatch in progress.
+                        listeners[i] = null;
+                        hasRemovals = true;
+                    } else {
+                        System.arraycopy(listeners, i + 1, listeners, i, size - i - 1);
+                        System.arraycopy(masks, i + 1, masks, i, size - i - 1);
+                        listeners[--size] = null;
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void compact() {
+            int j = 0;
+            for (int i = 0; i < size; i++) {
+                if (listeners[i] != null) {
+                    listeners[j] = listeners[i];
+                    masks[j] = masks[i];
+                    j++;
+                }
+            }
+            Arrays.fill(listeners, j, size, null);
+            size = j;
+            hasRemovals = false;
+        }
+
+        int count() {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (listeners[i] != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    private final HashMap<String, Slots> mSlotsByCallId = new HashMap<>();
+
+    /** Registrations dropped because their call was removed before they were. */
+    private long mLeakedRegistrationCount = 0;
+    private final ArrayDeque<String> mRecentLeaks = new ArrayDeque<>(MAX_LEAK_RECORDS);
+
+    void add(String callId, CallUpdateListener listener, int changeMask) {
+        Slots slots = mSlotsByCallId.get(callId);
+        if (slots == null) {
+            slots = new Slots();
+            mSlotsByCallId.put(callId, slots);
+        }
+        slots.add(listener, changeMask);
+    }
+
+    void remove(String callId, CallUpdateListener listener) {
+        final Slots slots = mSlotsByCallId.get(callId);
+        if (slots != null && slots.remove(listener) && slots.size == 0) {
+            mSlotsByCallId.remove(callId);
+        }
+    }
+
+    /**
+     * Drops every listener of a call which was removed from the call list.
+     */
+    void removeCall(String callId) {
+        final Slots slots = mSlotsByCallId.remove(callId);
+        if (slots == null) {
+            return;
+        }
+        final int count = slots.count();
+        if (count == 0) {
+            return;
+        }
+        mLeakedRegistrationCount += count;
+
+        final StringBuilder sb = new StringBuilder(callId).append(':');
+        for (int i = 0; i < slots.size; i++) {
+            if (slots.listeners[i] != null) {
+                sb.append(' ').append(slots.listeners[i].getClass().getSimpleName());
+            }
+        }
+        if (mRecentLeaks.size() == MAX_LEAK_RECORDS) {
+            mRecentLeaks.removeFirst();
+        }
+        mRecentLeaks.addLast(sb.toString());
+    }
+
+    /**
+     * Notifies the listeners of a call.
+     *
+     * @param event One of the {@code EVENT_*} constants.
+     * @param call The call.
+     * @param arg The changed {@link CallListDelta} fields for {@link #EVENT_CALL_CHANGED}, which
+     *      only notifies listeners subscribed to any of them; the new session modification state
+     *      for {@link #EVENT_SESSION_MODIFICATION_STATE_CHANGE}; unused otherwise.
+     */
+    void dispatch(int event, Call call, int arg) {
+        final Slots slots = mSlotsByCallId.get(call.getId());
+        if (slots == null) {
+            return;
+        }
+
+        slots.dispatchDepth++;
+        try {
+            final int size = slots.size;
+            for (int i = 0; i < size; i++) {
+                final CallUpdateListener listener = slots.listeners[i];
+                if (listener == null) {
+                    continue;
+                }
+                switch (event) {
+                    case EVENT_CALL_CHANGED:
+                        if ((slots.masks[i] & arg) != 0) {
+                            listener.onCallChanged(call);
+                        }
+                        break;
+                    case EVENT_SESSION_MODIFICATION_STATE_CHANGE:
+                        listener.onSessionModificationStateChange(arg);
+                        break;
+                    case EVENT_LAST_FORWARDED_NUMBER_CHANGE:
+                        listener.onLastForwardedNumberChange();
+                        break;
+                    case EVENT_CHILD_NUMBER_CHANGE:
+                        listener.onChildNumberChange();
+                        break;
+                    default:
+                        Log.wtf(this, "Unexpected event " + event);
+                        return;
+                }
+            }
+        } finally {
+            if (--slots.dispatchDepth == 0 && slots.hasRemovals) {
+                slots.compact();
+                if (slots.size == 0 && mSlotsByCallId.get(call.getId()) == slots) {
+                    mSlotsByCallId.remove(call.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of listeners registered for a call.
+     */
+    int getListenerCount(String callId) {
+        final Slots slots = mSlotsByCallId.get(callId);
+        return slots == null ? 0 : slots.count();
+    }
+
+    int getCallCount() {
+        return mSlotsByCallId.size();
+    }
+
+    long getLeakedRegistrationCount() {
+        return mLeakedRegistrationCount;
+    }
+
+    /**
+     * @param liveCallIds The calls in the call list; listeners of any other call are reported as
+     *      orphaned.
+     */
+    void dump(PrintWriter pw, Set<String> liveCallIds) {
+        pw.println("  call update listeners: " + mSlotsByCallId.size() + " calls"
+                + ", leaked registrations dropped: " + mLeakedRegistrationCount);
+        for (Map.Entry<String, Slots> entry : mSlotsByCallId.entrySet()) {
+            final boolean orphaned = !liveCallIds.contains(entry.getKey());
+            pw.println("    " + entry.getKey() + ": " + entry.getValue().count() + " listeners"
+                    + (orphaned ? " (orphaned)" : ""));
+        }
+        for (String leak : mRecentLeaks) {
+            pw.println("    leaked " + leak);
+        }
+    }
+}
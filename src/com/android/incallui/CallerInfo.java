@@ -50,6 +50,52 @@ public class CallerInfo {
     private static final Uri CONTENT_URI = Uri.parse("content://geocoded_location/location");
     private static final String METHOD_GET_LOCATION = "getLocation";
     private static final String RESULT_LOCATION = "location";
+
+    /**
+     * The columns of a {@link PhoneLookup} query that
+     * {@link #getCallerInfoFromPhoneLookup(Context, Uri, Cursor)} reads, at the
+     * {@code PHONE_LOOKUP_*} indices.
+     */
+    static final String[] PHONE_LOOKUP_PROJECTION = new String[] {
+            PhoneLookup._ID,
+            PhoneLookup.DISPLAY_NAME,
+            PhoneLookup.NUMBER,
+            PhoneLookup.NORMALIZED_NUMBER,
+            PhoneLookup.TYPE,
+            PhoneLookup.LABEL,
+            PhoneLookup.LOOKUP_KEY,
+            PhoneLookup.PHOTO_URI,
+            PhoneLookup.CUSTOM_RINGTONE,
+            PhoneLookup.SEND_TO_VOICEMAIL,
+    };
+
+    /**
+     * The same columns as {@link #PHONE_LOOKUP_PROJECTION}, at the same indices, for a query of
+     * the {@link Phone} data rows of many numbers at once.
+     */
+    static final String[] PHONE_PROJECTION = new String[] {
+            Phone.CONTACT_ID,
+            Phone.DISPLAY_NAME,
+            Phone.NUMBER,
+            Phone.NORMALIZED_NUMBER,
+            Phone.TYPE,
+            Phone.LABEL,
+            Phone.LOOKUP_KEY,
+            Phone.PHOTO_URI,
+            Phone.CUSTOM_RINGTONE,
+            Phone.SEND_TO_VOICEMAIL,
+    };
+    private static final int PHONE_LOOKUP_ID = 0;
+    private static final int PHONE_LOOKUP_DISPLAY_NAME = 1;
+    private static final int PHONE_LOOKUP_NUMBER = 2;
+    static final int PHONE_LOOKUP_NORMALIZED_NUMBER = 3;
+    private static final int PHONE_LOOKUP_TYPE = 4;
+    private static final int PHONE_LOOKUP_LABEL = 5;
+    private static final int PHONE_LOOKUP_LOOKUP_KEY = 6;
+    private static final int PHONE_LOOKUP_PHOTO_URI = 7;
+    private static final int PHONE_LOOKUP_CUSTOM_RINGTONE = 8;
+    private static final int PHONE_LOOKUP_SEND_TO_VOICEMAIL = 9;
+
     /**
      * Please note that, any one of these member variables can be null,
      * and any accesses to them should be prepared to handle such a case.
@@ -276,8 +322,76 @@ public class CallerInfo {
     }
 
     /**
-     * getCallerInfo given a URI, look up in the call-log database
-     * for the uri unique key.
+     * getCallerInfo given a Cursor of a {@link PhoneLookup} query with the
+     * {@link #PHONE_LOOKUP_PROJECTION}. Same as {@link #getCallerInfo(Context, Uri, Cursor)},
+     * but reads the columns at their fixed indices rather than looking each one up by name.
+     * @param context the context used to retrieve string constants
+     * @param contactRef the URI to attach to this CallerInfo object
+     * @param cursor the first object in the cursor is used to build the CallerInfo object.
+     * @return the CallerInfo which contains the caller id for the given number.
+     */
+    public static CallerInfo getCallerInfoFromPhoneLookup(Context context, Uri contactRef,
+            Cursor cursor) {
+        final CallerInfo info;
+        if (cursor != null && cursor.moveToFirst()) {
+            info = getCallerInfoFromRow(context, contactRef, cursor);
+        } else {
+            info = new CallerInfo();
+            info.needUpdate = false;
+            info.contactRefUri = contactRef;
+        }
+        if (cursor != null) {
+            cursor.close();
+        }
+        return info;
+    }
+
+    /**
+     * getCallerInfo given the current row of a Cursor with the
+     * {@link #PHONE_LOOKUP_PROJECTION} or the {@link #PHONE_PROJECTION}. Leaves the cursor open
+     * and on the same row.
+     * @param context the context used to retrieve string constants
+     * @param contactRef the URI to attach to this CallerInfo object
+     * @param cursor the cursor, on the row of the contact.
+     * @return the CallerInfo which contains the caller id for the given number.
+     */
+    public static CallerInfo getCallerInfoFromRow(Context context, Uri contactRef,
+            Cursor cursor) {
+        CallerInfo info = new CallerInfo();
+
+        info.name = cursor.getString(PHONE_LOOKUP_DISPLAY_NAME);
+        info.phoneNumber = cursor.getString(PHONE_LOOKUP_NUMBER);
+        info.normalizedNumber = cursor.getString(PHONE_LOOKUP_NORMALIZED_NUMBER);
+
+        info.numberType = cursor.getInt(PHONE_LOOKUP_TYPE);
+        info.numberLabel = cursor.getString(PHONE_LOOKUP_LABEL);
+        info.phoneLabel = Phone.getTypeLabel(context.getResources(),
+                info.numberType, info.numberLabel)
+                .toString();
+
+        final long contactId = cursor.getLong(PHONE_LOOKUP_ID);
+        if (contactId != 0 && !Contacts.isEnterpriseContactId(contactId)) {
+            info.contactIdOrZero = contactId;
+            info.lookupKeyOrNull = cursor.getString(PHONE_LOOKUP_LOOKUP_KEY);
+        }
+
+        final String photoUri = cursor.getString(PHONE_LOOKUP_PHOTO_URI);
+        info.contactDisplayPhotoUri = photoUri != null ? Uri.parse(photoUri) : null;
+        final String ringtoneUri = cursor.getString(PHONE_LOOKUP_CUSTOM_RINGTONE);
+        info.contactRingtoneUri = ringtoneUri != null ? Uri.parse(ringtoneUri) : null;
+        info.shouldSendToVoicemail = cursor.getInt(PHONE_LOOKUP_SEND_TO_VOICEMAIL) == 1;
+        info.contactExists = true;
+
+        info.needUpdate = false;
+        info.name = normalize(info.name);
+        info.contactRefUri = contactRef;
+
+        return info;
+    }
+
+    /**
+     * getCallerInfo given a {@link PhoneLookup} URI, querying only the
+     * {@link #PHONE_LOOKUP_PROJECTION}.
      * @param context the context used to get the ContentResolver
      * @param contactRef the URI used to lookup caller id
      * @return the CallerInfo which contains the caller id for the given
@@ -285,8 +399,9 @@ public class CallerInfo {
      */
     private static CallerInfo getCallerInfo(Context context, Uri contactRef) {
 
-        return getCallerInfo(context, contactRef,
-                context.getContentResolver().query(contactRef, null, null, null, null));
+        return getCallerInfoFromPhoneLookup(context, contactRef,
+                context.getContentResolver().query(contactRef, PHONE_LOOKUP_PROJECTION,
+                        null, null, null));
     }
 
     /**
@@ -16,16 +16,17 @@
 
 package com.android.incallui;
 
-import android.content.AsyncQueryHandler;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.Process;
 import android.os.SystemProperties;
-import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.PhoneLookup;
 import android.telephony.PhoneNumberUtils;
 import android.text.TextUtils;
@@ -33,11 +34,19 @@ import android.text.TextUtils;
 import com.android.contacts.common.util.PhoneNumberHelper;
 import com.android.contacts.common.util.TelephonyManagerUtils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 
 /**
  * Helper class to make it easier to run asynchronous caller-id lookup queries.
+ *
+ * All queries run one after the other on a single long-lived worker thread, which queries only
+ * the {@link CallerInfo#PHONE_LOOKUP_PROJECTION} and also builds the {@link CallerInfo}, and the
+ * listener is called back on the main thread. The numbers of a batch of queries are looked up
+ * together, in as few queries as possible.
  * @see CallerInfo
  *
  */
@@ -46,12 +55,12 @@ public class CallerInfoAsyncQuery {
     private static final String LOG_TAG = "CallerInfoAsyncQuery";
 
     private static final int EVENT_NEW_QUERY = 1;
-    private static final int EVENT_ADD_LISTENER = 2;
-    private static final int EVENT_END_OF_QUEUE = 3;
     private static final int EVENT_EMERGENCY_NUMBER = 4;
     private static final int EVENT_VOICEMAIL_NUMBER = 5;
+    private static final int EVENT_BATCH_QUERY = 6;
 
-    private CallerInfoAsyncQueryHandler mHandler;
+    /** Most numbers looked up by one query, well below SQLite's limit on arguments. */
+    private static final int MAX_BATCH_SIZE = 100;
 
     // If the CallerInfo query finds no contacts, should we use the
     // PhoneNumberOfflineGeocoder to look up a "geo description"?
@@ -59,8 +68,20 @@ public class CallerInfoAsyncQuery {
     // configured on a per-product basis.)
     private static final boolean ENABLE_UNKNOWN_NUMBER_GEO_DESCRIPTION = true;
 
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static Handler sWorkerHandler;
+
+    private final int mToken;
+    private final Context mQueryContext;
+    private final Uri mQueryUri;
+    private final String mNumber;
+    private final int mEvent;
+    private final OnQueryCompleteListener mListener;
+    private final Object mCookie;
+    private CallerInfo mCallerInfo;
+
     /**
-     * Interface for a CallerInfoAsyncQueryHandler result return.
+     * Interface for a CallerInfoAsyncQuery result return.
      */
     public interface OnQueryCompleteListener {
         /**
@@ -70,18 +91,6 @@ public class CallerInfoAsyncQuery {
     }
 
 
-    /**
-     * Wrap the cookie from the WorkerArgs with additional information needed by our
-     * classes.
-     */
-    private static final class CookieWrapper {
-        public OnQueryCompleteListener listener;
-        public Object cookie;
-        public int event;
-        public String number;
-    }
-
-
     /**
      * Simple exception used to communicate problems with the query pool.
      */
@@ -92,245 +101,49 @@ public class CallerInfoAsyncQuery {
     }
 
     /**
-     * Our own implementation of the AsyncQueryHandler.
+     * Our own query worker thread.
+     *
+     * Each message is a query to run. The worker builds its CallerInfo, and then posts the
+     * reply to the main thread. The looper queue is FIFO, so replies are delivered in the order
+     * the queries were started.
      */
-    private class CallerInfoAsyncQueryHandler extends AsyncQueryHandler {
-
-        @Override
-        public void startQuery(int token, Object cookie, Uri uri, String[] projection,
-                String selection, String[] selectionArgs, String orderBy) {
-            if (DBG) {
-                // Show stack trace with the arguments.
-                android.util.Log.d(LOG_TAG, "InCall: startQuery: url=" + uri +
-                                " projection=[" + Arrays.toString(projection) + "]" +
-                                " selection=" + selection + " " +
-                                " args=[" + Arrays.toString(selectionArgs) + "]",
-                        new RuntimeException("STACKTRACE"));
-            }
-            super.startQuery(token, cookie, uri, projection, selection, selectionArgs, orderBy);
-        }
-
-        /**
-         * The information relevant to each CallerInfo query.  Each query may have multiple
-         * listeners, so each AsyncCursorInfo is associated with 2 or more CookieWrapper
-         * objects in the queue (one with a new query event, and one with a end event, with
-         * 0 or more additional listeners in between).
-         */
-        private Context mQueryContext;
-        private Uri mQueryUri;
-        private CallerInfo mCallerInfo;
-
-        /**
-         * Our own query worker thread.
-         *
-         * This thread handles the messages enqueued in the looper.  The normal sequence
-         * of events is that a new query shows up in the looper queue, followed by 0 or
-         * more add listener requests, and then an end request.  Of course, these requests
-         * can be interlaced with requests from other tokens, but is irrelevant to this
-         * handler since the handler has no state.
-         *
-         * Note that we depend on the queue to keep things in order; in other words, the
-         * looper queue must be FIFO with respect to input from the synchronous startQuery
-         * calls and output to this handleMessage call.
-         *
-         * This use of the queue is required because CallerInfo objects may be accessed
-         * multiple times before the query is complete.  All accesses (listeners) must be
-         * queued up and informed in order when the query is complete.
-         */
-        protected class CallerInfoWorkerHandler extends WorkerHandler {
-            public CallerInfoWorkerHandler(Looper looper) {
-                super(looper);
-            }
-
-            @Override
-            public void handleMessage(Message msg) {
-                WorkerArgs args = (WorkerArgs) msg.obj;
-                CookieWrapper cw = (CookieWrapper) args.cookie;
-
-                if (cw == null) {
-                    // Normally, this should never be the case for calls originating
-                    // from within this code.
-                    // However, if there is any code that this Handler calls (such as in
-                    // super.handleMessage) that DOES place unexpected messages on the
-                    // queue, then we need pass these messages on.
-                    Log.d(this, "Unexpected command (CookieWrapper is null): " + msg.what +
-                            " ignored by CallerInfoWorkerHandler, passing onto parent.");
-
-                    super.handleMessage(msg);
-                } else {
-
-                    Log.d(this, "Processing event: " + cw.event + " token (arg1): " + msg.arg1 +
-                            " command: " + msg.what + " query URI: " +
-                            sanitizeUriToString(args.uri));
-
-                    switch (cw.event) {
-                        case EVENT_NEW_QUERY:
-                            //start the sql command.
-                            super.handleMessage(msg);
-                            break;
-
-                        // shortcuts to avoid query for recognized numbers.
-                        case EVENT_EMERGENCY_NUMBER:
-                        case EVENT_VOICEMAIL_NUMBER:
-
-                        case EVENT_ADD_LISTENER:
-                        case EVENT_END_OF_QUEUE:
-                            // query was already completed, so just send the reply.
-                            // passing the original token value back to the caller
-                            // on top of the event values in arg1.
-                            Message reply = args.handler.obtainMessage(msg.what);
-                            reply.obj = args;
-                            reply.arg1 = msg.arg1;
-
-                            reply.sendToTarget();
-
-                            break;
-                        default:
-                    }
-                }
-            }
-        }
-
-
-        /**
-         * Asynchronous query handler class for the contact / callerinfo object.
-         */
-        private CallerInfoAsyncQueryHandler(Context context) {
-            super(context.getContentResolver());
+    private static class CallerInfoWorkerHandler extends Handler {
+        public CallerInfoWorkerHandler(Looper looper) {
+            super(looper);
         }
 
         @Override
-        protected Handler createHandler(Looper looper) {
-            return new CallerInfoWorkerHandler(looper);
-        }
-
-        /**
-         * Overrides onQueryComplete from AsyncQueryHandler.
-         *
-         * This method takes into account the state of this class; we construct the CallerInfo
-         * object only once for each set of listeners. When the query thread has done its work
-         * and calls this method, we inform the remaining listeners in the queue, until we're
-         * out of listeners.  Once we get the message indicating that we should expect no new
-         * listeners for this CallerInfo object, we release the AsyncCursorInfo back into the
-         * pool.
-         */
-        @Override
-        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
-            try {
-                Log.d(this, "##### onQueryComplete() #####   query complete for token: " + token);
-
-                //get the cookie and notify the listener.
-                CookieWrapper cw = (CookieWrapper) cookie;
-                if (cw == null) {
-                    // Normally, this should never be the case for calls originating
-                    // from within this code.
-                    // However, if there is any code that calls this method, we should
-                    // check the parameters to make sure they're viable.
-                    Log.d(this, "Cookie is null, ignoring onQueryComplete() request.");
-                    return;
-                }
+        @SuppressWarnings("unchecked")
+        public void handleMessage(Message msg) {
+            if (msg.what == EVENT_BATCH_QUERY) {
+                runBatch((List<CallerInfoAsyncQuery>) msg.obj);
+                return;
+            }
+            final CallerInfoAsyncQuery query = (CallerInfoAsyncQuery) msg.obj;
 
-                if (cw.event == EVENT_END_OF_QUEUE) {
-                    release();
-                    return;
-                }
+            Log.d(this, "Processing event: " + query.mEvent + " token: " + query.mToken
+                    + " query URI: " + sanitizeUriToString(query.mQueryUri));
 
-                // check the token and if needed, create the callerinfo object.
-                if (mCallerInfo == null) {
-                    if ((mQueryContext == null) || (mQueryUri == null)) {
-                        throw new QueryPoolException
-                            ("Bad context or query uri, or CallerInfoAsyncQuery already released.");
-                    }
-
-                    // adjust the callerInfo data as needed, and only if it was set from the
-                    // initial query request.
-                    // Change the callerInfo number ONLY if it is an emergency number or the
-                    // voicemail number, and adjust other data (including photoResource)
-                    // accordingly.
-                    if (cw.event == EVENT_EMERGENCY_NUMBER) {
-                        // Note we're setting the phone number here (refer to javadoc
-                        // comments at the top of CallerInfo class).
-                        if (mQueryContext.getResources().getBoolean(R.bool.mark_emergency_call) ||
-                                "cmcc".equals(SystemProperties.get("persist.carrier.mode"))) {
-                            Log.d(this, "Emergency Number and Mark Emergency Number enabled");
-                            mCallerInfo = new CallerInfo().markAsEmergency(mQueryContext,
-                                                                            cw.number);
-                        } else {
-                            Log.d(this, "Emergency Number and Mark Emergency Number disabled");
-                            mCallerInfo = new CallerInfo().markAsEmergency(mQueryContext);
-                        }
-                    } else if (cw.event == EVENT_VOICEMAIL_NUMBER) {
-                        mCallerInfo = new CallerInfo().markAsVoiceMail(mQueryContext);
-                    } else {
-                        mCallerInfo = CallerInfo.getCallerInfo(mQueryContext, mQueryUri, cursor);
-                        Log.d(this, "==> Got mCallerInfo: " + mCallerInfo);
-
-                        CallerInfo newCallerInfo = CallerInfo.doSecondaryLookupIfNecessary(
-                                mQueryContext, cw.number, mCallerInfo);
-                        if (newCallerInfo != mCallerInfo) {
-                            mCallerInfo = newCallerInfo;
-                            Log.d(this, "#####async contact look up with numeric username"
-                                    + mCallerInfo);
-                        }
-
-                        // Final step: look up the geocoded description.
-                        if (ENABLE_UNKNOWN_NUMBER_GEO_DESCRIPTION) {
-                            // Note we do this only if we *don't* have a valid name (i.e. if
-                            // no contacts matched the phone number of the incoming call),
-                            // since that's the only case where the incoming-call UI cares
-                            // about this field.
-                            //
-                            // (TODO: But if we ever want the UI to show the geoDescription
-                            // even when we *do* match a contact, we'll need to either call
-                            // updateGeoDescription() unconditionally here, or possibly add a
-                            // new parameter to CallerInfoAsyncQuery.startQuery() to force
-                            // the geoDescription field to be populated.)
-
-                            if (TextUtils.isEmpty(mCallerInfo.name)) {
-                                // Actually when no contacts match the incoming phone number,
-                                // the CallerInfo object is totally blank here (i.e. no name
-                                // *or* phoneNumber).  So we need to pass in cw.number as
-                                // a fallback number.
-                                mCallerInfo.updateGeoDescription(mQueryContext, cw.number);
-                            }
-                        }
-
-                        // Use the number entered by the user for display.
-                        if (!TextUtils.isEmpty(cw.number)) {
-                            mCallerInfo.phoneNumber = PhoneNumberHelper.formatNumber(cw.number,
-                                    mCallerInfo.normalizedNumber,
-                                    TelephonyManagerUtils.getCurrentCountryIso(mQueryContext,
-                                            Locale.getDefault()));
-                        }
-                    }
-
-                    Log.d(this, "constructing CallerInfo object for token: " + token);
-
-                    //notify that we can clean up the queue after this.
-                    CookieWrapper endMarker = new CookieWrapper();
-                    endMarker.event = EVENT_END_OF_QUEUE;
-                    startQuery(token, endMarker, null, null, null, null, null);
-                }
-
-                //notify the listener that the query is complete.
-                if (cw.listener != null) {
-                    Log.d(this, "notifying listener: " + cw.listener.getClass().toString() +
-                            " for token: " + token + mCallerInfo);
-                    cw.listener.onQueryComplete(token, cw.cookie, mCallerInfo);
-                }
-            } finally {
-                // The cursor may have been closed in CallerInfo.getCallerInfo()
-                if (cursor != null && !cursor.isClosed()) {
-                    cursor.close();
-                }
-            }
+            query.mCallerInfo = query.buildCallerInfo();
+            query.deliver();
         }
     }
 
     /**
      * Private constructor for factory methods.
      */
-    private CallerInfoAsyncQuery() {
+    private CallerInfoAsyncQuery(int token, Context context, Uri contactRef, String number,
+            int event, OnQueryCompleteListener listener, Object cookie) {
+        if ((context == null) || (contactRef == null)) {
+            throw new QueryPoolException("Bad context or query uri.");
+        }
+        mToken = token;
+        mQueryContext = context;
+        mQueryUri = contactRef;
+        mNumber = number;
+        mEvent = event;
+        mListener = listener;
+        mCookie = cookie;
     }
 
     /**
@@ -350,6 +163,32 @@ public class CallerInfoAsyncQuery {
         Log.d(LOG_TAG, "- number: " + info.phoneNumber);
         Log.d(LOG_TAG, "- cookie: " + cookie);
 
+        CallerInfoAsyncQuery c = newQuery(token, context, info, listener, cookie);
+        getWorkerHandler().obtainMessage(c.mEvent, c).sendToTarget();
+        return c;
+    }
+
+    /**
+     * Factory method to start the queries of many CallerInfo objects at once. The numbers are
+     * looked up together, so there are fewer queries than numbers, and the listener is called
+     * back for each of them as its result comes in.
+     *
+     * @param cookies The cookie to pass back to the listener for each CallerInfo object.
+     */
+    public static void startBatchQuery(int token, Context context, List<CallerInfo> infos,
+            OnQueryCompleteListener listener, List<?> cookies) {
+        Log.d(LOG_TAG, "##### CallerInfoAsyncQuery startBatchQuery()... #####");
+        Log.d(LOG_TAG, "- numbers: " + infos.size());
+
+        final List<CallerInfoAsyncQuery> queries = new ArrayList<>(infos.size());
+        for (int i = 0; i < infos.size(); i++) {
+            queries.add(newQuery(token, context, infos.get(i), listener, cookies.get(i)));
+        }
+        getWorkerHandler().obtainMessage(EVENT_BATCH_QUERY, queries).sendToTarget();
+    }
+
+    private static CallerInfoAsyncQuery newQuery(int token, Context context, CallerInfo info,
+            OnQueryCompleteListener listener, Object cookie) {
         // Construct the URI object and query params, and start the query.
 
         final Uri contactRef = PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI.buildUpon()
@@ -362,55 +201,240 @@ public class CallerInfoAsyncQuery {
             Log.d(LOG_TAG, "==> contactRef: " + sanitizeUriToString(contactRef));
         }
 
-        CallerInfoAsyncQuery c = new CallerInfoAsyncQuery();
-        c.allocate(context, contactRef);
-
-        //create cookieWrapper, start query
-        CookieWrapper cw = new CookieWrapper();
-        cw.listener = listener;
-        cw.cookie = cookie;
-        cw.number = info.phoneNumber;
-
         // check to see if these are recognized numbers, and use shortcuts if we can.
+        final int event;
         if (PhoneNumberUtils.isLocalEmergencyNumber(context, info.phoneNumber)) {
-            cw.event = EVENT_EMERGENCY_NUMBER;
+            event = EVENT_EMERGENCY_NUMBER;
         } else if (info.isVoiceMailNumber()) {
-            cw.event = EVENT_VOICEMAIL_NUMBER;
+            event = EVENT_VOICEMAIL_NUMBER;
         } else {
-            cw.event = EVENT_NEW_QUERY;
+            event = EVENT_NEW_QUERY;
         }
 
-        c.mHandler.startQuery(token,
-                              cw,  // cookie
-                              contactRef,  // uri
-                              null,  // projection
-                              null,  // selection
-                              null,  // selectionArgs
-                              null);  // orderBy
-        return c;
+        return new CallerInfoAsyncQuery(token, context, contactRef, info.phoneNumber, event,
+                listener, cookie);
+    }
+
+    private static synchronized Handler getWorkerHandler() {
+        if (sWorkerHandler == null) {
+            final HandlerThread thread = new HandlerThread("CallerInfoQueryWorker",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            sWorkerHandler = new CallerInfoWorkerHandler(thread.getLooper());
+        }
+        return sWorkerHandler;
     }
 
     /**
-     * Method to create a new CallerInfoAsyncQueryHandler object, ensuring correct
-     * state of context and uri.
+     * Runs the query, on the worker thread, and builds the CallerInfo from it.
      */
-    private void allocate(Context context, Uri contactRef) {
-        if ((context == null) || (contactRef == null)){
-            throw new QueryPoolException("Bad context or query uri.");
+    private CallerInfo buildCallerInfo() {
+        // adjust the callerInfo data as needed, and only if it was set from the
+        // initial query request.
+        // Change the callerInfo number ONLY if it is an emergency number or the
+        // voicemail number, and adjust other data (including photoResource)
+        // accordingly.
+        if (mEvent == EVENT_EMERGENCY_NUMBER) {
+            // Note we're setting the phone number here (refer to javadoc
+            // comments at the top of CallerInfo class).
+            if (mQueryContext.getResources().getBoolean(R.bool.mark_emergency_call) ||
+                    "cmcc".equals(SystemProperties.get("persist.carrier.mode"))) {
+                Log.d(this, "Emergency Number and Mark Emergency Number enabled");
+                return new CallerInfo().markAsEmergency(mQueryContext, mNumber);
+            } else {
+                Log.d(this, "Emergency Number and Mark Emergency Number disabled");
+                return new CallerInfo().markAsEmergency(mQueryContext);
+            }
+        } else if (mEvent == EVENT_VOICEMAIL_NUMBER) {
+            return new CallerInfo().markAsVoiceMail(mQueryContext);
+        }
+
+        if (DBG) {
+            // Show stack trace with the arguments.
+            android.util.Log.d(LOG_TAG, "InCall: startQuery: url=" + mQueryUri +
+                            " projection=[" + Arrays.toString(CallerInfo.PHONE_LOOKUP_PROJECTION)
+                            + "]", new RuntimeException("STACKTRACE"));
+        }
+
+        Cursor cursor = null;
+        try {
+            cursor = mQueryContext.getContentResolver().query(mQueryUri,
+                    CallerInfo.PHONE_LOOKUP_PROJECTION, null, null, null);
+        } catch (RuntimeException e) {
+            // Same as AsyncQueryHandler: a failed query is reported as no match.
+            Log.w(this, "Exception thrown during handling EVENT_ARG_QUERY " + e);
+        }
+
+        CallerInfo callerInfo;
+        try {
+            callerInfo = CallerInfo.getCallerInfoFromPhoneLookup(mQueryContext, mQueryUri,
+                    cursor);
+        } finally {
+            // The cursor may have been closed in CallerInfo.getCallerInfoFromPhoneLookup()
+            if (cursor != null && !cursor.isClosed()) {
+                cursor.close();
+            }
+        }
+        return finishCallerInfo(callerInfo);
+    }
+
+    /**
+     * Completes the CallerInfo found by a query, on the worker thread.
+     */
+    private CallerInfo finishCallerInfo(CallerInfo callerInfo) {
+        Log.d(this, "==> Got mCallerInfo: " + callerInfo);
+
+        CallerInfo newCallerInfo = CallerInfo.doSecondaryLookupIfNecessary(
+                mQueryContext, mNumber, callerInfo);
+        if (newCallerInfo != callerInfo) {
+            callerInfo = newCallerInfo;
+            Log.d(this, "#####async contact look up with numeric username"
+                    + callerInfo);
+        }
+
+        // Final step: look up the geocoded description.
+        if (ENABLE_UNKNOWN_NUMBER_GEO_DESCRIPTION) {
+            // Note we do this only if we *don't* have a valid name (i.e. if
+            // no contacts matched the phone number of the incoming call),
+            // since that's the only case where the incoming-call UI cares
+            // about this field.
+            //
+            // (TODO: But if we ever want the UI to show the geoDescription
+            // even when we *do* match a contact, we'll need to either call
+            // updateGeoDescription() unconditionally here, or possibly add a
+            // new parameter to CallerInfoAsyncQuery.startQuery() to force
+            // the geoDescription field to be populated.)
+
+            if (TextUtils.isEmpty(callerInfo.name)) {
+                // Actually when no contacts match the incoming phone number,
+                // the CallerInfo object is totally blank here (i.e. no name
+                // *or* phoneNumber).  So we need to pass in mNumber as
+                // a fallback number.
+                callerInfo.updateGeoDescription(mQueryContext, mNumber);
+            }
+        }
+
+        // Use the number entered by the user for display.
+        if (!TextUtils.isEmpty(mNumber)) {
+            callerInfo.phoneNumber = PhoneNumberHelper.formatNumber(mNumber,
+                    callerInfo.normalizedNumber,
+                    TelephonyManagerUtils.getCurrentCountryIso(mQueryContext,
+                            Locale.getDefault()));
         }
-        mHandler = new CallerInfoAsyncQueryHandler(context);
-        mHandler.mQueryContext = context;
-        mHandler.mQueryUri = contactRef;
+        return callerInfo;
     }
 
     /**
-     * Releases the relevant data.
+     * Looks up the numbers of a batch of queries, from the worker thread. Numbers which are
+     * found in one query of the phone numbers of all contacts are delivered right away. The
+     * others are then looked up one at a time, since a phone lookup also matches numbers which
+     * are only similar, and finds the contacts of the work profile.
      */
-    private void release() {
-        mHandler.mQueryContext = null;
-        mHandler.mQueryUri = null;
-        mHandler.mCallerInfo = null;
-        mHandler = null;
+    private static void runBatch(List<CallerInfoAsyncQuery> queries) {
+        final HashMap<String, List<CallerInfoAsyncQuery>> queriesByNumber = new HashMap<>();
+        final List<CallerInfoAsyncQuery> singleQueries = new ArrayList<>();
+        for (CallerInfoAsyncQuery query : queries) {
+            final String e164 = query.mEvent == EVENT_NEW_QUERY
+                    && !PhoneNumberHelper.isUriNumber(query.mNumber)
+                    ? PhoneNumberUtils.formatNumberToE164(query.mNumber,
+                            TelephonyManagerUtils.getCurrentCountryIso(query.mQueryContext,
+                                    Locale.getDefault()))
+                    : null;
+            if (e164 == null) {
+                singleQueries.add(query);
+                continue;
+            }
+            List<CallerInfoAsyncQuery> numberQueries = queriesByNumber.get(e164);
+            if (numberQueries == null) {
+                numberQueries = new ArrayList<>();
+                queriesByNumber.put(e164, numberQueries);
+            }
+            numberQueries.add(query);
+        }
+
+        final List<String> numbers = new ArrayList<>(queriesByNumber.keySet());
+        for (int start = 0; start < numbers.size(); start += MAX_BATCH_SIZE) {
+            final List<String> batch =
+                    numbers.subList(start, Math.min(start + MAX_BATCH_SIZE, numbers.size()));
+            final Context context = queriesByNumber.get(batch.get(0)).get(0).mQueryContext;
+            final HashMap<String, List<CallerInfoAsyncQuery>> pending =
+                    queryPhones(context, batch, queriesByNumber);
+            for (List<CallerInfoAsyncQuery> numberQueries : pending.values()) {
+                singleQueries.addAll(numberQueries);
+            }
+        }
+        Log.d(LOG_TAG, "Batch of " + queries.size() + " queries, " + singleQueries.size()
+                + " left for single queries");
+
+        for (CallerInfoAsyncQuery query : singleQueries) {
+            query.mCallerInfo = query.buildCallerInfo();
+            query.deliver();
+        }
+    }
+
+    /**
+     * Queries the phone numbers of all contacts for the given E.164 numbers at once, and
+     * delivers the CallerInfo of each query whose number was found.
+     *
+     * @return The queries whose number was not found, by number.
+     */
+    private static HashMap<String, List<CallerInfoAsyncQuery>> queryPhones(Context context,
+            List<String> numbers, HashMap<String, List<CallerInfoAsyncQuery>> queriesByNumber) {
+        final HashMap<String, List<CallerInfoAsyncQuery>> pending = new HashMap<>();
+        final StringBuilder selection = new StringBuilder(Phone.NORMALIZED_NUMBER + " IN (");
+        for (int i = 0; i < numbers.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            pending.put(numbers.get(i), queriesByNumber.get(numbers.get(i)));
+        }
+        selection.append(')');
+
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(Phone.CONTENT_URI,
+                    CallerInfo.PHONE_PROJECTION, selection.toString(),
+                    numbers.toArray(new String[numbers.size()]), null);
+            while (cursor != null && cursor.moveToNext()) {
+                // Like a phone lookup, use the first contact found for a number.
+                final List<CallerInfoAsyncQuery> numberQueries = pending.remove(
+                        cursor.getString(CallerInfo.PHONE_LOOKUP_NORMALIZED_NUMBER));
+                if (numberQueries == null) {
+                    continue;
+                }
+                for (CallerInfoAsyncQuery query : numberQueries) {
+                    query.mCallerInfo = query.finishCallerInfo(CallerInfo.getCallerInfoFromRow(
+                            query.mQueryContext, query.mQueryUri, cursor));
+                    query.deliver();
+                }
+            }
+        } catch (RuntimeException e) {
+            // The numbers still pending get a query each.
+            Log.e(LOG_TAG, "Exception thrown during batch query", e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return pending;
+    }
+
+    private void deliver() {
+        sMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                notifyListener();
+            }
+        });
+    }
+
+    private void notifyListener() {
+        Log.d(this, "##### onQueryComplete() #####   query complete for token: " + mToken);
+
+        //notify the listener that the query is complete.
+        if (mListener != null) {
+            Log.d(this, "notifying listener: " + mListener.getClass().toString() +
+                    " for token: " + mToken + mCallerInfo);
+            mListener.onQueryComplete(mToken, mCookie, mCallerInfo);
+        }
     }
 
     private static String sanitizeUriToString(Uri uri) {
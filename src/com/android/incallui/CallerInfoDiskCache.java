@@ -0,0 +1,530 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.DeletedContacts;
+import android.telephony.PhoneNumberUtils;
+import android.telephony.TelephonyManager;
+import android.text.TextUtils;
+import android.util.AtomicFile;
+
+import com.android.contacts.common.testing.NeededForTesting;
+import com.android.contacts.common.util.PhoneNumberHelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cache of what the contacts lookup of a phone number found: the contact's name,
+ * label, lookup key and photo, or the geo description of a number without a contact. It lets
+ * {@link ContactInfoCache#buildCacheEntryFromCall} show who is calling on the first frame of a
+ * call, before the {@link CallerInfoAsyncQuery} for it returns.
+ *
+ * Entries are keyed by normalized number, written when a query completes and kept in a small LRU
+ * file in the app's cache directory. All of them are dropped whenever the contacts change: through
+ * a content observer while the in-call service is bound, and otherwise by checking for contacts
+ * updated or deleted since then when the service binds again.
+ *
+ * The file is loaded and checked in the background when the service binds, without holding the
+ * lock the main thread needs to read the cache. Until then every number is a miss.
+ */
+class CallerInfoDiskCache {
+
+    private static final String FILE_NAME = "caller_info.cache";
+    private static final int MAGIC = 0x43494443;
+    private static final int VERSION = 1;
+
+    @NeededForTesting
+    static final int MAX_ENTRIES = 200;
+
+    /** Delay before writing out changes, so the lookups of one call are written together. */
+    private static final long WRITE_DELAY_MS = 2000;
+
+    /**
+     * What a lookup found for a number.
+     */
+    static class Entry {
+        /** The contact's name, or {@code null} if the number has no contact. */
+        final String name;
+        final String label;
+        final String lookupKey;
+        final long contactId;
+        final Uri photoUri;
+        final String geoDescription;
+
+        Entry(String name, String label, String lookupKey, long contactId, Uri photoUri,
+                String geoDescription) {
+            this.name = name;
+            this.label = label;
+            this.lookupKey = lookupKey;
+            this.contactId = contactId;
+            this.photoUri = photoUri;
+            this.geoDescription = geoDescription;
+        }
+    }
+
+    private static CallerInfoDiskCache sInstance;
+
+    private final Context mContext;
+    private final AtomicFile mFile;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Least recently used first. */
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    private boolean mLoaded;
+    private boolean mWritePending;
+    /** Whether a write was skipped because the file was not loaded yet. */
+    private boolean mWriteAfterLoad;
+    /** Whether the entries were cleared before the file was loaded. */
+    private boolean mClearedBeforeLoad;
+    /** Keys whose entries were removed before the file was loaded. */
+    private final HashSet<String> mRemovedBeforeLoad = new HashSet<>();
+    private String mCountryIso;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mLoadMillis = -1;
+
+    private final ContentObserver mContactsObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            Log.d(CallerInfoDiskCache.this, "Contacts changed, clearing caller info cache");
+            clear();
+            ContactBitmapCache.getInstance().clear();
+        }
+    };
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    private final Runnable mPostWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (CallerInfoDiskCache.this) {
+                mWritePending = false;
+            }
+            AsyncTask.execute(mWriteRunnable);
+        }
+    };
+
+    public static synchronized CallerInfoDiskCache getInstance(Context context) {
+        if (sInstance == null) {
+            final Context applicationContext = context.getApplicationContext();
+            sInstance = new CallerInfoDiskCache(applicationContext,
+                    new File(applicationContext.getCacheDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    @NeededForTesting
+    CallerInfoDiskCache(Context context, File file) {
+        mContext = context;
+        mFile = new AtomicFile(file);
+    }
+
+    /**
+     * Starts watching the contacts, and loads and validates the cache in the background so it is
+     * ready by the time the first call is shown.
+     */
+    public void setUp() {
+        mContext.getContentResolver().registerContentObserver(
+                ContactsContract.AUTHORITY_URI, true, mContactsObserver);
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                load(true);
+            }
+        });
+    }
+
+    /**
+     * Reads the file, unless it was loaded already, and swaps its entries in. The file is read,
+     * and the contacts are checked for changes, without holding the lock. Changes made before the
+     * load are kept, and take precedence over what the file holds.
+     *
+     * @param validate Whether to drop the entries of the file if any contact changed since it was
+     *         written.
+     */
+    @NeededForTesting
+    void load(boolean validate) {
+        synchronized (this) {
+            if (mLoaded) {
+                return;
+            }
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+        final long validatedAtMillis = read(entries);
+        final boolean changed = validate && !entries.isEmpty()
+                && contactsChangedSince(validatedAtMillis);
+        if (changed) {
+            Log.d(this, "Contacts changed since last use");
+            entries.clear();
+            ContactBitmapCache.getInstance().clear();
+        }
+
+        final boolean write;
+        synchronized (this) {
+            if (mLoaded) {
+                return;
+            }
+            // The entries stored since are more recent, so they go last.
+            final LinkedHashMap<String, Entry> newEntries = new LinkedHashMap<>(mEntries);
+            mEntries.clear();
+            if (!mClearedBeforeLoad) {
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    if (!mRemovedBeforeLoad.contains(entry.getKey())) {
+                        mEntries.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            mEntries.putAll(newEntries);
+            write = changed || mWriteAfterLoad;
+            mWriteAfterLoad = false;
+            mClearedBeforeLoad = false;
+            mRemovedBeforeLoad.clear();
+            mLoaded = true;
+            mLoadMillis = SystemClock.elapsedRealtime() - start;
+            Log.d(this, "Loaded " + mEntries.size() + " caller info entries in " + mLoadMillis
+                    + "ms");
+        }
+        if (write) {
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Stops watching the contacts, and writes out any pending change.
+     */
+    public void tearDown() {
+        mContext.getContentResolver().unregisterContentObserver(mContactsObserver);
+        final boolean writePending;
+        synchronized (this) {
+            writePending = mWritePending;
+        }
+        if (writePending) {
+            mHandler.removeCallbacks(mPostWriteRunnable);
+            mPostWriteRunnable.run();
+        }
+    }
+
+    /**
+     * Returns what the last lookup found for a number, or {@code null}. Also returns
+     * {@code null} for the numbers of the file while it is not loaded yet, rather than waiting for
+     * it.
+     */
+    public synchronized Entry get(String number) {
+        final String key = getKey(number);
+        final Entry entry = key == null ? null : mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Fills in a caller info built from a call with what the last lookup found for its number.
+     *
+     * @return {@code true} if the number was found.
+     */
+    public boolean apply(CallerInfo info) {
+        if (info.isEmergencyNumber() || info.isVoiceMailNumber()) {
+            return false;
+        }
+        final Entry entry = get(info.phoneNumber);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.name != null) {
+            info.name = entry.name;
+            info.phoneLabel = entry.label;
+            info.lookupKeyOrNull = entry.lookupKey;
+            info.contactIdOrZero = entry.contactId;
+            info.contactDisplayPhotoUri = entry.photoUri;
+            info.contactExists = true;
+        }
+        info.geoDescription = entry.geoDescription;
+        return true;
+    }
+
+    /**
+     * Stores the result of a completed lookup for a number. Lookups which found neither a contact
+     * nor a geo description are not stored.
+     */
+    public void put(String number, CallerInfo info) {
+        final String key = getKey(number);
+        if (key == null || info.isEmergencyNumber() || info.isVoiceMailNumber()) {
+            return;
+        }
+        final Entry entry;
+        if (info.contactExists) {
+            entry = new Entry(info.name, info.phoneLabel, info.lookupKeyOrNull,
+                    info.contactIdOrZero, info.contactDisplayPhotoUri, info.geoDescription);
+        } else if (!TextUtils.isEmpty(info.geoDescription)) {
+            entry = new Entry(null, null, null, 0, null, info.geoDescription);
+        } else {
+            entry = null;
+        }
+
+        synchronized (this) {
+            final Entry oldEntry = entry == null ? mEntries.remove(key) : mEntries.put(key, entry);
+            if (!mLoaded) {
+                // The file may hold an entry for the number too.
+                if (entry == null) {
+                    mRemovedBeforeLoad.add(key);
+                } else {
+                    mRemovedBeforeLoad.remove(key);
+                }
+            } else if (entry == null && oldEntry == null) {
+                return;
+            }
+        }
+        scheduleWrite();
+    }
+
+    public void clear() {
+        synchronized (this) {
+            if (!mLoaded) {
+                mClearedBeforeLoad = true;
+                mRemovedBeforeLoad.clear();
+            } else if (mEntries.isEmpty()) {
+                return;
+            }
+            mEntries.clear();
+        }
+        scheduleWrite();
+    }
+
+    @NeededForTesting
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Writes the cache out now rather than after the usual delay.
+     */
+    @NeededForTesting
+    void flush() {
+        synchronized (this) {
+            mWritePending = false;
+        }
+        mHandler.removeCallbacks(mPostWriteRunnable);
+        write();
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println("CallerInfoDiskCache:");
+        pw.println("  entries: " + mEntries.size() + (mLoaded ? "" : " (not loaded)")
+                + ", loaded in " + mLoadMillis + "ms");
+        pw.println("  hits: " + mHitCount + ", misses: " + mMissCount);
+    }
+
+    private String getKey(String number) {
+        if (TextUtils.isEmpty(number) || PhoneNumberHelper.isUriNumber(number)) {
+            return null;
+        }
+        // Same as CallerInfoUtils#buildCallerInfo: a forwarded call carries both numbers.
+        final int separator = number.indexOf('&');
+        if (separator >= 0) {
+            number = number.substring(0, separator);
+        }
+        final String e164 = PhoneNumberUtils.formatNumberToE164(number, getCountryIso());
+        return e164 != null ? e164 : PhoneNumberUtils.normalizeNumber(number);
+    }
+
+    private synchronized String getCountryIso() {
+        if (mCountryIso == null) {
+            final TelephonyManager telephonyManager =
+                    (TelephonyManager) mContext.getSystemService(Context.TELEPHONY_SERVICE);
+            mCountryIso = telephonyManager.getSimCountryIso().toUpperCase();
+        }
+        return mCountryIso;
+    }
+
+    private void scheduleWrite() {
+        synchronized (this) {
+            mWritePending = true;
+        }
+        mHandler.removeCallbacks(mPostWriteRunnable);
+        mHandler.postDelayed(mPostWriteRunnable, WRITE_DELAY_MS);
+    }
+
+    /**
+     * Reads the entries of the file, least recently used first.
+     *
+     * @return The time the file was written at, or 0 if there is none.
+     */
+    private long read(Map<String, Entry> entries) {
+        FileInputStream in = null;
+        try {
+            in = mFile.openRead();
+            final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                Log.w(this, "Ignoring caller info cache of an unsupported version");
+                return 0;
+            }
+            final long validatedAtMillis = data.readLong();
+            final int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = data.readUTF();
+                final String name = readString(data);
+                final String label = readString(data);
+                final String lookupKey = readString(data);
+                final long contactId = data.readLong();
+                final String photoUri = readString(data);
+                final String geoDescription = readString(data);
+                entries.put(key, new Entry(name, label, lookupKey, contactId,
+                        photoUri == null ? null : Uri.parse(photoUri), geoDescription));
+            }
+            return validatedAtMillis;
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+            return 0;
+        } catch (IOException e) {
+            Log.w(this, "Unable to read caller info cache " + e);
+            entries.clear();
+            return 0;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore.
+                }
+            }
+        }
+    }
+
+    private void write() {
+        final List<Map.Entry<String, Entry>> entries;
+        final long validatedAtMillis;
+        synchronized (this) {
+            if (!mLoaded) {
+                // Writing now would drop the entries of the file; write once it is loaded.
+                mWriteAfterLoad = true;
+                return;
+            }
+            entries = new ArrayList<>(mEntries.entrySet());
+            validatedAtMillis = System.currentTimeMillis();
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeLong(validatedAtMillis);
+            data.writeInt(entries.size());
+            for (Map.Entry<String, Entry> mapEntry : entries) {
+                final Entry entry = mapEntry.getValue();
+                data.writeUTF(mapEntry.getKey());
+                writeString(data, entry.name);
+                writeString(data, entry.label);
+                writeString(data, entry.lookupKey);
+                data.writeLong(entry.contactId);
+                writeString(data, entry.photoUri == null ? null : entry.photoUri.toString());
+                writeString(data, entry.geoDescription);
+            }
+            data.flush();
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(this, "Unable to write caller info cache", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    /**
+     * Whether any contact was updated or deleted after the given time. Errs on the side of
+     * {@code true} if the contacts cannot be read.
+     */
+    private boolean contactsChangedSince(long timeMillis) {
+        final String[] args = new String[] { String.valueOf(timeMillis) };
+        return hasRows(Contacts.CONTENT_URI,
+                Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?", args)
+                || hasRows(DeletedContacts.CONTENT_URI,
+                        DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?", args);
+    }
+
+    private boolean hasRows(Uri uri, String selection, String[] selectionArgs) {
+        final ContentResolver resolver = mContext.getContentResolver();
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(uri, new String[] { BaseColumns._ID }, selection,
+                    selectionArgs, null);
+            return cursor == null || cursor.getCount() > 0;
+        } catch (RuntimeException e) {
+            Log.w(this, "Unable to check for contact changes " + e);
+            return true;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
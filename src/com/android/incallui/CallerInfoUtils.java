@@ -12,7 +12,9 @@ import android.util.Log;
 import com.android.contacts.common.model.Contact;
 import com.android.contacts.common.model.ContactLoader;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Utility methods for contact and caller info related functionality
@@ -49,6 +51,34 @@ public class CallerInfoUtils {
         return info;
     }
 
+    /**
+     * Same as {@link #getCallerInfoForCall}, for many calls at once. The numbers of the calls are
+     * looked up together, and the listener is called back for each call as its information comes
+     * in, with the call as the cookie.
+     *
+     * @return The CallerInfo objects built from the calls, in the same order.
+     */
+    public static List<CallerInfo> getCallerInfoForCalls(Context context, List<Call> calls,
+            CallerInfoAsyncQuery.OnQueryCompleteListener listener) {
+        final List<CallerInfo> infos = new ArrayList<>(calls.size());
+        final List<CallerInfo> queryInfos = new ArrayList<>(calls.size());
+        final List<Call> queryCalls = new ArrayList<>(calls.size());
+        for (Call call : calls) {
+            final CallerInfo info = buildCallerInfo(context, call);
+            infos.add(info);
+            if (info.numberPresentation == TelecomManager.PRESENTATION_ALLOWED) {
+                queryInfos.add(info);
+                queryCalls.add(call);
+            }
+        }
+        if (!queryInfos.isEmpty()) {
+            Log.d(TAG, "==> Actually starting CallerInfoAsyncQuery.startBatchQuery()...");
+            CallerInfoAsyncQuery.startBatchQuery(QUERY_TOKEN, context, queryInfos, listener,
+                    queryCalls);
+        }
+        return infos;
+    }
+
     public static CallerInfo buildCallerInfo(Context context, Call call) {
         CallerInfo info = new CallerInfo();
 
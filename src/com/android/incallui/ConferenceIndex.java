@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the conference calls tracked by {@link CallList}, from each parent call to its
+ * children and back. Telecom reports the children of a conference and the parent of a child
+ * separately and in no particular order, so the index accepts either and applies whichever comes
+ * last. It is kept in sync by {@link CallList} whenever one of those fields changes, or a call is
+ * removed from its map.
+ */
+class ConferenceIndex {
+
+    private final HashMap<String, ArrayList<Call>> mChildrenByParentId = new HashMap<>();
+    private final HashMap<String, String> mParentIdByChildId = new HashMap<>();
+
+    /**
+     * Updates the index with the parent or children of a call, if they changed.
+     *
+     * @param call The call.
+     * @param changes The {@link CallListDelta} fields of the call which changed.
+     * @param callById The calls in the call list, to resolve child ids.
+     */
+    void update(Call call, int changes, Map<String, Call> callById) {
+        if ((changes & CallListDelta.FIELD_CHILDREN) != 0) {
+            setChildren(call, call.getChildCallIds(), callById);
+        }
+        if ((changes & CallListDelta.FIELD_PARENT) != 0) {
+            setParent(call, call.getParentId());
+        }
+    }
+
+    /**
+     * Removes a call from the index, both as a parent and as a child.
+     */
+    void remove(Call call) {
+        setParent(call, null);
+        final ArrayList<Call> children = mChildrenByParentId.remove(call.getId());
+        if (children != null) {
+            for (int i = 0; i < children.size(); i++) {
+                mParentIdByChildId.remove(children.get(i).getId());
+            }
+        }
+    }
+
+    /**
+     * @return The children of a conference call, in the order telecom last reported them.
+     */
+    List<Call> getChildren(String parentId) {
+        final ArrayList<Call> children = mChildrenByParentId.get(parentId);
+        return children == null
+                ? Collections.<Call>emptyList() : Collections.unmodifiableList(children);
+    }
+
+    /**
+     * @return The id of the conference call a call is a child of, or {@code null}.
+     */
+    String getParentId(String childId) {
+        return mParentIdByChildId.get(childId);
+    }
+
+    private void setChildren(Call parent, List<String> childIds, Map<String, Call> callById) {
+        final ArrayList<Call> oldChildren = mChildrenByParentId.remove(parent.getId());
+        if (oldChildren != null) {
+            for (int i = 0; i < oldChildren.size(); i++) {
+                mParentIdByChildId.remove(oldChildren.get(i).getId());
+            }
+        }
+        if (childIds.isEmpty()) {
+            return;
+        }
+
+        final ArrayList<Call> children = new ArrayList<>(childIds.size());
+        for (int i = 0; i < childIds.size(); i++) {
+            final Call child = callById.get(childIds.get(i));
+            if (child == null) {
+                continue;
+            }
+            // A child moved over from another conference.
+            final String previousParentId = mParentIdByChildId.put(child.getId(), parent.getId());
+            if (previousParentId != null && !previousParentId.equals(parent.getId())) {
+                removeChild(previousParentId, child);
+            }
+            children.add(child);
+        }
+        mChildrenByParentId.put(parent.getId(), children);
+    }
+
+    private void setParent(Call child, String parentId) {
+        final String oldParentId = mParentIdByChildId.get(child.getId());
+        if (oldParentId != null && oldParentId.equals(parentId)) {
+            return;
+        }
+        if (oldParentId != null) {
+            mParentIdByChildId.remove(child.getId());
+            removeChild(oldParentId, child);
+        }
+        if (parentId == null) {
+            return;
+        }
+
+        ArrayList<Call> children = mChildrenByParentId.get(parentId);
+        if (children == null) {
+            children = new ArrayList<>();
+            mChildrenByParentId.put(parentId, children);
+        }
+        children.add(child);
+        mParentIdByChildId.put(child.getId(), parentId);
+    }
+
+    private void removeChild(String parentId, Call child) {
+        final ArrayList<Call> children = mChildrenByParentId.get(parentId);
+        if (children != null) {
+            children.remove(child);
+            if (children.isEmpty()) {
+                mChildrenByParentId.remove(parentId);
+            }
+        }
+    }
+}
@@ -59,8 +59,9 @@ public class ConferenceManagerPresenter
         if (getUi().isFragmentVisible()) {
             Log.v(this, "onStateChange" + newState);
             if (newState == InCallState.INCALL) {
-                final Call call = callList.getActiveOrBackgroundCall();
-                if (call != null && call.isConferenceCall()) {
+                final Call call =
+                        InCallPresenter.getInstance().getCallListSnapshot().getConferenceCall();
+                if (call != null) {
                     Log.v(this, "Number of existing calls is " +
                             String.valueOf(call.getChildCallIds().size()));
                     update(callList);
@@ -120,10 +121,7 @@ public class ConferenceManagerPresenter
             return;
         }
 
-        ArrayList<Call> calls = new ArrayList<>(currentCall.getChildCallIds().size());
-        for (String callerId : currentCall.getChildCallIds()) {
-            calls.add(callList.getCallById(callerId));
-        }
+        final ArrayList<Call> calls = new ArrayList<>(callList.getChildCalls(currentCall));
 
         Log.d(this, "Number of calls is " + String.valueOf(calls.size()));
 
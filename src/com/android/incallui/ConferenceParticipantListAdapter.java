@@ -17,6 +17,7 @@
 package com.android.incallui;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.telephony.PhoneNumberUtils;
 import android.text.BidiFormatter;
@@ -58,6 +59,7 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
         private Call mCall;
         private ContactCacheEntry mContactCacheEntry;
         private boolean mCacheLookupComplete = false;
+        private boolean mCacheLookupStarted = false;
 
         public ParticipantInfo(Call call, ContactCacheEntry contactCacheEntry) {
             mCall = call;
@@ -88,6 +90,14 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
             mCacheLookupComplete = cacheLookupComplete;
         }
 
+        public boolean isCacheLookupStarted() {
+            return mCacheLookupStarted;
+        }
+
+        public void setCacheLookupStarted(boolean cacheLookupStarted) {
+            mCacheLookupStarted = cacheLookupStarted;
+        }
+
         @Override
         public boolean equals(Object o) {
             if (o instanceof ParticipantInfo) {
@@ -205,6 +215,11 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
      */
     private final ContactPhotoManager mContactPhotoManager;
 
+    /**
+     * Size of the participant photos, in pixels.
+     */
+    private final int mPhotoSize;
+
     /**
      * {@code True} if the conference parent supports separating calls from the conference.
      */
@@ -225,6 +240,8 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
         mContext = context;
         mLayoutInflater = layoutInflater;
         mContactPhotoManager = contactPhotoManager;
+        mPhotoSize = context.getResources()
+                .getDimensionPixelSize(R.dimen.contact_browser_list_item_photo_size);
     }
 
     /**
@@ -331,7 +348,8 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
 
         // If a cache lookup has not yet been performed to retrieve the contact information and
         // photo, do it now.
-        if (!participantInfo.isCacheLookupComplete()) {
+        if (!participantInfo.isCacheLookupComplete() && !participantInfo.isCacheLookupStarted()) {
+            participantInfo.setCacheLookupStarted(true);
             cache.findInfo(participantInfo.getCall(),
                     participantInfo.getCall().getState() == Call.State.INCOMING,
                     new ContactLookupCallback(this));
@@ -406,10 +424,19 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
             separateButton.setOnClickListener(null);
         }
 
-        DefaultImageRequest imageRequest = (photoUri != null) ? null :
-                new DefaultImageRequest(callerName, lookupKey, true /* isCircularPhoto */);
+        // Round the photo the call card already decoded, if it is still in memory.
+        final Bitmap photo = photoUri == null ? null : ContactBitmapCache.getInstance().getRounded(
+                photoUri, null, ContactsAsyncHelper.getPhotoSize(mContext), mPhotoSize);
+        if (photo != null) {
+            mContactPhotoManager.removePhoto(photoView);
+            photoView.setImageBitmap(photo);
+        } else {
+            DefaultImageRequest imageRequest = (photoUri != null) ? null :
+                    new DefaultImageRequest(callerName, lookupKey, true /* isCircularPhoto */);
 
-        mContactPhotoManager.loadDirectoryPhoto(photoView, photoUri, false, true, imageRequest);
+            mContactPhotoManager.loadDirectoryPhoto(photoView, photoUri, false, true,
+                    imageRequest);
+        }
 
         // set the caller name
         nameTextView.setText(callerName);
@@ -474,6 +501,20 @@ public class ConferenceParticipantListAdapter extends BaseAdapter {
             }
         }
 
+        // Look up the participants not looked up yet together, rather than one by one as their
+        // rows are shown.
+        final List<Call> lookups = new ArrayList<>();
+        for (ParticipantInfo participantInfo : mConferenceParticipants) {
+            if (!participantInfo.isCacheLookupComplete()
+                    && !participantInfo.isCacheLookupStarted()) {
+                participantInfo.setCacheLookupStarted(true);
+                lookups.add(participantInfo.getCall());
+            }
+        }
+        if (!lookups.isEmpty()) {
+            cache.findInfos(lookups, new ContactLookupCallback(this));
+        }
+
         if (newParticipantAdded) {
             // Sort the list of participants by contact name.
             sortParticipantList();
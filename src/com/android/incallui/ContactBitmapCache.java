@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.LruCache;
+
+import com.android.contacts.common.testing.NeededForTesting;
+import com.android.contacts.common.util.BitmapUtil;
+
+import java.io.PrintWriter;
+
+/**
+ * Process-wide memory cache of decoded contact photos, keyed by photo uri, the size they were
+ * made for and how they were made from the photo, and bounded by the bytes of the bitmaps. It is
+ * shared by {@link ContactsAsyncHelper}, which decodes the photos and their notification icons,
+ * {@link StatusBarNotifier}, which rounds the icons, and {@link ConferenceParticipantListAdapter},
+ * which rounds the photos of participants.
+ *
+ * Cached bitmaps may still be in use when they are evicted, so they must never be recycled.
+ */
+class ContactBitmapCache {
+
+    /** The photo, decoded for the call card. */
+    static final int TRANSFORM_RAW = 0;
+    /** The photo scaled down to a notification large icon. */
+    static final int TRANSFORM_ICON = 1;
+    /** The photo scaled down and cropped to a circle. */
+    static final int TRANSFORM_ROUNDED = 2;
+
+    private static final int MAX_BYTES =
+            (int) Math.min(Runtime.getRuntime().maxMemory() / 8, 16 * 1024 * 1024);
+
+    private static ContactBitmapCache sInstance;
+
+    private static final class Key {
+        final Uri uri;
+        final int size;
+        final int transform;
+
+        Key(Uri uri, int size, int transform) {
+            this.uri = uri;
+            this.size = size;
+            this.transform = transform;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return uri.equals(other.uri) && size == other.size && transform == other.transform;
+        }
+
+        @Override
+        public int hashCode() {
+            return (uri.hashCode() * 31 + size) * 31 + transform;
+        }
+    }
+
+    private final LruCache<Key, Bitmap> mCache;
+
+    public static synchronized ContactBitmapCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new ContactBitmapCache(MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    @NeededForTesting
+    ContactBitmapCache(int maxBytes) {
+        mCache = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+        };
+    }
+
+    /**
+     * @param size Size of the longer edge the bitmap was made for, in pixels.
+     * @param transform One of the {@code TRANSFORM_*} constants.
+     * @return The cached bitmap, or {@code null}.
+     */
+    Bitmap get(Uri uri, int size, int transform) {
+        return mCache.get(new Key(uri, size, transform));
+    }
+
+    void put(Uri uri, int size, int transform, Bitmap bitmap) {
+        mCache.put(new Key(uri, size, transform), bitmap);
+    }
+
+    /**
+     * Returns a photo scaled down and cropped to a circle of the given size, rounding the given
+     * source bitmap if it is not cached yet.
+     *
+     * @param source The photo to round, or {@code null} to round the cached photo decoded at
+     *         {@code photoSize} instead, if any.
+     * @return The rounded photo, or {@code null} if it is not cached and there was nothing to
+     *         round.
+     */
+    Bitmap getRounded(Uri uri, Bitmap source, int photoSize, int size) {
+        Bitmap rounded = get(uri, size, TRANSFORM_ROUNDED);
+        if (rounded != null) {
+            return rounded;
+        }
+        if (source == null) {
+            source = get(uri, photoSize, TRANSFORM_RAW);
+            if (source == null) {
+                return null;
+            }
+        }
+        rounded = BitmapUtil.getRoundedBitmap(source, size, size);
+        if (rounded != null) {
+            put(uri, size, TRANSFORM_ROUNDED, rounded);
+        }
+        return rounded;
+    }
+
+    /**
+     * Drops the least recently used bitmaps until the cache is at most a quarter full, e.g. once
+     * no call is up.
+     */
+    void trim() {
+        mCache.trimToSize(mCache.maxSize() / 4);
+    }
+
+    void clear() {
+        mCache.evictAll();
+    }
+
+    @NeededForTesting
+    int getBytes() {
+        return mCache.size();
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("ContactBitmapCache:");
+        pw.println("  bytes: " + mCache.size() + "/" + mCache.maxSize()
+                + ", hits: " + mCache.hitCount() + ", misses: " + mCache.missCount()
+                + ", evictions: " + mCache.evictionCount());
+    }
+}
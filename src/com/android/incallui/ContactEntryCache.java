@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.telecom.TelecomManager;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+
+import com.android.contacts.common.testing.NeededForTesting;
+import com.android.contacts.common.util.PhoneNumberHelper;
+import com.android.incallui.ContactInfoCache.ContactCacheEntry;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link ContactCacheEntry}s of {@link ContactInfoCache}, kept in an LRU bounded by the
+ * memory their photos use. Entries are keyed by normalized number and call direction, so
+ * conference participants and repeat callers with the same number share one entry and one photo,
+ * and each call is an alias for the entry of its number. Calls without a number to share, e.g.
+ * private numbers, are keyed by their own id.
+ *
+ * The entry of a call is never evicted while the call is in the call list, so the LRU can grow
+ * past its limit while many calls are up. Once a call is removed its entry stays cached, and can
+ * be evicted, until another call with the same number comes in.
+ */
+class ContactEntryCache {
+
+    /** Rough cost of an entry without photos: its strings, uris and the entry itself. */
+    @NeededForTesting
+    static final int ENTRY_OVERHEAD_BYTES = 1024;
+
+    private static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    private static final String INCOMING_SUFFIX = "|in";
+    private static final String OUTGOING_SUFFIX = "|out";
+
+    /** Least recently used first. */
+    private final LinkedHashMap<String, ContactCacheEntry> mEntries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final HashMap<String, Integer> mBytesByKey = new HashMap<>();
+    private final HashMap<String, String> mKeyByCallId = new HashMap<>();
+    private final int mMaxBytes;
+    private int mBytes;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    ContactEntryCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    @NeededForTesting
+    ContactEntryCache(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return The key the entry of a call is stored under: its normalized number and direction if
+     *         the number may be shown, or else the id of the call. The direction is part of the
+     *         key since some fields, e.g. the location, are only filled in for incoming calls.
+     */
+    static String getKey(Call call, boolean isIncoming) {
+        final String number = call.getNumber();
+        if (TextUtils.isEmpty(number)
+                || call.getNumberPresentation() != TelecomManager.PRESENTATION_ALLOWED) {
+            return call.getId();
+        }
+        return (PhoneNumberHelper.isUriNumber(number)
+                ? number : PhoneNumberUtils.normalizeNumber(number))
+                + (isIncoming ? INCOMING_SUFFIX : OUTGOING_SUFFIX);
+    }
+
+    /**
+     * @return The entry of a call, or {@code null} if the call has none or it was evicted.
+     */
+    synchronized ContactCacheEntry get(String callId) {
+        final String key = mKeyByCallId.get(callId);
+        final ContactCacheEntry entry = key == null ? null : mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Returns the entry of a call, or else the entry another call with the same key left behind,
+     * which then becomes the entry of this call as well.
+     */
+    synchronized ContactCacheEntry get(String callId, String key) {
+        if (!mKeyByCallId.containsKey(callId) && mEntries.containsKey(key)) {
+            mKeyByCallId.put(callId, key);
+        }
+        return get(callId);
+    }
+
+    /**
+     * @return The entry stored under a key, whether or not any call still uses it, or
+     *         {@code null} if there is none or it was evicted.
+     */
+    synchronized ContactCacheEntry getByKey(String key) {
+        return mEntries.get(key);
+    }
+
+    /**
+     * @return The key of the entry of a call, or {@code null} if it has none yet.
+     */
+    synchronized String getKey(String callId) {
+        return mKeyByCallId.get(callId);
+    }
+
+    /**
+     * Replaces the entry of a call, and of all other calls sharing it.
+     */
+    synchronized void put(String callId, ContactCacheEntry entry) {
+        final String key = mKeyByCallId.get(callId);
+        put(callId, key != null ? key : callId, entry);
+    }
+
+    /**
+     * Stores the entry of a call under the given key, shared with all other calls with that key.
+     * Should also be called after changing the photo of an entry, to update its weight.
+     */
+    synchronized void put(String callId, String key, ContactCacheEntry entry) {
+        mKeyByCallId.put(callId, key);
+        putByKey(key, entry);
+    }
+
+    /**
+     * Stores an entry under a key for the calls which already use it, e.g. when a lookup which
+     * some of them are waiting for completes.
+     */
+    synchronized void putByKey(String key, ContactCacheEntry entry) {
+        mEntries.put(key, entry);
+        final int bytes = getBytes(entry);
+        final Integer oldBytes = mBytesByKey.put(key, bytes);
+        mBytes += bytes - (oldBytes != null ? oldBytes : 0);
+        trimToSize();
+    }
+
+    /**
+     * Called when a call is removed, after which its entry may be evicted.
+     */
+    synchronized void removeCall(String callId) {
+        if (mKeyByCallId.remove(callId) != null) {
+            trimToSize();
+        }
+    }
+
+    /**
+     * @return A copy of all the entries, most recently used last.
+     */
+    synchronized List<ContactCacheEntry> getEntries() {
+        return new ArrayList<>(mEntries.values());
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+        mBytesByKey.clear();
+        mKeyByCallId.clear();
+        mBytes = 0;
+    }
+
+    @NeededForTesting
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    synchronized int getBytes() {
+        return mBytes;
+    }
+
+    synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println("  entries: " + mEntries.size() + ", calls: " + mKeyByCallId.size()
+                + ", bytes: " + mBytes + "/" + mMaxBytes);
+        pw.println("  hits: " + mHitCount + ", misses: " + mMissCount
+                + ", evictions: " + mEvictionCount);
+    }
+
+    private void trimToSize() {
+        if (mBytes <= mMaxBytes) {
+            return;
+        }
+        final HashSet<String> liveKeys = new HashSet<>(mKeyByCallId.values());
+        final Iterator<Map.Entry<String, ContactCacheEntry>> it = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && it.hasNext()) {
+            final String key = it.next().getKey();
+            if (liveKeys.contains(key)) {
+                continue;
+            }
+            it.remove();
+            mBytes -= mBytesByKey.remove(key);
+            mEvictionCount++;
+        }
+    }
+
+    private static int getBytes(ContactCacheEntry entry) {
+        return ENTRY_OVERHEAD_BYTES + getBytes(entry.photo) + getBytes(entry.lookupProviderBadge);
+    }
+
+    private static int getBytes(Drawable drawable) {
+        if (!(drawable instanceof BitmapDrawable)) {
+            return 0;
+        }
+        final Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+        return bitmap == null ? 0 : bitmap.getAllocationByteCount();
+    }
+}
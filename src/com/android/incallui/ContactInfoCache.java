@@ -32,6 +32,7 @@ import android.telecom.TelecomManager;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.TelephonyManager;
 import android.text.TextUtils;
+import com.android.contacts.common.testing.NeededForTesting;
 import com.android.contacts.common.util.PhoneNumberHelper;
 import com.android.contacts.common.util.UriUtils;
 import com.android.dialer.calllog.ContactInfo;
@@ -58,11 +59,12 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 
+import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -82,8 +84,15 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     private final PhoneNumberService mPhoneNumberService;
     private final CachedNumberLookupService mCachedNumberLookupService;
     private final LookupProvider mLookupProvider;
-    private final ConcurrentHashMap<String, ContactCacheEntry> mInfoMap = new ConcurrentHashMap();
+    private final ContactEntryCache mEntryCache = new ContactEntryCache();
+    private final UnknownNumberCache mUnknownNumbers;
     private final HashMap<String, Set<ContactInfoCacheCallback>> mCallBacks = Maps.newHashMap();
+    /** Remote lookups still running for numbers which have no contact, by entry key. */
+    private final HashMap<String, Integer> mPendingRemoteLookups = Maps.newHashMap();
+    /** Photo loads still running, by the entry key of the number they are for. */
+    private final HashMap<String, ContactsAsyncHelper.PhotoLoad> mPhotoLoads = Maps.newHashMap();
+    private int mLookupCount;
+    private int mJoinedLookupCount;
     private InCallPluginInfoAsyncTask mPluginInfoAsyncTask;
     private Handler mMainHandler = new Handler(Looper.getMainLooper());
 
@@ -99,12 +108,14 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         return sCache;
     }
 
-    private ContactInfoCache(Context context) {
+    @NeededForTesting
+    ContactInfoCache(Context context) {
         mContext = context;
         mPhoneNumberService = ObjectFactory.newPhoneNumberService(context);
         mCachedNumberLookupService =
                 com.android.dialerbind.ObjectFactory.newCachedNumberLookupService();
         mLookupProvider = LookupProviderImpl.INSTANCE.get(context);
+        mUnknownNumbers = new UnknownNumberCache(context);
     }
 
     public void tearDown() {
@@ -112,7 +123,7 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     }
 
     public ContactCacheEntry getInfo(String callId) {
-        return mInfoMap.get(callId);
+        return mEntryCache.get(callId);
     }
 
     public static ContactCacheEntry buildCacheEntryFromCall(Context context, Call call,
@@ -121,8 +132,19 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
         // TODO: get rid of caller info.
         final CallerInfo info = CallerInfoUtils.buildCallerInfo(context, call);
+        // Show what an earlier lookup of the number found until the lookup for this call returns.
+        final boolean cached = info.numberPresentation == TelecomManager.PRESENTATION_ALLOWED
+                && CallerInfoDiskCache.getInstance(context).apply(info);
         ContactInfoCache.populateCacheEntry(context, info, entry, call.getNumberPresentation(),
                 isIncoming);
+        if (cached && info.contactExists) {
+            entry.lookupKey = info.lookupKeyOrNull;
+            if (info.lookupKeyOrNull != null && info.contactIdOrZero != 0) {
+                entry.lookupUri =
+                        Contacts.getLookupUri(info.contactIdOrZero, info.lookupKeyOrNull);
+            }
+            entry.displayPhotoUri = info.contactDisplayPhotoUri;
+        }
         return entry;
     }
 
@@ -130,7 +152,7 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
      * @return true if any of the contacts in the cache do not have a name specified.
      */
     public boolean hasUnknownCalls() {
-        for (ContactCacheEntry entry : mInfoMap.values()) {
+        for (ContactCacheEntry entry : mEntryCache.getEntries()) {
             if (!UriUtils.isLocalContactUri(entry.lookupUri)) {
                 return true;
             }
@@ -141,7 +163,7 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     public void maybeInsertCnapInformationIntoCache(Context context, final Call call,
             final CallerInfo info) {
         if (mCachedNumberLookupService == null || TextUtils.isEmpty(info.cnapName)
-                || mInfoMap.get(call.getId()) != null) {
+                || mEntryCache.get(call.getId()) != null) {
             return;
         }
         final Context applicationContext = context.getApplicationContext();
@@ -200,42 +222,139 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         Preconditions.checkState(Looper.getMainLooper().getThread() == Thread.currentThread());
         Preconditions.checkNotNull(callback);
 
+        final long start = CallTimeline.beginSection("ContactInfoCache.findInfo");
+        if (startLookup(call, isIncoming, callback)) {
+            /**
+             * Performs a query for caller information.
+             * Save any immediate data we get from the query. An asynchronous query may also be
+             * made for any data that we do not already have. Some queries, such as those for
+             * voicemail and emergency call information, will not perform an additional
+             * asynchronous query.
+             */
+            final CallerInfo callerInfo = CallerInfoUtils.getCallerInfoForCall(
+                    mContext, call, new FindInfoCallback(isIncoming));
+
+            findInfoQueryComplete(call, callerInfo, isIncoming, false);
+        }
+        CallTimeline.endSection("ContactInfoCache.findInfo", call.getId(), start);
+    }
+
+    /**
+     * Same as {@link #findInfo}, for many calls at once, e.g. the participants of a conference.
+     * The numbers which are not cached yet are looked up together, in as few queries as
+     * possible, and the callback is called for each call as its information comes in.
+     */
+    public void findInfos(List<Call> calls, ContactInfoCacheCallback callback) {
+        Preconditions.checkState(Looper.getMainLooper().getThread() == Thread.currentThread());
+        Preconditions.checkNotNull(callback);
+
+        final long start = CallTimeline.beginSection("ContactInfoCache.findInfos");
+        final List<Call> lookups = new ArrayList<>(calls.size());
+        // The direction is part of the entry key, so the results must be stored with the
+        // direction the lookups started with, even if the calls were answered since.
+        final Set<Call> incomingCalls = Sets.newHashSet();
+        for (Call call : calls) {
+            final boolean isIncoming = isIncoming(call);
+            if (startLookup(call, isIncoming, callback)) {
+                lookups.add(call);
+                if (isIncoming) {
+                    incomingCalls.add(call);
+                }
+            }
+        }
+        if (!lookups.isEmpty()) {
+            Log.d(TAG, "Contact lookup. Looking up " + lookups.size() + " of " + calls.size()
+                    + " calls together.");
+
+            final List<CallerInfo> callerInfos = CallerInfoUtils.getCallerInfoForCalls(mContext,
+                    lookups, new CallerInfoAsyncQuery.OnQueryCompleteListener() {
+                        @Override
+                        public void onQueryComplete(int token, Object cookie,
+                                CallerInfo callerInfo) {
+                            final Call call = (Call) cookie;
+                            findInfoQueryComplete(call, callerInfo,
+                                    incomingCalls.contains(call), true);
+                        }
+                    });
+            for (int i = 0; i < lookups.size(); i++) {
+                final Call call = lookups.get(i);
+                findInfoQueryComplete(call, callerInfos.get(i), incomingCalls.contains(call),
+                        false);
+            }
+        }
+        CallTimeline.endSection("ContactInfoCache.findInfos", start);
+    }
+
+    private static boolean isIncoming(Call call) {
+        return call.getState() == Call.State.INCOMING;
+    }
+
+    /**
+     * Answers a request for the contact data of a call from the cache, or by joining a running
+     * lookup, if it can.
+     *
+     * @return {@code true} if the caller has to start a new lookup for the call, with the
+     *         callback registered for its results.
+     */
+    private boolean startLookup(Call call, boolean isIncoming, ContactInfoCacheCallback callback) {
         final String callId = call.getId();
-        final ContactCacheEntry cacheEntry = mInfoMap.get(callId);
+        final String key = ContactEntryCache.getKey(call, isIncoming);
+        final boolean isLookupRunning = isLookupRunning(key);
+        // Shares the entry of an earlier call with the same number, if any.
+        final ContactCacheEntry cacheEntry = mEntryCache.get(callId, key);
         Set<ContactInfoCacheCallback> callBacks = mCallBacks.get(callId);
 
         // If we have a previously obtained intermediate result return that now
         if (cacheEntry != null) {
             Log.d(TAG, "Contact lookup. In memory cache hit; lookup "
-                    + (callBacks == null ? "complete" : "still running"));
+                    + (isLookupRunning ? "still running" : "complete"));
             callback.onContactInfoComplete(callId, cacheEntry);
             // If no other callbacks are in flight, we're done.
-            if (callBacks == null) {
-                return;
+            if (!isLookupRunning) {
+                return false;
             }
         }
 
         // If the entry already exists, add callback
         if (callBacks != null) {
             callBacks.add(callback);
-            return;
+            return false;
+        }
+
+        // If another call with the same number is being looked up, wait for its results rather
+        // than querying for them again.
+        if (isLookupRunning && cacheEntry != null) {
+            Log.d(TAG, "Contact lookup. Joining running lookup of the same number.");
+            callBacks = Sets.newHashSet();
+            callBacks.add(callback);
+            mCallBacks.put(callId, callBacks);
+            mJoinedLookupCount++;
+            return false;
+        }
+
+        // If the number recently turned out to be unknown, don't look it up again, unless a
+        // lookup provider was enabled since.
+        final UnknownNumberCache.Entry unknownNumber = mUnknownNumbers.get(key);
+        if (unknownNumber != null && (unknownNumber.lookupStatus != StatusCode.NULL
+                || !mLookupProvider.isEnabled())) {
+            Log.d(TAG, "Contact lookup. Unknown number cache hit; skipping provider.");
+            final CallerInfo callerInfo = CallerInfoUtils.buildCallerInfo(mContext, call);
+            CallerInfoDiskCache.getInstance(mContext).apply(callerInfo);
+            final ContactCacheEntry entry = buildEntry(mContext, callId, callerInfo,
+                    call.getNumberPresentation(), isIncoming);
+            unknownNumber.applyTo(entry);
+            mEntryCache.put(callId, key, entry);
+            callback.onContactInfoComplete(callId, entry);
+            return false;
         }
         Log.d(TAG, "Contact lookup. In memory cache miss; searching provider.");
+        CallTimeline.mark("ContactInfoCache.lookupStarted", callId);
         // New lookup
         callBacks = Sets.newHashSet();
         callBacks.add(callback);
         mCallBacks.put(callId, callBacks);
-
-        /**
-         * Performs a query for caller information.
-         * Save any immediate data we get from the query. An asynchronous query may also be made
-         * for any data that we do not already have. Some queries, such as those for voicemail and
-         * emergency call information, will not perform an additional asynchronous query.
-         */
-        final CallerInfo callerInfo = CallerInfoUtils.getCallerInfoForCall(
-                mContext, call, new FindInfoCallback(isIncoming));
-
-        findInfoQueryComplete(call, callerInfo, isIncoming, false);
+        mLookupCount++;
+        return true;
     }
 
     private void findInfoQueryComplete(Call call, CallerInfo callerInfo, boolean isIncoming,
@@ -247,19 +366,32 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
             presentationMode = TelecomManager.PRESENTATION_ALLOWED;
         }
 
-        ContactCacheEntry cacheEntry = mInfoMap.get(callId);
+        final String key = ContactEntryCache.getKey(call, isIncoming);
+        // The results of the query are for every call with the number, and the call which started
+        // it may have been removed by now, so they are stored by number alone.
+        ContactCacheEntry cacheEntry = didLocalLookup
+                ? mEntryCache.getByKey(key) : mEntryCache.get(callId, key);
         // Ensure we always have a cacheEntry. Replace the existing entry if
         // it has no name or if we found a local contact.
         if (cacheEntry == null || TextUtils.isEmpty(cacheEntry.name) ||
                 callerInfo.contactExists) {
             cacheEntry = buildEntry(mContext, callId, callerInfo, presentationMode, isIncoming);
-            mInfoMap.put(callId, cacheEntry);
+            if (didLocalLookup) {
+                mEntryCache.putByKey(key, cacheEntry);
+            } else {
+                mEntryCache.put(callId, key, cacheEntry);
+            }
         }
 
-        sendInfoNotifications(callId, cacheEntry);
+        sendInfoNotifications(key, cacheEntry);
 
         if (didLocalLookup) {
+            if (call.getNumberPresentation() == TelecomManager.PRESENTATION_ALLOWED) {
+                CallerInfoDiskCache.getInstance(mContext).put(call.getNumber(), callerInfo);
+            }
+
             boolean clearCallbacks = true;
+            int remoteLookups = 0;
 
             // Before issuing a request for more data from other services, we only check that the
             // contact wasn't found in the local DB.  We don't check the if the cache entry already
@@ -268,10 +400,11 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
                     !callerInfo.isEmergencyNumber() &&
                     mPhoneNumberService != null) {
                 Log.d(TAG, "Contact lookup. Local contacts miss, checking remote");
-                final PhoneNumberServiceListener listener = new PhoneNumberServiceListener(callId);
+                final PhoneNumberServiceListener listener = new PhoneNumberServiceListener(key);
                 mPhoneNumberService.getPhoneNumberInfo(cacheEntry.number, listener, listener,
                         isIncoming);
                 clearCallbacks = false;
+                remoteLookups++;
             }
 
             if (!callerInfo.contactExists &&
@@ -285,20 +418,28 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
                         PhoneNumberUtils.formatNumberToE164(cacheEntry.number, countryIso);
                 RequestOrigin origin = isIncoming ? RequestOrigin.INCOMING_CALL :
                         RequestOrigin.OUTGOING_CALL;
-                LookupRequest request = new LookupRequest(numberE164,
-                        new LookupResultCallback(callId),
-                        origin);
-                mLookupProvider.fetchInfo(request);
-                sendInfoNotifications(callId, cacheEntry);
+                sendInfoNotifications(key, cacheEntry);
+                LookupResponseCache.getInstance(mContext).lookup(numberE164,
+                        new LookupProviderFetcher(origin), new LookupResultCallback(key));
                 clearCallbacks = false;
+                remoteLookups++;
+            }
+
+            if (!callerInfo.contactExists && !callerInfo.isEmergencyNumber()
+                    && !callerInfo.isVoiceMailNumber()
+                    && call.getNumberPresentation() == TelecomManager.PRESENTATION_ALLOWED) {
+                if (remoteLookups == 0) {
+                    mUnknownNumbers.put(key, cacheEntry);
+                } else {
+                    mPendingRemoteLookups.put(key, remoteLookups);
+                }
             }
 
             if (cacheEntry.displayPhotoUri != null) {
                 Log.d(TAG, "Contact lookup. Local contact found, starting image load");
                 // Load the image with a callback to update the image state.
                 // When the load is finished, onImageLoadComplete() will be called.
-                ContactsAsyncHelper.startObtainPhotoAsync(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE,
-                        mContext, cacheEntry.displayPhotoUri, ContactInfoCache.this, callId);
+                startPhotoLoad(call, key, cacheEntry.displayPhotoUri);
                 clearCallbacks = false;
             }
 
@@ -309,7 +450,7 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
                     Log.d(TAG, "Contact lookup done. Local contact not found and"
                             + " no remote lookup service available.");
                 }
-                clearCallbacks(callId);
+                clearCallbacks(key);
             }
         }
     }
@@ -317,7 +458,7 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     public void refreshPluginInfo(final Call call, ContactInfoCacheCallback callback) {
         if (call != null) {
             final String callId = call.getId();
-            ContactCacheEntry entry = mInfoMap.get(callId);
+            ContactCacheEntry entry = mEntryCache.get(callId);
             if (entry == null) {
                 findInfo(call, call.getState() == Call.State.INCOMING, callback);
             } else {
@@ -360,13 +501,13 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
         @Override
         public void onPostExecuteTask(List<InCallPluginInfo> inCallPluginInfoList) {
-            synchronized (mInfoMap) {
-                final ContactCacheEntry oldEntry = mInfoMap.get(mCallId);
+            synchronized (mEntryCache) {
+                final ContactCacheEntry oldEntry = mEntryCache.get(mCallId);
                 ContactCacheEntry entry = new ContactCacheEntry(oldEntry);
                 entry.inCallPluginInfoList = inCallPluginInfoList;
 
                 // Add the contact info to the cache.
-                mInfoMap.put(mCallId, entry);
+                mEntryCache.put(mCallId, entry);
                 if (mCallback != null) {
                     ContactInfoCacheCallback callback = mCallback.get();
                     if (callback != null) {
@@ -379,10 +520,11 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
 
     class PhoneNumberServiceListener implements PhoneNumberService.NumberLookupListener,
                                      PhoneNumberService.ImageLookupListener {
-        private final String mCallId;
+        /** The entry key of the number being looked up. */
+        private final String mKey;
 
-        PhoneNumberServiceListener(String callId) {
-            mCallId = callId;
+        PhoneNumberServiceListener(String key) {
+            mKey = key;
         }
 
         @Override
@@ -392,9 +534,11 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
             // so clear the callbacks and return.
             if (info == null) {
                 Log.d(TAG, "Contact lookup done. Remote contact not found.");
-                clearCallbacks(mCallId);
+                onRemoteLookupComplete(mKey, false);
+                clearCallbacks(mKey);
                 return;
             }
+            onRemoteLookupComplete(mKey, true);
 
             ContactCacheEntry entry = new ContactCacheEntry();
             entry.name = info.getDisplayName();
@@ -408,8 +552,8 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
                         mContext.getResources(), type, label);
                 entry.label = typeStr == null ? null : typeStr.toString();
             }
-            synchronized (mInfoMap) {
-                final ContactCacheEntry oldEntry = mInfoMap.get(mCallId);
+            synchronized (mEntryCache) {
+                final ContactCacheEntry oldEntry = mEntryCache.getByKey(mKey);
                 if (oldEntry != null) {
                     // Location is only obtained from local lookup so persist
                     // the value for remote lookups. Once we have a name this
@@ -426,100 +570,146 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
                 }
 
                 // Add the contact info to the cache.
-                mInfoMap.put(mCallId, entry);
+                mEntryCache.putByKey(mKey, entry);
             }
-            sendInfoNotifications(mCallId, entry);
+            sendInfoNotifications(mKey, entry);
 
             // If there is no image then we should not expect another callback.
             if (info.getImageUrl() == null) {
                 // We're done, so clear callbacks
-                clearCallbacks(mCallId);
+                clearCallbacks(mKey);
             }
         }
 
         @Override
         public void onImageFetchComplete(Bitmap bitmap) {
-            onImageLoadComplete(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE, null, bitmap, mCallId);
+            onImageLoadComplete(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE, null, bitmap, mKey);
         }
     }
 
-    class LookupResultCallback implements LookupRequest.Callback {
+    /**
+     * Asks the lookup provider about numbers which {@link LookupResponseCache} has no fresh
+     * response for.
+     */
+    private class LookupProviderFetcher implements LookupResponseCache.Provider {
 
-        private String mCallId;
+        private final RequestOrigin mOrigin;
+
+        public LookupProviderFetcher(RequestOrigin origin) {
+            mOrigin = origin;
+        }
+
+        @Override
+        public void fetch(String number, final LookupResponseCache.Listener listener) {
+            mLookupProvider.fetchInfo(new LookupRequest(number, new LookupRequest.Callback() {
+                @Override
+                public void onNewInfo(LookupRequest lookupRequest, LookupResponse response) {
+                    listener.onLookupComplete(LookupResponseCache.Entry.fromResponse(response));
+                }
+            }, mOrigin));
+        }
+    }
+
+    class LookupResultCallback implements LookupResponseCache.Listener {
+
+        /** The entry key of the number being looked up. */
+        private String mKey;
         private ImageUtils.BitmapLoadRequest mBitmapLoadRequest;
 
-        public LookupResultCallback(String callId) {
-            mCallId = callId;
+        public LookupResultCallback(String key) {
+            mKey = key;
         }
 
         @Override
-        public void onNewInfo(LookupRequest lookupRequest, final LookupResponse response) {
-            final ContactCacheEntry oldEntry = mInfoMap.get(mCallId);
-            if (oldEntry == null || response == null) {
-                // not interested in updates for this call anymore
+        public void onLookupComplete(final LookupResponseCache.Entry response) {
+            final ContactCacheEntry oldEntry = mEntryCache.getByKey(mKey);
+            if (oldEntry == null) {
+                // not interested in updates for this number anymore
                 return;
             }
             oldEntry.isLookupInProgress = false;
-            oldEntry.lookupStatus = response.mStatusCode;
 
-            if (response == null || response.mStatusCode != StatusCode.SUCCESS) {
+            if (response == null) {
                 oldEntry.lookupProviderName = mLookupProvider.getDisplayName();
                 oldEntry.lookupStatus = StatusCode.FAIL;
                 mMainHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        sendInfoNotifications(mCallId, oldEntry);
-                        clearCallbacks(mCallId);
+                        sendInfoNotifications(mKey, oldEntry);
+                        onRemoteLookupComplete(mKey, false);
+                        clearCallbacks(mKey);
                     }
                 });
 
             } else {
                 final ContactCacheEntry newEntry = new ContactCacheEntry();
-                newEntry.lookupProviderBadge = response.mAttributionLogo;
-                newEntry.lookupProviderName = response.mProviderName;
-
-                if (response.mStatusCode == StatusCode.SUCCESS) {
-                    newEntry.lookupStatus = StatusCode.SUCCESS;
-                    newEntry.name = response.mName;
-                    newEntry.number = response.mNumber;
-                    newEntry.location = response.mAddress;
-                    newEntry.spamCount = response.mSpamCount;
-                    newEntry.isSpam = response.mIsSpam;
-                    if (!TextUtils.isEmpty(response.mPhotoUrl)) {
-                        newEntry.displayPhotoUri = Uri.parse(response.mPhotoUrl);
-                    }
+                if (response.badge != null) {
+                    newEntry.lookupProviderBadge =
+                            new BitmapDrawable(mContext.getResources(), response.badge);
+                }
+                newEntry.lookupProviderName = response.providerName;
+                newEntry.lookupStatus = StatusCode.SUCCESS;
+                newEntry.name = response.name;
+                newEntry.number = response.number;
+                newEntry.location = response.address;
+                newEntry.spamCount = response.spamCount;
+                newEntry.isSpam = response.isSpam;
+                if (!TextUtils.isEmpty(response.photoUrl)) {
+                    newEntry.displayPhotoUri = Uri.parse(response.photoUrl);
                 }
 
                 mMainHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        mInfoMap.put(mCallId, newEntry);
-                        sendInfoNotifications(mCallId, newEntry);
+                        mEntryCache.putByKey(mKey, newEntry);
+                        sendInfoNotifications(mKey, newEntry);
+                        // A spam report without a name still leaves the number unknown.
+                        onRemoteLookupComplete(mKey, !TextUtils.isEmpty(newEntry.name));
 
-                        if (TextUtils.isEmpty(response.mPhotoUrl) || newEntry.isSpam) {
+                        if (TextUtils.isEmpty(response.photoUrl) || newEntry.isSpam) {
                             // don't expect another callback if there is no image or if spam
-                            clearCallbacks(mCallId);
+                            clearCallbacks(mKey);
                         } else {
-                            mBitmapLoadRequest = ImageUtils.getBitmapFromUrl(mContext, response.mPhotoUrl,
-                                    new ImageUtils.ImageLoadCallback<Bitmap>() {
-                                        @Override
-                                        public void onCompleted(Exception e, Bitmap result) {
-                                            if (result != null) {
-                                                onImageLoadComplete(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE,
-                                                        null, result, mCallId);
-                                            }
-                                        }
-                                    });
+                            loadPhoto(response.photoUrl);
                         }
                     }
                 });
             }
         }
+
+        /**
+         * Loads the photo the provider returned from the cache, and else downloads and caches it.
+         */
+        private void loadPhoto(final String url) {
+            final LookupResponseCache responseCache = LookupResponseCache.getInstance(mContext);
+            responseCache.loadPhoto(url, new LookupResponseCache.PhotoListener() {
+                @Override
+                public void onPhotoLoaded(Bitmap photo) {
+                    if (photo != null) {
+                        onImageLoadComplete(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE, null, photo,
+                                mKey);
+                        return;
+                    }
+                    mBitmapLoadRequest = ImageUtils.getBitmapFromUrl(mContext, url,
+                            new ImageUtils.ImageLoadCallback<Bitmap>() {
+                                @Override
+                                public void onCompleted(Exception e, Bitmap result) {
+                                    if (result != null) {
+                                        responseCache.putPhoto(url, result);
+                                        onImageLoadComplete(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE,
+                                                null, result, mKey);
+                                    }
+                                }
+                            });
+                }
+            });
+        }
     }
 
     /**
      * Implemented for ContactsAsyncHelper.OnImageLoadCompleteListener interface.
      * make sure that the call state is reflected after the image is loaded.
+     * The cookie is the entry key of the number the photo is for.
      */
     @Override
     public void onImageLoadComplete(int token, Drawable photo, Bitmap photoIcon, Object cookie) {
@@ -527,12 +717,13 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
         // TODO: may be nice to update the image view again once the newer one
         // is available on contacts database.
 
-        final String callId = (String) cookie;
-        final ContactCacheEntry entry = mInfoMap.get(callId);
+        final String key = (String) cookie;
+        mPhotoLoads.remove(key);
+        final ContactCacheEntry entry = mEntryCache.getByKey(key);
 
         if (entry == null) {
             Log.e(this, "Image Load received for empty search entry.");
-            clearCallbacks(callId);
+            clearCallbacks(key);
             return;
         }
         Log.d(this, "setting photo for entry: ", entry);
@@ -548,17 +739,50 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
             Log.v(this, "unknown photo");
             entry.photo = null;
         }
+        // Update the weight of the entry now that it has a photo.
+        mEntryCache.putByKey(key, entry);
 
-        sendImageNotifications(callId, entry);
-        clearCallbacks(callId);
+        sendImageNotifications(key, entry);
+        clearCallbacks(key);
     }
 
     /**
      * Blows away the stored cache values.
      */
     public void clearCache() {
-        mInfoMap.clear();
+        for (ContactsAsyncHelper.PhotoLoad photoLoad : mPhotoLoads.values()) {
+            photoLoad.cancel();
+        }
+        mPhotoLoads.clear();
+        mEntryCache.clear();
         mCallBacks.clear();
+        mPendingRemoteLookups.clear();
+    }
+
+    /**
+     * Called when a call is removed from the call list. Its entry stays cached for other calls
+     * with the same number, but may now be evicted. The lookup of the number keeps running for
+     * the other calls waiting for it, if any, and else its photo load is cancelled.
+     */
+    public void onCallRemoved(String callId) {
+        mCallBacks.remove(callId);
+        final String key = mEntryCache.getKey(callId);
+        if (key != null && !isLookupRunning(key)) {
+            final ContactsAsyncHelper.PhotoLoad photoLoad = mPhotoLoads.remove(key);
+            if (photoLoad != null) {
+                Log.d(TAG, "Cancelling photo load of removed call " + callId);
+                photoLoad.cancel();
+            }
+        }
+        mEntryCache.removeCall(callId);
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("ContactInfoCache:");
+        pw.println("  lookups: " + mLookupCount + ", joined: " + mJoinedLookupCount);
+        mEntryCache.dump(pw);
+        mUnknownNumbers.dump(pw);
+        LookupResponseCache.getInstance(mContext).dump(pw);
     }
 
     private ContactCacheEntry buildEntry(Context context, String callId,
@@ -713,28 +937,114 @@ public class ContactInfoCache implements ContactsAsyncHelper.OnImageLoadComplete
     }
 
     /**
-     * Sends the updated information to call the callbacks for the entry.
+     * Sends the updated information to the callbacks of all calls with the entry key.
      */
-    private void sendInfoNotifications(String callId, ContactCacheEntry entry) {
-        final Set<ContactInfoCacheCallback> callBacks = mCallBacks.get(callId);
-        if (callBacks != null) {
-            for (ContactInfoCacheCallback callBack : callBacks) {
-                callBack.onContactInfoComplete(callId, entry);
+    private void sendInfoNotifications(String key, ContactCacheEntry entry) {
+        final long start = CallTimeline.beginSection("ContactInfoCache.sendInfoNotifications");
+        for (String id : getCallIdsWaitingForLookup(key)) {
+            final Set<ContactInfoCacheCallback> callBacks = mCallBacks.get(id);
+            if (callBacks != null) {
+                for (ContactInfoCacheCallback callBack : callBacks) {
+                    callBack.onContactInfoComplete(id, entry);
+                }
             }
         }
+        CallTimeline.endSection("ContactInfoCache.sendInfoNotifications", key, start);
     }
 
-    private void sendImageNotifications(String callId, ContactCacheEntry entry) {
-        final Set<ContactInfoCacheCallback> callBacks = mCallBacks.get(callId);
-        if (callBacks != null && entry.photo != null) {
-            for (ContactInfoCacheCallback callBack : callBacks) {
-                callBack.onImageLoadComplete(callId, entry);
+    private void sendImageNotifications(String key, ContactCacheEntry entry) {
+        if (entry.photo == null) {
+            return;
+        }
+        final long start = CallTimeline.beginSection("ContactInfoCache.sendImageNotifications");
+        for (String id : getCallIdsWaitingForLookup(key)) {
+            final Set<ContactInfoCacheCallback> callBacks = mCallBacks.get(id);
+            if (callBacks != null) {
+                for (ContactInfoCacheCallback callBack : callBacks) {
+                    callBack.onImageLoadComplete(id, entry);
+                }
             }
         }
+        CallTimeline.endSection("ContactInfoCache.sendImageNotifications", key, start);
     }
 
-    private void clearCallbacks(String callId) {
-        mCallBacks.remove(callId);
+    private void clearCallbacks(String key) {
+        for (String id : getCallIdsWaitingForLookup(key)) {
+            mCallBacks.remove(id);
+        }
+    }
+
+    /**
+     * @return The ids of the calls waiting for the lookup of an entry key, which are the call
+     *         which started it, unless it was removed, and any call which joined it.
+     */
+    private List<String> getCallIdsWaitingForLookup(String key) {
+        final List<String> callIds = new ArrayList<>();
+        for (String id : mCallBacks.keySet()) {
+            if (key.equals(mEntryCache.getKey(id))) {
+                callIds.add(id);
+            }
+        }
+        return callIds;
+    }
+
+    /**
+     * Called when a remote lookup of a number which has no contact completes. Once all of them
+     * found nothing, the number is remembered as unknown.
+     */
+    private void onRemoteLookupComplete(String key, boolean found) {
+        final Integer pending = mPendingRemoteLookups.remove(key);
+        if (pending == null || found) {
+            return;
+        }
+        if (pending > 1) {
+            mPendingRemoteLookups.put(key, pending - 1);
+            return;
+        }
+        final ContactCacheEntry entry = mEntryCache.getByKey(key);
+        if (entry != null) {
+            mUnknownNumbers.put(key, entry);
+        }
+    }
+
+    /**
+     * Starts loading the photo of the entry with the given key, which is cancelled once all the
+     * calls waiting for it are removed.
+     */
+    @NeededForTesting
+    void startPhotoLoad(Call call, String key, Uri photoUri) {
+        mPhotoLoads.put(key, ContactsAsyncHelper.startObtainPhotoAsync(
+                TOKEN_UPDATE_PHOTO_FOR_CALL_STATE, mContext, photoUri, getPhotoPriority(call),
+                this, key));
+    }
+
+    @NeededForTesting
+    ContactsAsyncHelper.PhotoLoad getPhotoLoad(String key) {
+        return mPhotoLoads.get(key);
+    }
+
+    /**
+     * @return How soon the photo of a call should be loaded, based on where it is shown.
+     */
+    private static int getPhotoPriority(Call call) {
+        if (call.getParentId() != null) {
+            return ContactsAsyncHelper.PRIORITY_CONFERENCE;
+        }
+        return call == CallList.getInstance().getFirstCall()
+                ? ContactsAsyncHelper.PRIORITY_PRIMARY : ContactsAsyncHelper.PRIORITY_SECONDARY;
+    }
+
+    /**
+     * @return Whether the lookup of a call with the given entry key is still running.
+     */
+    @NeededForTesting
+    boolean isLookupRunning(String key) {
+        for (String callId : mCallBacks.keySet()) {
+            if (key.equals(mEntryCache.getKey(callId))) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
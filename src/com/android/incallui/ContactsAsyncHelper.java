@@ -17,192 +17,319 @@
 package com.android.incallui;
 
 import android.app.Notification;
-import android.content.ContentUris;
 import android.content.Context;
-import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.Looper;
-import android.os.Message;
-import android.provider.ContactsContract.Contacts;
+import android.os.Process;
+import android.util.DisplayMetrics;
+
+import com.android.contacts.common.testing.NeededForTesting;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Helper class for loading contacts photo asynchronously.
+ *
+ * Photos are decoded by a small pool of worker threads. Queued loads run by priority, so the
+ * photo of the primary call is not stuck behind those of every conference participant, and in
+ * the order they were started within a priority. A load can be cancelled until it completes.
  */
 public class ContactsAsyncHelper {
 
     /**
-     * Interface for a WorkerHandler result return.
+     * Interface for a photo load result return.
      */
     public interface OnImageLoadCompleteListener {
         /**
          * Called when the image load is complete.
          *
          * @param token Integer passed in {@link ContactsAsyncHelper#startObtainPhotoAsync(int,
-         * Context, Uri, OnImageLoadCompleteListener, Object)}.
+         * Context, Uri, int, OnImageLoadCompleteListener, Object)}.
          * @param photo Drawable object obtained by the async load.
          * @param photoIcon Bitmap object obtained by the async load.
          * @param cookie Object passed in {@link ContactsAsyncHelper#startObtainPhotoAsync(int,
-         * Context, Uri, OnImageLoadCompleteListener, Object)}. Can be null iff. the original
+         * Context, Uri, int, OnImageLoadCompleteListener, Object)}. Can be null iff. the original
          * cookie is null.
          */
         public void onImageLoadComplete(int token, Drawable photo, Bitmap photoIcon,
                 Object cookie);
     }
 
-    // constants
-    private static final int EVENT_LOAD_IMAGE = 1;
+    /** Photo of the call shown in the primary call card. */
+    public static final int PRIORITY_PRIMARY = 0;
+    /** Photo of the call shown in the secondary call card. */
+    public static final int PRIORITY_SECONDARY = 1;
+    /** Photo of a row in the conference participant list. */
+    public static final int PRIORITY_CONFERENCE = 2;
+    /** Photo only shown in the notification. */
+    public static final int PRIORITY_NOTIFICATION = 3;
 
-    private final Handler mResultHandler = new Handler() {
-        /** Called when loading is done. */
-        @Override
-        public void handleMessage(Message msg) {
-            WorkerArgs args = (WorkerArgs) msg.obj;
-            switch (msg.arg1) {
-                case EVENT_LOAD_IMAGE:
-                    if (args.listener != null) {
-                        Log.d(this, "Notifying listener: " + args.listener.toString() +
-                                " image: " + args.displayPhotoUri + " completed");
-                        args.listener.onImageLoadComplete(msg.what, args.photo, args.photoIcon,
-                                args.cookie);
-                    }
-                    break;
-                default:
-            }
-        }
-    };
+    private static final String TAG = ContactsAsyncHelper.class.getSimpleName();
 
-    /** Handler run on a worker thread to load photo asynchronously. */
-    private static Handler sThreadHandler;
+    private static final int WORKER_COUNT = 2;
 
-    /** For forcing the system to call its constructor */
-    @SuppressWarnings("unused")
-    private static ContactsAsyncHelper sInstance;
+    private static final Handler sResultHandler = new Handler(Looper.getMainLooper());
 
-    static {
-        sInstance = new ContactsAsyncHelper();
-    }
+    private static final AtomicLong sSequence = new AtomicLong();
 
-    private static final class WorkerArgs {
-        public Context context;
-        public Uri displayPhotoUri;
-        public Drawable photo;
-        public Bitmap photoIcon;
-        public Object cookie;
-        public OnImageLoadCompleteListener listener;
-    }
+    private static final ThreadPoolExecutor sExecutor = new ThreadPoolExecutor(WORKER_COUNT,
+            WORKER_COUNT, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    return new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                            r.run();
+                        }
+                    }, "ContactsAsyncWorker-" + mCount.incrementAndGet());
+                }
+            });
 
     /**
-     * Thread worker class that handles the task of opening the stream and loading
-     * the images.
+     * A photo load started by {@link ContactsAsyncHelper#startObtainPhotoAsync}, which can be
+     * cancelled while it is queued or running. The listener of a cancelled load is not called.
      */
-    private class WorkerHandler extends Handler {
-        public WorkerHandler(Looper looper) {
-            super(looper);
+    public static final class PhotoLoad implements Runnable, Comparable<PhotoLoad> {
+        private final int mToken;
+        private final Context mContext;
+        private final Uri mDisplayPhotoUri;
+        private final int mPriority;
+        private final long mSequence;
+        /** Size of the longer edge of the largest view the photo is shown in, in pixels. */
+        private final int mPhotoSize;
+        /** Size of the notification large icon, in pixels. */
+        private final int mIconSize;
+        private final OnImageLoadCompleteListener mListener;
+        private final Object mCookie;
+        private volatile boolean mCancelled;
+
+        @NeededForTesting
+        PhotoLoad(int token, Context context, Uri displayPhotoUri, int priority,
+                OnImageLoadCompleteListener listener, Object cookie) {
+            mToken = token;
+            mContext = context;
+            mDisplayPhotoUri = displayPhotoUri;
+            mPriority = priority;
+            mSequence = sSequence.getAndIncrement();
+            mPhotoSize = getPhotoSize(context);
+            mIconSize = context.getResources()
+                    .getDimensionPixelSize(R.dimen.notification_icon_size);
+            mListener = listener;
+            mCookie = cookie;
         }
 
-        @Override
-        public void handleMessage(Message msg) {
-            WorkerArgs args = (WorkerArgs) msg.obj;
-
-            switch (msg.arg1) {
-                case EVENT_LOAD_IMAGE:
-                    InputStream inputStream = null;
-                    try {
-                        try {
-                            inputStream = args.context.getContentResolver()
-                                    .openInputStream(args.displayPhotoUri);
-                        } catch (Exception e) {
-                            Log.e(this, "Error opening photo input stream", e);
-                        }
+        /**
+         * Cancels the load. Must be called on the main thread, so the listener is not called
+         * afterwards.
+         */
+        public void cancel() {
+            mCancelled = true;
+            sExecutor.remove(this);
+        }
 
-                        if (inputStream != null) {
-                            args.photo = Drawable.createFromStream(inputStream,
-                                    args.displayPhotoUri.toString());
-
-                            // This assumes Drawable coming from contact database is usually
-                            // BitmapDrawable and thus we can have (down)scaled version of it.
-                            args.photoIcon = getPhotoIconWhenAppropriate(args.context, args.photo);
-
-                            Log.d(ContactsAsyncHelper.this, "Loading image: " + msg.arg1 +
-                                    " token: " + msg.what + " image URI: " + args.displayPhotoUri);
-                        } else {
-                            args.photo = null;
-                            args.photoIcon = null;
-                            Log.d(ContactsAsyncHelper.this, "Problem with image: " + msg.arg1 +
-                                    " token: " + msg.what + " image URI: " + args.displayPhotoUri +
-                                    ", using default image.");
-                        }
-                    } finally {
-                        if (inputStream != null) {
-                            try {
-                                inputStream.close();
-                            } catch (IOException e) {
-                                Log.e(this, "Unable to close input stream.", e);
-                            }
-                        }
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+            final ContactBitmapCache cache = ContactBitmapCache.getInstance();
+            Bitmap bitmap = cache.get(mDisplayPhotoUri, mPhotoSize,
+                    ContactBitmapCache.TRANSFORM_RAW);
+            if (bitmap == null) {
+                bitmap = decodePhoto(mContext, mDisplayPhotoUri, mPhotoSize);
+                if (bitmap != null) {
+                    cache.put(mDisplayPhotoUri, mPhotoSize, ContactBitmapCache.TRANSFORM_RAW,
+                            bitmap);
+                }
+            }
+            Bitmap photoIcon = null;
+            if (bitmap != null) {
+                photoIcon = cache.get(mDisplayPhotoUri, mIconSize,
+                        ContactBitmapCache.TRANSFORM_ICON);
+                if (photoIcon == null) {
+                    photoIcon = getPhotoIcon(bitmap, mIconSize);
+                    if (photoIcon != null && photoIcon != bitmap) {
+                        cache.put(mDisplayPhotoUri, mIconSize, ContactBitmapCache.TRANSFORM_ICON,
+                                photoIcon);
                     }
-                    break;
-                default:
+                }
+                Log.d(TAG, "Loading image: token: " + mToken + " priority: " + mPriority
+                        + " image URI: " + mDisplayPhotoUri);
+            } else {
+                Log.d(TAG, "Problem with image: token: " + mToken + " image URI: "
+                        + mDisplayPhotoUri + ", using default image.");
             }
-
-            // send the reply to the enclosing class.
-            Message reply = ContactsAsyncHelper.this.mResultHandler.obtainMessage(msg.what);
-            reply.arg1 = msg.arg1;
-            reply.obj = msg.obj;
-            reply.sendToTarget();
+            deliver(bitmap, photoIcon);
         }
 
         /**
-         * Returns a Bitmap object suitable for {@link Notification}'s large icon. This might
-         * return null when the given Drawable isn't BitmapDrawable, or if the system fails to
-         * create a scaled Bitmap for the Drawable.
+         * Delivers the photos cached by an earlier load right away, without queueing.
+         *
+         * @return Whether the photos were cached.
          */
-        private Bitmap getPhotoIconWhenAppropriate(Context context, Drawable photo) {
-            if (!(photo instanceof BitmapDrawable)) {
-                return null;
+        private boolean deliverFromCache() {
+            final ContactBitmapCache cache = ContactBitmapCache.getInstance();
+            final Bitmap bitmap = cache.get(mDisplayPhotoUri, mPhotoSize,
+                    ContactBitmapCache.TRANSFORM_RAW);
+            if (bitmap == null) {
+                return false;
             }
-            int iconSize = context.getResources()
-                    .getDimensionPixelSize(R.dimen.notification_icon_size);
-            Bitmap orgBitmap = ((BitmapDrawable) photo).getBitmap();
-            int orgWidth = orgBitmap.getWidth();
-            int orgHeight = orgBitmap.getHeight();
-            int longerEdge = orgWidth > orgHeight ? orgWidth : orgHeight;
-            // We want downscaled one only when the original icon is too big.
-            if (longerEdge > iconSize) {
-                float ratio = ((float) longerEdge) / iconSize;
-                int newWidth = (int) (orgWidth / ratio);
-                int newHeight = (int) (orgHeight / ratio);
-                // If the longer edge is much longer than the shorter edge, the latter may
-                // become 0 which will cause a crash.
-                if (newWidth <= 0 || newHeight <= 0) {
-                    Log.w(this, "Photo icon's width or height become 0.");
-                    return null;
+            Bitmap photoIcon = cache.get(mDisplayPhotoUri, mIconSize,
+                    ContactBitmapCache.TRANSFORM_ICON);
+            if (photoIcon == null) {
+                if (Math.max(bitmap.getWidth(), bitmap.getHeight()) > mIconSize) {
+                    // Leave scaling the icon to a worker.
+                    return false;
                 }
+                photoIcon = bitmap;
+            }
+            Log.d(TAG, "Photo cache hit: token: " + mToken + " image URI: " + mDisplayPhotoUri);
+            deliver(bitmap, photoIcon);
+            return true;
+        }
 
-                // It is sure ratio >= 1.0f in any case and thus the newly created Bitmap
-                // should be smaller than the original.
-                return Bitmap.createScaledBitmap(orgBitmap, newWidth, newHeight, true);
-            } else {
-                return orgBitmap;
+        private void deliver(Bitmap bitmap, final Bitmap photoIcon) {
+            final Drawable photo = bitmap == null
+                    ? null : new BitmapDrawable(mContext.getResources(), bitmap);
+            // send the reply on the main thread.
+            sResultHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mCancelled || mListener == null) {
+                        return;
+                    }
+                    Log.d(TAG, "Notifying listener: " + mListener.toString() +
+                            " image: " + mDisplayPhotoUri + " completed");
+                    mListener.onImageLoadComplete(mToken, photo, photoIcon, mCookie);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(PhotoLoad another) {
+            if (mPriority != another.mPriority) {
+                return mPriority < another.mPriority ? -1 : 1;
             }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
         }
     }
 
+    private ContactsAsyncHelper() {
+    }
+
     /**
-     * Private constructor for static class
+     * @return The size of the longer edge of the largest view a photo is shown in, in pixels. The
+     *         call card shows the photo cropped to fill the screen.
      */
-    private ContactsAsyncHelper() {
-        HandlerThread thread = new HandlerThread("ContactsAsyncWorker");
-        thread.start();
-        sThreadHandler = new WorkerHandler(thread.getLooper());
+    static int getPhotoSize(Context context) {
+        final DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        return Math.max(metrics.widthPixels, metrics.heightPixels);
+    }
+
+    /**
+     * Decodes a photo, subsampled to the smallest power of two fraction of its size which still
+     * covers a view of the given size, so a photo much larger than the screen is never decoded at
+     * full resolution.
+     *
+     * @param photoSize Size of the longer edge of the view the photo is shown in, in pixels.
+     * @return The photo, or null if it could not be read or decoded.
+     */
+    @NeededForTesting
+    static Bitmap decodePhoto(Context context, Uri uri, int photoSize) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(context, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.i(TAG, "Unable to decode photo bounds");
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight, photoSize);
+        return decodeStream(context, uri, options);
+    }
+
+    /**
+     * Returns a Bitmap object suitable for {@link Notification}'s large icon, which is the photo
+     * itself when it is small enough. This might return null if the system fails to create a
+     * scaled Bitmap for the photo.
+     */
+    @NeededForTesting
+    static Bitmap getPhotoIcon(Bitmap photo, int iconSize) {
+        int orgWidth = photo.getWidth();
+        int orgHeight = photo.getHeight();
+        int longerEdge = orgWidth > orgHeight ? orgWidth : orgHeight;
+        // We want downscaled one only when the original icon is too big.
+        if (longerEdge > iconSize) {
+            float ratio = ((float) longerEdge) / iconSize;
+            int newWidth = (int) (orgWidth / ratio);
+            int newHeight = (int) (orgHeight / ratio);
+            // If the longer edge is much longer than the shorter edge, the latter may
+            // become 0 which will cause a crash.
+            if (newWidth <= 0 || newHeight <= 0) {
+                Log.i(TAG, "Photo icon's width or height become 0.");
+                return null;
+            }
+
+            // It is sure ratio >= 1.0f in any case and thus the newly created Bitmap
+            // should be smaller than the original.
+            return Bitmap.createScaledBitmap(photo, newWidth, newHeight, true);
+        } else {
+            return photo;
+        }
+    }
+
+    /**
+     * @return The largest power of two by which an image can be subsampled while its longer edge
+     *         stays at least the given size.
+     */
+    @NeededForTesting
+    static int getSampleSize(int width, int height, int size) {
+        final int longerEdge = Math.max(width, height);
+        int sampleSize = 1;
+        while (size > 0 && longerEdge / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap decodeStream(Context context, Uri uri, BitmapFactory.Options options) {
+        InputStream inputStream = null;
+        try {
+            inputStream = context.getContentResolver().openInputStream(uri);
+            return BitmapFactory.decodeStream(inputStream, null, options);
+        } catch (Exception e) {
+            Log.e(TAG, "Error opening photo input stream", e);
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to close input stream.", e);
+                }
+            }
+        }
     }
 
     /**
@@ -214,43 +341,35 @@ public class ContactsAsyncHelper {
      * {@link OnImageLoadCompleteListener#onImageLoadComplete(int, Drawable, Bitmap, Object)}
      * @param context Context object used to do the time-consuming operation.
      * @param displayPhotoUri Uri to be used to fetch the photo
+     * @param priority One of the {@code PRIORITY_*} constants, for where the photo is shown.
      * @param listener Callback object which will be used when the asynchronous load is done.
      * Can be null, which means only the asynchronous load is done while there's no way to
      * obtain the loaded photos.
      * @param cookie Arbitrary object the caller wants to remember, which will become the
      * fourth argument of {@link OnImageLoadCompleteListener#onImageLoadComplete(int, Drawable,
      * Bitmap, Object)}. Can be null, at which the callback will also has null for the argument.
+     * @return The load, to cancel it with, or null if there is nothing to load.
      */
-    public static final void startObtainPhotoAsync(int token, Context context, Uri displayPhotoUri,
-            OnImageLoadCompleteListener listener, Object cookie) {
+    public static final PhotoLoad startObtainPhotoAsync(int token, Context context,
+            Uri displayPhotoUri, int priority, OnImageLoadCompleteListener listener,
+            Object cookie) {
         // in case the source caller info is null, the URI will be null as well.
         // just update using the placeholder image in this case.
         if (displayPhotoUri == null) {
             Log.wtf("startObjectPhotoAsync", "Uri is missing");
-            return;
+            return null;
         }
 
-        // Added additional Cookie field in the callee to handle arguments
-        // sent to the callback function.
-
-        // setup arguments
-        WorkerArgs args = new WorkerArgs();
-        args.cookie = cookie;
-        args.context = context;
-        args.displayPhotoUri = displayPhotoUri;
-        args.listener = listener;
-
-        // setup message arguments
-        Message msg = sThreadHandler.obtainMessage(token);
-        msg.arg1 = EVENT_LOAD_IMAGE;
-        msg.obj = args;
+        final PhotoLoad load =
+                new PhotoLoad(token, context, displayPhotoUri, priority, listener, cookie);
+        if (load.deliverFromCache()) {
+            return load;
+        }
 
-        Log.d("startObjectPhotoAsync", "Begin loading image: " + args.displayPhotoUri +
+        Log.d("startObjectPhotoAsync", "Begin loading image: " + displayPhotoUri +
                 ", displaying default image for now.");
 
-        // notify the thread to begin working
-        sThreadHandler.sendMessage(msg);
+        sExecutor.execute(load);
+        return load;
     }
-
-
 }
@@ -37,7 +37,6 @@ import android.content.res.TypedArray;
 import android.graphics.Point;
 import android.hardware.SensorManager;
 import android.os.Bundle;
-import android.os.Trace;
 import android.telecom.DisconnectCause;
 import android.telecom.PhoneAccountHandle;
 import android.text.TextUtils;
@@ -49,6 +48,7 @@ import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.view.KeyEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.view.WindowManager;
 import android.view.accessibility.AccessibilityEvent;
@@ -162,6 +162,7 @@ public class InCallActivity extends Activity implements FragmentDisplayManager {
     @Override
     protected void onCreate(Bundle icicle) {
         Log.d(this, "onCreate()...  this = " + this);
+        final long start = CallTimeline.beginSection("InCallActivity.onCreate");
 
         super.onCreate(icicle);
 
@@ -169,6 +170,7 @@ public class InCallActivity extends Activity implements FragmentDisplayManager {
             // Service is not bound. We shouldn't be here. Exit.
             mExitFast = true;
             finish();
+            CallTimeline.endSection("InCallActivity.onCreate", start);
             return;
         }
 
@@ -202,6 +204,7 @@ public class InCallActivity extends Activity implements FragmentDisplayManager {
         InCallPresenter.getInstance().clearFullscreen();
 
         setContentView(R.layout.incall_screen);
+        reportFirstFrame();
 
         internalResolveIntent(getIntent());
 
@@ -258,9 +261,32 @@ public class InCallActivity extends Activity implements FragmentDisplayManager {
         if (isDsdaEnabled ) {
             initializeDsdaSwitchTab();
         }
+        CallTimeline.endSection("InCallActivity.onCreate", start);
         Log.d(this, "onCreate(): exit");
     }
 
+    /**
+     * Tells the presenter once the first frame was drawn, which it waits for to finish setting up.
+     */
+    private void reportFirstFrame() {
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(
+                new ViewTreeObserver.OnPreDrawListener() {
+                    @Override
+                    public boolean onPreDraw() {
+                        decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                        // Runs after the frame being drawn now.
+                        decorView.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                InCallPresenter.getInstance().onFirstFrameDrawn();
+                            }
+                        });
+                        return true;
+                    }
+                });
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle out) {
         // TODO: The dialpad fragment should handle this as part of its own state
@@ -290,6 +316,7 @@ public class InCallActivity extends Activity implements FragmentDisplayManager {
     @Override
     protected void onResume() {
         Log.i(this, "onResume()...");
+        final long start = CallTimeline.beginSection("InCallActivity.onResume");
         super.onResume();
 
         InCallPresenter.getInstance().setThemeColors();
@@ -325,6 +352,7 @@ public class InCallActivity extends Activity implements FragmentDisplayManager {
         if (mShowPostCharWaitDialogOnResume) {
             showPostCharWaitDialog(mShowPostCharWaitDialogCallId, mShowPostCharWaitDialogChars);
         }
+        CallTimeline.endSection("InCallActivity.onResume", start);
     }
 
     // onPause is guaranteed to be called when the InCallActivity goes
@@ -693,7 +721,6 @@ public class InCallActivity extends Activity implements FragmentDisplayManager {
     }
 
     private void showFragment(String tag, boolean show, boolean executeImmediately) {
-        Trace.beginSection("showFragment - " + tag);
         final FragmentManager fm = getFragmentManagerForTag(tag);
 
         if (fm == null) {
@@ -707,6 +734,9 @@ public class InCallActivity extends Activity implements FragmentDisplayManager {
             return;
         }
 
+        final String section = "InCallActivity.showFragment - " + tag;
+        final long start = CallTimeline.beginSection(section);
+
         final FragmentTransaction transaction = fm.beginTransaction();
         if (show) {
             if (fragment == null) {
@@ -723,7 +753,7 @@ public class InCallActivity extends Activity implements FragmentDisplayManager {
         if (executeImmediately) {
             fm.executePendingTransactions();
         }
-        Trace.endSection();
+        CallTimeline.endSection(section, start);
     }
 
     private Fragment createNewFragmentForTag(String tag) {
@@ -26,7 +26,10 @@ import android.content.res.Resources;
 import android.content.SharedPreferences;
 import android.graphics.Point;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.telecom.DisconnectCause;
 import android.telecom.PhoneAccount;
@@ -49,6 +52,7 @@ import com.android.phone.common.incall.DialerDataSubscription;
 
 import com.google.common.base.Preconditions;
 
+import java.io.PrintWriter;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -66,7 +70,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * that want to listen in on the in-call state changes.
  * TODO: This class has become more of a state machine at this point.  Consider renaming.
  */
-public class InCallPresenter implements CallList.Listener,
+public class InCallPresenter implements CallList.DeltaListener,
         CircularRevealFragment.OnCircularRevealCompleteListener,
         ContactInfoCache.ContactInfoCacheCallback,
         DialerDataSubscription.PluginChanged<CallMethodInfo>,
@@ -102,6 +106,12 @@ public class InCallPresenter implements CallList.Listener,
     private final Set<InCallPluginUpdateListener> mInCallPluginUpdateListeners =
             Collections.newSetFromMap(
                     new ConcurrentHashMap<InCallPluginUpdateListener, Boolean>(8, 0.9f, 1));
+    private final ListenerLatencyTracker mListenerLatency = new ListenerLatencyTracker();
+    /** Trace section names of the listeners, built when they are added rather than per call. */
+    private final ConcurrentHashMap<InCallStateListener, String> mStateChangeSections =
+            new ConcurrentHashMap<>(8, 0.9f, 1);
+    private final ConcurrentHashMap<IncomingCallListener, String> mIncomingCallSections =
+            new ConcurrentHashMap<>(8, 0.9f, 1);
 
     private AudioModeProvider mAudioModeProvider;
     private StatusBarNotifier mStatusBarNotifier;
@@ -158,7 +168,10 @@ public class InCallPresenter implements CallList.Listener,
                 return;
             }
             for (InCallDetailsListener listener : mDetailsListeners) {
+                final long start = mListenerLatency.start();
                 listener.onDetailsChanged(call, details);
+                mListenerLatency.record(ListenerLatencyTracker.CALLBACK_DETAILS_CHANGED,
+                        listener, start);
             }
         }
 
@@ -196,6 +209,55 @@ public class InCallPresenter implements CallList.Listener,
 
     private TelecomManager mTelecomManager;
 
+    private PhoneAccountCache mPhoneAccountCache;
+
+    /**
+     * How long the set up which the first frame of the UI doesn't need waits for that frame, e.g.
+     * when an incoming call is only shown as a heads up notification.
+     */
+    private static final long DEFERRED_SET_UP_TIMEOUT_MILLIS = 1000;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mDeferredSetUpPending;
+
+    private final Runnable mDeferredSetUpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            runDeferredSetUp();
+        }
+    };
+
+    /**
+     * Marks the calls which a peer asked to upgrade to video, so that the call card adds the video
+     * call fragment, whose presenter handles the rest of the session modification, for them.
+     */
+    private final InCallVideoCallCallbackNotifier.SessionModificationListener
+            mUpgradeRequestListener =
+            new InCallVideoCallCallbackNotifier.SessionModificationListener() {
+        @Override
+        public void onUpgradeToVideoRequest(Call call, int videoState) {
+            if (call != null) {
+                call.setSessionModificationTo(videoState);
+            }
+        }
+
+        @Override
+        public void onUpgradeToVideoSuccess(Call call) {
+        }
+
+        @Override
+        public void onUpgradeToVideoFail(int status, Call call) {
+        }
+
+        @Override
+        public void onDowngradeToAudio(Call call) {
+        }
+    };
+
+    /** When the service was bound, or 0 once the first frame since then was drawn. */
+    private long mBindTimeMillis;
+    private long mLastBindToFirstFrameMillis = -1;
+
     public static synchronized InCallPresenter getInstance() {
         if (sInCallPresenter == null) {
             sInCallPresenter = new InCallPresenter();
@@ -265,18 +327,72 @@ public class InCallPresenter implements CallList.Listener,
         // will kick off an update and the whole process can start.
         mCallList.addListener(this);
 
-        InCallCsRedialHandler.getInstance().setUp(mContext);
         InCallUiStateNotifier.getInstance().setUp(mContext);
         VideoPauseController.getInstance().setUp(this);
-        InCallMessageController.getInstance().setUp(mContext);
         OrientationModeHandler.getInstance().setUp();
         addDetailsListener(CallSubstateNotifier.getInstance());
-        InCallZoomController.getInstance().setUp(mContext);
         addDetailsListener(SessionModificationCauseNotifier.getInstance());
+        InCallVideoCallCallbackNotifier.getInstance().addSessionModificationListener(
+                mUpgradeRequestListener);
+
+        // The rest isn't needed to show the call, so it waits for the first frame of the UI.
+        mBindTimeMillis = SystemClock.elapsedRealtime();
+        mDeferredSetUpPending = true;
+        mHandler.postDelayed(mDeferredSetUpRunnable, DEFERRED_SET_UP_TIMEOUT_MILLIS);
 
         Log.d(this, "Finished InCallPresenter.setUp");
     }
 
+    private void runDeferredSetUp() {
+        if (!mDeferredSetUpPending) {
+            return;
+        }
+        mDeferredSetUpPending = false;
+        mHandler.removeCallbacks(mDeferredSetUpRunnable);
+
+        InCallCsRedialHandler.getInstance().setUp(mContext);
+        InCallMessageController.getInstance().setUp(mContext);
+        InCallZoomController.getInstance().setUp(mContext);
+
+        Log.d(this, "Finished deferred set up");
+    }
+
+    /**
+     * Called by {@link InCallActivity} once its first frame was drawn. Reports how long it took
+     * since the service was bound, and runs the set up which waited for it.
+     */
+    void onFirstFrameDrawn() {
+        CallTimeline.mark("InCallActivity.firstFrame", null);
+        if (mBindTimeMillis != 0) {
+            mLastBindToFirstFrameMillis = SystemClock.elapsedRealtime() - mBindTimeMillis;
+            mBindTimeMillis = 0;
+            Log.i(this, "Bind to first frame: " + mLastBindToFirstFrameMillis + "ms");
+        }
+        runDeferredSetUp();
+    }
+
+    /**
+     * @return How long the UI took to draw its first frame after the last bind, or -1 if it
+     *         hasn't drawn one since any bind.
+     */
+    @NeededForTesting
+    long getLastBindToFirstFrameMillis() {
+        return mLastBindToFirstFrameMillis;
+    }
+
+    /**
+     * Dumps how long the UI took to show after the last bind, how long each listener takes to
+     * handle the in-call state callbacks, and the cached phone accounts.
+     */
+    void dump(PrintWriter pw) {
+        pw.println("InCallPresenter:");
+        pw.println("  last bind to first frame: " + mLastBindToFirstFrameMillis + "ms");
+        mListenerLatency.dump(pw);
+        if (mPhoneAccountCache != null) {
+            mPhoneAccountCache.dump(pw);
+        }
+    }
+
     /**
      * Called when the telephony service has disconnected from us.  This will happen when there are
      * no more active calls. However, we may still want to continue showing the UI for
@@ -287,16 +403,27 @@ public class InCallPresenter implements CallList.Listener,
      */
     public void tearDown() {
         Log.d(this, "tearDown");
+        // Whatever wasn't set up yet needs no tear down.
+        final boolean deferredSetUpRan = !mDeferredSetUpPending;
+        mDeferredSetUpPending = false;
+        mHandler.removeCallbacks(mDeferredSetUpRunnable);
+        mBindTimeMillis = 0;
         mServiceConnected = false;
         attemptCleanup();
 
         VideoPauseController.getInstance().tearDown();
         InCallUiStateNotifier.getInstance().tearDown();
-        InCallMessageController.getInstance().tearDown();
+        if (deferredSetUpRan) {
+            InCallMessageController.getInstance().tearDown();
+        }
         OrientationModeHandler.getInstance().tearDown();
         removeDetailsListener(CallSubstateNotifier.getInstance());
-        InCallZoomController.getInstance().tearDown();
+        if (deferredSetUpRan) {
+            InCallZoomController.getInstance().tearDown();
+        }
         removeDetailsListener(SessionModificationCauseNotifier.getInstance());
+        InCallVideoCallCallbackNotifier.getInstance().removeSessionModificationListener(
+                mUpgradeRequestListener);
     }
 
     private void attemptFinishActivity() {
@@ -431,6 +558,17 @@ public class InCallPresenter implements CallList.Listener,
 
     private boolean mAwaitingCallListUpdate = false;
 
+    /**
+     * The delta being dispatched by the call list, or {@code null} when listeners are updated for
+     * any other reason.
+     */
+    private CallListDelta mCallListDelta;
+
+    /**
+     * Snapshot of the call list at its latest version; rebuilt at most once per version.
+     */
+    private CallListSnapshot mCallListSnapshot;
+
     public void onBringToForeground(boolean showDialpad) {
         Log.i(this, "Bringing UI to foreground.");
         bringToForeground(showDialpad);
@@ -457,10 +595,65 @@ public class InCallPresenter implements CallList.Listener,
 
     public void onCanAddCallChanged(boolean canAddCall) {
         for (CanAddCallListener listener : mCanAddCallListeners) {
+            final long start = mListenerLatency.start();
             listener.onCanAddCallChanged(canAddCall);
+            mListenerLatency.record(ListenerLatencyTracker.CALLBACK_CAN_ADD_CALL_CHANGED,
+                    listener, start);
         }
     }
 
+    /**
+     * Called by the call list when calls were added, removed or changed. Skips the update
+     * entirely if the change did not touch any call.
+     */
+    @Override
+    public void onCallListChange(CallList callList, CallListDelta delta) {
+        if (delta.isEmpty() && !mAwaitingCallListUpdate) {
+            Log.v(this, "onCallListChange: no call changed, skipping update");
+            return;
+        }
+
+        if (mContactInfoCache != null) {
+            for (Call call : delta.getRemovedCalls()) {
+                mContactInfoCache.onCallRemoved(call.getId());
+            }
+        }
+
+        mCallListDelta = delta;
+        try {
+            onCallListChange(callList);
+        } finally {
+            mCallListDelta = null;
+        }
+    }
+
+    /**
+     * Returns what changed in the call list for the state change currently being dispatched to
+     * {@link InCallStateListener}s, or {@code null} if it is not known (e.g. the UI came up, or
+     * the update was not triggered by the call list), in which case listeners should assume
+     * anything could have changed.
+     */
+    public CallListDelta getCallListDelta() {
+        return mCallListDelta;
+    }
+
+    /**
+     * Returns an immutable snapshot of the current call list. {@link InCallStateListener}s should
+     * read calls from it rather than the live {@link CallList}, and can compare its
+     * {@link CallListSnapshot#getVersion() version} with the one they last rendered to skip
+     * updates for which nothing changed.
+     */
+    public CallListSnapshot getCallListSnapshot() {
+        return getCallListSnapshot(mCallList != null ? mCallList : CallList.getInstance());
+    }
+
+    private CallListSnapshot getCallListSnapshot(CallList callList) {
+        if (mCallListSnapshot == null || mCallListSnapshot.getVersion() != callList.getVersion()) {
+            mCallListSnapshot = CallListSnapshot.create(callList);
+        }
+        return mCallListSnapshot;
+    }
+
     /**
      * Called when there is a change to the call list.
      * Sets the In-Call state for the entire in-call app based on the information it gets from
@@ -483,7 +676,9 @@ public class InCallPresenter implements CallList.Listener,
         InCallState newState = getPotentialStateFromCallList(callList);
         InCallState oldState = mInCallState;
         Log.d(this, "onCallListChange oldState= " + oldState + " newState=" + newState);
+        final long uiStart = CallTimeline.beginSection("InCallPresenter.startOrFinishUi");
         newState = startOrFinishUi(newState);
+        CallTimeline.endSection("InCallPresenter.startOrFinishUi", uiStart);
         Log.d(this, "onCallListChange newState changed to " + newState);
 
         if (!newState.isIncoming() && mAccelerometerListener != null) {
@@ -494,10 +689,22 @@ public class InCallPresenter implements CallList.Listener,
         Log.i(this, "Phone switching state: " + oldState + " -> " + newState);
         mInCallState = newState;
 
+        // Build the snapshot once, before any listener reads it.
+        getCallListSnapshot(callList);
+
         // notify listeners of new state
         for (InCallStateListener listener : mListeners) {
             Log.d(this, "Notify " + listener + " of state " + mInCallState.toString());
+            String section = mStateChangeSections.get(listener);
+            if (section == null) {
+                // Removed since the dispatch started.
+                section = listener.getClass().getSimpleName() + ".onStateChange";
+            }
+            final long sectionStart = CallTimeline.beginSection(section);
+            final long start = mListenerLatency.start();
             listener.onStateChange(oldState, mInCallState, callList);
+            mListenerLatency.record(ListenerLatencyTracker.CALLBACK_STATE_CHANGE, listener, start);
+            CallTimeline.endSection(section, sectionStart);
         }
 
         if (isActivityStarted()) {
@@ -517,7 +724,9 @@ public class InCallPresenter implements CallList.Listener,
      */
     @Override
     public void onIncomingCall(Call call) {
+        final long uiStart = CallTimeline.beginSection("InCallPresenter.startOrFinishUi");
         InCallState newState = startOrFinishUi(InCallState.INCOMING);
+        CallTimeline.endSection("InCallPresenter.startOrFinishUi", call.getId(), uiStart);
         InCallState oldState = mInCallState;
 
         Log.i(this, "Phone switching state: " + oldState + " -> " + newState);
@@ -528,7 +737,17 @@ public class InCallPresenter implements CallList.Listener,
         }
 
         for (IncomingCallListener listener : mIncomingCallListeners) {
+            String section = mIncomingCallSections.get(listener);
+            if (section == null) {
+                // Removed since the dispatch started.
+                section = listener.getClass().getSimpleName() + ".onIncomingCall";
+            }
+            final long sectionStart = CallTimeline.beginSection(section);
+            final long start = mListenerLatency.start();
             listener.onIncomingCall(oldState, mInCallState, call);
+            mListenerLatency.record(ListenerLatencyTracker.CALLBACK_INCOMING_CALL, listener,
+                    start);
+            CallTimeline.endSection(section, call.getId(), sectionStart);
         }
 
         if (InCallServiceImpl.isDsdaEnabled() && (mInCallActivity != null)) {
@@ -666,23 +885,30 @@ public class InCallPresenter implements CallList.Listener,
 
     public void addIncomingCallListener(IncomingCallListener listener) {
         Preconditions.checkNotNull(listener);
+        mIncomingCallSections.put(listener,
+                listener.getClass().getSimpleName() + ".onIncomingCall");
         mIncomingCallListeners.add(listener);
     }
 
     public void removeIncomingCallListener(IncomingCallListener listener) {
         if (listener != null) {
             mIncomingCallListeners.remove(listener);
+            if (!mIncomingCallListeners.contains(listener)) {
+                mIncomingCallSections.remove(listener);
+            }
         }
     }
 
     public void addListener(InCallStateListener listener) {
         Preconditions.checkNotNull(listener);
+        mStateChangeSections.put(listener, listener.getClass().getSimpleName() + ".onStateChange");
         mListeners.add(listener);
     }
 
     public void removeListener(InCallStateListener listener) {
         if (listener != null) {
             mListeners.remove(listener);
+            mStateChangeSections.remove(listener);
         }
     }
 
@@ -968,7 +1194,9 @@ public class InCallPresenter implements CallList.Listener,
         }
 
         for (InCallUiListener listener : mInCallUiListeners) {
+            final long start = mListenerLatency.start();
             listener.onUiShowing(showing);
+            mListenerLatency.record(ListenerLatencyTracker.CALLBACK_UI_SHOWING, listener, start);
         }
     }
 
@@ -1494,6 +1722,7 @@ public class InCallPresenter implements CallList.Listener,
                 mCallList.removeListener(this);
             }
             mCallList = null;
+            mCallListSnapshot = null;
 
             DialerDataSubscription.get(mContext).unsubscribe(AMBIENT_SUBSCRIPTION_ID);
 
@@ -1502,6 +1731,8 @@ public class InCallPresenter implements CallList.Listener,
 
             mListeners.clear();
             mIncomingCallListeners.clear();
+            mStateChangeSections.clear();
+            mIncomingCallSections.clear();
             mDetailsListeners.clear();
             mCanAddCallListeners.clear();
             mOrientationListeners.clear();
@@ -1623,7 +1854,10 @@ public class InCallPresenter implements CallList.Listener,
 
         // Notify listeners of device orientation changed.
         for (InCallOrientationListener listener : mOrientationListeners) {
+            final long start = mListenerLatency.start();
             listener.onDeviceOrientationChanged(orientation);
+            mListenerLatency.record(ListenerLatencyTracker.CALLBACK_ORIENTATION_CHANGED,
+                    listener, start);
         }
     }
 
@@ -1787,21 +2021,7 @@ public class InCallPresenter implements CallList.Listener,
     }
 
     private MaterialPalette getColorsFromPhoneAccountHandle(PhoneAccountHandle phoneAccountHandle) {
-        int highlightColor = PhoneAccount.NO_HIGHLIGHT_COLOR;
-        if (phoneAccountHandle != null) {
-            final TelecomManager tm = getTelecomManager();
-
-            if (tm != null) {
-                final PhoneAccount account = tm.getPhoneAccount(phoneAccountHandle);
-                // For single-sim devices, there will be no selected highlight color, so the phone
-                // account will default to NO_HIGHLIGHT_COLOR.
-                if (account != null) {
-                    highlightColor = account.getHighlightColor();
-                }
-            }
-        }
-        return new InCallUIMaterialColorMapUtils(
-                mContext.getResources()).calculatePrimaryAndSecondaryColor(highlightColor);
+        return getPhoneAccountCache().getPalette(phoneAccountHandle);
     }
 
     /**
@@ -1815,6 +2035,16 @@ public class InCallPresenter implements CallList.Listener,
         return mTelecomManager;
     }
 
+    /**
+     * @return The cache of the phone accounts of the calls, and of their theme colors.
+     */
+    PhoneAccountCache getPhoneAccountCache() {
+        if (mPhoneAccountCache == null) {
+            mPhoneAccountCache = new PhoneAccountCache(mContext);
+        }
+        return mPhoneAccountCache;
+    }
+
     InCallActivity getActivity() {
         return mInCallActivity;
     }
@@ -1868,6 +2098,7 @@ public class InCallPresenter implements CallList.Listener,
      */
     public interface InCallStateListener {
         // TODO: Enhance state to contain the call objects instead of passing CallList
+        // Implementations should read calls from getCallListSnapshot().
         public void onStateChange(InCallState oldState, InCallState newState, CallList callList);
     }
 
@@ -24,6 +24,11 @@ import android.telecom.CallAudioState;
 import android.telecom.InCallService;
 import android.telephony.TelephonyManager;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.Arrays;
+
 /**
  * Used to receive updates about calls from the Telecomm component.  This service is bound to
  * Telecomm while there exist calls which potentially require UI. This includes ringing (incoming),
@@ -37,34 +42,49 @@ public class InCallServiceImpl extends InCallService {
 
     @Override
     public void onCallAudioStateChanged(CallAudioState audioState) {
+        final long start = CallTimeline.beginSection("InCallServiceImpl.onCallAudioStateChanged");
         AudioModeProvider.getInstance().onAudioStateChanged(audioState);
+        CallTimeline.endSection("InCallServiceImpl.onCallAudioStateChanged", start);
     }
 
     @Override
     public void onBringToForeground(boolean showDialpad) {
+        final long start = CallTimeline.beginSection("InCallServiceImpl.onBringToForeground");
         InCallPresenter.getInstance().onBringToForeground(showDialpad);
+        CallTimeline.endSection("InCallServiceImpl.onBringToForeground", start);
     }
 
     @Override
     public void onCallAdded(Call call) {
+        final long start = CallTimeline.beginSection("InCallServiceImpl.onCallAdded");
         CallList.getInstance().onCallAdded(call);
         InCallPresenter.getInstance().onCallAdded(call);
+        CallTimeline.endSection("InCallServiceImpl.onCallAdded", start);
     }
 
     @Override
     public void onCallRemoved(Call call) {
+        final long start = CallTimeline.beginSection("InCallServiceImpl.onCallRemoved");
         CallList.getInstance().onCallRemoved(call);
         InCallPresenter.getInstance().onCallRemoved(call);
+        CallTimeline.endSection("InCallServiceImpl.onCallRemoved", start);
     }
 
     @Override
     public void onCanAddCallChanged(boolean canAddCall) {
+        final long start = CallTimeline.beginSection("InCallServiceImpl.onCanAddCallChanged");
         InCallPresenter.getInstance().onCanAddCallChanged(canAddCall);
+        CallTimeline.endSection("InCallServiceImpl.onCanAddCallChanged", start);
     }
 
     @Override
     public IBinder onBind(Intent intent) {
+        // Everything until the unbind goes into a new timeline, which starts with the bind.
+        CallTimeline.getInstance().start();
+        final long start = CallTimeline.beginSection("InCallServiceImpl.onBind");
         final Context context = getApplicationContext();
+        // Loads the incoming call screen while the activity is being started.
+        IncomingCallPreloader.preload(context);
         mTelephonyManager = TelephonyManager.from(context);
         sPhoneCount = mTelephonyManager.getPhoneCount();
         final ContactInfoCache contactInfoCache = ContactInfoCache.getInstance(context);
@@ -83,6 +103,11 @@ public class InCallServiceImpl extends InCallService {
         InCallPresenter.getInstance().maybeStartRevealAnimation(intent);
         TelecomAdapter.getInstance().setInCallService(this);
         CallRecorder.getInstance().setUp(getApplicationContext());
+        CallEventRecorder.getInstance().setUp(getApplicationContext());
+        CallerInfoDiskCache.getInstance(context).setUp();
+        LookupResponseCache.getInstance(context).setUp();
+        InCallPresenter.getInstance().getPhoneAccountCache().setUp();
+        CallTimeline.endSection("InCallServiceImpl.onBind", start);
 
         return super.onBind(intent);
     }
@@ -91,12 +116,30 @@ public class InCallServiceImpl extends InCallService {
     public boolean onUnbind(Intent intent) {
         super.onUnbind(intent);
 
+        final long start = CallTimeline.beginSection("InCallServiceImpl.onUnbind");
         InCallPresenter.getInstance().onServiceUnbind();
         tearDown();
+        CallTimeline.endSection("InCallServiceImpl.onUnbind", start);
 
         return false;
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        CallList.getInstance().dump(pw);
+        InCallPresenter.getInstance().dump(pw);
+        CallEventRecorder.getInstance().dump(pw);
+        ContactInfoCache.getInstance(this).dump(pw);
+        CallerInfoDiskCache.getInstance(this).dump(pw);
+        ContactBitmapCache.getInstance().dump(pw);
+        CallTimeline.getInstance().dump(pw);
+        if (args != null && Arrays.asList(args).contains(CallTimeline.EXPORT_ARG)) {
+            final File file = CallTimeline.getInstance().export(getCacheDir());
+            pw.println(file != null ? "Exported the call timeline to " + file
+                    : "Unable to export the call timeline");
+        }
+    }
+
     static boolean isDsdaEnabled() {
         if (mTelephonyManager.getMultiSimConfiguration()
                 == TelephonyManager.MultiSimVariants.DSDA) {
@@ -111,6 +154,11 @@ public class InCallServiceImpl extends InCallService {
         TelecomAdapter.getInstance().clearInCallService();
         CallList.getInstance().clearOnDisconnect();
         InCallPresenter.getInstance().tearDown();
+        CallEventRecorder.getInstance().tearDown();
+        CallerInfoDiskCache.getInstance(this).tearDown();
+        LookupResponseCache.getInstance(this).tearDown();
+        InCallPresenter.getInstance().getPhoneAccountCache().tearDown();
+        ContactBitmapCache.getInstance().trim();
     }
 
 }
@@ -57,7 +57,9 @@ public class InCallVibrationHandler extends Handler implements
 
     @Override
     public void onStateChange(InCallState oldState, InCallState newState, CallList callList) {
-        Call activeCall = callList.getActiveCall();
+        final CallListSnapshot snapshot = InCallPresenter.getInstance().getCallListSnapshot();
+        Call activeCall = snapshot.getActiveCall();
+        Call incomingCall = snapshot.getIncomingCall();
 
         if (activeCall != null && mActiveCall == null) {
             Log.d(this, "Transition to active call " + activeCall);
@@ -65,9 +67,9 @@ public class InCallVibrationHandler extends Handler implements
                 handleOutgoingCallVibration(activeCall);
             }
             mActiveCall = activeCall;
-        } else if (activeCall != null && callList.getIncomingCall() != null
-                && !callList.getIncomingCall().equals(activeCall)) {
-            Log.d(this, "New incoming call" + callList.getIncomingCall());
+        } else if (activeCall != null && incomingCall != null
+                && !incomingCall.equals(activeCall)) {
+            Log.d(this, "New incoming call" + incomingCall);
             handleCallWaitingVibration(activeCall);
         } else if (activeCall == null && mActiveCall != null) {
             Log.d(this, "Transition from active call " + mActiveCall);
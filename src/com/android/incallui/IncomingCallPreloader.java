@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.content.res.TypedArray;
+import android.content.res.XmlResourceParser;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+
+import com.android.contacts.common.testing.NeededForTesting;
+import com.android.incallui.widget.multiwaveview.GlowPadView;
+
+/**
+ * Loads what the first frame of the incoming call screen needs while the activity manager is
+ * still starting {@link InCallActivity}, so that the main thread finds it ready: the classes of
+ * the activity and of its fragments, the layouts they inflate, and the {@link GlowPadView}
+ * drawables, which are the slowest part of inflating the answer fragment.
+ *
+ * Drawables end up in the drawable cache of the resources and layouts in their parsed XML cache,
+ * both of which are shared with the main thread. Neither holds on to them for long, so this is
+ * done again on each bind.
+ */
+class IncomingCallPreloader {
+
+    private static final Class<?>[] CLASSES = new Class<?>[] {
+            InCallActivity.class,
+            CallCardFragment.class,
+            CallButtonFragment.class,
+            AnswerFragment.class,
+            GlowPadWrapper.class,
+            GlowPadView.class,
+    };
+
+    private static final int[] LAYOUTS = new int[] {
+            R.layout.incall_screen,
+            R.layout.call_card_fragment,
+            R.layout.answer_fragment,
+    };
+
+    private static final int[] DRAWABLES = new int[] {
+            R.drawable.ic_lockscreen_outerring,
+            R.drawable.ic_lockscreen_glowdot,
+    };
+
+    private static boolean sClassesLoaded;
+
+    /**
+     * Starts preloading in the background. Returns right away.
+     */
+    static void preload(Context context) {
+        final Resources res = context.getResources();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long start = SystemClock.elapsedRealtime();
+                preloadClasses();
+                preloadResources(res);
+                Log.d(IncomingCallPreloader.class.getSimpleName(),
+                        "Preloaded in " + (SystemClock.elapsedRealtime() - start) + "ms");
+            }
+        });
+    }
+
+    private static void preloadClasses() {
+        synchronized (IncomingCallPreloader.class) {
+            if (sClassesLoaded) {
+                return;
+            }
+            sClassesLoaded = true;
+        }
+        for (Class<?> cls : CLASSES) {
+            try {
+                // Runs the static initializers as well.
+                Class.forName(cls.getName(), true, cls.getClassLoader());
+            } catch (ClassNotFoundException e) {
+                Log.e(IncomingCallPreloader.class.getSimpleName(),
+                        "Could not preload " + cls.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Loads the layouts, and the drawables of all the target sets of the answer fragment.
+     */
+    @NeededForTesting
+    static void preloadResources(Resources res) {
+        for (int id : LAYOUTS) {
+            final XmlResourceParser parser = res.getLayout(id);
+            parser.close();
+        }
+        for (int id : DRAWABLES) {
+            res.getDrawable(id, null);
+        }
+        for (int id : AnswerFragment.getTargetDrawableResourceIds()) {
+            if (!"array".equals(res.getResourceTypeName(id))) {
+                res.getDrawable(id, null);
+                continue;
+            }
+            final TypedArray array = res.obtainTypedArray(id);
+            for (int i = 0; i < array.length(); i++) {
+                final int drawableId = array.getResourceId(i, 0);
+                if (drawableId != 0) {
+                    res.getDrawable(drawableId, null);
+                }
+            }
+            array.recycle();
+        }
+    }
+}
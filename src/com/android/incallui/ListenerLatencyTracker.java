@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.SystemClock;
+
+import com.android.contacts.common.testing.NeededForTesting;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How long each listener of {@link InCallPresenter} takes to handle each kind of callback, kept
+ * as a histogram per callback type and listener class. Always on: recording a dispatch costs two
+ * clock reads and a map lookup, and allocates only the first time a listener class is seen.
+ * Dispatches slower than a frame are also logged as they happen.
+ *
+ * Histogram buckets are powers of two microseconds, so percentiles are reported as the upper
+ * bound of their bucket. Both recording and dumping are done on the main thread.
+ */
+class ListenerLatencyTracker {
+
+    static final int CALLBACK_STATE_CHANGE = 0;
+    static final int CALLBACK_INCOMING_CALL = 1;
+    static final int CALLBACK_DETAILS_CHANGED = 2;
+    static final int CALLBACK_CAN_ADD_CALL_CHANGED = 3;
+    static final int CALLBACK_UI_SHOWING = 4;
+    static final int CALLBACK_ORIENTATION_CHANGED = 5;
+
+    private static final String[] CALLBACK_NAMES = new String[] {
+            "onStateChange",
+            "onIncomingCall",
+            "onDetailsChanged",
+            "onCanAddCallChanged",
+            "onUiShowing",
+            "onDeviceOrientationChanged",
+    };
+
+    /** Dispatches slower than this miss a frame, and are logged. */
+    @NeededForTesting
+    static final long SLOW_DISPATCH_NANOS = 16 * 1000 * 1000;
+
+    /** Bucket 0 is below 1us, bucket i is below 2^i us, the last bucket is unbounded. */
+    @NeededForTesting
+    static final int BUCKET_COUNT = 18;
+
+    @NeededForTesting
+    static final class Histogram {
+        final long[] buckets = new long[BUCKET_COUNT];
+        long count;
+        long totalNanos;
+        long maxNanos;
+        long slowCount;
+
+        void add(long nanos) {
+            buckets[getBucket(nanos)]++;
+            count++;
+            totalNanos += nanos;
+            if (nanos > maxNanos) {
+                maxNanos = nanos;
+            }
+            if (nanos >= SLOW_DISPATCH_NANOS) {
+                slowCount++;
+            }
+        }
+
+        /**
+         * @return The upper bound, in microseconds, of the bucket holding the given percentile,
+         *         or -1 if the last, unbounded bucket holds it.
+         */
+        long getPercentileMicros(int percentile) {
+            final long rank = (count * percentile + 99) / 100;
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return i == BUCKET_COUNT - 1 ? -1 : 1L << i;
+                }
+            }
+            return 0;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private final HashMap<Class<?>, Histogram>[] mHistograms =
+            new HashMap[CALLBACK_NAMES.length];
+
+    ListenerLatencyTracker() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new HashMap<>();
+        }
+    }
+
+    /**
+     * @return The start time to pass to {@link #record} once the listener returns.
+     */
+    long start() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /**
+     * Records how long a listener took to handle a callback.
+     *
+     * @param callback One of the {@code CALLBACK_*} constants.
+     * @param startNanos What {@link #start} returned before the listener was called.
+     */
+    void record(int callback, Object listener, long startNanos) {
+        record(callback, listener.getClass(), SystemClock.elapsedRealtimeNanos() - startNanos);
+    }
+
+    @NeededForTesting
+    synchronized void record(int callback, Class<?> listenerClass, long nanos) {
+        Histogram histogram = mHistograms[callback].get(listenerClass);
+        if (histogram == null) {
+            histogram = new Histogram();
+            mHistograms[callback].put(listenerClass, histogram);
+        }
+        histogram.add(nanos);
+        if (nanos >= SLOW_DISPATCH_NANOS) {
+            Log.i(this, "Slow " + CALLBACK_NAMES[callback] + " in " + getName(listenerClass)
+                    + ": " + nanos / 1000 + "us");
+        }
+    }
+
+    @NeededForTesting
+    synchronized Histogram getHistogram(int callback, Class<?> listenerClass) {
+        return mHistograms[callback].get(listenerClass);
+    }
+
+    /**
+     * Dumps the histograms of each callback type, slowest listener in total first.
+     */
+    synchronized void dump(PrintWriter pw) {
+        pw.println("ListenerLatencyTracker:");
+        for (int callback = 0; callback < mHistograms.length; callback++) {
+            if (mHistograms[callback].isEmpty()) {
+                continue;
+            }
+            pw.println("  " + CALLBACK_NAMES[callback] + ":");
+            final List<Map.Entry<Class<?>, Histogram>> entries =
+                    new ArrayList<>(mHistograms[callback].entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<Class<?>, Histogram>>() {
+                @Override
+                public int compare(Map.Entry<Class<?>, Histogram> lhs,
+                        Map.Entry<Class<?>, Histogram> rhs) {
+                    return Long.compare(rhs.getValue().totalNanos, lhs.getValue().totalNanos);
+                }
+            });
+            for (Map.Entry<Class<?>, Histogram> entry : entries) {
+                final Histogram histogram = entry.getValue();
+                pw.println("    " + getName(entry.getKey()) + ": count=" + histogram.count
+                        + " total=" + histogram.totalNanos / 1000 + "us"
+                        + " mean=" + histogram.totalNanos / histogram.count / 1000 + "us"
+                        + " p50<=" + formatMicros(histogram.getPercentileMicros(50))
+                        + " p90<=" + formatMicros(histogram.getPercentileMicros(90))
+                        + " p99<=" + formatMicros(histogram.getPercentileMicros(99))
+                        + " max=" + histogram.maxNanos / 1000 + "us"
+                        + " slow=" + histogram.slowCount);
+            }
+        }
+    }
+
+    @NeededForTesting
+    static int getBucket(long nanos) {
+        final long micros = nanos / 1000;
+        if (micros <= 0) {
+            return 0;
+        }
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+    }
+
+    private static String formatMicros(long micros) {
+        return micros < 0 ? "inf" : micros + "us";
+    }
+
+    private static String getName(Class<?> listenerClass) {
+        final String name = listenerClass.getName();
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+}
@@ -0,0 +1,710 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+import android.util.AtomicFile;
+
+import com.android.contacts.common.testing.NeededForTesting;
+
+import com.cyanogen.lookup.phonenumber.response.LookupResponse;
+import com.cyanogen.lookup.phonenumber.response.StatusCode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cache of what the remote lookup provider said about a number: the name, address and
+ * spam reports it returned, the provider's badge, and the photo downloaded from the url it gave.
+ * It lets {@link ContactInfoCache} skip the provider request and the photo download when the same
+ * number calls again.
+ *
+ * Responses are keyed by E.164 number and kept in a small LRU file, next to one file per provider
+ * badge and per photo, in a directory of the app's cache directory. Only successful responses are
+ * stored, and both responses and photos are dropped once they are older than the TTL, since what
+ * the provider knows about a number changes.
+ */
+class LookupResponseCache {
+
+    private static final String DIR_NAME = "lookup_responses";
+    private static final String FILE_NAME = "responses";
+    private static final String BADGE_PREFIX = "badge_";
+    private static final String PHOTO_PREFIX = "photo_";
+    private static final int MAGIC = 0x4c524443;
+    private static final int VERSION = 1;
+
+    private static final long DEFAULT_TTL_MS = DateUtils.DAY_IN_MILLIS;
+
+    @NeededForTesting
+    static final int MAX_ENTRIES = 200;
+    @NeededForTesting
+    static final int MAX_PHOTOS = 50;
+
+    /** Delay before writing out changes, so the lookups of one call are written together. */
+    private static final long WRITE_DELAY_MS = 2000;
+
+    /**
+     * What the provider said about a number.
+     */
+    static class Entry {
+        final String providerName;
+        final String name;
+        final String number;
+        final String address;
+        final int spamCount;
+        final boolean isSpam;
+        final String photoUrl;
+        /** The provider's badge, or {@code null}. Not set until the entry is stored. */
+        Bitmap badge;
+        /** Wall clock time at which the provider returned the response. */
+        final long fetchedAtMillis;
+
+        Entry(String providerName, String name, String number, String address, int spamCount,
+                boolean isSpam, String photoUrl, Bitmap badge, long fetchedAtMillis) {
+            this.providerName = providerName;
+            this.name = name;
+            this.number = number;
+            this.address = address;
+            this.spamCount = spamCount;
+            this.isSpam = isSpam;
+            this.photoUrl = photoUrl;
+            this.badge = badge;
+            this.fetchedAtMillis = fetchedAtMillis;
+        }
+
+        /**
+         * @return The entry for a provider response, or {@code null} if the lookup failed.
+         */
+        static Entry fromResponse(LookupResponse response) {
+            if (response == null || response.mStatusCode != StatusCode.SUCCESS) {
+                return null;
+            }
+            return new Entry(response.mProviderName, response.mName, response.mNumber,
+                    response.mAddress, response.mSpamCount, response.mIsSpam, response.mPhotoUrl,
+                    toBitmap(response.mAttributionLogo), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Where the responses which are not cached come from.
+     */
+    interface Provider {
+        /**
+         * Looks a number up, and calls back with the result on any thread.
+         */
+        void fetch(String number, Listener listener);
+    }
+
+    interface Listener {
+        /**
+         * @param entry What the provider said about the number, or {@code null} if the lookup
+         *         failed.
+         */
+        void onLookupComplete(Entry entry);
+    }
+
+    interface PhotoListener {
+        /**
+         * Called on the main thread.
+         *
+         * @param photo The cached photo, or {@code null} if it has to be downloaded.
+         */
+        void onPhotoLoaded(Bitmap photo);
+    }
+
+    private static LookupResponseCache sInstance;
+
+    private final File mDir;
+    private final AtomicFile mFile;
+    private final long mTtlMillis;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** Least recently used first. */
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    /** The badge of each provider, by provider name. */
+    private final HashMap<String, Bitmap> mBadges = new HashMap<>();
+    /** Providers whose badge changed since it was written. */
+    private final HashSet<String> mDirtyBadges = new HashSet<>();
+    private boolean mLoaded;
+    private boolean mWritePending;
+    /** Whether a write was skipped because the file was not loaded yet. */
+    private boolean mWriteAfterLoad;
+    /** Numbers whose responses were removed before the file was loaded. */
+    private final HashSet<String> mRemovedBeforeLoad = new HashSet<>();
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mPhotoHitCount;
+    private long mPhotoMissCount;
+
+    private final Runnable mWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    private final Runnable mPostWriteRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (LookupResponseCache.this) {
+                mWritePending = false;
+            }
+            AsyncTask.execute(mWriteRunnable);
+        }
+    };
+
+    public static synchronized LookupResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LookupResponseCache(
+                    new File(context.getApplicationContext().getCacheDir(), DIR_NAME),
+                    DEFAULT_TTL_MS);
+        }
+        return sInstance;
+    }
+
+    @NeededForTesting
+    LookupResponseCache(File dir, long ttlMillis) {
+        mDir = dir;
+        mFile = new AtomicFile(new File(dir, FILE_NAME));
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * Loads the cache in the background so it is ready by the time the first call is shown.
+     */
+    public void setUp() {
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Reads the file and its badges, unless it was loaded already, and swaps its responses in.
+     * The file is read without holding the lock. Responses and badges stored before the load are
+     * kept, and take precedence over what the file holds.
+     */
+    @NeededForTesting
+    void load() {
+        synchronized (this) {
+            if (mLoaded) {
+                return;
+            }
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+        final HashMap<String, Bitmap> badges = new HashMap<>();
+        read(entries, badges);
+
+        final boolean write;
+        synchronized (this) {
+            if (mLoaded) {
+                return;
+            }
+            for (Map.Entry<String, Bitmap> badge : badges.entrySet()) {
+                if (!mBadges.containsKey(badge.getKey())) {
+                    mBadges.put(badge.getKey(), badge.getValue());
+                }
+            }
+            // The responses stored since are more recent, so they go last.
+            final LinkedHashMap<String, Entry> newEntries = new LinkedHashMap<>(mEntries);
+            mEntries.clear();
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                if (!mRemovedBeforeLoad.contains(mapEntry.getKey())) {
+                    final Entry entry = mapEntry.getValue();
+                    if (!TextUtils.isEmpty(entry.providerName)) {
+                        entry.badge = mBadges.get(entry.providerName);
+                    }
+                    mEntries.put(mapEntry.getKey(), entry);
+                }
+            }
+            for (Map.Entry<String, Entry> mapEntry : newEntries.entrySet()) {
+                final Entry entry = mapEntry.getValue();
+                if (entry.badge == null && !TextUtils.isEmpty(entry.providerName)) {
+                    // Stored without a badge, before the one of its provider was read.
+                    entry.badge = mBadges.get(entry.providerName);
+                }
+                mEntries.put(mapEntry.getKey(), entry);
+            }
+            write = mWriteAfterLoad;
+            mWriteAfterLoad = false;
+            mRemovedBeforeLoad.clear();
+            mLoaded = true;
+            Log.d(this, "Loaded " + mEntries.size() + " lookup responses in "
+                    + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+        if (write) {
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Writes out any pending change.
+     */
+    public void tearDown() {
+        final boolean writePending;
+        synchronized (this) {
+            writePending = mWritePending;
+        }
+        if (writePending) {
+            mHandler.removeCallbacks(mPostWriteRunnable);
+            mPostWriteRunnable.run();
+        }
+    }
+
+    /**
+     * Calls back with the cached response for a number if there is a fresh one, and otherwise
+     * asks the provider and stores what it returns. Cached responses are delivered before this
+     * returns.
+     */
+    public void lookup(final String number, Provider provider, final Listener listener) {
+        final Entry entry = get(number);
+        if (entry != null) {
+            listener.onLookupComplete(entry);
+            return;
+        }
+        provider.fetch(number, new Listener() {
+            @Override
+            public void onLookupComplete(Entry entry) {
+                if (entry != null) {
+                    put(number, entry);
+                }
+                listener.onLookupComplete(entry);
+            }
+        });
+    }
+
+    /**
+     * @return The response the provider returned for a number, or {@code null} if there is none
+     *         or it is older than the TTL. Also returns {@code null} for the numbers of the file
+     *         while it is not loaded yet, rather than waiting for it.
+     */
+    public synchronized Entry get(String number) {
+        Entry entry = TextUtils.isEmpty(number) ? null : mEntries.get(number);
+        if (entry != null && isExpired(entry.fetchedAtMillis)) {
+            mEntries.remove(number);
+            if (!mLoaded) {
+                mRemovedBeforeLoad.add(number);
+            }
+            scheduleWrite();
+            entry = null;
+        }
+        if (entry == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Stores a successful response for a number. The badge of the entry replaces the stored badge
+     * of its provider, or is replaced by it if the entry has none.
+     */
+    public void put(String number, Entry entry) {
+        if (TextUtils.isEmpty(number)) {
+            return;
+        }
+        synchronized (this) {
+            if (!TextUtils.isEmpty(entry.providerName)) {
+                final Bitmap badge = mBadges.get(entry.providerName);
+                if (entry.badge == null) {
+                    entry.badge = badge;
+                } else if (badge == null || !badge.sameAs(entry.badge)) {
+                    mBadges.put(entry.providerName, entry.badge);
+                    mDirtyBadges.add(entry.providerName);
+                }
+            }
+            mEntries.put(number, entry);
+            mRemovedBeforeLoad.remove(number);
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * Reads the downloaded photo for a url in the background.
+     */
+    public void loadPhoto(final String url, final PhotoListener listener) {
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap photo = readPhoto(url);
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onPhotoLoaded(photo);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Writes a downloaded photo in the background, dropping the oldest photos beyond
+     * {@link #MAX_PHOTOS}.
+     */
+    public void putPhoto(final String url, final Bitmap photo) {
+        AsyncTask.execute(new Runnable() {
+            @Override
+            public void run() {
+                writePhoto(url, photo);
+            }
+        });
+    }
+
+    /**
+     * @return The downloaded photo for a url, or {@code null} if there is none or it is older
+     *         than the TTL. Reads from disk, so must not be called on the main thread.
+     */
+    @NeededForTesting
+    Bitmap readPhoto(String url) {
+        final File file = getPhotoFile(url);
+        Bitmap photo = null;
+        if (file.exists()) {
+            if (isExpired(file.lastModified())) {
+                file.delete();
+            } else {
+                photo = BitmapFactory.decodeFile(file.getPath());
+            }
+        }
+        synchronized (this) {
+            if (photo == null) {
+                mPhotoMissCount++;
+            } else {
+                mPhotoHitCount++;
+            }
+        }
+        return photo;
+    }
+
+    @NeededForTesting
+    void writePhoto(String url, Bitmap photo) {
+        final File file = getPhotoFile(url);
+        if (!writeBitmap(file, photo, Bitmap.CompressFormat.JPEG)) {
+            return;
+        }
+        final File[] photos = mDir.listFiles();
+        if (photos == null) {
+            return;
+        }
+        final List<File> photoFiles = new ArrayList<>();
+        for (File f : photos) {
+            if (f.getName().startsWith(PHOTO_PREFIX)) {
+                photoFiles.add(f);
+            }
+        }
+        if (photoFiles.size() <= MAX_PHOTOS) {
+            return;
+        }
+        final File[] sorted = photoFiles.toArray(new File[photoFiles.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+        for (int i = 0; i < sorted.length - MAX_PHOTOS; i++) {
+            sorted[i].delete();
+        }
+    }
+
+    /**
+     * Drops all responses, badges and photos.
+     */
+    public void clear() {
+        synchronized (this) {
+            mEntries.clear();
+            mBadges.clear();
+            mDirtyBadges.clear();
+            // Nothing of the file is left to load.
+            mLoaded = true;
+            mWritePending = false;
+            mWriteAfterLoad = false;
+            mRemovedBeforeLoad.clear();
+        }
+        mHandler.removeCallbacks(mPostWriteRunnable);
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+    @NeededForTesting
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Writes the cache out now rather than after the usual delay.
+     */
+    @NeededForTesting
+    void flush() {
+        synchronized (this) {
+            mWritePending = false;
+        }
+        mHandler.removeCallbacks(mPostWriteRunnable);
+        write();
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println("LookupResponseCache:");
+        pw.println("  entries: " + mEntries.size() + (mLoaded ? "" : " (not loaded)")
+                + ", badges: " + mBadges.size());
+        pw.println("  hits: " + mHitCount + ", misses: " + mMissCount
+                + ", photo hits: " + mPhotoHitCount + ", photo misses: " + mPhotoMissCount);
+    }
+
+    private boolean isExpired(long timeMillis) {
+        final long age = System.currentTimeMillis() - timeMillis;
+        // A negative age means the clock was set back; don't trust the entry either.
+        return age < 0 || age >= mTtlMillis;
+    }
+
+    private void scheduleWrite() {
+        synchronized (this) {
+            mWritePending = true;
+        }
+        mHandler.removeCallbacks(mPostWriteRunnable);
+        mHandler.postDelayed(mPostWriteRunnable, WRITE_DELAY_MS);
+    }
+
+    /**
+     * Reads the fresh responses of the file, least recently used first, and the badges of their
+     * providers.
+     */
+    private void read(Map<String, Entry> entries, Map<String, Bitmap> badges) {
+        FileInputStream in = null;
+        try {
+            in = mFile.openRead();
+            final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                Log.w(this, "Ignoring lookup response cache of an unsupported version");
+                return;
+            }
+            final int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = data.readUTF();
+                final String providerName = readString(data);
+                final String name = readString(data);
+                final String number = readString(data);
+                final String address = readString(data);
+                final int spamCount = data.readInt();
+                final boolean isSpam = data.readBoolean();
+                final String photoUrl = readString(data);
+                final long fetchedAtMillis = data.readLong();
+                if (isExpired(fetchedAtMillis)) {
+                    continue;
+                }
+                entries.put(key, new Entry(providerName, name, number, address, spamCount,
+                        isSpam, photoUrl, readBadge(providerName, badges), fetchedAtMillis));
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing cached yet.
+        } catch (IOException e) {
+            Log.w(this, "Unable to read lookup response cache " + e);
+            entries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore.
+                }
+            }
+        }
+    }
+
+    private Bitmap readBadge(String providerName, Map<String, Bitmap> badges) {
+        if (TextUtils.isEmpty(providerName)) {
+            return null;
+        }
+        if (!badges.containsKey(providerName)) {
+            final File file = new File(mDir, BADGE_PREFIX + hash(providerName));
+            badges.put(providerName,
+                    file.exists() ? BitmapFactory.decodeFile(file.getPath()) : null);
+        }
+        return badges.get(providerName);
+    }
+
+    private void write() {
+        final List<Map.Entry<String, Entry>> entries;
+        final Map<String, Bitmap> badges = new HashMap<>();
+        synchronized (this) {
+            if (!mLoaded) {
+                // Writing now would drop the responses of the file; write once it is loaded.
+                mWriteAfterLoad = true;
+                return;
+            }
+            entries = new ArrayList<>(mEntries.entrySet());
+            for (String providerName : mDirtyBadges) {
+                badges.put(providerName, mBadges.get(providerName));
+            }
+            mDirtyBadges.clear();
+        }
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(this, "Unable to create " + mDir);
+            return;
+        }
+
+        for (Map.Entry<String, Bitmap> badge : badges.entrySet()) {
+            writeBitmap(new File(mDir, BADGE_PREFIX + hash(badge.getKey())), badge.getValue(),
+                    Bitmap.CompressFormat.PNG);
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(entries.size());
+            for (Map.Entry<String, Entry> mapEntry : entries) {
+                final Entry entry = mapEntry.getValue();
+                data.writeUTF(mapEntry.getKey());
+                writeString(data, entry.providerName);
+                writeString(data, entry.name);
+                writeString(data, entry.number);
+                writeString(data, entry.address);
+                data.writeInt(entry.spamCount);
+                data.writeBoolean(entry.isSpam);
+                writeString(data, entry.photoUrl);
+                data.writeLong(entry.fetchedAtMillis);
+            }
+            data.flush();
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(this, "Unable to write lookup response cache", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    private File getPhotoFile(String url) {
+        return new File(mDir, PHOTO_PREFIX + hash(url));
+    }
+
+    private boolean writeBitmap(File file, Bitmap bitmap, Bitmap.CompressFormat format) {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(this, "Unable to create " + mDir);
+            return false;
+        }
+        final AtomicFile atomicFile = new AtomicFile(file);
+        FileOutputStream out = null;
+        try {
+            out = atomicFile.startWrite();
+            bitmap.compress(format, 90, out);
+            atomicFile.finishWrite(out);
+            return true;
+        } catch (IOException e) {
+            Log.e(this, "Unable to write " + file, e);
+            if (out != null) {
+                atomicFile.failWrite(out);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @return A bitmap of a provider badge, or {@code null} if it has none or no intrinsic size.
+     */
+    private static Bitmap toBitmap(Drawable drawable) {
+        if (drawable instanceof BitmapDrawable) {
+            return ((BitmapDrawable) drawable).getBitmap();
+        }
+        if (drawable == null
+                || drawable.getIntrinsicWidth() <= 0 || drawable.getIntrinsicHeight() <= 0) {
+            return null;
+        }
+        final Bitmap bitmap = Bitmap.createBitmap(drawable.getIntrinsicWidth(),
+                drawable.getIntrinsicHeight(), Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+        drawable.draw(canvas);
+        return bitmap;
+    }
+
+    /**
+     * @return A file name safe digest of a provider name or photo url.
+     */
+    private static String hash(String s) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(s.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(s.hashCode());
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
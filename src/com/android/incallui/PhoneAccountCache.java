@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.telecom.PhoneAccount;
+import android.telecom.PhoneAccountHandle;
+import android.telecom.TelecomManager;
+import android.telephony.SubscriptionManager;
+import android.telephony.SubscriptionManager.OnSubscriptionsChangedListener;
+
+import com.android.contacts.common.testing.NeededForTesting;
+import com.android.contacts.common.util.MaterialColorMapUtils.MaterialPalette;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+
+/**
+ * The {@link PhoneAccount}s of the calls, and the theme palette made from their highlight color,
+ * so that the call card, the theme and the calls don't each ask telecom for them over binder on
+ * every update. Accounts which don't exist are cached as well.
+ *
+ * Entries are dropped whenever the subscriptions change, which is when the label and color of
+ * SIM accounts change, and when the in-call service unbinds, so accounts registered in between
+ * calls are seen by the next call.
+ */
+class PhoneAccountCache {
+
+    private static class Entry {
+        /** The account, or {@code null} if telecom has no account for the handle. */
+        final PhoneAccount account;
+        MaterialPalette palette;
+
+        Entry(PhoneAccount account) {
+            this.account = account;
+        }
+    }
+
+    private final Context mContext;
+    private final HashMap<PhoneAccountHandle, Entry> mEntries = new HashMap<>();
+    private InCallUIMaterialColorMapUtils mColorMapUtils;
+    private MaterialPalette mDefaultPalette;
+    /** Number of call capable accounts, or -1 if not known yet. */
+    private int mCallCapableAccountCount = -1;
+    private boolean mListening;
+
+    private long mHitCount;
+    private long mMissCount;
+
+    private final OnSubscriptionsChangedListener mSubscriptionsChangedListener =
+            new OnSubscriptionsChangedListener() {
+                @Override
+                public void onSubscriptionsChanged() {
+                    Log.d(PhoneAccountCache.this, "Subscriptions changed, clearing accounts");
+                    clear();
+                }
+            };
+
+    PhoneAccountCache(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Starts watching the subscriptions. Must be called on the main thread.
+     */
+    void setUp() {
+        if (!mListening) {
+            SubscriptionManager.from(mContext)
+                    .addOnSubscriptionsChangedListener(mSubscriptionsChangedListener);
+            mListening = true;
+        }
+    }
+
+    /**
+     * Stops watching the subscriptions and drops all entries.
+     */
+    void tearDown() {
+        if (mListening) {
+            SubscriptionManager.from(mContext)
+                    .removeOnSubscriptionsChangedListener(mSubscriptionsChangedListener);
+            mListening = false;
+        }
+        clear();
+    }
+
+    /**
+     * @return The account of a handle, or {@code null} if the handle is {@code null} or telecom
+     *         has no account for it.
+     */
+    PhoneAccount getPhoneAccount(PhoneAccountHandle handle) {
+        final Entry entry = getEntry(handle);
+        return entry == null ? null : entry.account;
+    }
+
+    /**
+     * @return Whether the account of a handle exists and has all the given capabilities.
+     */
+    boolean hasCapabilities(PhoneAccountHandle handle, int capabilities) {
+        final PhoneAccount account = getPhoneAccount(handle);
+        return account != null && account.hasCapabilities(capabilities);
+    }
+
+    /**
+     * @return The theme palette for the highlight color of the account of a handle, or the
+     *         default palette if there is no such account or it has no highlight color.
+     */
+    synchronized MaterialPalette getPalette(PhoneAccountHandle handle) {
+        final Entry entry = getEntry(handle);
+        // For single-sim devices, there will be no selected highlight color, so the phone
+        // account will default to NO_HIGHLIGHT_COLOR.
+        if (entry == null || entry.account == null
+                || entry.account.getHighlightColor() == PhoneAccount.NO_HIGHLIGHT_COLOR) {
+            if (mDefaultPalette == null) {
+                mDefaultPalette = getColorMapUtils().calculatePrimaryAndSecondaryColor(
+                        PhoneAccount.NO_HIGHLIGHT_COLOR);
+            }
+            return mDefaultPalette;
+        }
+        if (entry.palette == null) {
+            entry.palette = getColorMapUtils().calculatePrimaryAndSecondaryColor(
+                    entry.account.getHighlightColor());
+        }
+        return entry.palette;
+    }
+
+    /**
+     * @return The number of call capable accounts.
+     */
+    synchronized int getCallCapableAccountCount() {
+        if (mCallCapableAccountCount < 0) {
+            mCallCapableAccountCount = getTelecomManager().getCallCapablePhoneAccounts().size();
+        }
+        return mCallCapableAccountCount;
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+        mCallCapableAccountCount = -1;
+    }
+
+    @NeededForTesting
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    @NeededForTesting
+    synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    synchronized void dump(PrintWriter pw) {
+        pw.println("PhoneAccountCache:");
+        pw.println("  accounts: " + mEntries.size() + ", hits: " + mHitCount
+                + ", misses: " + mMissCount);
+    }
+
+    private synchronized Entry getEntry(PhoneAccountHandle handle) {
+        if (handle == null) {
+            return null;
+        }
+        Entry entry = mEntries.get(handle);
+        if (entry == null) {
+            mMissCount++;
+            entry = new Entry(getTelecomManager().getPhoneAccount(handle));
+            mEntries.put(handle, entry);
+        } else {
+            mHitCount++;
+        }
+        return entry;
+    }
+
+    private InCallUIMaterialColorMapUtils getColorMapUtils() {
+        if (mColorMapUtils == null) {
+            mColorMapUtils = new InCallUIMaterialColorMapUtils(mContext.getResources());
+        }
+        return mColorMapUtils;
+    }
+
+    private TelecomManager getTelecomManager() {
+        return (TelecomManager) mContext.getSystemService(Context.TELECOM_SERVICE);
+    }
+}
@@ -184,7 +184,7 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener,
             CallList.getInstance().removeCallUpdateListener(mCallId, this);
         }
         mCallId = call.getId();
-        CallList.getInstance().addCallUpdateListener(call.getId(), this);
+        CallList.getInstance().addCallUpdateListener(call.getId(), this, 0);
 
         // we make a call to the contact info cache to query for supplemental data to what the
         // call provides.  This includes the contact name and photo.
@@ -214,6 +214,13 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener,
      * Sets up the main Ui for the notification
      */
     private void buildAndSendNotification(Call originalCall, ContactCacheEntry contactInfo) {
+        final long start = CallTimeline.beginSection("StatusBarNotifier.buildAndSendNotification");
+        sendNotification(originalCall, contactInfo);
+        CallTimeline.endSection("StatusBarNotifier.buildAndSendNotification",
+                originalCall.getId(), start);
+    }
+
+    private void sendNotification(Call originalCall, ContactCacheEntry contactInfo) {
 
         // This can get called to update an existing notification after contact information has come
         // back. However, it can happen much later. Before we continue, we need to make sure that
@@ -248,7 +255,7 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener,
         }
 
         if (largeIcon != null) {
-            largeIcon = getRoundedIcon(largeIcon);
+            largeIcon = getRoundedIcon(largeIcon, contactInfo);
         }
 
         /*
@@ -362,6 +369,7 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener,
         }
         Log.i(this, "Displaying notification for " + notificationType);
         mNotificationManager.notify(notificationType, notification);
+        CallTimeline.mark("StatusBarNotifier.notify", call.getId());
         mCurrentNotification = notificationType;
     }
 
@@ -496,7 +504,7 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener,
         return largeIcon;
     }
 
-    private Bitmap getRoundedIcon(Bitmap bitmap) {
+    private Bitmap getRoundedIcon(Bitmap bitmap, ContactCacheEntry contactInfo) {
         if (bitmap == null) {
             return null;
         }
@@ -504,6 +512,14 @@ public class StatusBarNotifier implements InCallPresenter.InCallStateListener,
                 android.R.dimen.notification_large_icon_height);
         final int width = (int) mContext.getResources().getDimension(
                 android.R.dimen.notification_large_icon_width);
+        // The contact photo is rounded once rather than on every notification update.
+        final boolean isContactPhoto = contactInfo.displayPhotoUri != null
+                && contactInfo.photo instanceof BitmapDrawable
+                && ((BitmapDrawable) contactInfo.photo).getBitmap() == bitmap;
+        if (isContactPhoto && width == height) {
+            return ContactBitmapCache.getInstance().getRounded(contactInfo.displayPhotoUri,
+                    bitmap, 0, width);
+        }
         return BitmapUtil.getRoundedBitmap(bitmap, width, height);
     }
 
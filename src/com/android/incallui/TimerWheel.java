@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Hashed timer wheel. Items are hashed by deadline into one slot per tick, and everything due
+ * within the same tick expires together in one call to {@link #advance(long)}. Deadlines beyond
+ * the span of the wheel wrap around and stay in their slot until their round comes.
+ *
+ * The wheel does not keep time itself: callers pass the current time in, and use
+ * {@link #getNextExpiryMillis()} to decide when to advance it next. Not thread safe.
+ */
+class TimerWheel<T> {
+
+    private static class Entry<T> {
+        final T item;
+        long deadlineMillis;
+
+        Entry(T item, long deadlineMillis) {
+            this.item = item;
+            this.deadlineMillis = deadlineMillis;
+        }
+    }
+
+    private final long mTickMillis;
+    private final List<ArrayList<Entry<T>>> mSlots;
+    private final HashMap<T, Entry<T>> mEntries = new HashMap<>();
+
+    /** Every slot before this tick has been expired up to the last {@link #advance} time. */
+    private long mNextTick = -1;
+
+    TimerWheel(long tickMillis, int slotCount) {
+        mTickMillis = tickMillis;
+        mSlots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            mSlots.add(new ArrayList<Entry<T>>());
+        }
+    }
+
+    /**
+     * Schedules an item to expire after the given delay. An item which is already scheduled keeps
+     * whichever deadline is sooner.
+     */
+    void schedule(T item, long delayMillis, long nowMillis) {
+        final long deadlineMillis = nowMillis + Math.max(0, delayMillis);
+        Entry<T> entry = mEntries.get(item);
+        if (entry != null) {
+            if (entry.deadlineMillis <= deadlineMillis) {
+                return;
+            }
+            getSlot(entry.deadlineMillis).remove(entry);
+            entry.deadlineMillis = deadlineMillis;
+        } else {
+            entry = new Entry<>(item, deadlineMillis);
+            mEntries.put(item, entry);
+        }
+        if (mNextTick < 0 || mEntries.size() == 1) {
+            mNextTick = nowMillis / mTickMillis;
+        }
+        getSlot(deadlineMillis).add(entry);
+    }
+
+    /**
+     * @return {@code true} if the item was scheduled.
+     */
+    boolean cancel(T item) {
+        final Entry<T> entry = mEntries.remove(item);
+        if (entry == null) {
+            return false;
+        }
+        getSlot(entry.deadlineMillis).remove(entry);
+        return true;
+    }
+
+    boolean contains(T item) {
+        return mEntries.containsKey(item);
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    boolean isEmpty() {
+        return mEntries.isEmpty();
+    }
+
+    /**
+     * Removes and returns every item whose deadline is not after the given time.
+     */
+    List<T> advance(long nowMillis) {
+        final List<T> expired = new ArrayList<>();
+        if (mEntries.isEmpty()) {
+            return expired;
+        }
+
+        final long lastTick = nowMillis / mTickMillis;
+        // Past one full turn every slot has been visited, whatever the number of ticks elapsed.
+        final long firstTick = Math.max(mNextTick, lastTick - mSlots.size() + 1);
+        for (long tick = firstTick; tick <= lastTick; tick++) {
+            final ArrayList<Entry<T>> slot = mSlots.get((int) (tick % mSlots.size()));
+            for (int i = slot.size() - 1; i >= 0; i--) {
+                final Entry<T> entry = slot.get(i);
+                if (entry.deadlineMillis <= nowMillis) {
+                    slot.remove(i);
+                    mEntries.remove(entry.item);
+                    expired.add(entry.item);
+                }
+            }
+        }
+        // The current tick stays open; items may still be due later within it.
+        mNextTick = lastTick;
+        return expired;
+    }
+
+    /**
+     * Removes and returns all the scheduled items.
+     */
+    List<T> removeAll() {
+        final List<T> items = new ArrayList<>(mEntries.keySet());
+        mEntries.clear();
+        for (int i = 0; i < mSlots.size(); i++) {
+            mSlots.get(i).clear();
+        }
+        return items;
+    }
+
+    /**
+     * Returns the time at which {@link #advance(long)} should next be called: the end of the tick
+     * of the earliest deadline, so that everything due within that tick expires together. Returns
+     * {@code -1} if nothing is scheduled.
+     */
+    long getNextExpiryMillis() {
+        long earliest = Long.MAX_VALUE;
+        for (Entry<T> entry : mEntries.values()) {
+            earliest = Math.min(earliest, entry.deadlineMillis);
+        }
+        if (earliest == Long.MAX_VALUE) {
+            return -1;
+        }
+        final long tick = (earliest + mTickMillis - 1) / mTickMillis;
+        return tick * mTickMillis;
+    }
+
+    private ArrayList<Entry<T>> getSlot(long deadlineMillis) {
+        return mSlots.get((int) ((deadlineMillis / mTickMillis) % mSlots.size()));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.text.format.DateUtils;
+
+import com.android.contacts.common.testing.NeededForTesting;
+import com.android.incallui.ContactInfoCache.ContactCacheEntry;
+
+import com.cyanogen.lookup.phonenumber.response.StatusCode;
+
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Numbers which {@link ContactInfoCache} recently looked up without finding a contact, nor a name
+ * from any remote lookup, with what the lookup provider said about them. A repeat call from one of
+ * them skips the contacts query and the remote lookups.
+ *
+ * Entries expire after a while, since remote lookup results change, and are all dropped when the
+ * contacts change. The contacts are only watched while there are entries. Only used on the main
+ * thread.
+ */
+class UnknownNumberCache {
+
+    private static final long DEFAULT_TTL_MS = 30 * DateUtils.MINUTE_IN_MILLIS;
+
+    @NeededForTesting
+    static final int MAX_ENTRIES = 100;
+
+    /**
+     * What the lookup provider said about an unknown number.
+     */
+    static class Entry {
+        final StatusCode lookupStatus;
+        final String lookupProviderName;
+        final boolean isSpam;
+        final int spamCount;
+        final long expiresAtMillis;
+
+        Entry(ContactCacheEntry entry, long expiresAtMillis) {
+            this.lookupStatus = entry.lookupStatus;
+            this.lookupProviderName = entry.lookupProviderName;
+            this.isSpam = entry.isSpam;
+            this.spamCount = entry.spamCount;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+
+        void applyTo(ContactCacheEntry entry) {
+            entry.lookupStatus = lookupStatus;
+            entry.lookupProviderName = lookupProviderName;
+            entry.isSpam = isSpam;
+            entry.spamCount = spamCount;
+            entry.isLookupInProgress = false;
+        }
+    }
+
+    private final Context mContext;
+    private final long mTtlMillis;
+
+    /** Least recently used first. */
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    private boolean mObserving;
+
+    private long mHitCount;
+    private long mMissCount;
+
+    private final ContentObserver mContactsObserver =
+            new ContentObserver(new Handler(Looper.getMainLooper())) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    Log.d(UnknownNumberCache.this, "Contacts changed, clearing unknown numbers");
+                    clear();
+                }
+            };
+
+    UnknownNumberCache(Context context) {
+        this(context, DEFAULT_TTL_MS);
+    }
+
+    @NeededForTesting
+    UnknownNumberCache(Context context, long ttlMillis) {
+        mContext = context;
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * @return What is known about an unknown number, or {@code null} if it is not known to be
+     *         unknown or that has expired.
+     */
+    Entry get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry != null && entry.expiresAtMillis <= SystemClock.elapsedRealtime()) {
+            remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return entry;
+    }
+
+    /**
+     * Remembers that the lookups of a number found nothing, with the lookup provider results of
+     * the given entry.
+     */
+    void put(String key, ContactCacheEntry entry) {
+        mEntries.put(key, new Entry(entry, SystemClock.elapsedRealtime() + mTtlMillis));
+        if (!mObserving) {
+            mContext.getContentResolver().registerContentObserver(
+                    ContactsContract.AUTHORITY_URI, true, mContactsObserver);
+            mObserving = true;
+        }
+    }
+
+    void remove(String key) {
+        if (mEntries.remove(key) != null && mEntries.isEmpty()) {
+            stopObserving();
+        }
+    }
+
+    void clear() {
+        mEntries.clear();
+        stopObserving();
+    }
+
+    @NeededForTesting
+    int size() {
+        return mEntries.size();
+    }
+
+    void dump(PrintWriter pw) {
+        pw.println("  unknown numbers: " + mEntries.size() + ", hits: " + mHitCount
+                + ", misses: " + mMissCount);
+    }
+
+    private void stopObserving() {
+        if (mObserving) {
+            mContext.getContentResolver().unregisterContentObserver(mContactsObserver);
+            mObserving = false;
+        }
+    }
+}
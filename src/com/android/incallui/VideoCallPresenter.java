@@ -1098,12 +1098,8 @@ public class VideoCallPresenter extends Presenter<VideoCallPresenter.VideoCallUi
         if (mPrimaryCall == null || !Call.areSame(mPrimaryCall, call)) {
             Log.w(this, "UpgradeToVideoRequest received for non-primary call");
         }
-
-        if (call == null) {
-            return;
-        }
-
-        call.setSessionModificationTo(videoState);
+        // InCallPresenter already set the session modification state of the call, since this
+        // presenter isn't set up before the call needs video.
     }
 
     @Override
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.AttributeSet;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import java.util.Arrays;
+
+// @formatter:off
+/**
+ * Compares what the call card of a plain voice call costs now that the mod buttons and the video
+ * surfaces are only added when needed, with what it cost when they were always inflated along
+ * with it. Reports the view count, the inflation time and the heap retained by the views.
+ *
+ * Only the views are measured. The fragments, their presenters and the listeners those register
+ * with InCallPresenter are saved on top of that.
+ *
+ * Run with
+ * adb shell am instrument -e class com.android.incallui.CallCardInflationBenchmark -w com.google.android.dialer.tests/android.test.InstrumentationTestRunner
+ */
+// @formatter:on
+
+@LargeTest
+public class CallCardInflationBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "CallCardInflationBenchmark";
+    private static final int ITERATIONS = 50;
+    /** How many call cards are held at once to measure the heap they retain. */
+    private static final int RETAINED_COPIES = 20;
+
+    private LayoutInflater mInflater;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        final Context context = new ContextThemeWrapper(getContext(), R.style.Theme_InCallScreen);
+        mInflater = LayoutInflater.from(getContext()).cloneInContext(context);
+        // Only an activity can inflate fragments, so the call button fragment which the call card
+        // still declares is inflated as an empty frame in both cases.
+        mInflater.setFactory2(new LayoutInflater.Factory2() {
+            @Override
+            public View onCreateView(View parent, String name, Context context,
+                    AttributeSet attrs) {
+                return "fragment".equals(name) ? new FrameLayout(context, attrs) : null;
+            }
+
+            @Override
+            public View onCreateView(String name, Context context, AttributeSet attrs) {
+                return onCreateView(null, name, context, attrs);
+            }
+        });
+    }
+
+    public void testVoiceCall_onDemand() {
+        runBenchmark("on demand", false);
+    }
+
+    public void testVoiceCall_eager() {
+        runBenchmark("eager", true);
+    }
+
+    private void runBenchmark(String name, boolean eager) {
+        // Warm up the resource caches, which both variants share.
+        final View first = inflateCallCard(eager);
+
+        final long[] nanos = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            final long start = SystemClock.elapsedRealtimeNanos();
+            inflateCallCard(eager);
+            nanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        Arrays.sort(nanos);
+
+        final long before = getUsedHeap();
+        final View[] copies = new View[RETAINED_COPIES];
+        for (int i = 0; i < RETAINED_COPIES; i++) {
+            copies[i] = inflateCallCard(eager);
+        }
+        final long retained = (getUsedHeap() - before) / RETAINED_COPIES;
+        assertNotNull(copies[RETAINED_COPIES - 1]);
+
+        android.util.Log.i(TAG, name + ": views=" + countViews(first)
+                + " median inflation=" + nanos[ITERATIONS / 2] / 1000 + "us"
+                + " retained=" + retained / 1024 + "KB");
+    }
+
+    /**
+     * Inflates the call card of a voice call, along with the layouts of the fragments it used to
+     * declare if {@code eager} is set.
+     */
+    private View inflateCallCard(boolean eager) {
+        final View callCard = mInflater.inflate(R.layout.call_card_fragment, null);
+        if (eager) {
+            final ViewGroup modButtons = (ViewGroup) callCard.findViewById(R.id.modButtonFragment);
+            mInflater.inflate(R.layout.mod_button_fragment, modButtons, true);
+            final ViewGroup video = (ViewGroup) callCard.findViewById(R.id.videoCallFragment);
+            mInflater.inflate(R.layout.video_call_fragment, video, true);
+        }
+        return callCard;
+    }
+
+    private static int countViews(View view) {
+        int count = 1;
+        if (view instanceof ViewGroup) {
+            final ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                count += countViews(group.getChildAt(i));
+            }
+        }
+        return count;
+    }
+
+    private static long getUsedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.runFinalization();
+        runtime.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.telecom.DisconnectCause;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// @formatter:off
+/**
+ * Replays call event traces into the CallList and InCallPresenter.
+ *
+ * A trace recorded on a device (see CallEventRecorder) can be replayed with
+ * adb push call_events.trace /data/local/tmp/call_events.trace
+ * adb shell am instrument -e class com.android.incallui.CallEventReplayTest -e trace /data/local/tmp/call_events.trace -w com.google.android.dialer.tests/android.test.InstrumentationTestRunner
+ */
+// @formatter:on
+
+@LargeTest
+public class CallEventReplayTest extends InstrumentationTestCase {
+
+    private static final String TAG = "CallEventReplayTest";
+    private static final String TRACE_ARGUMENT = "trace";
+
+    @Mock private AudioModeProvider mAudioModeProvider;
+    @Mock private StatusBarNotifier mStatusBarNotifier;
+    @Mock private ContactInfoCache mContactInfoCache;
+    @Mock private ProximitySensor mProximitySensor;
+    @Mock private Context mContext;
+
+    private CallList mCallList;
+    private InCallPresenter mInCallPresenter;
+    private long mTimestamp;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache",
+                getInstrumentation().getTargetContext().getCacheDir().getPath());
+        MockitoAnnotations.initMocks(this);
+
+        mCallList = new CallList();
+        mInCallPresenter = InCallPresenter.getInstance();
+        mInCallPresenter.setUp(mContext, mCallList, mAudioModeProvider, mStatusBarNotifier,
+                mContactInfoCache, mProximitySensor);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        // The tear down method needs to run in the main thread since there is an explicit check
+        // inside TelecomAdapter.getInstance().
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mInCallPresenter.tearDown();
+                InCallPresenter.setInstance(null);
+            }
+        });
+        super.tearDown();
+    }
+
+    public void testTrace_roundTrip() throws IOException {
+        final Map<String, Object> extras = new HashMap<>();
+        extras.put("android.telecom.extra.CALL_SUBJECT", "subject");
+        final ArrayList<String> forwarded = new ArrayList<>();
+        forwarded.add("123");
+        extras.put("android.telecom.extra.LAST_FORWARDED_NUMBER", forwarded);
+        final CallEventTrace.Event event = new CallEventTrace.Event(
+                CallEventTrace.EVENT_DETAILS_CHANGED, 42, "Call_0", Call.State.ACTIVE,
+                DisconnectCause.UNKNOWN, 3, 1, 0, "tel:5551234", "1", null,
+                Collections.singletonList("Call_1"), extras);
+
+        final List<CallEventTrace.Event> events = readBack(Collections.singletonList(event));
+
+        assertEquals(1, events.size());
+        final CallEventTrace.Event read = events.get(0);
+        assertEquals(event.type, read.type);
+        assertEquals(event.timestampNanos, read.timestampNanos);
+        assertEquals(event.callId, read.callId);
+        assertEquals(event.state, read.state);
+        assertEquals(event.capabilities, read.capabilities);
+        assertEquals(event.properties, read.properties);
+        assertEquals(event.handle, read.handle);
+        assertEquals(event.accountId, read.accountId);
+        assertNull(read.parentId);
+        assertEquals(event.childIds, read.childIds);
+        assertEquals(event.extras, read.extras);
+    }
+
+    public void testReplay_callWaitingFlow() throws IOException {
+        final List<CallEventTrace.Event> events = new ArrayList<>();
+        addCallFlow(events, "Call_0", "Call_1");
+
+        final CallEventReplayer replayer = new CallEventReplayer(mCallList);
+        final CallEventReplayer.Result result = replayer.replay(readBack(events));
+
+        assertEquals(events.size(), result.eventCount);
+        // Disconnected calls linger until their timeout, but none is live anymore.
+        assertFalse(mCallList.hasLiveCall());
+        assertNotNull(mCallList.getDisconnectedCall());
+        android.util.Log.i(TAG, "call waiting flow: " + result);
+    }
+
+    public void testReplay_storm() throws IOException {
+        final List<CallEventTrace.Event> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            addCallFlow(events, "Call_" + (2 * i), "Call_" + (2 * i + 1));
+        }
+
+        final CallEventReplayer.Result result =
+                new CallEventReplayer(mCallList).replay(readBack(events));
+
+        assertEquals(events.size(), result.eventCount);
+        android.util.Log.i(TAG, "storm: " + result);
+    }
+
+    /**
+     * Replays the trace passed with {@code -e trace <path>}, if any.
+     */
+    public void testReplay_recordedTrace() throws IOException {
+        final String path = getTraceArgument();
+        if (path == null) {
+            return;
+        }
+        final InputStream in = new FileInputStream(new File(path));
+        try {
+            final CallEventReplayer.Result result =
+                    new CallEventReplayer(mCallList).replay(CallEventTrace.read(in));
+            android.util.Log.i(TAG, path + ": " + result);
+        } finally {
+            in.close();
+        }
+    }
+
+    private String getTraceArgument() {
+        if (!(getInstrumentation() instanceof android.test.InstrumentationTestRunner)) {
+            return null;
+        }
+        return ((android.test.InstrumentationTestRunner) getInstrumentation()).getArguments()
+                .getString(TRACE_ARGUMENT);
+    }
+
+    /**
+     * An active call which gets a call waiting, holds it, swaps back and hangs up both.
+     */
+    private void addCallFlow(List<CallEventTrace.Event> events, String first, String second) {
+        events.add(event(CallEventTrace.EVENT_ADDED, first, Call.State.CONNECTING));
+        events.add(event(CallEventTrace.EVENT_STATE_CHANGED, first, Call.State.DIALING));
+        events.add(event(CallEventTrace.EVENT_DETAILS_CHANGED, first, Call.State.DIALING));
+        events.add(event(CallEventTrace.EVENT_STATE_CHANGED, first, Call.State.ACTIVE));
+        events.add(event(CallEventTrace.EVENT_ADDED, second, Call.State.CALL_WAITING));
+        events.add(event(CallEventTrace.EVENT_CANNED_TEXT_RESPONSES_LOADED, second,
+                Call.State.CALL_WAITING));
+        events.add(event(CallEventTrace.EVENT_STATE_CHANGED, first, Call.State.ONHOLD));
+        events.add(event(CallEventTrace.EVENT_STATE_CHANGED, second, Call.State.ACTIVE));
+        for (int i = 0; i < 5; i++) {
+            // Telecom commonly sends bursts of details updates which change nothing.
+            events.add(event(CallEventTrace.EVENT_DETAILS_CHANGED, second, Call.State.ACTIVE));
+        }
+        events.add(event(CallEventTrace.EVENT_STATE_CHANGED, second, Call.State.DISCONNECTED));
+        events.add(event(CallEventTrace.EVENT_REMOVED, second, Call.State.DISCONNECTED));
+        events.add(event(CallEventTrace.EVENT_STATE_CHANGED, first, Call.State.ACTIVE));
+        events.add(event(CallEventTrace.EVENT_STATE_CHANGED, first, Call.State.DISCONNECTED));
+        events.add(event(CallEventTrace.EVENT_REMOVED, first, Call.State.DISCONNECTED));
+    }
+
+    private CallEventTrace.Event event(int type, String callId, int state) {
+        final int disconnectCode = state == Call.State.DISCONNECTED
+                ? DisconnectCause.LOCAL : DisconnectCause.UNKNOWN;
+        return new CallEventTrace.Event(type, mTimestamp++, callId, state, disconnectCode, 0, 0,
+                0, "tel:555" + callId.hashCode(), "1", null, new ArrayList<String>(),
+                new HashMap<String, Object>());
+    }
+
+    private static List<CallEventTrace.Event> readBack(List<CallEventTrace.Event> events)
+            throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final CallEventTrace.Writer writer = new CallEventTrace.Writer(out);
+        for (CallEventTrace.Event event : events) {
+            writer.write(event);
+        }
+        writer.close();
+        return CallEventTrace.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
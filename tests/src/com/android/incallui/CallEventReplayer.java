@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Feeds the events of a {@link CallEventTrace} into a {@link CallList}, in the same way
+ * {@link Call} and {@link InCallServiceImpl} forward telecom callbacks to it, and measures how
+ * long the call list and its listeners take to handle each event.
+ *
+ * Coalescing is turned off on the call list so every event is dispatched to listeners before the
+ * next one is fed.
+ */
+public class CallEventReplayer {
+
+    /**
+     * Throughput and per-event latency of one replay.
+     */
+    public static class Result {
+        public final int eventCount;
+        public final long totalNanos;
+        private final long[] mSortedLatencies;
+
+        Result(long[] latencies) {
+            eventCount = latencies.length;
+            long total = 0;
+            for (long latency : latencies) {
+                total += latency;
+            }
+            totalNanos = total;
+            mSortedLatencies = latencies.clone();
+            Arrays.sort(mSortedLatencies);
+        }
+
+        public double getEventsPerSecond() {
+            return totalNanos == 0 ? 0 : eventCount * 1e9 / totalNanos;
+        }
+
+        /**
+         * @param percentile Between 0 and 100.
+         * @return The latency of the given percentile, in nanoseconds.
+         */
+        public long getLatencyNanos(int percentile) {
+            if (eventCount == 0) {
+                return 0;
+            }
+            final int index = Math.min(eventCount - 1, eventCount * percentile / 100);
+            return mSortedLatencies[index];
+        }
+
+        @Override
+        public String toString() {
+            return eventCount + " events, " + (long) getEventsPerSecond() + " events/s, "
+                    + "latency p50=" + getLatencyNanos(50) + "ns p90=" + getLatencyNanos(90)
+                    + "ns p99=" + getLatencyNanos(99) + "ns max=" + getLatencyNanos(100) + "ns";
+        }
+    }
+
+    private final CallList mCallList;
+    private final HashMap<String, FakeTelecomCall> mCalls = new HashMap<>();
+
+    public CallEventReplayer(CallList callList) {
+        mCallList = callList;
+        mCallList.setCoalesceUpdates(false);
+    }
+
+    public Result replay(List<CallEventTrace.Event> events) {
+        final long[] latencies = new long[events.size()];
+        for (int i = 0; i < events.size(); i++) {
+            final CallEventTrace.Event event = events.get(i);
+            FakeTelecomCall fake = mCalls.get(event.callId);
+            if (fake == null) {
+                fake = new FakeTelecomCall(event.callId);
+                mCalls.put(event.callId, fake);
+            }
+            // Building the mock is part of the fake telecom layer, not of the work measured.
+            final Call call = fake.getCall();
+            final boolean stateChanged = fake.apply(event);
+
+            final long start = SystemClock.elapsedRealtimeNanos();
+            dispatch(event.type, call, stateChanged);
+            latencies[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        return new Result(latencies);
+    }
+
+    public FakeTelecomCall getCall(String callId) {
+        return mCalls.get(callId);
+    }
+
+    private void dispatch(int type, Call call, boolean stateChanged) {
+        switch (type) {
+            case CallEventTrace.EVENT_ADDED:
+                // Same as CallList#onCallAdded.
+                if (call.getState() == Call.State.INCOMING
+                        || call.getState() == Call.State.CALL_WAITING) {
+                    mCallList.onIncoming(call, null);
+                } else {
+                    mCallList.onUpdate(call);
+                }
+                break;
+            case CallEventTrace.EVENT_REMOVED:
+                // Same as CallList#onCallRemoved, which looks the call up by its telecom call.
+                mCallList.updateCallInMap(call);
+                mCalls.remove(call.getId());
+                break;
+            case CallEventTrace.EVENT_CALL_DESTROYED:
+                // Only unregisters the callback.
+                break;
+            default:
+                // Same as Call#update.
+                if (stateChanged && call.getState() == Call.State.DISCONNECTED) {
+                    mCallList.onDisconnect(call);
+                } else {
+                    mCallList.onUpdate(call);
+                }
+                break;
+        }
+    }
+}
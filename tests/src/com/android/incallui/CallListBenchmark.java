@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import static org.mockito.Mockito.when;
+
+import android.os.SystemClock;
+import android.telecom.PhoneAccountHandle;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import org.mockito.Mockito;
+
+import java.util.HashMap;
+
+// @formatter:off
+/**
+ * Measures the cost of the CallList state lookups used on every call list change.
+ *
+ * Run with
+ * adb shell am instrument -e class com.android.incallui.CallListBenchmark -w com.google.android.dialer.tests/android.test.InstrumentationTestRunner
+ */
+// @formatter:on
+
+@LargeTest
+public class CallListBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "CallListBenchmark";
+    private static final int ITERATIONS = 20000;
+    private static final int SUB_1 = 1;
+    private static final int SUB_2 = 2;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().getPath());
+    }
+
+    public void testLookup_2Calls() {
+        runLookupBenchmark(2);
+    }
+
+    public void testLookup_8Calls() {
+        runLookupBenchmark(8);
+    }
+
+    public void testLookup_64Calls() {
+        runLookupBenchmark(64);
+    }
+
+    public void testLookup_ordersByCreation() {
+        final CallList callList = new CallList();
+        final Call first = new Call(Call.State.ONHOLD);
+        final Call second = new Call(Call.State.ONHOLD);
+        callList.updateCallInMap(first);
+        callList.updateCallInMap(second);
+
+        assertSame(first, callList.getBackgroundCall());
+        assertSame(second, callList.getSecondBackgroundCall());
+
+        first.setState(Call.State.ACTIVE);
+        callList.updateCallInMap(first);
+        assertSame(first, callList.getActiveCall());
+        assertSame(second, callList.getBackgroundCall());
+        assertNull(callList.getSecondBackgroundCall());
+    }
+
+    public void testDsdaSwitch_2HeldCallsPerSub() {
+        runDsdaSwitchBenchmark(2);
+    }
+
+    public void testDsdaSwitch_16HeldCallsPerSub() {
+        runDsdaSwitchBenchmark(16);
+    }
+
+    public void testLookup_partitionsBySub() {
+        final CallList callList = new CallList();
+        final Call held1 = getMockCall(Call.State.ONHOLD, "1", 10);
+        final Call sip = getMockCall(Call.State.ONHOLD, "sip:user@example.com", 20);
+        final Call held2 = getMockCall(Call.State.ONHOLD, "2", 30);
+        final Call newerHeld1 = getMockCall(Call.State.ONHOLD, "1", 40);
+        callList.updateCallInMap(held1);
+        callList.updateCallInMap(sip);
+        callList.updateCallInMap(held2);
+        callList.updateCallInMap(newerHeld1);
+
+        // Calls which match any subscription are merged in by creation time.
+        assertSame(held1, callList.getCallWithState(Call.State.ONHOLD, 0, SUB_1));
+        assertSame(sip, callList.getCallWithState(Call.State.ONHOLD, 1, SUB_1));
+        assertSame(newerHeld1, callList.getCallWithState(Call.State.ONHOLD, 2, SUB_1));
+        assertSame(sip, callList.getCallWithState(Call.State.ONHOLD, 0, SUB_2));
+        assertSame(held2, callList.getCallWithState(Call.State.ONHOLD, 1, SUB_2));
+        assertTrue(callList.hasAnyLiveCall(SUB_2));
+
+        when(held2.getState()).thenReturn(Call.State.IDLE);
+        callList.updateCallInMap(held2);
+        assertFalse(callList.hasAnyLiveCall(SUB_2));
+        assertSame(sip, callList.getCallWithState(Call.State.ONHOLD, 0, SUB_2));
+        assertNull(callList.getCallWithState(Call.State.ONHOLD, 1, SUB_2));
+    }
+
+    /**
+     * Tracks an active and {@code heldCount} held calls on one subscription and {@code heldCount}
+     * held calls on the other, then times the lookups done when switching the active subscription
+     * back and forth: CallList#switchToOtherActiveSub looks for live calls on the other
+     * subscription, and the presenters then look up the calls to show on it.
+     */
+    private void runDsdaSwitchBenchmark(int heldCount) {
+        final CallList callList = new CallList();
+        final HashMap<String, Call> callById = new HashMap<>();
+        long createTime = 0;
+        addCall(callList, callById, getMockCall(Call.State.ACTIVE, "1", createTime++));
+        for (int i = 0; i < heldCount; i++) {
+            addCall(callList, callById, getMockCall(Call.State.ONHOLD, "1", createTime++));
+            addCall(callList, callById, getMockCall(Call.State.ONHOLD, "2", createTime++));
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            final int subId = (i & 1) == 0 ? SUB_2 : SUB_1;
+            assertTrue(callList.hasAnyLiveCall(subId));
+            assertNull(callList.getCallWithState(Call.State.INCOMING, 0, subId));
+            assertNull(callList.getCallWithState(Call.State.DIALING, 0, subId));
+            callList.getCallWithState(Call.State.ACTIVE, 0, subId);
+            assertNotNull(callList.getCallWithState(Call.State.ONHOLD, 0, subId));
+        }
+        final long partitionedNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            final int subId = (i & 1) == 0 ? SUB_2 : SUB_1;
+            assertNotNull(scanForLiveCall(callById, subId));
+            assertNull(scanForState(callById, Call.State.INCOMING, subId));
+            assertNull(scanForState(callById, Call.State.DIALING, subId));
+            scanForState(callById, Call.State.ACTIVE, subId);
+            assertNotNull(scanForState(callById, Call.State.ONHOLD, subId));
+        }
+        final long scanNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        android.util.Log.i(TAG, heldCount + " held calls per sub: partitioned=" + partitionedNanos
+                + "ns/switch, full scan=" + scanNanos + "ns/switch");
+    }
+
+    private static void addCall(CallList callList, HashMap<String, Call> callById, Call call) {
+        callById.put(call.getId(), call);
+        callList.updateCallInMap(call);
+    }
+
+    private static Call getMockCall(int state, String accountId, long createTimeMillis) {
+        final Call call = Mockito.mock(Call.class);
+        when(call.getId()).thenReturn("Call_" + accountId + "_" + createTimeMillis);
+        when(call.getState()).thenReturn(state);
+        when(call.getAccountHandle()).thenReturn(new PhoneAccountHandle(null, accountId));
+        when(call.getCreateTimeMillis()).thenReturn(createTimeMillis);
+        return call;
+    }
+
+    /**
+     * Tracks one active conference host, one held call and {@code callCount - 2} conference
+     * children, then times the lookups done by InCallPresenter#getPotentialStateFromCallList.
+     */
+    private void runLookupBenchmark(int callCount) {
+        final CallList callList = new CallList();
+        final HashMap<String, Call> callById = new HashMap<>();
+        for (int i = 0; i < callCount; i++) {
+            final int state;
+            if (i == 0) {
+                state = Call.State.ACTIVE;
+            } else if (i == 1) {
+                state = Call.State.ONHOLD;
+            } else {
+                state = Call.State.CONFERENCED;
+            }
+            final Call call = new Call(state);
+            callById.put(call.getId(), call);
+            callList.updateCallInMap(call);
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertNull(callList.getIncomingCall());
+            assertNull(callList.getOutgoingCall());
+            assertNotNull(callList.getActiveCall());
+            assertNotNull(callList.getBackgroundCall());
+        }
+        final long indexedNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertNull(scanForState(callById, Call.State.INCOMING));
+            assertNull(scanForState(callById, Call.State.CALL_WAITING));
+            assertNull(scanForState(callById, Call.State.DIALING));
+            assertNull(scanForState(callById, Call.State.REDIALING));
+            assertNotNull(scanForState(callById, Call.State.ACTIVE));
+            assertNotNull(scanForState(callById, Call.State.ONHOLD));
+        }
+        final long scanNanos = (SystemClock.elapsedRealtimeNanos() - start) / ITERATIONS;
+
+        android.util.Log.i(TAG, callCount + " calls: indexed=" + indexedNanos
+                + "ns/update, full scan=" + scanNanos + "ns/update");
+    }
+
+    /**
+     * The live call lookup CallList used before calls were partitioned by subscription.
+     */
+    private static Call scanForLiveCall(HashMap<String, Call> callById, int subId) {
+        for (Call call : callById.values()) {
+            if (call.getState() != Call.State.IDLE && call.getState() != Call.State.INVALID
+                    && Integer.parseInt(call.getAccountHandle().getId()) == subId) {
+                return call;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The lookup by subscription CallList used before calls were indexed by state.
+     */
+    private static Call scanForState(HashMap<String, Call> callById, int state, int subId) {
+        for (Call call : callById.values()) {
+            if (call.getState() == state
+                    && Integer.parseInt(call.getAccountHandle().getId()) == subId) {
+                return call;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The lookup CallList used before calls were indexed by state.
+     */
+    private static Call scanForState(HashMap<String, Call> callById, int state) {
+        for (Call call : callById.values()) {
+            if (call.getState() == state) {
+                return call;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@SmallTest
+public class CallListDeltaTest extends AndroidTestCase {
+
+    private CallListDelta.Tracker mTracker;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mTracker = new CallListDelta.Tracker();
+    }
+
+    public void testComputeDelta_addedCalls() {
+        final Call call = new Call(Call.State.DIALING);
+
+        final CallListDelta delta = mTracker.computeDelta(Arrays.asList(call));
+
+        assertEquals(Arrays.asList(call), delta.getAddedCalls());
+        assertTrue(delta.getRemovedCalls().isEmpty());
+        assertTrue(delta.getChangedCalls().isEmpty());
+    }
+
+    public void testComputeDelta_noChange() {
+        final List<Call> calls = Arrays.asList(new Call(Call.State.ACTIVE));
+        mTracker.computeDelta(calls);
+
+        assertTrue(mTracker.computeDelta(calls).isEmpty());
+    }
+
+    public void testComputeDelta_stateChange() {
+        final Call call = new Call(Call.State.DIALING);
+        mTracker.computeDelta(Arrays.asList(call));
+
+        call.setState(Call.State.ACTIVE);
+        final CallListDelta delta = mTracker.computeDelta(Arrays.asList(call));
+
+        final CallListDelta.CallChange change = delta.getChange(call);
+        assertNotNull(change);
+        assertEquals(Call.State.DIALING, change.oldState);
+        assertEquals(Call.State.ACTIVE, change.newState);
+        assertTrue(change.hasChanged(CallListDelta.FIELD_STATE));
+        assertTrue(delta.hasChanges(CallListDelta.FIELD_STATE));
+        assertFalse(delta.hasChanges(CallListDelta.FIELD_CHILDREN));
+    }
+
+    public void testComputeDelta_removedCalls() {
+        final Call call = new Call(Call.State.ACTIVE);
+        mTracker.computeDelta(Arrays.asList(call));
+
+        final CallListDelta delta = mTracker.computeDelta(new ArrayList<Call>());
+
+        assertEquals(Arrays.asList(call), delta.getRemovedCalls());
+        assertTrue(delta.affects(call, CallListDelta.FIELD_STATE));
+    }
+}
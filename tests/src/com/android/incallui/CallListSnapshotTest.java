@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+@SmallTest
+public class CallListSnapshotTest extends AndroidTestCase {
+
+    private CallList mCallList;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mCallList = new CallList();
+    }
+
+    public void testCreate_emptyCallList() {
+        final CallListSnapshot snapshot = CallListSnapshot.create(mCallList);
+
+        assertNull(snapshot.getPrimaryCall());
+        assertNull(snapshot.getSecondaryCall());
+        assertNull(snapshot.getConferenceCall());
+        assertTrue(snapshot.getConferenceChildren().isEmpty());
+        assertFalse(snapshot.hasLiveCall());
+    }
+
+    public void testCreate_incomingCallIsPrimary() {
+        final Call incoming = new Call(Call.State.INCOMING);
+        final Call outgoing = new Call(Call.State.DIALING);
+        mCallList.updateCallInMap(incoming);
+        mCallList.updateCallInMap(outgoing);
+
+        final CallListSnapshot snapshot = CallListSnapshot.create(mCallList);
+
+        assertSame(incoming, snapshot.getPrimaryCall());
+        assertNull(snapshot.getSecondaryCall());
+        assertSame(outgoing, snapshot.getOutgoingCall());
+        assertSame(incoming, snapshot.getFirstCall());
+        assertTrue(snapshot.hasLiveCall());
+    }
+
+    public void testCreate_doesNotFollowCallList() {
+        final Call call = new Call(Call.State.DIALING);
+        mCallList.updateCallInMap(call);
+        final CallListSnapshot snapshot = CallListSnapshot.create(mCallList);
+
+        call.setState(Call.State.INCOMING);
+        mCallList.updateCallInMap(call);
+
+        assertSame(call, snapshot.getOutgoingCall());
+        assertNull(snapshot.getIncomingCall());
+    }
+
+    public void testVersion_changesWithCalls() {
+        final Call call = new Call(Call.State.DIALING);
+        mCallList.updateCallInMap(call);
+        final long version = CallListSnapshot.create(mCallList).getVersion();
+
+        assertEquals(version, CallListSnapshot.create(mCallList).getVersion());
+
+        call.setState(Call.State.INCOMING);
+        mCallList.updateCallInMap(call);
+
+        assertTrue(CallListSnapshot.create(mCallList).getVersion() != version);
+    }
+}
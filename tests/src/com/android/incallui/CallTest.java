@@ -82,6 +82,15 @@ public class CallTest extends AndroidTestCase {
         verifyTestBundleResult();
     }
 
+    public void testUpdateFromCallExtras_reportsChanges() {
+        assertTrue(mCall.updateFromCallExtras(getTestBundle()));
+        assertFalse(mCall.updateFromCallExtras(getTestBundle()));
+
+        Bundle bundle = getTestBundle();
+        bundle.putString(Connection.EXTRA_CALL_SUBJECT, "bar");
+        assertTrue(mCall.updateFromCallExtras(bundle));
+    }
+
     private Bundle getTestBundle() {
         Bundle bundle = new Bundle();
         bundle.putString(Connection.EXTRA_CHILD_ADDRESS, CHILD_NUMBER);
@@ -106,8 +115,8 @@ public class CallTest extends AndroidTestCase {
         }
 
         @Override
-        public void updateFromCallExtras(Bundle bundle) {
-            super.updateFromCallExtras(bundle);
+        public boolean updateFromCallExtras(Bundle bundle) {
+            return super.updateFromCallExtras(bundle);
         }
 
         public void setBundleCorrupted(boolean value) {
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@SmallTest
+public class CallTimelineTest extends AndroidTestCase {
+
+    private static final long BIND_NANOS = 5000000000L;
+
+    private CallTimeline mTimeline;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mTimeline = new CallTimeline(2, 3);
+    }
+
+    public void testRecord_droppedBeforeStart() throws Exception {
+        mTimeline.record("Call.ACTIVE", "1", BIND_NANOS, -1);
+        assertEquals(0, mTimeline.getTimelineCount());
+        assertEquals(0, getTraceEvents().length());
+    }
+
+    public void testStart_dropsOldestTimeline() {
+        mTimeline.start(BIND_NANOS, 0);
+        mTimeline.start(BIND_NANOS, 0);
+        mTimeline.start(BIND_NANOS, 0);
+        assertEquals(2, mTimeline.getTimelineCount());
+    }
+
+    public void testRecord_dropsEventsWhenFull() {
+        mTimeline.start(BIND_NANOS, 0);
+        for (int i = 0; i < 5; i++) {
+            mTimeline.record("Call.update", "1", BIND_NANOS, 1000);
+        }
+
+        final String dump = dump();
+        assertTrue(dump, dump.contains("events: 3, dropped: 2"));
+    }
+
+    public void testWriteTo_timesRelativeToStart() throws Exception {
+        mTimeline.start(BIND_NANOS, 0);
+        mTimeline.record("CallList.onCallAdded", "1", BIND_NANOS + 2000000, 500000);
+        mTimeline.record("Call.INCOMING", "1", BIND_NANOS + 3000000, -1);
+
+        final JSONArray events = getTraceEvents();
+        assertEquals(3, events.length());
+        assertEquals("process_name", events.getJSONObject(0).getString("name"));
+
+        final JSONObject section = events.getJSONObject(1);
+        assertEquals("CallList.onCallAdded", section.getString("name"));
+        assertEquals("X", section.getString("ph"));
+        assertEquals(2000, section.getLong("ts"));
+        assertEquals(500, section.getLong("dur"));
+        assertEquals("1", section.getJSONObject("args").getString("call"));
+
+        final JSONObject mark = events.getJSONObject(2);
+        assertEquals("Call.INCOMING", mark.getString("name"));
+        assertEquals("i", mark.getString("ph"));
+        assertEquals(3000, mark.getLong("ts"));
+        assertFalse(mark.has("dur"));
+    }
+
+    public void testDump_listsMarksOnly() {
+        mTimeline.start(BIND_NANOS, 0);
+        mTimeline.record("Call.update", "1", BIND_NANOS + 1000000, 1000);
+        mTimeline.record("Call.ACTIVE", "1", BIND_NANOS + 120000000, -1);
+
+        final String dump = dump();
+        assertTrue(dump, dump.contains("+120ms Call.ACTIVE 1"));
+        assertFalse(dump, dump.contains("Call.update"));
+    }
+
+    private JSONArray getTraceEvents() throws Exception {
+        final StringWriter out = new StringWriter();
+        mTimeline.writeTo(out);
+        return new JSONObject(out.toString()).getJSONArray("traceEvents");
+    }
+
+    private String dump() {
+        final StringWriter out = new StringWriter();
+        final PrintWriter pw = new PrintWriter(out);
+        mTimeline.dump(pw);
+        pw.flush();
+        return out.toString();
+    }
+}
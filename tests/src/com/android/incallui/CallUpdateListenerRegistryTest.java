@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.incallui.CallList.CallUpdateListener;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Collections;
+
+@SmallTest
+public class CallUpdateListenerRegistryTest extends AndroidTestCase {
+
+    private static class CountingListener implements CallUpdateListener {
+        int callChangedCount;
+        int sessionModificationState = -1;
+
+        @Override
+        public void onCallChanged(Call call) {
+            callChangedCount++;
+        }
+
+        @Override
+        public void onSessionModificationStateChange(int sessionModificationState) {
+            this.sessionModificationState = sessionModificationState;
+        }
+
+        @Override
+        public void onLastForwardedNumberChange() {}
+
+        @Override
+        public void onChildNumberChange() {}
+    }
+
+    private CallUpdateListenerRegistry mRegistry;
+    private Call mCall;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mRegistry = new CallUpdateListenerRegistry();
+        mCall = new Call(Call.State.ACTIVE);
+    }
+
+    public void testDispatch_filtersByChangeMask() {
+        final CountingListener stateListener = new CountingListener();
+        final CountingListener extrasListener = new CountingListener();
+        mRegistry.add(mCall.getId(), stateListener, CallListDelta.FIELD_STATE);
+        mRegistry.add(mCall.getId(), extrasListener, CallListDelta.FIELD_EXTRAS);
+
+        mRegistry.dispatch(CallUpdateListenerRegistry.EVENT_CALL_CHANGED, mCall,
+                CallListDelta.FIELD_STATE);
+        mRegistry.dispatch(CallUpdateListenerRegistry.EVENT_SESSION_MODIFICATION_STATE_CHANGE,
+                mCall, Call.SessionModificationState.WAITING_FOR_RESPONSE);
+
+        assertEquals(1, stateListener.callChangedCount);
+        assertEquals(0, extrasListener.callChangedCount);
+        assertEquals(Call.SessionModificationState.WAITING_FOR_RESPONSE,
+                extrasListener.sessionModificationState);
+    }
+
+    public void testRemove_dropsEmptyCall() {
+        final CountingListener first = new CountingListener();
+        final CountingListener second = new CountingListener();
+        mRegistry.add(mCall.getId(), first, CallListDelta.FIELD_ALL);
+        mRegistry.add(mCall.getId(), second, CallListDelta.FIELD_ALL);
+        mRegistry.add(mCall.getId(), new CountingListener(), CallListDelta.FIELD_ALL);
+        assertEquals(3, mRegistry.getListenerCount(mCall.getId()));
+
+        mRegistry.remove(mCall.getId(), first);
+        mRegistry.dispatch(CallUpdateListenerRegistry.EVENT_CALL_CHANGED, mCall,
+                CallListDelta.FIELD_ALL);
+        assertEquals(0, first.callChangedCount);
+        assertEquals(1, second.callChangedCount);
+
+        mRegistry.removeCall(mCall.getId());
+        assertEquals(0, mRegistry.getCallCount());
+        assertEquals(2, mRegistry.getLeakedRegistrationCount());
+    }
+
+    public void testDispatch_listenerRemovesItself() {
+        final CountingListener other = new CountingListener();
+        final CountingListener self = new CountingListener() {
+            @Override
+            public void onCallChanged(Call call) {
+                super.onCallChanged(call);
+                mRegistry.remove(call.getId(), this);
+                mRegistry.add(call.getId(), new CountingListener(), CallListDelta.FIELD_ALL);
+            }
+        };
+        mRegistry.add(mCall.getId(), self, CallListDelta.FIELD_ALL);
+        mRegistry.add(mCall.getId(), other, CallListDelta.FIELD_ALL);
+
+        mRegistry.dispatch(CallUpdateListenerRegistry.EVENT_CALL_CHANGED, mCall,
+                CallListDelta.FIELD_ALL);
+        mRegistry.dispatch(CallUpdateListenerRegistry.EVENT_CALL_CHANGED, mCall,
+                CallListDelta.FIELD_ALL);
+
+        assertEquals(1, self.callChangedCount);
+        assertEquals(2, other.callChangedCount);
+        assertEquals(2, mRegistry.getListenerCount(mCall.getId()));
+    }
+
+    public void testCallList_dropsListenersOfRemovedCall() {
+        final CallList callList = new CallList();
+        callList.setCoalesceUpdates(false);
+        callList.updateCallInMap(mCall);
+        final CountingListener listener = new CountingListener();
+        callList.addCallUpdateListener(mCall.getId(), listener);
+
+        mCall.setState(Call.State.IDLE);
+        callList.onUpdate(mCall);
+        // Told about the last update, then forgotten.
+        assertEquals(1, listener.callChangedCount);
+
+        callList.onUpdate(mCall);
+        assertEquals(1, listener.callChangedCount);
+    }
+
+    public void testDump_reportsLeaksAndOrphans() {
+        mRegistry.add("leaked", new CountingListener(), CallListDelta.FIELD_ALL);
+        mRegistry.removeCall("leaked");
+        mRegistry.add("orphan", new CountingListener(), CallListDelta.FIELD_ALL);
+
+        final StringWriter out = new StringWriter();
+        mRegistry.dump(new PrintWriter(out), Collections.<String>emptySet());
+
+        assertTrue(out.toString().contains("leaked leaked: CountingListener"));
+        assertTrue(out.toString().contains("orphan: 1 listeners (orphaned)"));
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.Contacts;
+import android.provider.ContactsContract.PhoneLookup;
+import android.test.AndroidTestCase;
+import android.test.mock.MockContentResolver;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// @formatter:off
+/**
+ * Measures caller-id queries against a local stub contacts provider: how many queries per second
+ * CallerInfoAsyncQuery completes, alone and in batches such as the participants of a conference,
+ * and the cost of querying and reading every column of a phone lookup compared to only the
+ * columns CallerInfo needs.
+ *
+ * Run with
+ * adb shell am instrument -e class com.android.incallui.CallerInfoAsyncQueryBenchmark -w com.google.android.dialer.tests/android.test.InstrumentationTestRunner
+ */
+// @formatter:on
+
+@LargeTest
+public class CallerInfoAsyncQueryBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "CallerInfoAsyncQueryBenchmark";
+    private static final int QUERIES = 1000;
+    private static final int ITERATIONS = 5000;
+    private static final int BATCH_SIZE = 50;
+    private static final String NUMBER = "+16505551234";
+
+    /** Roughly what a phone lookup without a projection returns. */
+    private static final String[] ALL_COLUMNS = new String[] {
+            PhoneLookup._ID,
+            PhoneLookup.DISPLAY_NAME,
+            PhoneLookup.NUMBER,
+            PhoneLookup.NORMALIZED_NUMBER,
+            PhoneLookup.TYPE,
+            PhoneLookup.LABEL,
+            PhoneLookup.LOOKUP_KEY,
+            PhoneLookup.PHOTO_URI,
+            PhoneLookup.CUSTOM_RINGTONE,
+            PhoneLookup.SEND_TO_VOICEMAIL,
+            Contacts.PHOTO_ID,
+            Contacts.PHOTO_FILE_ID,
+            Contacts.PHOTO_THUMBNAIL_URI,
+            Contacts.IN_VISIBLE_GROUP,
+            Contacts.HAS_PHONE_NUMBER,
+            Contacts.STARRED,
+            Contacts.LAST_TIME_CONTACTED,
+            Contacts.TIMES_CONTACTED,
+            Contacts.CONTACT_PRESENCE,
+            Contacts.CONTACT_CHAT_CAPABILITY,
+            Contacts.CONTACT_STATUS,
+            Contacts.CONTACT_STATUS_TIMESTAMP,
+            Contacts.CONTACT_STATUS_RES_PACKAGE,
+            Contacts.CONTACT_STATUS_LABEL,
+            Contacts.CONTACT_STATUS_ICON,
+            Contacts.CONTACT_LAST_UPDATED_TIMESTAMP,
+            Contacts.IS_USER_PROFILE,
+    };
+
+    /**
+     * Contacts provider which has a contact for every number, and returns whichever of its
+     * columns are asked for. Phone lookups find one contact, and queries of the phone numbers
+     * find one contact per selection argument.
+     */
+    private static class StubContactsProvider extends ContentProvider {
+        private final AtomicInteger mQueryCount = new AtomicInteger();
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            mQueryCount.incrementAndGet();
+            final String[] columns = projection != null ? projection : ALL_COLUMNS;
+            final String[] numbers = uri.toString().startsWith(Phone.CONTENT_URI.toString())
+                    ? selectionArgs : new String[] { NUMBER };
+            final MatrixCursor cursor = new MatrixCursor(columns, numbers.length);
+            for (String number : numbers) {
+                final Object[] row = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    row[i] = Phone.NORMALIZED_NUMBER.equals(columns[i])
+                            ? number : getValue(columns[i]);
+                }
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+
+        private static Object getValue(String column) {
+            switch (column) {
+                case PhoneLookup._ID:
+                    return 42L;
+                case PhoneLookup.DISPLAY_NAME:
+                    return "Alice";
+                case PhoneLookup.NUMBER:
+                    return "650-555-1234";
+                case PhoneLookup.NORMALIZED_NUMBER:
+                    return NUMBER;
+                case PhoneLookup.TYPE:
+                    return Phone.TYPE_MOBILE;
+                case PhoneLookup.LOOKUP_KEY:
+                    return "lookup42";
+                case PhoneLookup.PHOTO_URI:
+                    return "content://com.android.contacts/contacts/42/display_photo";
+                case PhoneLookup.SEND_TO_VOICEMAIL:
+                    return 0;
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            return 0;
+        }
+    }
+
+    private StubContactsProvider mProvider;
+    private Context mContext;
+    private Uri mLookupUri;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mProvider = new StubContactsProvider();
+        final ProviderInfo providerInfo = new ProviderInfo();
+        providerInfo.authority = ContactsContract.AUTHORITY;
+        mProvider.attachInfo(getContext(), providerInfo);
+
+        final MockContentResolver resolver = new MockContentResolver();
+        resolver.addProvider(ContactsContract.AUTHORITY, mProvider);
+        mContext = new ContextWrapper(getContext()) {
+            @Override
+            public ContentResolver getContentResolver() {
+                return resolver;
+            }
+        };
+        mLookupUri = Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, NUMBER);
+    }
+
+    public void testStartQuery_queriesPerSecond() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(QUERIES);
+        final CallerInfoAsyncQuery.OnQueryCompleteListener listener =
+                new CallerInfoAsyncQuery.OnQueryCompleteListener() {
+                    @Override
+                    public void onQueryComplete(int token, Object cookie, CallerInfo ci) {
+                        assertTrue(ci.contactExists);
+                        done.countDown();
+                    }
+                };
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < QUERIES; i++) {
+            final CallerInfo info = new CallerInfo();
+            info.phoneNumber = NUMBER;
+            CallerInfoAsyncQuery.startQuery(i, mContext, info, listener, null);
+        }
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        final long nanos = SystemClock.elapsedRealtimeNanos() - start;
+        android.util.Log.i(TAG, "startQuery: " + QUERIES * TimeUnit.SECONDS.toNanos(1) / nanos
+                + " queries/s");
+    }
+
+    public void testStartBatchQuery_conference() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(BATCH_SIZE);
+        final CallerInfoAsyncQuery.OnQueryCompleteListener listener =
+                new CallerInfoAsyncQuery.OnQueryCompleteListener() {
+                    @Override
+                    public void onQueryComplete(int token, Object cookie, CallerInfo ci) {
+                        assertTrue(ci.contactExists);
+                        done.countDown();
+                    }
+                };
+        final List<CallerInfo> infos = new ArrayList<>(BATCH_SIZE);
+        final List<Integer> cookies = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            final CallerInfo info = new CallerInfo();
+            info.phoneNumber = "+1650555" + (1000 + i);
+            infos.add(info);
+            cookies.add(i);
+        }
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        CallerInfoAsyncQuery.startBatchQuery(0, mContext, infos, listener, cookies);
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        final long nanos = SystemClock.elapsedRealtimeNanos() - start;
+        android.util.Log.i(TAG, "batch of " + BATCH_SIZE + ": " + nanos / BATCH_SIZE
+                + "ns per number, " + mProvider.mQueryCount.get() + " provider queries");
+        assertEquals(1, mProvider.mQueryCount.get());
+    }
+
+    public void testQuery_allColumns() {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            final Cursor cursor =
+                    mContext.getContentResolver().query(mLookupUri, null, null, null, null);
+            assertTrue(CallerInfo.getCallerInfo(mContext, mLookupUri, cursor).contactExists);
+        }
+        final long nanos = SystemClock.elapsedRealtimeNanos() - start;
+        android.util.Log.i(TAG, "all columns: " + nanos / ITERATIONS + "ns per query");
+    }
+
+    public void testQuery_phoneLookupProjection() {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < ITERATIONS; i++) {
+            final Cursor cursor = mContext.getContentResolver().query(mLookupUri,
+                    CallerInfo.PHONE_LOOKUP_PROJECTION, null, null, null);
+            assertTrue(CallerInfo.getCallerInfoFromPhoneLookup(mContext, mLookupUri, cursor)
+                    .contactExists);
+        }
+        final long nanos = SystemClock.elapsedRealtimeNanos() - start;
+        android.util.Log.i(TAG, "projection: " + nanos / ITERATIONS + "ns per query");
+    }
+}
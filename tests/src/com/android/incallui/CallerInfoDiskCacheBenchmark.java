@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+
+import java.io.File;
+
+// @formatter:off
+/**
+ * Measures the cost of identifying a caller from the persistent caller info cache, both loading
+ * the file, which happens in the background when the service binds, and the lookups after it.
+ *
+ * Run with
+ * adb shell am instrument -e class com.android.incallui.CallerInfoDiskCacheBenchmark -w com.google.android.dialer.tests/android.test.InstrumentationTestRunner
+ */
+// @formatter:on
+
+@LargeTest
+public class CallerInfoDiskCacheBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "CallerInfoDiskCacheBenchmark";
+    private static final int COLD_ITERATIONS = 50;
+    private static final int WARM_ITERATIONS = 20000;
+
+    private File mFile;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "caller_info_benchmark.cache");
+        mFile.delete();
+
+        final CallerInfoDiskCache cache = new CallerInfoDiskCache(getContext(), mFile);
+        cache.load(false);
+        for (int i = 0; i < CallerInfoDiskCache.MAX_ENTRIES; i++) {
+            final CallerInfo info = new CallerInfo();
+            info.contactExists = true;
+            info.name = "Contact " + i;
+            info.phoneLabel = "Mobile";
+            info.lookupKeyOrNull = "lookup" + i;
+            info.contactIdOrZero = i;
+            cache.put(getNumber(i), info);
+        }
+        cache.flush();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testLoad() {
+        long nanos = 0;
+        for (int i = 0; i < COLD_ITERATIONS; i++) {
+            final CallerInfoDiskCache cache = new CallerInfoDiskCache(getContext(), mFile);
+
+            final long start = SystemClock.elapsedRealtimeNanos();
+            cache.load(false);
+            nanos += SystemClock.elapsedRealtimeNanos() - start;
+            assertEquals(CallerInfoDiskCache.MAX_ENTRIES, cache.size());
+        }
+        android.util.Log.i(TAG, "load: " + nanos / COLD_ITERATIONS + "ns");
+    }
+
+    public void testLookup_warm() {
+        final CallerInfoDiskCache cache = new CallerInfoDiskCache(getContext(), mFile);
+        cache.load(false);
+        assertEquals(CallerInfoDiskCache.MAX_ENTRIES, cache.size());
+
+        final long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < WARM_ITERATIONS; i++) {
+            final CallerInfo info = new CallerInfo();
+            info.phoneNumber = getNumber(i % CallerInfoDiskCache.MAX_ENTRIES);
+            assertTrue(cache.apply(info));
+        }
+        final long nanos = SystemClock.elapsedRealtimeNanos() - start;
+        android.util.Log.i(TAG, "warm lookup: " + nanos / WARM_ITERATIONS + "ns");
+    }
+
+    private static String getNumber(int i) {
+        return "+1650555" + (1000 + i);
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.File;
+
+@SmallTest
+public class CallerInfoDiskCacheTest extends AndroidTestCase {
+
+    private static final String NUMBER = "+16505551234";
+
+    private File mFile;
+    private CallerInfoDiskCache mCache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "caller_info_test.cache");
+        mFile.delete();
+        mCache = new CallerInfoDiskCache(getContext(), mFile);
+        mCache.load(false);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testPut_contactSurvivesReload() {
+        mCache.put(NUMBER, buildContactInfo("Alice"));
+        mCache.flush();
+
+        final CallerInfoDiskCache reloaded = new CallerInfoDiskCache(getContext(), mFile);
+        reloaded.load(false);
+        final CallerInfo info = new CallerInfo();
+        info.phoneNumber = "+1 650-555-1234";
+
+        assertTrue(reloaded.apply(info));
+        assertTrue(info.contactExists);
+        assertEquals("Alice", info.name);
+        assertEquals("Mobile", info.phoneLabel);
+        assertEquals("lookup", info.lookupKeyOrNull);
+        assertEquals(42, info.contactIdOrZero);
+        assertEquals(Uri.parse("content://photo/42"), info.contactDisplayPhotoUri);
+        assertEquals("Mountain View, CA", info.geoDescription);
+    }
+
+    public void testPut_numberWithoutContact() {
+        final CallerInfo found = new CallerInfo();
+        found.geoDescription = "Mountain View, CA";
+        mCache.put(NUMBER, found);
+
+        final CallerInfo info = new CallerInfo();
+        info.phoneNumber = NUMBER;
+        info.name = "CNAP NAME";
+        assertTrue(mCache.apply(info));
+        assertFalse(info.contactExists);
+        assertEquals("CNAP NAME", info.name);
+        assertEquals("Mountain View, CA", info.geoDescription);
+
+        // A later lookup which found nothing replaces the stale result.
+        mCache.put(NUMBER, new CallerInfo());
+        assertNull(mCache.get(NUMBER));
+    }
+
+    public void testPut_evictsLeastRecentlyUsed() {
+        for (int i = 0; i < CallerInfoDiskCache.MAX_ENTRIES; i++) {
+            mCache.put("+1650555" + (1000 + i), buildContactInfo("Contact " + i));
+        }
+        // Touch the oldest entry so the second oldest is evicted instead.
+        assertNotNull(mCache.get("+16505551000"));
+        mCache.put(NUMBER + "9", buildContactInfo("Bob"));
+
+        assertEquals(CallerInfoDiskCache.MAX_ENTRIES, mCache.size());
+        assertNotNull(mCache.get("+16505551000"));
+        assertNull(mCache.get("+16505551001"));
+    }
+
+    public void testClear() {
+        mCache.put(NUMBER, buildContactInfo("Alice"));
+        mCache.clear();
+        mCache.flush();
+
+        final CallerInfoDiskCache reloaded = new CallerInfoDiskCache(getContext(), mFile);
+        reloaded.load(false);
+        assertEquals(0, reloaded.size());
+    }
+
+    public void testGet_missesUntilLoaded() {
+        mCache.put(NUMBER, buildContactInfo("Alice"));
+        mCache.flush();
+
+        final CallerInfoDiskCache reloaded = new CallerInfoDiskCache(getContext(), mFile);
+        assertNull(reloaded.get(NUMBER));
+        reloaded.load(false);
+        assertNotNull(reloaded.get(NUMBER));
+    }
+
+    public void testLoad_keepsChangesMadeBeforeLoad() {
+        mCache.put(NUMBER, buildContactInfo("Alice"));
+        mCache.put(NUMBER + "9", buildContactInfo("Bob"));
+        mCache.flush();
+
+        final CallerInfoDiskCache reloaded = new CallerInfoDiskCache(getContext(), mFile);
+        reloaded.put(NUMBER, buildContactInfo("Carol"));
+        reloaded.put(NUMBER + "9", new CallerInfo());
+        // Writing before the load must not drop the entries of the file.
+        reloaded.flush();
+        reloaded.load(false);
+
+        assertEquals("Carol", reloaded.get(NUMBER).name);
+        assertNull(reloaded.get(NUMBER + "9"));
+        assertEquals(1, reloaded.size());
+    }
+
+    public void testLoad_afterClear() {
+        mCache.put(NUMBER, buildContactInfo("Alice"));
+        mCache.flush();
+
+        final CallerInfoDiskCache reloaded = new CallerInfoDiskCache(getContext(), mFile);
+        reloaded.clear();
+        reloaded.load(false);
+        assertEquals(0, reloaded.size());
+    }
+
+    public void testApply_ignoresUriNumbers() {
+        mCache.put("alice@example.com", buildContactInfo("Alice"));
+
+        final CallerInfo info = new CallerInfo();
+        info.phoneNumber = "alice@example.com";
+        assertFalse(mCache.apply(info));
+    }
+
+    private static CallerInfo buildContactInfo(String name) {
+        final CallerInfo info = new CallerInfo();
+        info.contactExists = true;
+        info.name = name;
+        info.phoneLabel = "Mobile";
+        info.lookupKeyOrNull = "lookup";
+        info.contactIdOrZero = 42;
+        info.contactDisplayPhotoUri = Uri.parse("content://photo/42");
+        info.geoDescription = "Mountain View, CA";
+        return info;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.PhoneLookup;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+@SmallTest
+public class CallerInfoTest extends AndroidTestCase {
+
+    private static final Uri LOOKUP_URI =
+            Uri.withAppendedPath(PhoneLookup.ENTERPRISE_CONTENT_FILTER_URI, "+16505551234");
+
+    public void testGetCallerInfoFromPhoneLookup_matchesGetCallerInfo() {
+        final Object[] row = new Object[] {
+                42L, "Alice", "650-555-1234", "+16505551234", Phone.TYPE_WORK, null, "lookup42",
+                "content://com.android.contacts/contacts/42/display_photo",
+                "content://media/ringtone/7", 1 };
+
+        final CallerInfo expected =
+                CallerInfo.getCallerInfo(getContext(), LOOKUP_URI, newCursor(row));
+        final CallerInfo actual =
+                CallerInfo.getCallerInfoFromPhoneLookup(getContext(), LOOKUP_URI, newCursor(row));
+
+        assertTrue(actual.contactExists);
+        assertEquals(expected.name, actual.name);
+        assertEquals(expected.phoneNumber, actual.phoneNumber);
+        assertEquals(expected.normalizedNumber, actual.normalizedNumber);
+        assertEquals(expected.numberType, actual.numberType);
+        assertEquals(expected.phoneLabel, actual.phoneLabel);
+        assertEquals(42, actual.contactIdOrZero);
+        assertEquals(expected.contactIdOrZero, actual.contactIdOrZero);
+        assertEquals(expected.lookupKeyOrNull, actual.lookupKeyOrNull);
+        assertEquals(expected.contactDisplayPhotoUri, actual.contactDisplayPhotoUri);
+        assertEquals(expected.contactRingtoneUri, actual.contactRingtoneUri);
+        assertTrue(actual.shouldSendToVoicemail);
+        assertEquals(LOOKUP_URI, actual.contactRefUri);
+    }
+
+    public void testGetCallerInfoFromPhoneLookup_noMatch() {
+        final CallerInfo info = CallerInfo.getCallerInfoFromPhoneLookup(getContext(), LOOKUP_URI,
+                new MatrixCursor(CallerInfo.PHONE_LOOKUP_PROJECTION));
+        assertFalse(info.contactExists);
+        assertNull(info.name);
+        assertEquals(0, info.contactIdOrZero);
+    }
+
+    private static MatrixCursor newCursor(Object[] row) {
+        final MatrixCursor cursor = new MatrixCursor(CallerInfo.PHONE_LOOKUP_PROJECTION, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+}
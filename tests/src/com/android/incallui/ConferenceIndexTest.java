@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import static org.mockito.Mockito.when;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+@SmallTest
+public class ConferenceIndexTest extends AndroidTestCase {
+
+    private ConferenceIndex mIndex;
+    private HashMap<String, Call> mCallById;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().getPath());
+        mIndex = new ConferenceIndex();
+        mCallById = new HashMap<>();
+    }
+
+    public void testUpdate_childrenThenParent() {
+        final Call conference = call("conference");
+        final Call first = call("first");
+        final Call second = call("second");
+
+        setChildren(conference, first, second);
+        assertEquals(Arrays.asList(first, second), mIndex.getChildren("conference"));
+        assertEquals("conference", mIndex.getParentId("first"));
+
+        // The parent reported by the child afterwards agrees, and does not add it twice.
+        setParent(first, "conference");
+        assertEquals(Arrays.asList(first, second), mIndex.getChildren("conference"));
+    }
+
+    public void testUpdate_parentBeforeChildren() {
+        final Call conference = call("conference");
+        final Call first = call("first");
+
+        setParent(first, "conference");
+        assertEquals(Collections.singletonList(first), mIndex.getChildren("conference"));
+
+        setParent(first, null);
+        assertTrue(mIndex.getChildren("conference").isEmpty());
+        assertNull(mIndex.getParentId("first"));
+
+        setChildren(conference);
+        assertTrue(mIndex.getChildren("conference").isEmpty());
+    }
+
+    public void testUpdate_ignoresUnchangedFields() {
+        final Call conference = call("conference");
+        call("first");
+        when(conference.getChildCallIds()).thenReturn(Collections.singletonList("first"));
+
+        mIndex.update(conference, CallListDelta.FIELD_STATE, mCallById);
+
+        assertTrue(mIndex.getChildren("conference").isEmpty());
+    }
+
+    public void testRemove_parentAndChild() {
+        final Call conference = call("conference");
+        final Call first = call("first");
+        final Call second = call("second");
+        setChildren(conference, first, second);
+
+        mIndex.remove(first);
+        assertEquals(Collections.singletonList(second), mIndex.getChildren("conference"));
+
+        mIndex.remove(conference);
+        assertTrue(mIndex.getChildren("conference").isEmpty());
+        assertNull(mIndex.getParentId("second"));
+    }
+
+    private Call call(String id) {
+        final Call call = Mockito.mock(Call.class);
+        when(call.getId()).thenReturn(id);
+        when(call.getChildCallIds()).thenReturn(new ArrayList<String>());
+        mCallById.put(id, call);
+        return call;
+    }
+
+    private void setChildren(Call parent, Call... children) {
+        final List<String> childIds = new ArrayList<>();
+        for (Call child : children) {
+            childIds.add(child.getId());
+        }
+        when(parent.getChildCallIds()).thenReturn(childIds);
+        mIndex.update(parent, CallListDelta.FIELD_CHILDREN, mCallById);
+    }
+
+    private void setParent(Call child, String parentId) {
+        when(child.getParentId()).thenReturn(parentId);
+        mIndex.update(child, CallListDelta.FIELD_PARENT, mCallById);
+    }
+}
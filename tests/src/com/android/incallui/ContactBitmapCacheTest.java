@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+@SmallTest
+public class ContactBitmapCacheTest extends AndroidTestCase {
+
+    private static final Uri FIRST = Uri.parse("content://com.android.contacts/display_photo/1");
+    private static final Uri SECOND = Uri.parse("content://com.android.contacts/display_photo/2");
+
+    /** Bytes of a 32x32 ARGB_8888 bitmap. */
+    private static final int BITMAP_BYTES = 32 * 32 * 4;
+
+    private ContactBitmapCache mCache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mCache = new ContactBitmapCache(2 * BITMAP_BYTES);
+    }
+
+    public void testGet_keyedBySizeAndTransform() {
+        final Bitmap photo = bitmap();
+        mCache.put(FIRST, 32, ContactBitmapCache.TRANSFORM_RAW, photo);
+
+        assertSame(photo, mCache.get(FIRST, 32, ContactBitmapCache.TRANSFORM_RAW));
+        assertNull(mCache.get(FIRST, 64, ContactBitmapCache.TRANSFORM_RAW));
+        assertNull(mCache.get(FIRST, 32, ContactBitmapCache.TRANSFORM_ICON));
+        assertNull(mCache.get(SECOND, 32, ContactBitmapCache.TRANSFORM_RAW));
+    }
+
+    public void testPut_evictsByBytes() {
+        mCache.put(FIRST, 32, ContactBitmapCache.TRANSFORM_RAW, bitmap());
+        mCache.put(SECOND, 32, ContactBitmapCache.TRANSFORM_RAW, bitmap());
+        assertEquals(2 * BITMAP_BYTES, mCache.getBytes());
+
+        mCache.put(FIRST, 32, ContactBitmapCache.TRANSFORM_ICON, bitmap());
+        assertNull(mCache.get(FIRST, 32, ContactBitmapCache.TRANSFORM_RAW));
+        assertNotNull(mCache.get(SECOND, 32, ContactBitmapCache.TRANSFORM_RAW));
+
+        mCache.clear();
+        assertEquals(0, mCache.getBytes());
+    }
+
+    public void testGetRounded_roundsOnce() {
+        mCache.put(FIRST, 32, ContactBitmapCache.TRANSFORM_RAW, bitmap());
+
+        final Bitmap rounded = mCache.getRounded(FIRST, null, 32, 16);
+        assertNotNull(rounded);
+        assertEquals(16, rounded.getWidth());
+        assertSame(rounded, mCache.getRounded(FIRST, null, 32, 16));
+        assertSame(rounded, mCache.getRounded(FIRST, bitmap(), 32, 16));
+
+        // Nothing to round.
+        assertNull(mCache.getRounded(SECOND, null, 32, 16));
+        assertNotNull(mCache.getRounded(SECOND, bitmap(), 32, 16));
+    }
+
+    private static Bitmap bitmap() {
+        return Bitmap.createBitmap(32, 32, Bitmap.Config.ARGB_8888);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import static org.mockito.Mockito.when;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.BitmapDrawable;
+import android.telecom.TelecomManager;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.incallui.ContactInfoCache.ContactCacheEntry;
+
+import org.mockito.Mockito;
+
+@SmallTest
+public class ContactEntryCacheTest extends AndroidTestCase {
+
+    /** Bytes of a 32x32 ARGB_8888 photo. */
+    private static final int PHOTO_BYTES = 32 * 32 * 4;
+
+    private ContactEntryCache mCache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache", getContext().getCacheDir().getPath());
+        mCache = new ContactEntryCache(
+                2 * (ContactEntryCache.ENTRY_OVERHEAD_BYTES + PHOTO_BYTES));
+    }
+
+    public void testGetKey() {
+        assertEquals("+16505551234|in", ContactEntryCache.getKey(
+                call("first", "+1 650-555-1234", TelecomManager.PRESENTATION_ALLOWED), true));
+        assertEquals("second", ContactEntryCache.getKey(
+                call("second", "+1 650-555-1234", TelecomManager.PRESENTATION_RESTRICTED), true));
+        assertEquals("third", ContactEntryCache.getKey(
+                call("third", "", TelecomManager.PRESENTATION_ALLOWED), true));
+    }
+
+    public void testGetKey_separatesDirections() {
+        final Call call = call("first", "+1 650-555-1234", TelecomManager.PRESENTATION_ALLOWED);
+        assertFalse(ContactEntryCache.getKey(call, true).equals(
+                ContactEntryCache.getKey(call, false)));
+    }
+
+    public void testGet_sharesEntryByNumber() {
+        final ContactCacheEntry entry = new ContactCacheEntry();
+        mCache.put("first", "+16505551234", entry);
+
+        assertNull(mCache.get("second"));
+        assertSame(entry, mCache.get("second", "+16505551234"));
+        assertNull(mCache.get("third", "+16505550000"));
+
+        // Both calls see the entry the other one stores.
+        final ContactCacheEntry newEntry = new ContactCacheEntry();
+        mCache.put("second", newEntry);
+        assertSame(newEntry, mCache.get("first"));
+        assertEquals(1, mCache.size());
+        assertEquals(2, mCache.getHitCount());
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    public void testGetByKey_afterCallRemoved() {
+        final ContactCacheEntry entry = new ContactCacheEntry();
+        mCache.put("first", "+16505551234", entry);
+        mCache.removeCall("first");
+        assertNull(mCache.get("first"));
+        assertSame(entry, mCache.getByKey("+16505551234"));
+
+        final ContactCacheEntry newEntry = new ContactCacheEntry();
+        mCache.putByKey("+16505551234", newEntry);
+        assertSame(newEntry, mCache.get("second", "+16505551234"));
+    }
+
+    public void testPut_evictsByPhotoBytes() {
+        mCache.put("first", "1", entryWithPhoto());
+        mCache.put("second", "2", entryWithPhoto());
+        mCache.removeCall("first");
+        mCache.removeCall("second");
+        assertEquals(0, mCache.getEvictionCount());
+
+        // Touch the first entry so the second one is evicted instead.
+        assertNotNull(mCache.get("third", "1"));
+        mCache.removeCall("third");
+        mCache.put("fourth", "4", entryWithPhoto());
+
+        assertEquals(1, mCache.getEvictionCount());
+        assertNotNull(mCache.get("fifth", "1"));
+        assertNull(mCache.get("sixth", "2"));
+    }
+
+    public void testPut_keepsEntriesOfLiveCalls() {
+        mCache.put("first", "1", entryWithPhoto());
+        mCache.put("second", "2", entryWithPhoto());
+        mCache.put("third", "3", entryWithPhoto());
+
+        assertEquals(3, mCache.size());
+        assertEquals(0, mCache.getEvictionCount());
+
+        mCache.removeCall("first");
+        assertEquals(1, mCache.getEvictionCount());
+        assertNull(mCache.get("first"));
+        assertNotNull(mCache.get("second"));
+    }
+
+    public void testPut_updatesWeightOfChangedPhoto() {
+        final ContactCacheEntry entry = new ContactCacheEntry();
+        mCache.put("first", "1", entry);
+        assertEquals(ContactEntryCache.ENTRY_OVERHEAD_BYTES, mCache.getBytes());
+
+        entry.photo = photo();
+        mCache.put("first", entry);
+        assertEquals(ContactEntryCache.ENTRY_OVERHEAD_BYTES + PHOTO_BYTES, mCache.getBytes());
+
+        mCache.clear();
+        assertEquals(0, mCache.getBytes());
+        assertNull(mCache.get("first"));
+    }
+
+    private ContactCacheEntry entryWithPhoto() {
+        final ContactCacheEntry entry = new ContactCacheEntry();
+        entry.photo = photo();
+        return entry;
+    }
+
+    private BitmapDrawable photo() {
+        return new BitmapDrawable(getContext().getResources(),
+                Bitmap.createBitmap(32, 32, Bitmap.Config.ARGB_8888));
+    }
+
+    private static Call call(String id, String number, int presentation) {
+        final Call call = Mockito.mock(Call.class);
+        when(call.getId()).thenReturn(id);
+        when(call.getNumber()).thenReturn(number);
+        when(call.getNumberPresentation()).thenReturn(presentation);
+        return call;
+    }
+}
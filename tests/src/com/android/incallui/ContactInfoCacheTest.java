@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import static org.mockito.Mockito.when;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.telecom.TelecomManager;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.incallui.ContactInfoCache.ContactCacheEntry;
+import com.android.incallui.ContactInfoCache.ContactInfoCacheCallback;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+@SmallTest
+public class ContactInfoCacheTest extends InstrumentationTestCase {
+
+    private static final String NUMBER = "+16505551234";
+    private static final int TOKEN = 0;
+
+    private ContactInfoCache mCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache",
+                getInstrumentation().getTargetContext().getCacheDir().getPath());
+        mCache = new ContactInfoCache(getInstrumentation().getTargetContext());
+    }
+
+    public void testOnCallRemoved_joinedCallStillGetsPhoto() {
+        final Call first = call("first");
+        final Call second = call("second");
+        final RecordingCallback firstCallback = new RecordingCallback();
+        final RecordingCallback secondCallback = new RecordingCallback();
+        final String key = ContactEntryCache.getKey(first, true);
+
+        // Everything runs in one message, so the real contacts query the first call starts can't
+        // complete in between.
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mCache.findInfo(first, true, firstCallback);
+                mCache.findInfo(second, true, secondCallback);
+                assertTrue(mCache.isLookupRunning(key));
+
+                // The call which started the lookup goes away while the second one waits for it.
+                mCache.onCallRemoved("first");
+                assertTrue(mCache.isLookupRunning(key));
+
+                mCache.onImageLoadComplete(TOKEN, null,
+                        Bitmap.createBitmap(32, 32, Bitmap.Config.ARGB_8888), key);
+                assertFalse(mCache.isLookupRunning(key));
+            }
+        });
+
+        assertTrue(firstCallback.imageCallIds.isEmpty());
+        assertEquals(1, secondCallback.imageCallIds.size());
+        assertEquals("second", secondCallback.imageCallIds.get(0));
+        assertNotNull(mCache.getInfo("second").photo);
+    }
+
+    public void testOnCallRemoved_cancelsPhotoLoadOnceNoCallWaits() {
+        final Call first = call("first");
+        final Call second = call("second");
+        final String key = ContactEntryCache.getKey(first, true);
+        final Uri photoUri = Uri.fromFile(new File(
+                getInstrumentation().getTargetContext().getCacheDir(), "missing.jpg"));
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                mCache.findInfo(first, true, new RecordingCallback());
+                mCache.findInfo(second, true, new RecordingCallback());
+                mCache.startPhotoLoad(first, key, photoUri);
+                final ContactsAsyncHelper.PhotoLoad load = mCache.getPhotoLoad(key);
+                assertNotNull(load);
+
+                // The second call still waits for the photo.
+                mCache.onCallRemoved("first");
+                assertFalse(load.isCancelled());
+                assertSame(load, mCache.getPhotoLoad(key));
+
+                mCache.onCallRemoved("second");
+                assertTrue(load.isCancelled());
+                assertNull(mCache.getPhotoLoad(key));
+            }
+        });
+    }
+
+    private static Call call(String id) {
+        final FakeTelecomCall fake = new FakeTelecomCall(id);
+        fake.state = Call.State.INCOMING;
+        fake.number = NUMBER;
+        final Call call = fake.getCall();
+        when(call.getNumberPresentation()).thenReturn(TelecomManager.PRESENTATION_ALLOWED);
+        return call;
+    }
+
+    private static class RecordingCallback implements ContactInfoCacheCallback {
+        final List<String> imageCallIds = new ArrayList<>();
+
+        @Override
+        public void onContactInfoComplete(String callId, ContactCacheEntry entry) {
+        }
+
+        @Override
+        public void onImageLoadComplete(String callId, ContactCacheEntry entry) {
+            imageCallIds.add(callId);
+        }
+    }
+}
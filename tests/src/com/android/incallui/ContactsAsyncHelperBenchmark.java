@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.DisplayMetrics;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+// @formatter:off
+/**
+ * Compares decoding contact photos at full resolution, as ContactsAsyncHelper used to, with
+ * decoding them subsampled to the size they are shown at. Reports the decode latency and the
+ * peak bytes held by the photo and the notification icon for sample JPEGs of several sizes.
+ * Also reports how long the primary call's photo takes to load while the photos of a conference
+ * are loading.
+ *
+ * Run with
+ * adb shell am instrument -e class com.android.incallui.ContactsAsyncHelperBenchmark -w com.google.android.dialer.tests/android.test.InstrumentationTestRunner
+ */
+// @formatter:on
+
+@LargeTest
+public class ContactsAsyncHelperBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "ContactsAsyncHelperBenchmark";
+    private static final int ITERATIONS = 10;
+    private static final int CONFERENCE_SIZE = 10;
+    private static final int PRIMARY_TOKEN = -1;
+
+    private int mPhotoSize;
+    private int mIconSize;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        final DisplayMetrics metrics = getContext().getResources().getDisplayMetrics();
+        mPhotoSize = Math.max(metrics.widthPixels, metrics.heightPixels);
+        mIconSize = getContext().getResources()
+                .getDimensionPixelSize(R.dimen.notification_icon_size);
+    }
+
+    public void testDecode_720() throws IOException {
+        runDecodeBenchmark(720);
+    }
+
+    public void testDecode_1080() throws IOException {
+        runDecodeBenchmark(1080);
+    }
+
+    public void testDecode_2048() throws IOException {
+        runDecodeBenchmark(2048);
+    }
+
+    public void testDecode_4096() throws IOException {
+        runDecodeBenchmark(4096);
+    }
+
+    public void testTimeToPrimaryPhoto_10Participants() throws Exception {
+        final File[] files = new File[CONFERENCE_SIZE + 1];
+        try {
+            for (int i = 0; i < files.length; i++) {
+                files[i] = writeSampleJpeg(2048);
+            }
+            // Warm up the workers and the decoder.
+            timeToPrimaryPhoto(files, ContactsAsyncHelper.PRIORITY_PRIMARY);
+
+            final long fifoNanos =
+                    timeToPrimaryPhoto(files, ContactsAsyncHelper.PRIORITY_CONFERENCE);
+            final long prioritizedNanos =
+                    timeToPrimaryPhoto(files, ContactsAsyncHelper.PRIORITY_PRIMARY);
+            android.util.Log.i(TAG, CONFERENCE_SIZE + " participants: time to primary photo"
+                    + " fifo=" + fifoNanos / 1000 + "us, prioritized=" + prioritizedNanos / 1000
+                    + "us");
+        } finally {
+            for (File file : files) {
+                if (file != null) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts loading the photos of a conference, then that of the primary call with the given
+     * priority.
+     *
+     * @return The time until the primary call's photo was loaded.
+     */
+    private long timeToPrimaryPhoto(File[] files, int primaryPriority) throws Exception {
+        // Decode every photo, rather than taking them from the previous run.
+        ContactBitmapCache.getInstance().clear();
+        final CountDownLatch allLoaded = new CountDownLatch(files.length);
+        final long[] primaryLoadedAt = new long[1];
+        final ContactsAsyncHelper.OnImageLoadCompleteListener listener =
+                new ContactsAsyncHelper.OnImageLoadCompleteListener() {
+                    @Override
+                    public void onImageLoadComplete(int token, Drawable photo, Bitmap photoIcon,
+                            Object cookie) {
+                        if (token == PRIMARY_TOKEN) {
+                            primaryLoadedAt[0] = SystemClock.elapsedRealtimeNanos();
+                        }
+                        allLoaded.countDown();
+                    }
+                };
+
+        for (int i = 0; i < CONFERENCE_SIZE; i++) {
+            ContactsAsyncHelper.startObtainPhotoAsync(i, getContext(), Uri.fromFile(files[i]),
+                    ContactsAsyncHelper.PRIORITY_CONFERENCE, listener, null);
+        }
+        final long start = SystemClock.elapsedRealtimeNanos();
+        ContactsAsyncHelper.startObtainPhotoAsync(PRIMARY_TOKEN, getContext(),
+                Uri.fromFile(files[CONFERENCE_SIZE]), primaryPriority, listener, null);
+
+        assertTrue(allLoaded.await(60, TimeUnit.SECONDS));
+        return primaryLoadedAt[0] - start;
+    }
+
+    private void runDecodeBenchmark(int size) throws IOException {
+        final File file = writeSampleJpeg(size);
+        try {
+            long fullNanos = 0;
+            long fullBytes = 0;
+            long sampledNanos = 0;
+            long sampledBytes = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long start = SystemClock.elapsedRealtimeNanos();
+                final Bitmap fullPhoto = decodeFullResolution(file);
+                final Bitmap fullIcon = ContactsAsyncHelper.getPhotoIcon(fullPhoto, mIconSize);
+                fullNanos += SystemClock.elapsedRealtimeNanos() - start;
+                fullBytes = getBytes(fullPhoto, fullIcon);
+                fullPhoto.recycle();
+
+                start = SystemClock.elapsedRealtimeNanos();
+                final Bitmap photo = ContactsAsyncHelper.decodePhoto(getContext(),
+                        Uri.fromFile(file), mPhotoSize);
+                final Bitmap icon = ContactsAsyncHelper.getPhotoIcon(photo, mIconSize);
+                sampledNanos += SystemClock.elapsedRealtimeNanos() - start;
+                sampledBytes = getBytes(photo, icon);
+                photo.recycle();
+
+                assertTrue(sampledBytes <= fullBytes);
+            }
+            android.util.Log.i(TAG, size + "px photo, " + mPhotoSize + "px view: full="
+                    + fullNanos / ITERATIONS / 1000 + "us/" + fullBytes / 1024 + "KB, sampled="
+                    + sampledNanos / ITERATIONS / 1000 + "us/" + sampledBytes / 1024 + "KB");
+        } finally {
+            file.delete();
+        }
+    }
+
+    /** The decode ContactsAsyncHelper used before photos were subsampled. */
+    private static Bitmap decodeFullResolution(File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            final Drawable drawable = Drawable.createFromStream(in, file.getPath());
+            return ((BitmapDrawable) drawable).getBitmap();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long getBytes(Bitmap photo, Bitmap icon) {
+        return photo.getAllocationByteCount()
+                + (icon != photo ? icon.getAllocationByteCount() : 0);
+    }
+
+    private File writeSampleJpeg(int size) throws IOException {
+        // Something with detail, so the JPEG is not trivially small to decode.
+        final Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        final Paint paint = new Paint();
+        for (int i = 0; i < 64; i++) {
+            paint.setColor(Color.rgb(i * 4, 255 - i * 4, (i * 37) % 256));
+            canvas.drawCircle(size * (i % 8) / 8f, size * (i / 8) / 8f, size / 6f, paint);
+        }
+
+        final File file = File.createTempFile("sample", ".jpg", getContext().getCacheDir());
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+}
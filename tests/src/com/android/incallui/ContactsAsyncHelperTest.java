@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.incallui.ContactsAsyncHelper.PhotoLoad;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SmallTest
+public class ContactsAsyncHelperTest extends AndroidTestCase {
+
+    public void testGetSampleSize() {
+        assertEquals(1, ContactsAsyncHelper.getSampleSize(720, 720, 1920));
+        assertEquals(1, ContactsAsyncHelper.getSampleSize(3000, 2000, 1920));
+        assertEquals(2, ContactsAsyncHelper.getSampleSize(4000, 3000, 1920));
+        assertEquals(4, ContactsAsyncHelper.getSampleSize(3000, 8000, 1920));
+        assertEquals(1, ContactsAsyncHelper.getSampleSize(4000, 3000, 0));
+    }
+
+    public void testDecodePhoto_subsamples() throws IOException {
+        final File file = writeJpeg(1024, 512);
+        try {
+            final Bitmap photo = ContactsAsyncHelper.decodePhoto(getContext(), Uri.fromFile(file),
+                    256);
+            assertEquals(256, photo.getWidth());
+            assertEquals(128, photo.getHeight());
+
+            final Bitmap icon = ContactsAsyncHelper.getPhotoIcon(photo, 64);
+            assertEquals(64, icon.getWidth());
+            assertEquals(32, icon.getHeight());
+            assertSame(photo, ContactsAsyncHelper.getPhotoIcon(photo, 512));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testDecodePhoto_missingFile() {
+        final File file = new File(getContext().getCacheDir(), "missing.jpg");
+        assertNull(ContactsAsyncHelper.decodePhoto(getContext(), Uri.fromFile(file), 256));
+    }
+
+    public void testPhotoLoad_queuedByPriorityThenStartOrder() {
+        final PhotoLoad firstRow = newLoad(ContactsAsyncHelper.PRIORITY_CONFERENCE);
+        final PhotoLoad notification = newLoad(ContactsAsyncHelper.PRIORITY_NOTIFICATION);
+        final PhotoLoad secondRow = newLoad(ContactsAsyncHelper.PRIORITY_CONFERENCE);
+        final PhotoLoad primary = newLoad(ContactsAsyncHelper.PRIORITY_PRIMARY);
+
+        // The queue of the worker pool.
+        final PriorityBlockingQueue<PhotoLoad> queue = new PriorityBlockingQueue<>();
+        queue.add(firstRow);
+        queue.add(notification);
+        queue.add(secondRow);
+        queue.add(primary);
+
+        assertSame(primary, queue.poll());
+        assertSame(firstRow, queue.poll());
+        assertSame(secondRow, queue.poll());
+        assertSame(notification, queue.poll());
+    }
+
+    public void testCancel_listenerNotCalledAfterLoadCompleted() throws Exception {
+        final File file = writeJpeg(64, 64);
+        try {
+            assertEquals(1, runLoadOnMainThread(file, false));
+            assertEquals(0, runLoadOnMainThread(file, true));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private PhotoLoad newLoad(int priority) {
+        return new PhotoLoad(0, getContext(), Uri.parse("content://photo/" + priority), priority,
+                null, null);
+    }
+
+    /**
+     * Runs a load on the main thread, and cancels it right after if asked to, so the result it
+     * posted is still to be delivered.
+     *
+     * @return How often the listener was called.
+     */
+    private int runLoadOnMainThread(File file, final boolean cancel) throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final PhotoLoad load = new PhotoLoad(0, getContext(), Uri.fromFile(file),
+                ContactsAsyncHelper.PRIORITY_PRIMARY,
+                new ContactsAsyncHelper.OnImageLoadCompleteListener() {
+                    @Override
+                    public void onImageLoadComplete(int token, Drawable photo, Bitmap photoIcon,
+                            Object cookie) {
+                        calls.incrementAndGet();
+                    }
+                }, null);
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final Handler handler = new Handler(Looper.getMainLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                load.run();
+                if (cancel) {
+                    load.cancel();
+                }
+                // Runs after the result the load posted.
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        delivered.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        return calls.get();
+    }
+
+    private File writeJpeg(int width, int height) throws IOException {
+        final File file = File.createTempFile("photo", ".jpg", getContext().getCacheDir());
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+                    .compress(Bitmap.CompressFormat.JPEG, 90, out);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.graphics.Bitmap;
+
+import java.util.HashMap;
+
+/**
+ * Lookup provider which answers from canned responses, synchronously and without network access,
+ * and counts how often it was asked.
+ */
+public class FakeLookupProvider implements LookupResponseCache.Provider {
+
+    public static final String PROVIDER_NAME = "Fake provider";
+
+    private final HashMap<String, LookupResponseCache.Entry> mResponses = new HashMap<>();
+    private final Bitmap mBadge = Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888);
+    private int mFetchCount;
+
+    /**
+     * Makes lookups of a number succeed with the given details. Numbers without a response fail.
+     */
+    public void addResponse(String number, String name, String address, int spamCount,
+            String photoUrl) {
+        mResponses.put(number, new LookupResponseCache.Entry(PROVIDER_NAME, name, number, address,
+                spamCount, spamCount > 0, photoUrl, mBadge, 0));
+    }
+
+    public int getFetchCount() {
+        return mFetchCount;
+    }
+
+    @Override
+    public void fetch(String number, LookupResponseCache.Listener listener) {
+        mFetchCount++;
+        final LookupResponseCache.Entry response = mResponses.get(number);
+        listener.onLookupComplete(response == null ? null : new LookupResponseCache.Entry(
+                response.providerName, response.name, response.number, response.address,
+                response.spamCount, response.isSpam, response.photoUrl, response.badge,
+                System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.ComponentName;
+import android.net.Uri;
+import android.telecom.DisconnectCause;
+import android.telecom.PhoneAccountHandle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stands in for the telecom side of a call during a replay. android.telecom.Call cannot be
+ * instantiated by tests, so {@link #getCall()} is a mock {@link Call} whose getters read the
+ * values this fake currently holds, as the real one would read them from telecom.
+ */
+public class FakeTelecomCall {
+    private static final ComponentName COMPONENT =
+            new ComponentName("com.android.phone", "TelephonyConnectionService");
+
+    final String id;
+    int state = Call.State.NEW;
+    DisconnectCause disconnectCause = new DisconnectCause(DisconnectCause.UNKNOWN);
+    int capabilities;
+    int properties;
+    int videoState;
+    String number;
+    Uri handle;
+    PhoneAccountHandle accountHandle;
+    final List<String> childIds = new ArrayList<>();
+
+    private Call mCall;
+
+    public FakeTelecomCall(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Takes the values carried by a recorded event.
+     *
+     * @return {@code true} if the state changed.
+     */
+    public boolean apply(CallEventTrace.Event event) {
+        final boolean stateChanged = state != event.state;
+        state = event.state;
+        if (disconnectCause.getCode() != event.disconnectCode) {
+            disconnectCause = new DisconnectCause(event.disconnectCode);
+        }
+        capabilities = event.capabilities;
+        properties = event.properties;
+        videoState = event.videoState;
+        if (event.handle == null) {
+            handle = null;
+            number = null;
+        } else if (handle == null || !event.handle.equals(handle.toString())) {
+            handle = Uri.parse(event.handle);
+            number = handle.getSchemeSpecificPart();
+        }
+        if (event.accountId == null) {
+            accountHandle = null;
+        } else if (accountHandle == null || !event.accountId.equals(accountHandle.getId())) {
+            accountHandle = new PhoneAccountHandle(COMPONENT, event.accountId);
+        }
+        childIds.clear();
+        childIds.addAll(event.childIds);
+        return stateChanged;
+    }
+
+    public Call getCall() {
+        if (mCall == null) {
+            mCall = MockCallListWrapper.getMockCall(this);
+        }
+        return mCall;
+    }
+}
@@ -23,6 +23,7 @@ import static org.mockito.Mockito.when;
 import android.content.Context;
 import android.content.Intent;
 import android.telecom.PhoneAccountHandle;
+import android.telecom.VideoProfile;
 import android.test.InstrumentationTestCase;
 
 import com.android.incallui.InCallPresenter.InCallState;
@@ -161,6 +162,22 @@ public class InCallPresenterTest extends InstrumentationTestCase {
         verify(mInCallActivity).finish();
     }
 
+    /**
+     * A voice call has no video call fragment yet, so its upgrade request has to be marked without
+     * one for the call card to add the fragment.
+     */
+    public void testUpgradeToVideoRequest_setsSessionModificationOfAudioCall() {
+        final FakeTelecomCall fake = new FakeTelecomCall("1");
+        fake.state = Call.State.ACTIVE;
+        fake.videoState = VideoProfile.STATE_AUDIO_ONLY;
+        final Call call = fake.getCall();
+
+        InCallVideoCallCallbackNotifier.getInstance().upgradeToVideoRequest(call,
+                VideoProfile.STATE_BIDIRECTIONAL);
+
+        verify(call).setSessionModificationTo(VideoProfile.STATE_BIDIRECTIONAL);
+    }
+
 
     //TODO
     public void testCircularReveal_startsCircularRevealForOutgoingCalls() {
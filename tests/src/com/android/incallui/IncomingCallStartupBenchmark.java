@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.DisplayMetrics;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View.MeasureSpec;
+import android.view.ViewGroup;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+
+// @formatter:off
+/**
+ * Measures the time from the in-call service being bound to the first frame of the incoming call
+ * screen, as reported by InCallPresenter, with and without preloading the incoming call screen.
+ *
+ * Each iteration sets up InCallPresenter as a bind does, waits as long as the activity manager
+ * typically takes to start InCallActivity, then inflates, lays out and draws the answer screen on
+ * the main thread and reports the frame. Every iteration uses new resources, so their caches are
+ * cold as after a process start. Classes are only loaded once per process, which is why the
+ * first iteration is reported separately.
+ *
+ * Run with
+ * adb shell am instrument -e class com.android.incallui.IncomingCallStartupBenchmark -w com.google.android.dialer.tests/android.test.InstrumentationTestRunner
+ */
+// @formatter:on
+
+@LargeTest
+public class IncomingCallStartupBenchmark extends InstrumentationTestCase {
+
+    private static final String TAG = "IncomingCallStartupBenchmark";
+    private static final int ITERATIONS = 20;
+    /** Roughly how long it takes from the bind until InCallActivity is created. */
+    private static final long ACTIVITY_START_MILLIS = 50;
+
+    private MockCallListWrapper mCallList;
+    @Mock private AudioModeProvider mAudioModeProvider;
+    @Mock private StatusBarNotifier mStatusBarNotifier;
+    @Mock private ContactInfoCache mContactInfoCache;
+    @Mock private ProximitySensor mProximitySensor;
+
+    private Bitmap mFrame;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        System.setProperty("dexmaker.dexcache",
+                getInstrumentation().getTargetContext().getCacheDir().getPath());
+        MockitoAnnotations.initMocks(this);
+        mCallList = new MockCallListWrapper();
+        mCallList.setHasCall(Call.State.INCOMING, true);
+
+        final DisplayMetrics metrics =
+                getInstrumentation().getTargetContext().getResources().getDisplayMetrics();
+        mFrame = Bitmap.createBitmap(metrics.widthPixels, metrics.heightPixels,
+                Bitmap.Config.ARGB_8888);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFrame.recycle();
+        super.tearDown();
+    }
+
+    public void testBindToFirstFrame_cold() throws Exception {
+        runBenchmark(false);
+    }
+
+    public void testBindToFirstFrame_preloaded() throws Exception {
+        runBenchmark(true);
+    }
+
+    private void runBenchmark(boolean preload) throws Exception {
+        final long first = bindToFirstFrame(preload);
+        final long[] millis = new long[ITERATIONS];
+        long total = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            millis[i] = bindToFirstFrame(preload);
+            total += millis[i];
+        }
+        Arrays.sort(millis);
+        android.util.Log.i(TAG, (preload ? "preloaded" : "cold") + " bind to first frame: first="
+                + first + "ms median=" + millis[ITERATIONS / 2] + "ms mean="
+                + total / ITERATIONS + "ms max=" + millis[ITERATIONS - 1] + "ms");
+    }
+
+    private long bindToFirstFrame(final boolean preload) {
+        final Context context = newColdContext();
+        final InCallPresenter presenter = InCallPresenter.getInstance();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                if (preload) {
+                    IncomingCallPreloader.preload(context);
+                }
+                presenter.setUp(getInstrumentation().getTargetContext().getApplicationContext(),
+                        mCallList.getCallList(), mAudioModeProvider, mStatusBarNotifier,
+                        mContactInfoCache, mProximitySensor);
+            }
+        });
+
+        SystemClock.sleep(ACTIVITY_START_MILLIS);
+
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                drawAnswerScreen(context);
+                presenter.onFirstFrameDrawn();
+                presenter.tearDown();
+                InCallPresenter.setInstance(null);
+            }
+        });
+
+        final long millis = presenter.getLastBindToFirstFrameMillis();
+        assertTrue(millis >= ACTIVITY_START_MILLIS);
+        return millis;
+    }
+
+    private void drawAnswerScreen(Context context) {
+        final LayoutInflater inflater = LayoutInflater.from(context);
+        final ViewGroup root = (ViewGroup) inflater.inflate(R.layout.incall_screen, null);
+        inflater.inflate(R.layout.answer_fragment, root, true);
+        root.measure(MeasureSpec.makeMeasureSpec(mFrame.getWidth(), MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(mFrame.getHeight(), MeasureSpec.EXACTLY));
+        root.layout(0, 0, mFrame.getWidth(), mFrame.getHeight());
+        root.draw(new Canvas(mFrame));
+    }
+
+    /**
+     * @return A context themed like InCallActivity, with resources which haven't loaded anything.
+     */
+    private Context newColdContext() {
+        final Context target = getInstrumentation().getTargetContext();
+        final Resources res = target.getResources();
+        final Resources cold = new Resources(res.getAssets(), res.getDisplayMetrics(),
+                res.getConfiguration());
+        return new ContextThemeWrapper(target, R.style.Theme_InCallScreen) {
+            @Override
+            public Resources getResources() {
+                return cold;
+            }
+        };
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+@SmallTest
+public class ListenerLatencyTrackerTest extends AndroidTestCase {
+
+    private static final long MICROS = 1000;
+    private static final long MILLIS = 1000 * MICROS;
+
+    private ListenerLatencyTracker mTracker;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mTracker = new ListenerLatencyTracker();
+    }
+
+    public void testGetBucket() {
+        assertEquals(0, ListenerLatencyTracker.getBucket(0));
+        assertEquals(0, ListenerLatencyTracker.getBucket(999));
+        assertEquals(1, ListenerLatencyTracker.getBucket(MICROS));
+        assertEquals(2, ListenerLatencyTracker.getBucket(3 * MICROS));
+        assertEquals(11, ListenerLatencyTracker.getBucket(MILLIS));
+        assertEquals(ListenerLatencyTracker.BUCKET_COUNT - 1,
+                ListenerLatencyTracker.getBucket(10 * 1000 * MILLIS));
+    }
+
+    public void testRecord_separatesListenersAndCallbacks() {
+        mTracker.record(ListenerLatencyTracker.CALLBACK_STATE_CHANGE, CallCardPresenter.class,
+                100 * MICROS);
+        mTracker.record(ListenerLatencyTracker.CALLBACK_STATE_CHANGE, CallCardPresenter.class,
+                300 * MICROS);
+        mTracker.record(ListenerLatencyTracker.CALLBACK_STATE_CHANGE, StatusBarNotifier.class,
+                20 * MILLIS);
+        mTracker.record(ListenerLatencyTracker.CALLBACK_INCOMING_CALL, CallCardPresenter.class,
+                MILLIS);
+
+        final ListenerLatencyTracker.Histogram callCard = mTracker.getHistogram(
+                ListenerLatencyTracker.CALLBACK_STATE_CHANGE, CallCardPresenter.class);
+        assertEquals(2, callCard.count);
+        assertEquals(400 * MICROS, callCard.totalNanos);
+        assertEquals(300 * MICROS, callCard.maxNanos);
+        assertEquals(0, callCard.slowCount);
+
+        final ListenerLatencyTracker.Histogram notifier = mTracker.getHistogram(
+                ListenerLatencyTracker.CALLBACK_STATE_CHANGE, StatusBarNotifier.class);
+        assertEquals(1, notifier.count);
+        assertEquals(1, notifier.slowCount);
+
+        assertEquals(1, mTracker.getHistogram(ListenerLatencyTracker.CALLBACK_INCOMING_CALL,
+                CallCardPresenter.class).count);
+        assertNull(mTracker.getHistogram(ListenerLatencyTracker.CALLBACK_INCOMING_CALL,
+                StatusBarNotifier.class));
+    }
+
+    public void testGetPercentileMicros() {
+        for (int i = 0; i < 99; i++) {
+            mTracker.record(ListenerLatencyTracker.CALLBACK_DETAILS_CHANGED,
+                    CallButtonPresenter.class, 3 * MICROS);
+        }
+        mTracker.record(ListenerLatencyTracker.CALLBACK_DETAILS_CHANGED,
+                CallButtonPresenter.class, 5 * MILLIS);
+
+        final ListenerLatencyTracker.Histogram histogram = mTracker.getHistogram(
+                ListenerLatencyTracker.CALLBACK_DETAILS_CHANGED, CallButtonPresenter.class);
+        assertEquals(4, histogram.getPercentileMicros(50));
+        assertEquals(4, histogram.getPercentileMicros(99));
+        assertEquals(8192, histogram.getPercentileMicros(100));
+    }
+
+    public void testDump_slowestListenerFirst() {
+        mTracker.record(ListenerLatencyTracker.CALLBACK_STATE_CHANGE, CallCardPresenter.class,
+                MILLIS);
+        mTracker.record(ListenerLatencyTracker.CALLBACK_STATE_CHANGE, StatusBarNotifier.class,
+                20 * MILLIS);
+
+        final StringWriter writer = new StringWriter();
+        mTracker.dump(new PrintWriter(writer));
+        final String dump = writer.toString();
+
+        assertTrue(dump.contains("onStateChange:"));
+        assertFalse(dump.contains("onIncomingCall:"));
+        assertTrue(dump.indexOf("StatusBarNotifier") < dump.indexOf("CallCardPresenter"));
+        assertTrue(dump.contains("slow=1"));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+
+import java.io.File;
+
+@SmallTest
+public class LookupResponseCacheTest extends AndroidTestCase {
+
+    private static final String NUMBER = "+16505551234";
+    private static final String PHOTO_URL = "https://example.com/photo/1234.jpg";
+
+    private File mDir;
+    private FakeLookupProvider mProvider;
+    private LookupResponseCache mCache;
+
+    private static class ResultListener implements LookupResponseCache.Listener {
+        LookupResponseCache.Entry entry;
+        int callCount;
+
+        @Override
+        public void onLookupComplete(LookupResponseCache.Entry entry) {
+            this.entry = entry;
+            callCount++;
+        }
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mDir = new File(getContext().getCacheDir(), "lookup_responses_test");
+        mProvider = new FakeLookupProvider();
+        mProvider.addResponse(NUMBER, "Acme Corp", "1 Main St", 0, PHOTO_URL);
+        mCache = newCache(DateUtils.DAY_IN_MILLIS);
+        mCache.clear();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mCache.clear();
+        mDir.delete();
+        super.tearDown();
+    }
+
+    public void testLookup_secondLookupServedFromCache() {
+        final ResultListener first = lookup(mCache, NUMBER);
+        assertEquals(1, mProvider.getFetchCount());
+        assertEquals("Acme Corp", first.entry.name);
+
+        final ResultListener second = lookup(mCache, NUMBER);
+        assertEquals(1, second.callCount);
+        assertEquals(1, mProvider.getFetchCount());
+        assertEquals("Acme Corp", second.entry.name);
+        assertEquals("1 Main St", second.entry.address);
+        assertEquals(PHOTO_URL, second.entry.photoUrl);
+    }
+
+    public void testLookup_failureNotCached() {
+        final ResultListener first = lookup(mCache, "+16505550000");
+        assertEquals(1, first.callCount);
+        assertNull(first.entry);
+
+        lookup(mCache, "+16505550000");
+        assertEquals(2, mProvider.getFetchCount());
+        assertEquals(0, mCache.size());
+    }
+
+    public void testLookup_expiredResponseFetchedAgain() {
+        final LookupResponseCache cache = newCache(0);
+        lookup(cache, NUMBER);
+        lookup(cache, NUMBER);
+        assertEquals(2, mProvider.getFetchCount());
+    }
+
+    public void testPut_survivesReloadWithBadge() {
+        mProvider.addResponse(NUMBER, "Acme Corp", "1 Main St", 3, null);
+        lookup(mCache, NUMBER);
+        mCache.flush();
+
+        final LookupResponseCache reloaded = newCache(DateUtils.DAY_IN_MILLIS);
+        reloaded.load();
+        final ResultListener result = lookup(reloaded, NUMBER);
+        assertEquals(1, mProvider.getFetchCount());
+        assertEquals(FakeLookupProvider.PROVIDER_NAME, result.entry.providerName);
+        assertEquals("Acme Corp", result.entry.name);
+        assertEquals(NUMBER, result.entry.number);
+        assertEquals(3, result.entry.spamCount);
+        assertTrue(result.entry.isSpam);
+        assertNull(result.entry.photoUrl);
+        assertNotNull(result.entry.badge);
+        assertEquals(16, result.entry.badge.getWidth());
+    }
+
+    public void testPut_expiredResponsesDroppedOnReload() {
+        lookup(mCache, NUMBER);
+        mCache.flush();
+
+        final LookupResponseCache reloaded = newCache(0);
+        reloaded.load();
+        assertEquals(0, reloaded.size());
+    }
+
+    public void testGet_missesUntilLoaded() {
+        lookup(mCache, NUMBER);
+        mCache.flush();
+
+        final LookupResponseCache reloaded = newCache(DateUtils.DAY_IN_MILLIS);
+        assertNull(reloaded.get(NUMBER));
+        reloaded.load();
+        assertNotNull(reloaded.get(NUMBER));
+    }
+
+    public void testLoad_keepsPutsMadeBeforeLoad() {
+        mProvider.addResponse("+16505550000", "Other Corp", "2 Main St", 0, null);
+        lookup(mCache, NUMBER);
+        mCache.flush();
+
+        final LookupResponseCache reloaded = newCache(DateUtils.DAY_IN_MILLIS);
+        lookup(reloaded, "+16505550000");
+        reloaded.load();
+
+        assertEquals(2, reloaded.size());
+        assertEquals("Acme Corp", reloaded.get(NUMBER).name);
+        assertEquals("Other Corp", reloaded.get("+16505550000").name);
+    }
+
+    public void testPhoto_roundTrip() {
+        assertNull(mCache.readPhoto(PHOTO_URL));
+
+        final Bitmap photo = Bitmap.createBitmap(96, 96, Bitmap.Config.ARGB_8888);
+        mCache.writePhoto(PHOTO_URL, photo);
+
+        final Bitmap cached = mCache.readPhoto(PHOTO_URL);
+        assertNotNull(cached);
+        assertEquals(96, cached.getWidth());
+        assertEquals(96, cached.getHeight());
+        assertNull(newCache(0).readPhoto(PHOTO_URL));
+    }
+
+    public void testPhoto_oldestDroppedBeyondLimit() {
+        final Bitmap photo = Bitmap.createBitmap(8, 8, Bitmap.Config.ARGB_8888);
+        for (int i = 0; i <= LookupResponseCache.MAX_PHOTOS; i++) {
+            mCache.writePhoto(PHOTO_URL + i, photo);
+        }
+
+        int photos = 0;
+        for (String name : mDir.list()) {
+            if (name.startsWith("photo_")) {
+                photos++;
+            }
+        }
+        assertEquals(LookupResponseCache.MAX_PHOTOS, photos);
+    }
+
+    private LookupResponseCache newCache(long ttlMillis) {
+        return new LookupResponseCache(mDir, ttlMillis);
+    }
+
+    private ResultListener lookup(LookupResponseCache cache, String number) {
+        final ResultListener listener = new ResultListener();
+        cache.lookup(number, mProvider, listener);
+        return listener;
+    }
+}
@@ -20,6 +20,8 @@ import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
+import android.net.Uri;
+import android.telecom.DisconnectCause;
 import android.telecom.PhoneAccountHandle;
 
 import org.mockito.Mockito;
@@ -27,6 +29,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.util.HashSet;
+import java.util.List;
 
 /**
  * Provides an instance of a mock CallList, and provides utility methods to put the CallList into
@@ -77,4 +80,77 @@ public class MockCallListWrapper {
         }
         return call;
     }
+
+    /**
+     * Creates a mock call which reads its values from a fake telecom call each time it is asked,
+     * so the fake can change between updates without stubbing the mock again.
+     */
+    static Call getMockCall(final FakeTelecomCall fake) {
+        final Call call = Mockito.mock(Call.class);
+        when(call.getId()).thenReturn(fake.id);
+        when(call.getState()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock i) {
+                return fake.state;
+            }
+        });
+        when(call.getDisconnectCause()).thenAnswer(new Answer<DisconnectCause>() {
+            @Override
+            public DisconnectCause answer(InvocationOnMock i) {
+                return fake.disconnectCause;
+            }
+        });
+        when(call.getAccountHandle()).thenAnswer(new Answer<PhoneAccountHandle>() {
+            @Override
+            public PhoneAccountHandle answer(InvocationOnMock i) {
+                return fake.accountHandle;
+            }
+        });
+        when(call.getHandle()).thenAnswer(new Answer<Uri>() {
+            @Override
+            public Uri answer(InvocationOnMock i) {
+                return fake.handle;
+            }
+        });
+        when(call.getNumber()).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock i) {
+                return fake.number;
+            }
+        });
+        when(call.getVideoState()).thenAnswer(new Answer<Integer>() {
+            @Override
+            public Integer answer(InvocationOnMock i) {
+                return fake.videoState;
+            }
+        });
+        when(call.getChildCallIds()).thenAnswer(new Answer<List<String>>() {
+            @Override
+            public List<String> answer(InvocationOnMock i) {
+                return fake.childIds;
+            }
+        });
+        when(call.can(anyInt())).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock i) {
+                final int capabilities = (int) i.getArguments()[0];
+                return (fake.capabilities & capabilities) == capabilities;
+            }
+        });
+        when(call.hasProperty(anyInt())).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock i) {
+                final int property = (int) i.getArguments()[0];
+                return (fake.properties & property) == property;
+            }
+        });
+        when(call.isConferenceCall()).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock i) {
+                return (fake.properties
+                        & android.telecom.Call.Details.PROPERTY_CONFERENCE) != 0;
+            }
+        });
+        return call;
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.content.ComponentName;
+import android.telecom.PhoneAccount;
+import android.telecom.PhoneAccountHandle;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+@SmallTest
+public class PhoneAccountCacheTest extends AndroidTestCase {
+
+    private static final PhoneAccountHandle UNKNOWN_HANDLE = new PhoneAccountHandle(
+            new ComponentName("com.android.incallui.tests", "UnknownConnectionService"),
+            "unknown");
+
+    private PhoneAccountCache mCache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mCache = new PhoneAccountCache(getContext());
+    }
+
+    public void testGetPhoneAccount_nullHandle() {
+        assertNull(mCache.getPhoneAccount(null));
+        assertEquals(0, mCache.size());
+        assertEquals(0, mCache.getMissCount());
+    }
+
+    public void testGetPhoneAccount_cachesMissingAccount() {
+        assertNull(mCache.getPhoneAccount(UNKNOWN_HANDLE));
+        assertNull(mCache.getPhoneAccount(UNKNOWN_HANDLE));
+        assertFalse(mCache.hasCapabilities(UNKNOWN_HANDLE, PhoneAccount.CAPABILITY_CALL_SUBJECT));
+
+        assertEquals(1, mCache.size());
+        assertEquals(1, mCache.getMissCount());
+    }
+
+    public void testClear_queriesAgain() {
+        mCache.getPhoneAccount(UNKNOWN_HANDLE);
+        mCache.clear();
+        assertEquals(0, mCache.size());
+
+        mCache.getPhoneAccount(UNKNOWN_HANDLE);
+        assertEquals(2, mCache.getMissCount());
+    }
+
+    public void testGetPalette_defaultPaletteIsShared() {
+        assertNotNull(mCache.getPalette(null));
+        assertSame(mCache.getPalette(null), mCache.getPalette(UNKNOWN_HANDLE));
+    }
+
+    public void testTearDown_clears() {
+        mCache.setUp();
+        mCache.getPhoneAccount(UNKNOWN_HANDLE);
+        mCache.tearDown();
+        assertEquals(0, mCache.size());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+@SmallTest
+public class TimerWheelTest extends AndroidTestCase {
+
+    private static final long TICK_MS = 50;
+
+    private TimerWheel<String> mWheel;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mWheel = new TimerWheel<>(TICK_MS, 8);
+    }
+
+    public void testAdvance_expiresTickTogether() {
+        mWheel.schedule("a", 210, 1000);
+        mWheel.schedule("b", 210, 1030);
+        mWheel.schedule("c", 2000, 1000);
+
+        assertEquals(1250, mWheel.getNextExpiryMillis());
+        assertTrue(mWheel.advance(1199).isEmpty());
+
+        final List<String> expired = mWheel.advance(1250);
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(expired));
+        assertEquals(1, mWheel.size());
+        assertEquals(3000, mWheel.getNextExpiryMillis());
+    }
+
+    public void testAdvance_neverExpiresEarly() {
+        mWheel.schedule("a", 0, 1010);
+
+        assertTrue(mWheel.advance(1009).isEmpty());
+        assertEquals(Arrays.asList("a"), mWheel.advance(1010));
+        assertTrue(mWheel.isEmpty());
+        assertEquals(-1, mWheel.getNextExpiryMillis());
+    }
+
+    public void testAdvance_deadlineBeyondWheelSpan() {
+        // The wheel spans 400ms, so this deadline wraps around twice.
+        mWheel.schedule("a", 1000, 0);
+
+        assertTrue(mWheel.advance(400).isEmpty());
+        assertTrue(mWheel.advance(999).isEmpty());
+        assertEquals(Arrays.asList("a"), mWheel.advance(5000));
+    }
+
+    public void testSchedule_keepsSoonerDeadline() {
+        mWheel.schedule("a", 200, 0);
+        mWheel.schedule("a", 5000, 100);
+        assertEquals(200, mWheel.getNextExpiryMillis());
+
+        mWheel.schedule("a", 0, 100);
+        assertEquals(1, mWheel.size());
+        assertEquals(Arrays.asList("a"), mWheel.advance(100));
+    }
+
+    public void testCancel() {
+        mWheel.schedule("a", 200, 0);
+
+        assertTrue(mWheel.cancel("a"));
+        assertFalse(mWheel.cancel("a"));
+        assertTrue(mWheel.advance(1000).isEmpty());
+    }
+
+    public void testRemoveAll() {
+        mWheel.schedule("a", 200, 0);
+        mWheel.schedule("b", 5000, 0);
+
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")),
+                new HashSet<>(mWheel.removeAll()));
+        assertTrue(mWheel.isEmpty());
+    }
+}
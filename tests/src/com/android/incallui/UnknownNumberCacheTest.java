@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2016 The CyanogenMod Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+
+package com.android.incallui;
+
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.text.format.DateUtils;
+
+import com.android.incallui.ContactInfoCache.ContactCacheEntry;
+
+import com.cyanogen.lookup.phonenumber.response.StatusCode;
+
+@SmallTest
+public class UnknownNumberCacheTest extends AndroidTestCase {
+
+    private UnknownNumberCache mCache;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mCache = new UnknownNumberCache(getContext(), DateUtils.HOUR_IN_MILLIS);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mCache.clear();
+        super.tearDown();
+    }
+
+    public void testGet_appliesLookupResult() {
+        final ContactCacheEntry spam = new ContactCacheEntry();
+        spam.lookupStatus = StatusCode.SUCCESS;
+        spam.lookupProviderName = "Provider";
+        spam.isSpam = true;
+        spam.spamCount = 12;
+        mCache.put("+16505551234", spam);
+
+        final UnknownNumberCache.Entry unknown = mCache.get("+16505551234");
+        assertNotNull(unknown);
+        assertNull(mCache.get("+16505550000"));
+
+        final ContactCacheEntry entry = new ContactCacheEntry();
+        entry.isLookupInProgress = true;
+        unknown.applyTo(entry);
+        assertEquals(StatusCode.SUCCESS, entry.lookupStatus);
+        assertEquals("Provider", entry.lookupProviderName);
+        assertTrue(entry.isSpam);
+        assertEquals(12, entry.spamCount);
+        assertFalse(entry.isLookupInProgress);
+    }
+
+    public void testGet_expires() {
+        final UnknownNumberCache cache = new UnknownNumberCache(getContext(), 0);
+        cache.put("+16505551234", new ContactCacheEntry());
+
+        assertNull(cache.get("+16505551234"));
+        assertEquals(0, cache.size());
+    }
+
+    public void testPut_evictsLeastRecentlyUsed() {
+        for (int i = 0; i < UnknownNumberCache.MAX_ENTRIES; i++) {
+            mCache.put(String.valueOf(i), new ContactCacheEntry());
+        }
+        assertNotNull(mCache.get("0"));
+        mCache.put("new", new ContactCacheEntry());
+
+        assertEquals(UnknownNumberCache.MAX_ENTRIES, mCache.size());
+        assertNotNull(mCache.get("0"));
+        assertNull(mCache.get("1"));
+    }
+
+    public void testRemoveAndClear() {
+        mCache.put("1", new ContactCacheEntry());
+        mCache.put("2", new ContactCacheEntry());
+
+        mCache.remove("1");
+        assertNull(mCache.get("1"));
+        assertNotNull(mCache.get("2"));
+
+        mCache.clear();
+        assertEquals(0, mCache.size());
+    }
+}